@@ -10,15 +10,28 @@
 
 namespace RNSkiaVideo {
 
+// Calls AudioSample.retain() or AudioSample.release() on the Java object
+static void callAudioSampleRefCountMethod(jni::alias_ref<jobject> javaAudioSample,
+                                          const char* methodName) {
+  jni::ThreadScope scope;
+  auto audioSampleClass = jni::findClassLocal("com/azzapp/rnskv/AudioSample");
+  auto method = audioSampleClass->getMethod<void()>(methodName);
+  method(javaAudioSample);
+}
+
 // AudioSampleBuffer implementation - zero-copy buffer for ArrayBuffer
-AudioSampleBuffer::AudioSampleBuffer(jni::global_ref<RNSkiaVideo::JByteBuffer> javaBuffer)
-    : javaBuffer(std::move(javaBuffer)) {
+AudioSampleBuffer::AudioSampleBuffer(jni::global_ref<RNSkiaVideo::JByteBuffer> javaBuffer,
+                                     jni::global_ref<jobject> javaAudioSample)
+    : javaBuffer(std::move(javaBuffer)),
+      javaAudioSample(std::move(javaAudioSample)) {
   dataPointer = reinterpret_cast<uint8_t*>(this->javaBuffer->getDirectAddress());
-  dataLength = this->javaBuffer->getDirectSize();
+  dataLength = this->javaBuffer->getLimit();
+  callAudioSampleRefCountMethod(this->javaAudioSample, "retain");
 }
 
 AudioSampleBuffer::~AudioSampleBuffer() {
-  // javaBuffer will be automatically released by global_ref
+  // Give the buffer back to the pool once the ArrayBuffer is collected
+  callAudioSampleRefCountMethod(javaAudioSample, "release");
 }
 
 size_t AudioSampleBuffer::size() const {
@@ -49,7 +62,9 @@ AudioSample::AudioSample(jni::alias_ref<jobject> javaAudioSample)
 }
 
 AudioSample::~AudioSample() {
-  // javaAudioSample will be automatically released by global_ref
+  // Drop the reference owned by this host object, ArrayBuffers handed to JS
+  // hold their own reference
+  callAudioSampleRefCountMethod(javaAudioSample, "release");
 }
 
 std::vector<jsi::PropNameID> AudioSample::getPropertyNames(jsi::Runtime& rt) {
@@ -71,7 +86,8 @@ jsi::Value AudioSample::get(jsi::Runtime& runtime, const jsi::PropNameID& propNa
     auto getBufferMethod = audioSampleClass->getMethod<jni::alias_ref<RNSkiaVideo::JByteBuffer>()>("getBuffer");
     auto javaBuffer = getBufferMethod(javaAudioSample);
     
-    auto buffer = std::make_shared<AudioSampleBuffer>(jni::make_global(javaBuffer));
+    auto buffer = std::make_shared<AudioSampleBuffer>(jni::make_global(javaBuffer),
+                                                      javaAudioSample);
     return jsi::Value(runtime, jsi::ArrayBuffer(runtime, buffer));
   } else if (propName == "presentationTime") {
     return jsi::Value(presentationTime);
@@ -32,20 +32,30 @@ struct JByteBuffer : public jni::JavaClass<JByteBuffer> {
   jlong getDirectSize() const {
     return jni::Environment::current()->GetDirectBufferCapacity(self());
   }
+
+  // Get buffer limit (pooled buffers might be bigger than their content)
+  jint getLimit() const {
+    static auto limitMethod = javaClassStatic()->getMethod<jint()>("limit");
+    return limitMethod(self());
+  }
 };
 
 /**
  * Zero-copy buffer implementation for AudioSample using JNI DirectByteBuffer.
+ * Retains the Java AudioSample while alive so that its pooled buffer is not
+ * recycled while still referenced by an ArrayBuffer.
  */
 class AudioSampleBuffer : public jsi::MutableBuffer {
 public:
-  AudioSampleBuffer(jni::global_ref<JByteBuffer> javaBuffer);
+  AudioSampleBuffer(jni::global_ref<JByteBuffer> javaBuffer,
+                    jni::global_ref<jobject> javaAudioSample);
   ~AudioSampleBuffer();
   size_t size() const override;
   uint8_t* data() override;
 
 private:
   jni::global_ref<JByteBuffer> javaBuffer;
+  jni::global_ref<jobject> javaAudioSample;
   uint8_t* dataPointer;
   size_t dataLength;
 };
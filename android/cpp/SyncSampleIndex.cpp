@@ -0,0 +1,66 @@
+#include "SyncSampleIndex.h"
+
+namespace RNSkiaVideo {
+
+jni::local_ref<SyncSampleIndex>
+SyncSampleIndex::getIfLoaded(std::string path) {
+  static const auto cls = javaClassStatic();
+  static const auto getIfLoadedMethod =
+      cls->getStaticMethod<jni::local_ref<SyncSampleIndex>(
+          jni::alias_ref<JString>)>("getIfLoaded");
+  return getIfLoadedMethod(cls, jni::make_jstring(path));
+}
+
+jni::local_ref<JArrayLong> SyncSampleIndex::getSyncTimesUs() const {
+  static const auto getSyncTimesUsMethod =
+      getClass()->getMethod<JArrayLong()>("getSyncTimesUs");
+  return getSyncTimesUsMethod(self());
+}
+
+jni::local_ref<JArrayLong> SyncSampleIndex::getByteOffsets() const {
+  static const auto getByteOffsetsMethod =
+      getClass()->getMethod<JArrayLong()>("getByteOffsets");
+  return getByteOffsetsMethod(self());
+}
+
+jni::local_ref<JArrayInt> SyncSampleIndex::getGopSizes() const {
+  static const auto getGopSizesMethod =
+      getClass()->getMethod<JArrayInt()>("getGopSizes");
+  return getGopSizesMethod(self());
+}
+
+jlong SyncSampleIndex::getDurationUs() const {
+  static const auto getDurationUsMethod =
+      getClass()->getMethod<jlong()>("getDurationUs");
+  return getDurationUsMethod(self());
+}
+
+jsi::Object SyncSampleIndex::toJSIObject(jsi::Runtime& runtime) const {
+  auto syncTimesUs = getSyncTimesUs();
+  auto byteOffsets = getByteOffsets();
+  auto gopSizes = getGopSizes();
+  auto count = syncTimesUs->size();
+  auto syncTimesRegion = syncTimesUs->getRegion(0, count);
+  auto byteOffsetsRegion = byteOffsets->getRegion(0, count);
+  auto gopSizesRegion = gopSizes->getRegion(0, count);
+
+  auto syncTimes = jsi::Array(runtime, count);
+  auto offsets = jsi::Array(runtime, count);
+  auto sizes = jsi::Array(runtime, count);
+  for (size_t i = 0; i < count; i++) {
+    syncTimes.setValueAtIndex(runtime, i,
+                              jsi::Value((double)syncTimesRegion[i] / 1e6));
+    offsets.setValueAtIndex(runtime, i,
+                            jsi::Value((double)byteOffsetsRegion[i]));
+    sizes.setValueAtIndex(runtime, i, jsi::Value(gopSizesRegion[i]));
+  }
+  auto result = jsi::Object(runtime);
+  result.setProperty(runtime, "syncTimes", syncTimes);
+  result.setProperty(runtime, "byteOffsets", offsets);
+  result.setProperty(runtime, "gopSizes", sizes);
+  result.setProperty(runtime, "duration",
+                     jsi::Value((double)getDurationUs() / 1e6));
+  return result;
+}
+
+} // namespace RNSkiaVideo
@@ -0,0 +1,22 @@
+#pragma once
+
+#include <fbjni/fbjni.h>
+#include <jsi/jsi.h>
+
+namespace RNSkiaVideo {
+using namespace facebook;
+using namespace jni;
+
+struct SyncSampleIndex : JavaClass<SyncSampleIndex> {
+public:
+  static constexpr auto kJavaDescriptor = "Lcom/azzapp/rnskv/SyncSampleIndex;";
+  static jni::local_ref<SyncSampleIndex> getIfLoaded(std::string path);
+  jni::local_ref<JArrayLong> getSyncTimesUs() const;
+  jni::local_ref<JArrayLong> getByteOffsets() const;
+  jni::local_ref<JArrayInt> getGopSizes() const;
+  jlong getDurationUs() const;
+
+  jsi::Object toJSIObject(jsi::Runtime& runtime) const;
+};
+
+} // namespace RNSkiaVideo
@@ -0,0 +1,46 @@
+#include "ThumbnailExtractor.h"
+
+namespace RNSkiaVideo {
+
+jdouble Thumbnail::getTime() const {
+  static const auto getTimeMethod =
+      getClass()->getMethod<jdouble()>("getTime");
+  return getTimeMethod(self());
+}
+
+jint Thumbnail::getWidth() const {
+  static const auto getWidthMethod = getClass()->getMethod<jint()>("getWidth");
+  return getWidthMethod(self());
+}
+
+jint Thumbnail::getHeight() const {
+  static const auto getHeightMethod =
+      getClass()->getMethod<jint()>("getHeight");
+  return getHeightMethod(self());
+}
+
+local_ref<JArrayByte> Thumbnail::getData() const {
+  static const auto getDataMethod =
+      getClass()->getMethod<JArrayByte()>("getData");
+  return getDataMethod(self());
+}
+
+jni::local_ref<ThumbnailExtractor>
+ThumbnailExtractor::create(const std::string& path, int width, int height,
+                           alias_ref<NativeEventDispatcher> dispatcher) {
+  return newInstance(path, width, height, dispatcher);
+}
+
+void ThumbnailExtractor::extract(const std::vector<double>& times) {
+  static const auto extractMethod =
+      getClass()->getMethod<void(alias_ref<JArrayDouble>)>("extract");
+  auto jTimes = JArrayDouble::newArray(times.size());
+  jTimes->setRegion(0, times.size(), times.data());
+  extractMethod(self(), jTimes);
+}
+
+void ThumbnailExtractor::release() {
+  static const auto releaseMethod = getClass()->getMethod<void()>("release");
+  releaseMethod(self());
+}
+} // namespace RNSkiaVideo
@@ -0,0 +1,39 @@
+#pragma once
+
+#include <fbjni/fbjni.h>
+
+#include "NativeEventDispatcher.h"
+
+namespace RNSkiaVideo {
+
+using namespace facebook;
+
+struct Thumbnail : public jni::JavaClass<Thumbnail> {
+
+public:
+  static constexpr auto kJavaDescriptor = "Lcom/azzapp/rnskv/Thumbnail;";
+
+  jdouble getTime() const;
+
+  jint getWidth() const;
+
+  jint getHeight() const;
+
+  local_ref<JArrayByte> getData() const;
+};
+
+struct ThumbnailExtractor : public jni::JavaClass<ThumbnailExtractor> {
+
+public:
+  static constexpr auto kJavaDescriptor =
+      "Lcom/azzapp/rnskv/ThumbnailExtractor;";
+
+  static jni::local_ref<ThumbnailExtractor>
+  create(const std::string& path, int width, int height,
+         alias_ref<RNSkiaVideo::NativeEventDispatcher> dispatcher);
+
+  void extract(const std::vector<double>& times);
+
+  void release();
+};
+} // namespace RNSkiaVideo
@@ -0,0 +1,130 @@
+#include "ThumbnailExtractorHostObject.h"
+#include "JNIHelpers.h"
+
+namespace RNSkiaVideo {
+ThumbnailExtractorHostObject::ThumbnailExtractorHostObject(
+    jsi::Runtime& runtime, const std::string& path, int width, int height)
+    : EventEmitter(runtime, JNIHelpers::getCallInvoker()) {
+  jEventDispatcher = make_global(NativeEventDispatcher::create(this));
+  extractor = make_global(
+      ThumbnailExtractor::create(path, width, height, jEventDispatcher));
+}
+
+ThumbnailExtractorHostObject::~ThumbnailExtractorHostObject() {
+  this->release();
+}
+
+std::vector<jsi::PropNameID>
+ThumbnailExtractorHostObject::getPropertyNames(jsi::Runtime& rt) {
+  std::vector<jsi::PropNameID> result;
+  result.push_back(jsi::PropNameID::forUtf8(rt, std::string("extract")));
+  result.push_back(jsi::PropNameID::forUtf8(rt, std::string("dispose")));
+  result.push_back(jsi::PropNameID::forUtf8(rt, std::string("on")));
+  return result;
+}
+
+jsi::Value
+ThumbnailExtractorHostObject::get(jsi::Runtime& runtime,
+                                  const jsi::PropNameID& propNameId) {
+  auto propName = propNameId.utf8(runtime);
+  if (propName == "extract") {
+    return jsi::Function::createFromHostFunction(
+        runtime, jsi::PropNameID::forAscii(runtime, "extract"), 1,
+        [this](jsi::Runtime& runtime, const jsi::Value& thisValue,
+               const jsi::Value* arguments, size_t count) -> jsi::Value {
+          if (released.test()) {
+            return jsi::Value::undefined();
+          }
+          if (count != 1 || !arguments[0].isObject() ||
+              !arguments[0].asObject(runtime).isArray(runtime)) {
+            throw jsi::JSError(runtime, "ThumbnailExtractor.extract(..) "
+                                        "expects one argument (number[])!");
+          }
+          auto jsTimes = arguments[0].asObject(runtime).asArray(runtime);
+          auto size = jsTimes.size(runtime);
+          std::vector<double> times(size);
+          for (size_t i = 0; i < size; i++) {
+            times[i] = jsTimes.getValueAtIndex(runtime, i).asNumber();
+          }
+          extractor->extract(times);
+          return jsi::Value::undefined();
+        });
+  } else if (propName == "on") {
+    return jsi::Function::createFromHostFunction(
+        runtime, jsi::PropNameID::forAscii(runtime, "on"), 2,
+        [this](jsi::Runtime& runtime, const jsi::Value& thisValue,
+               const jsi::Value* arguments, size_t count) -> jsi::Value {
+          if (released.test()) {
+            return jsi::Function::createFromHostFunction(
+                runtime, jsi::PropNameID::forAscii(runtime, "on"), 2,
+                [this](jsi::Runtime& runtime, const jsi::Value& thisValue,
+                       const jsi::Value* arguments,
+                       size_t count) -> jsi::Value {
+                  return jsi::Value::undefined();
+                });
+          }
+          auto name = arguments[0].asString(runtime).utf8(runtime);
+          auto handler = arguments[1].asObject(runtime).asFunction(runtime);
+          return this->on(name, std::move(handler));
+        });
+  } else if (propName == "dispose") {
+    return jsi::Function::createFromHostFunction(
+        runtime, jsi::PropNameID::forAscii(runtime, "dispose"), 0,
+        [this](jsi::Runtime& runtime, const jsi::Value& thisValue,
+               const jsi::Value* arguments, size_t count) -> jsi::Value {
+          this->release();
+          return jsi::Value::undefined();
+        });
+  }
+  return jsi::Value::undefined();
+}
+
+void ThumbnailExtractorHostObject::handleEvent(std::string eventName,
+                                               alias_ref<jobject> data) {
+  if (eventName == "thumbnail") {
+    auto thumbnail = static_ref_cast<Thumbnail>(data);
+    double time = thumbnail->getTime();
+    int width = thumbnail->getWidth();
+    int height = thumbnail->getHeight();
+    auto jData = thumbnail->getData();
+    auto region = jData->getRegion(0, jData->size());
+    auto bytes = std::make_shared<std::vector<uint8_t>>(
+        region.get(), region.get() + jData->size());
+    emit("thumbnail", [=](jsi::Runtime& runtime) -> jsi::Value {
+      auto array = runtime.global()
+                       .getPropertyAsFunction(runtime, "Uint8Array")
+                       .callAsConstructor(runtime, (double)bytes->size())
+                       .asObject(runtime);
+      auto buffer = array.getProperty(runtime, "buffer")
+                        .asObject(runtime)
+                        .getArrayBuffer(runtime);
+      memcpy(buffer.data(runtime), bytes->data(), bytes->size());
+      auto result = jsi::Object(runtime);
+      result.setProperty(runtime, "time", jsi::Value(time));
+      result.setProperty(runtime, "width", jsi::Value(width));
+      result.setProperty(runtime, "height", jsi::Value(height));
+      result.setProperty(runtime, "data", array);
+      return result;
+    });
+  } else if (eventName == "error") {
+    auto message = static_ref_cast<JString>(data)->toStdString();
+    emit("error", [=](jsi::Runtime& runtime) -> jsi::Value {
+      auto error = jsi::Object(runtime);
+      error.setProperty(runtime, "message",
+                        jsi::String::createFromUtf8(runtime, message));
+      return error;
+    });
+  } else {
+    emit(eventName);
+  }
+}
+
+void ThumbnailExtractorHostObject::release() {
+  if (!released.test_and_set()) {
+    extractor->release();
+    extractor = nullptr;
+    this->removeAllListeners();
+    jEventDispatcher = nullptr;
+  }
+}
+} // namespace RNSkiaVideo
@@ -0,0 +1,31 @@
+#pragma once
+
+#include <fbjni/fbjni.h>
+#include <jsi/jsi.h>
+
+#include "EventEmitter.h"
+#include "ThumbnailExtractor.h"
+
+using namespace facebook;
+
+namespace RNSkiaVideo {
+
+class JSI_EXPORT ThumbnailExtractorHostObject : public jsi::HostObject,
+                                                JEventReceiver,
+                                                EventEmitter {
+public:
+  ThumbnailExtractorHostObject(jsi::Runtime& runtime, const std::string& path,
+                               int width, int height);
+  ~ThumbnailExtractorHostObject();
+  jsi::Value get(jsi::Runtime&, const jsi::PropNameID& name) override;
+  std::vector<jsi::PropNameID> getPropertyNames(jsi::Runtime& rt) override;
+  void handleEvent(std::string eventName, alias_ref<jobject> data) override;
+
+private:
+  global_ref<NativeEventDispatcher> jEventDispatcher;
+  jni::global_ref<ThumbnailExtractor> extractor;
+  std::atomic_flag released = ATOMIC_FLAG_INIT;
+  void release();
+};
+
+} // namespace RNSkiaVideo
@@ -23,12 +23,42 @@ jint DecoderInfo::getMaxHeight() const {
   return getMaxHeightMethod(self());
 }
 
+std::string DecoderProbeResult::getDecoderName() const {
+  static const auto getDecoderNameMethod =
+      getClass()->getMethod<jstring()>("getDecoderName");
+  return getDecoderNameMethod(self())->toStdString();
+}
+
+jboolean DecoderProbeResult::getHardwareAccelerated() const {
+  static const auto getHardwareAcceleratedMethod =
+      getClass()->getMethod<jboolean()>("getHardwareAccelerated");
+  return getHardwareAcceleratedMethod(self());
+}
+
+jint DecoderProbeResult::getMaxInstances() const {
+  static const auto getMaxInstancesMethod =
+      getClass()->getMethod<jint()>("getMaxInstances");
+  return getMaxInstancesMethod(self());
+}
+
+jint DecoderProbeResult::getReportedMaxInstances() const {
+  static const auto getReportedMaxInstancesMethod =
+      getClass()->getMethod<jint()>("getReportedMaxInstances");
+  return getReportedMaxInstancesMethod(self());
+}
+
 std::string EncoderInfo::getEncoderName() const {
   static const auto getEncoderNameMethod =
       getClass()->getMethod<jstring()>("getEncoderName");
   return getEncoderNameMethod(self())->toStdString();
 }
 
+std::string EncoderInfo::getCodec() const {
+  static const auto getCodecMethod =
+      getClass()->getMethod<jstring()>("getCodec");
+  return getCodecMethod(self())->toStdString();
+}
+
 jboolean EncoderInfo::getHardwareAccelerated() const {
   static const auto getHardwareAcceleratedMethod =
       getClass()->getMethod<jboolean()>("getHardwareAccelerated");
@@ -59,24 +89,56 @@ jint EncoderInfo::getBitrate() const {
 }
 
 jni::local_ref<DecoderInfo>
-VideoCapabilities::getDecodingCapabilitiesFor(std::string mimeType) {
+VideoCapabilities::getDecodingCapabilitiesFor(std::string mimeType, int width,
+                                              int height, int framerate) {
   static const auto cls = javaClassStatic();
   static const auto getDecodingCapabilitiesForMethod =
       cls->getStaticMethod<jni::local_ref<DecoderInfo>(
-          jni::alias_ref<JString>)>("getDecodingCapabilitiesFor");
-  return getDecodingCapabilitiesForMethod(cls, jni::make_jstring(mimeType));
+          jni::alias_ref<JString>, jint, jint, jint)>(
+          "getDecodingCapabilitiesFor");
+  return getDecodingCapabilitiesForMethod(cls, jni::make_jstring(mimeType),
+                                          width, height, framerate);
+}
+
+jni::local_ref<JList<DecoderProbeResult>>
+VideoCapabilities::probeDecoders(std::string mimeType, int width, int height,
+                                 int framerate) {
+  static const auto cls = javaClassStatic();
+  static const auto probeDecodersMethod =
+      cls->getStaticMethod<jni::local_ref<JList<DecoderProbeResult>>(
+          jni::alias_ref<JString>, jint, jint, jint)>("probeDecoders");
+  return probeDecodersMethod(cls, jni::make_jstring(mimeType), width, height,
+                             framerate);
 }
 
 jni::local_ref<JList<EncoderInfo>>
-VideoCapabilities::getValidEncoderConfigurations(int width, int height,
-                                                 int framerate, int bitrate) {
+VideoCapabilities::getValidEncoderConfigurations(std::string codec, int width,
+                                                 int height, int framerate,
+                                                 int bitrate) {
   static const auto cls = javaClassStatic();
 
   static const auto getValidEncoderConfigurationsMethod =
       cls->getStaticMethod<jni::local_ref<JList<EncoderInfo>>(
-          jint, jint, jint, jint)>("getValidEncoderConfigurations");
-  return getValidEncoderConfigurationsMethod(cls, width, height, framerate,
+          jni::alias_ref<JString>, jint, jint, jint, jint)>(
+          "getValidEncoderConfigurations");
+  return getValidEncoderConfigurationsMethod(cls, jni::make_jstring(codec),
+                                             width, height, framerate,
                                              bitrate);
 }
 
+jint VideoCapabilities::getMaxEncoderInstances(
+    std::string codec, std::optional<std::string> encoderName) {
+  static const auto cls = javaClassStatic();
+  static const auto getMaxEncoderInstancesMethod =
+      cls->getStaticMethod<jint(jni::alias_ref<JString>,
+                                jni::alias_ref<JString>)>(
+          "getMaxEncoderInstances");
+  jni::local_ref<JString> jEncoderName = nullptr;
+  if (encoderName.has_value()) {
+    jEncoderName = jni::make_jstring(encoderName.value());
+  }
+  return getMaxEncoderInstancesMethod(cls, jni::make_jstring(codec),
+                                      jEncoderName);
+}
+
 } // namespace RNSkiaVideo
@@ -2,6 +2,7 @@
 
 #include <fbjni/fbjni.h>
 #include <jsi/jsi.h>
+#include <optional>
 
 namespace RNSkiaVideo {
 using namespace facebook;
@@ -16,11 +17,22 @@ public:
   jint getMaxHeight() const;
 };
 
+struct DecoderProbeResult : JavaClass<DecoderProbeResult> {
+public:
+  static constexpr auto kJavaDescriptor =
+      "Lcom/azzapp/rnskv/VideoCapabilities$DecoderProbeResult;";
+  std::string getDecoderName() const;
+  jboolean getHardwareAccelerated() const;
+  jint getMaxInstances() const;
+  jint getReportedMaxInstances() const;
+};
+
 struct EncoderInfo : JavaClass<EncoderInfo> {
 public:
   static constexpr auto kJavaDescriptor =
       "Lcom/azzapp/rnskv/VideoCapabilities$EncoderInfo;";
   std::string getEncoderName() const;
+  std::string getCodec() const;
   jboolean getHardwareAccelerated() const;
   jint getWidth() const;
   jint getHeight() const;
@@ -33,10 +45,15 @@ public:
   static constexpr auto kJavaDescriptor =
       "Lcom/azzapp/rnskv/VideoCapabilities;";
   static jni::local_ref<DecoderInfo>
-  getDecodingCapabilitiesFor(std::string mimeType);
+  getDecodingCapabilitiesFor(std::string mimeType, int width, int height,
+                             int framerate);
+  static jni::local_ref<JList<DecoderProbeResult>>
+  probeDecoders(std::string mimeType, int width, int height, int framerate);
   static jni::local_ref<JList<EncoderInfo>>
-  getValidEncoderConfigurations(int width, int height, int framerate,
-                                int bitrate);
+  getValidEncoderConfigurations(std::string codec, int width, int height,
+                                int framerate, int bitrate);
+  static jint getMaxEncoderInstances(std::string codec,
+                                     std::optional<std::string> encoderName);
 };
 
 } // namespace RNSkiaVideo
@@ -94,6 +94,37 @@ VideoComposition::fromJSIObject(jsi::Runtime& runtime,
     auto itemCls2 = VideoCompositionItem::javaClassStatic();
     item->setFieldValue(itemCls2->getField<jboolean>("muted"), static_cast<jboolean>(muted));
 
+    if (jsItem.hasProperty(runtime, "volume")) {
+      item->setFieldValue(
+          itemCls2->getField<jfloat>("volume"),
+          (float)jsItem.getProperty(runtime, "volume").asNumber());
+    }
+    if (jsItem.hasProperty(runtime, "fadeInDuration")) {
+      item->setFieldValue(
+          itemCls2->getField<jdouble>("fadeInDuration"),
+          jsItem.getProperty(runtime, "fadeInDuration").asNumber());
+    }
+    if (jsItem.hasProperty(runtime, "fadeOutDuration")) {
+      item->setFieldValue(
+          itemCls2->getField<jdouble>("fadeOutDuration"),
+          jsItem.getProperty(runtime, "fadeOutDuration").asNumber());
+    }
+    if (jsItem.hasProperty(runtime, "pan")) {
+      item->setFieldValue(itemCls2->getField<jfloat>("pan"),
+                          (float)jsItem.getProperty(runtime, "pan").asNumber());
+    }
+    if (jsItem.hasProperty(runtime, "ducksOthers")) {
+      item->setFieldValue(
+          itemCls2->getField<jboolean>("ducksOthers"),
+          static_cast<jboolean>(
+              jsItem.getProperty(runtime, "ducksOthers").getBool()));
+    }
+    if (jsItem.hasProperty(runtime, "duckedVolume")) {
+      item->setFieldValue(
+          itemCls2->getField<jfloat>("duckedVolume"),
+          (float)jsItem.getProperty(runtime, "duckedVolume").asNumber());
+    }
+
     items->add(item);
   }
   return VideoComposition::create(duration, items);
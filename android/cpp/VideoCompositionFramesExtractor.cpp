@@ -30,6 +30,18 @@ void VideoCompositionFramesExtractor::seekTo(jlong position) const {
   seekToMethod(self(), position);
 }
 
+void VideoCompositionFramesExtractor::startScrubbing() const {
+  static const auto startScrubbingMethod =
+      getClass()->getMethod<void()>("startScrubbing");
+  startScrubbingMethod(self());
+}
+
+void VideoCompositionFramesExtractor::stopScrubbing() const {
+  static const auto stopScrubbingMethod =
+      getClass()->getMethod<void()>("stopScrubbing");
+  stopScrubbingMethod(self());
+}
+
 jboolean VideoCompositionFramesExtractor::getIsPlaying() const {
   static const auto getIsPlayingMethod =
       getClass()->getMethod<jboolean()>("getIsPlaying");
@@ -48,12 +60,58 @@ void VideoCompositionFramesExtractor::setIsLooping(jboolean isLooping) const {
   setIsLoopingMethod(self(), isLooping);
 }
 
+void VideoCompositionFramesExtractor::setUseHardwareBuffers(
+    jboolean useHardwareBuffers) const {
+  static const auto setUseHardwareBuffersMethod =
+      getClass()->getMethod<void(jboolean)>("setUseHardwareBuffers");
+  setUseHardwareBuffersMethod(self(), useHardwareBuffers);
+}
+
+void VideoCompositionFramesExtractor::setUseProxies(jboolean useProxies) const {
+  static const auto setUseProxiesMethod =
+      getClass()->getMethod<void(jboolean)>("setUseProxies");
+  setUseProxiesMethod(self(), useProxies);
+}
+
+void VideoCompositionFramesExtractor::setFrameCacheBudgetBytes(
+    jlong frameCacheBudgetBytes) const {
+  static const auto setFrameCacheBudgetBytesMethod =
+      getClass()->getMethod<void(jlong)>("setFrameCacheBudgetBytes");
+  setFrameCacheBudgetBytesMethod(self(), frameCacheBudgetBytes);
+}
+
+void VideoCompositionFramesExtractor::setDecoderLookaheadUs(
+    jlong lookaheadUs) const {
+  static const auto setDecoderLookaheadUsMethod =
+      getClass()->getMethod<void(jlong)>("setDecoderLookaheadUs");
+  setDecoderLookaheadUsMethod(self(), lookaheadUs);
+}
+
+void VideoCompositionFramesExtractor::setMaxActiveDecoders(
+    jint maxActiveDecoders) const {
+  static const auto setMaxActiveDecodersMethod =
+      getClass()->getMethod<void(jint)>("setMaxActiveDecoders");
+  setMaxActiveDecodersMethod(self(), maxActiveDecoders);
+}
+
 jlong VideoCompositionFramesExtractor::getCurrentPosition() const {
   static const auto getCurrentPositionMethod =
       getClass()->getMethod<jlong()>("getCurrentPosition");
   return getCurrentPositionMethod(self());
 }
 
+jlong VideoCompositionFramesExtractor::getDroppedFrameCount() const {
+  static const auto getDroppedFrameCountMethod =
+      getClass()->getMethod<jlong()>("getDroppedFrameCount");
+  return getDroppedFrameCountMethod(self());
+}
+
+jlong VideoCompositionFramesExtractor::getLateFrameCount() const {
+  static const auto getLateFrameCountMethod =
+      getClass()->getMethod<jlong()>("getLateFrameCount");
+  return getLateFrameCountMethod(self());
+}
+
 local_ref<JMap<JString, VideoFrame>>
 VideoCompositionFramesExtractor::decodeCompositionFrames() {
   static const auto decodeCompositionFramesMethod =
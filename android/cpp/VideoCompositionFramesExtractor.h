@@ -30,14 +30,32 @@ public:
 
   void seekTo(jlong position) const;
 
+  void startScrubbing() const;
+
+  void stopScrubbing() const;
+
   jboolean getIsPlaying() const;
 
   jlong getCurrentPosition() const;
 
+  jlong getDroppedFrameCount() const;
+
+  jlong getLateFrameCount() const;
+
   jboolean getIsLooping() const;
 
   void setIsLooping(jboolean isLooping) const;
 
+  void setUseHardwareBuffers(jboolean useHardwareBuffers) const;
+
+  void setUseProxies(jboolean useProxies) const;
+
+  void setFrameCacheBudgetBytes(jlong frameCacheBudgetBytes) const;
+
+  void setDecoderLookaheadUs(jlong lookaheadUs) const;
+
+  void setMaxActiveDecoders(jint maxActiveDecoders) const;
+
   local_ref<JMap<JString, VideoFrame>> decodeCompositionFrames();
 
   void release() const;
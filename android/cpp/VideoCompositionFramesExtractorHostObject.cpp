@@ -5,12 +5,32 @@ namespace RNSkiaVideo {
 
 VideoCompositionFramesExtractorHostObject::
     VideoCompositionFramesExtractorHostObject(jsi::Runtime& runtime,
-                                              jsi::Object jsComposition)
+                                              jsi::Object jsComposition,
+                                              bool useHardwareBuffers,
+                                              bool useProxies,
+                                              int64_t frameCacheSize,
+                                              double decoderLookahead,
+                                              int maxActiveDecoders)
     : EventEmitter(runtime, JNIHelpers::getCallInvoker()) {
   jEventDispatcher = make_global(NativeEventDispatcher::create(this));
   auto composition = VideoComposition::fromJSIObject(runtime, jsComposition);
   player = make_global(
       VideoCompositionFramesExtractor::create(composition, jEventDispatcher));
+  if (useHardwareBuffers) {
+    player->setUseHardwareBuffers(true);
+  }
+  if (!useProxies) {
+    player->setUseProxies(false);
+  }
+  if (frameCacheSize > 0) {
+    player->setFrameCacheBudgetBytes(frameCacheSize);
+  }
+  if (decoderLookahead >= 0) {
+    player->setDecoderLookaheadUs((jlong)(decoderLookahead * 1000000));
+  }
+  if (maxActiveDecoders > 0) {
+    player->setMaxActiveDecoders(maxActiveDecoders);
+  }
 }
 
 VideoCompositionFramesExtractorHostObject::
@@ -25,6 +45,9 @@ VideoCompositionFramesExtractorHostObject::getPropertyNames(jsi::Runtime& rt) {
   result.push_back(jsi::PropNameID::forUtf8(rt, std::string("play")));
   result.push_back(jsi::PropNameID::forUtf8(rt, std::string("pause")));
   result.push_back(jsi::PropNameID::forUtf8(rt, std::string("seekTo")));
+  result.push_back(
+      jsi::PropNameID::forUtf8(rt, std::string("startScrubbing")));
+  result.push_back(jsi::PropNameID::forUtf8(rt, std::string("stopScrubbing")));
   result.push_back(
       jsi::PropNameID::forUtf8(rt, std::string("decodeCompositionFrames")));
   result.push_back(jsi::PropNameID::forUtf8(rt, std::string("on")));
@@ -32,6 +55,8 @@ VideoCompositionFramesExtractorHostObject::getPropertyNames(jsi::Runtime& rt) {
   result.push_back(jsi::PropNameID::forUtf8(rt, std::string("currentTime")));
   result.push_back(jsi::PropNameID::forUtf8(rt, std::string("isLooping")));
   result.push_back(jsi::PropNameID::forUtf8(rt, std::string("isPlaying")));
+  result.push_back(jsi::PropNameID::forUtf8(rt, std::string("droppedFrames")));
+  result.push_back(jsi::PropNameID::forUtf8(rt, std::string("lateFrames")));
   return result;
 }
 
@@ -90,6 +115,26 @@ jsi::Value VideoCompositionFramesExtractorHostObject::get(
           }
           return jsi::Value::undefined();
         });
+  } else if (propName == "startScrubbing") {
+    return jsi::Function::createFromHostFunction(
+        runtime, jsi::PropNameID::forAscii(runtime, "startScrubbing"), 0,
+        [this](jsi::Runtime& runtime, const jsi::Value& thisValue,
+               const jsi::Value* arguments, size_t count) -> jsi::Value {
+          if (!released.test()) {
+            player->startScrubbing();
+          }
+          return jsi::Value::undefined();
+        });
+  } else if (propName == "stopScrubbing") {
+    return jsi::Function::createFromHostFunction(
+        runtime, jsi::PropNameID::forAscii(runtime, "stopScrubbing"), 0,
+        [this](jsi::Runtime& runtime, const jsi::Value& thisValue,
+               const jsi::Value* arguments, size_t count) -> jsi::Value {
+          if (!released.test()) {
+            player->stopScrubbing();
+          }
+          return jsi::Value::undefined();
+        });
   } else if (propName == "seekTo") {
     return jsi::Function::createFromHostFunction(
         runtime, jsi::PropNameID::forAscii(runtime, "seekTo"), 1,
@@ -139,6 +184,10 @@ jsi::Value VideoCompositionFramesExtractorHostObject::get(
     return {!released.test() && player->getIsLooping()};
   } else if (propName == "isPlaying") {
     return {!released.test() && player->getIsPlaying()};
+  } else if (propName == "droppedFrames") {
+    return {released.test() ? 0 : (double)player->getDroppedFrameCount()};
+  } else if (propName == "lateFrames") {
+    return {released.test() ? 0 : (double)player->getLateFrameCount()};
   }
   return jsi::Value::undefined();
 }
@@ -166,6 +215,17 @@ void VideoCompositionFramesExtractorHostObject::handleEvent(
                              jsi::String::createFromUtf8(runtime, message));
       return dimensions;
     });
+  } else if (eventName == "seekComplete") {
+    auto values = static_ref_cast<JArrayDouble>(data)->getRegion(0, 2);
+    auto timeToFirstFrame = values[0];
+    auto scrubbing = values[1] != 0;
+    emit("seekComplete", [=](jsi::Runtime& runtime) -> jsi::Value {
+      auto event = jsi::Object(runtime);
+      event.setProperty(runtime, "timeToFirstFrame",
+                        jsi::Value(timeToFirstFrame));
+      event.setProperty(runtime, "scrubbing", jsi::Value(scrubbing));
+      return event;
+    });
   } else {
     emit(eventName);
   }
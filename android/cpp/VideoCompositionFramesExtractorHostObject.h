@@ -16,7 +16,12 @@ class JSI_EXPORT VideoCompositionFramesExtractorHostObject
       EventEmitter,
       JEventReceiver {
 public:
-  VideoCompositionFramesExtractorHostObject(jsi::Runtime& runtime, jsi::Object);
+  VideoCompositionFramesExtractorHostObject(jsi::Runtime& runtime, jsi::Object,
+                                            bool useHardwareBuffers = false,
+                                            bool useProxies = true,
+                                            int64_t frameCacheSize = 0,
+                                            double decoderLookahead = -1,
+                                            int maxActiveDecoders = 0);
   ~VideoCompositionFramesExtractorHostObject() override;
   jsi::Value get(jsi::Runtime&, const jsi::PropNameID& name) override;
   void set(jsi::Runtime&, const jsi::PropNameID& name,
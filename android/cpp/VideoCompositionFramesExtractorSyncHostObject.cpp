@@ -3,10 +3,30 @@
 namespace RNSkiaVideo {
 using namespace facebook::jni;
 
+jlong DirectBufferPool::getHitCount() const {
+  static const auto getHitCountMethod =
+      getClass()->getMethod<jlong()>("getHitCount");
+  return getHitCountMethod(self());
+}
+
+jlong DirectBufferPool::getMissCount() const {
+  static const auto getMissCountMethod =
+      getClass()->getMethod<jlong()>("getMissCount");
+  return getMissCountMethod(self());
+}
+
+jlong DirectBufferPool::getPooledBytes() const {
+  static const auto getPooledBytesMethod =
+      getClass()->getMethod<jlong()>("getPooledBytes");
+  return getPooledBytesMethod(self());
+}
+
 local_ref<VideoCompositionFramesExtractorSync>
 VideoCompositionFramesExtractorSync::create(
-    alias_ref<VideoComposition> composition) {
-  return newInstance(composition);
+    alias_ref<VideoComposition> composition, int audioSampleRate,
+    int audioChannelCount, int frameRate, int lookahead, double startTime) {
+  return newInstance(composition, audioSampleRate, audioChannelCount,
+                     frameRate, lookahead, startTime);
 }
 
 void VideoCompositionFramesExtractorSync::start() const {
@@ -30,6 +50,35 @@ VideoCompositionFramesExtractorSync::decodeCompositionAudio(jdouble time) {
   return decodeCompositionAudioMethod(self(), time);
 }
 
+void VideoCompositionFramesExtractorSync::mixCompositionAudio(
+    jdouble time, alias_ref<VideoEncoder> encoder) {
+  static const auto mixCompositionAudioMethod =
+      getClass()->getMethod<void(jdouble, alias_ref<VideoEncoder>)>(
+          "mixCompositionAudio");
+  mixCompositionAudioMethod(self(), time, encoder);
+}
+
+void VideoCompositionFramesExtractorSync::setDecoderLookaheadUs(
+    jlong lookaheadUs) const {
+  static const auto setDecoderLookaheadUsMethod =
+      getClass()->getMethod<void(jlong)>("setDecoderLookaheadUs");
+  setDecoderLookaheadUsMethod(self(), lookaheadUs);
+}
+
+void VideoCompositionFramesExtractorSync::setMaxActiveDecoders(
+    jint maxActiveDecoders) const {
+  static const auto setMaxActiveDecodersMethod =
+      getClass()->getMethod<void(jint)>("setMaxActiveDecoders");
+  setMaxActiveDecodersMethod(self(), maxActiveDecoders);
+}
+
+local_ref<DirectBufferPool>
+VideoCompositionFramesExtractorSync::getAudioBufferPool() const {
+  static const auto getAudioBufferPoolMethod =
+      getClass()->getMethod<DirectBufferPool()>("getAudioBufferPool");
+  return getAudioBufferPoolMethod(self());
+}
+
 void VideoCompositionFramesExtractorSync::release() const {
   static const auto releaseMethod = getClass()->getMethod<void()>("release");
   releaseMethod(self());
@@ -37,10 +86,24 @@ void VideoCompositionFramesExtractorSync::release() const {
 
 VideoCompositionFramesExtractorSyncHostObject::
     VideoCompositionFramesExtractorSyncHostObject(jsi::Runtime& runtime,
-                                                  jsi::Object jsComposition) {
+                                                  jsi::Object jsComposition,
+                                                  int audioSampleRate,
+                                                  int audioChannelCount,
+                                                  int frameRate,
+                                                  int lookahead,
+                                                  double startTime,
+                                                  double decoderLookahead,
+                                                  int maxActiveDecoders) {
   auto composition = VideoComposition::fromJSIObject(runtime, jsComposition);
-  framesExtractor =
-      make_global(VideoCompositionFramesExtractorSync::create(composition));
+  framesExtractor = make_global(VideoCompositionFramesExtractorSync::create(
+      composition, audioSampleRate, audioChannelCount, frameRate, lookahead,
+      startTime));
+  if (decoderLookahead >= 0) {
+    framesExtractor->setDecoderLookaheadUs((jlong)(decoderLookahead * 1000000));
+  }
+  if (maxActiveDecoders > 0) {
+    framesExtractor->setMaxActiveDecoders(maxActiveDecoders);
+  }
 }
 
 VideoCompositionFramesExtractorSyncHostObject::
@@ -57,6 +120,10 @@ VideoCompositionFramesExtractorSyncHostObject::getPropertyNames(
       jsi::PropNameID::forUtf8(rt, std::string("decodeCompositionFrames")));
   result.push_back(
       jsi::PropNameID::forUtf8(rt, std::string("decodeCompositionAudio")));
+  result.push_back(
+      jsi::PropNameID::forUtf8(rt, std::string("mixCompositionAudio")));
+  result.push_back(
+      jsi::PropNameID::forUtf8(rt, std::string("getAudioBufferPoolStats")));
   result.push_back(jsi::PropNameID::forUtf8(rt, std::string("dispose")));
   return result;
 }
@@ -107,6 +174,49 @@ jsi::Value VideoCompositionFramesExtractorSyncHostObject::get(
           }
           return result;
         });
+  } else if (propName == "mixCompositionAudio") {
+    return jsi::Function::createFromHostFunction(
+        runtime, jsi::PropNameID::forAscii(runtime, "mixCompositionAudio"), 2,
+        [this](jsi::Runtime& runtime, const jsi::Value& thisValue,
+               const jsi::Value* arguments, size_t count) -> jsi::Value {
+          if (released.test()) {
+            return jsi::Value::undefined();
+          }
+          if (count != 2 || !arguments[1].isObject()) {
+            throw jsi::JSError(runtime,
+                               "VideoCompositionFramesExtractorSync."
+                               "mixCompositionAudio(..) expects 2 arguments "
+                               "(number, VideoEncoder)!");
+          }
+          auto time = arguments[0].asNumber();
+          auto encoderHostObject =
+              arguments[1].asObject(runtime).getHostObject<VideoEncoderHostObject>(
+                  runtime);
+          auto encoder = encoderHostObject->getEncoder();
+          if (encoder) {
+            framesExtractor->mixCompositionAudio(time, encoder);
+          }
+          return jsi::Value::undefined();
+        });
+  } else if (propName == "getAudioBufferPoolStats") {
+    return jsi::Function::createFromHostFunction(
+        runtime, jsi::PropNameID::forAscii(runtime, "getAudioBufferPoolStats"),
+        0,
+        [this](jsi::Runtime& runtime, const jsi::Value& thisValue,
+               const jsi::Value* arguments, size_t count) -> jsi::Value {
+          if (released.test()) {
+            return jsi::Value::null();
+          }
+          auto pool = framesExtractor->getAudioBufferPool();
+          auto result = jsi::Object(runtime);
+          result.setProperty(runtime, "hitCount",
+                             static_cast<double>(pool->getHitCount()));
+          result.setProperty(runtime, "missCount",
+                             static_cast<double>(pool->getMissCount()));
+          result.setProperty(runtime, "pooledBytes",
+                             static_cast<double>(pool->getPooledBytes()));
+          return result;
+        });
   } else if (propName == "start") {
     return jsi::Function::createFromHostFunction(
         runtime, jsi::PropNameID::forAscii(runtime, "start"), 0,
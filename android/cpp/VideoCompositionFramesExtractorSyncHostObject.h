@@ -2,6 +2,7 @@
 
 #include "AudioSample.h"
 #include "VideoComposition.h"
+#include "VideoEncoderHostObject.h"
 #include "VideoFrame.h"
 #include <fbjni/fbjni.h>
 #include <jsi/jsi.h>
@@ -10,6 +11,18 @@ namespace RNSkiaVideo {
 using namespace facebook;
 using namespace jni;
 
+struct DirectBufferPool : public jni::JavaClass<DirectBufferPool> {
+
+public:
+  static constexpr auto kJavaDescriptor = "Lcom/azzapp/rnskv/DirectBufferPool;";
+
+  jlong getHitCount() const;
+
+  jlong getMissCount() const;
+
+  jlong getPooledBytes() const;
+};
+
 struct VideoCompositionFramesExtractorSync
     : public jni::JavaClass<VideoCompositionFramesExtractorSync> {
 
@@ -18,7 +31,8 @@ public:
       "Lcom/azzapp/rnskv/VideoCompositionFramesExtractorSync;";
 
   local_ref<VideoCompositionFramesExtractorSync> static create(
-      alias_ref<VideoComposition> composition);
+      alias_ref<VideoComposition> composition, int audioSampleRate,
+      int audioChannelCount, int frameRate, int lookahead, double startTime);
 
   void start() const;
 
@@ -26,6 +40,14 @@ public:
 
   local_ref<JMap<JString, jobject>> decodeCompositionAudio(jdouble time);
 
+  void mixCompositionAudio(jdouble time, alias_ref<VideoEncoder> encoder);
+
+  void setDecoderLookaheadUs(jlong lookaheadUs) const;
+
+  void setMaxActiveDecoders(jint maxActiveDecoders) const;
+
+  local_ref<DirectBufferPool> getAudioBufferPool() const;
+
   void release() const;
 };
 
@@ -33,7 +55,13 @@ class JSI_EXPORT VideoCompositionFramesExtractorSyncHostObject
     : public jsi::HostObject {
 public:
   VideoCompositionFramesExtractorSyncHostObject(jsi::Runtime& runtime,
-                                                jsi::Object composition);
+                                                jsi::Object composition,
+                                                int audioSampleRate,
+                                                int audioChannelCount,
+                                                int frameRate, int lookahead,
+                                                double startTime = 0,
+                                                double decoderLookahead = -1,
+                                                int maxActiveDecoders = 0);
   ~VideoCompositionFramesExtractorSyncHostObject();
   jsi::Value get(jsi::Runtime&, const jsi::PropNameID& name) override;
   std::vector<jsi::PropNameID> getPropertyNames(jsi::Runtime& rt) override;
@@ -0,0 +1,59 @@
+#include "VideoEncoderConfig.h"
+
+namespace RNSkiaVideo {
+
+using namespace facebook::jni;
+
+local_ref<VideoEncoderConfig>
+VideoEncoderConfig::fromJSIObject(jsi::Runtime& runtime,
+                                  jsi::Object& jsConfig) {
+  auto config = newInstance();
+  auto cls = javaClassStatic();
+  if (jsConfig.hasProperty(runtime, "profile")) {
+    auto profile = jsConfig.getProperty(runtime, "profile")
+                       .asString(runtime)
+                       .utf8(runtime);
+    config->setFieldValue(cls->getField<JString>("profile"),
+                          make_jstring(profile).get());
+  }
+  if (jsConfig.hasProperty(runtime, "level")) {
+    config->setFieldValue(cls->getField<jdouble>("level"),
+                          jsConfig.getProperty(runtime, "level").asNumber());
+  }
+  if (jsConfig.hasProperty(runtime, "maxBFrames")) {
+    config->setFieldValue(
+        cls->getField<jint>("maxBFrames"),
+        (int)jsConfig.getProperty(runtime, "maxBFrames").asNumber());
+  }
+  if (jsConfig.hasProperty(runtime, "bitrateMode")) {
+    auto bitrateMode = jsConfig.getProperty(runtime, "bitrateMode")
+                           .asString(runtime)
+                           .utf8(runtime);
+    config->setFieldValue(cls->getField<JString>("bitrateMode"),
+                          make_jstring(bitrateMode).get());
+  }
+  if (jsConfig.hasProperty(runtime, "quality")) {
+    config->setFieldValue(
+        cls->getField<jint>("quality"),
+        (int)jsConfig.getProperty(runtime, "quality").asNumber());
+  }
+  if (jsConfig.hasProperty(runtime, "keyFrameInterval")) {
+    config->setFieldValue(
+        cls->getField<jfloat>("keyFrameInterval"),
+        (float)jsConfig.getProperty(runtime, "keyFrameInterval").asNumber());
+  }
+  if (jsConfig.hasProperty(runtime, "operatingRate")) {
+    config->setFieldValue(
+        cls->getField<jint>("operatingRate"),
+        (int)jsConfig.getProperty(runtime, "operatingRate").asNumber());
+  }
+  if (jsConfig.hasProperty(runtime, "priority")) {
+    auto priority = jsConfig.getProperty(runtime, "priority")
+                        .asString(runtime)
+                        .utf8(runtime);
+    config->setFieldValue(cls->getField<jint>("priority"),
+                          priority == "realtime" ? 0 : 1);
+  }
+  return config;
+}
+} // namespace RNSkiaVideo
@@ -0,0 +1,17 @@
+#pragma once
+
+#include <fbjni/fbjni.h>
+#include <jsi/jsi.h>
+
+namespace RNSkiaVideo {
+
+using namespace facebook;
+using namespace jni;
+
+struct VideoEncoderConfig : public JavaClass<VideoEncoderConfig> {
+  static constexpr auto kJavaDescriptor =
+      "Lcom/azzapp/rnskv/VideoEncoderConfig;";
+  static local_ref<VideoEncoderConfig>
+  fromJSIObject(jsi::Runtime& runtime, jsi::Object& jsConfig);
+};
+} // namespace RNSkiaVideo
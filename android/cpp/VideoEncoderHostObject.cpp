@@ -17,6 +17,18 @@ VideoEncoder::create(std::string& outPath, int width, int height, int frameRate,
                      audioSampleRate, audioChannelCount, audioBitRate);
 }
 
+void VideoEncoder::setConfig(alias_ref<VideoEncoderConfig> config) const {
+  static const auto setConfigMethod =
+      getClass()->getMethod<void(alias_ref<VideoEncoderConfig>)>("setConfig");
+  setConfigMethod(self(), config);
+}
+
+void VideoEncoder::setCodec(std::string codec) const {
+  static const auto setCodecMethod =
+      getClass()->getMethod<void(alias_ref<JString>)>("setCodec");
+  setCodecMethod(self(), make_jstring(codec));
+}
+
 void VideoEncoder::prepare() const {
   static const auto prepareMethod = getClass()->getMethod<void()>("prepare");
   prepareMethod(self());
@@ -54,10 +66,17 @@ void VideoEncoder::finishWriting() const {
 VideoEncoderHostObject::VideoEncoderHostObject(
     std::string& outPath, int width, int height, int frameRate, int bitRate,
     std::optional<std::string> encoderName, int audioSampleRate,
-    int audioChannelCount, int audioBitRate) {
+    int audioChannelCount, int audioBitRate,
+    alias_ref<VideoEncoderConfig> config, std::optional<std::string> codec) {
   framesExtractor = make_global(VideoEncoder::create(
       outPath, width, height, frameRate, bitRate, encoderName,
       audioSampleRate, audioChannelCount, audioBitRate));
+  if (config) {
+    framesExtractor->setConfig(config);
+  }
+  if (codec.has_value()) {
+    framesExtractor->setCodec(codec.value());
+  }
 }
 
 VideoEncoderHostObject::~VideoEncoderHostObject() {
@@ -153,6 +172,10 @@ jsi::Value VideoEncoderHostObject::get(jsi::Runtime& runtime,
   return jsi::Value::undefined();
 }
 
+global_ref<VideoEncoder> VideoEncoderHostObject::getEncoder() {
+  return released.test() ? nullptr : framesExtractor;
+}
+
 void VideoEncoderHostObject::release() {
   if (!released.test_and_set()) {
     framesExtractor->release();
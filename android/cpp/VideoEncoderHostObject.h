@@ -3,6 +3,7 @@
 #include "AudioSample.h"
 #include "SkiaContextHolder.h"
 #include "VideoComposition.h"
+#include "VideoEncoderConfig.h"
 #include <EGL/egl.h>
 #include <fbjni/fbjni.h>
 #include <jsi/jsi.h>
@@ -22,6 +23,10 @@ public:
                                         int audioSampleRate, int audioChannelCount,
                                         int audioBitRate);
 
+  void setConfig(alias_ref<VideoEncoderConfig> config) const;
+
+  void setCodec(std::string codec) const;
+
   void prepare() const;
 
   void makeGLContextCurrent() const;
@@ -41,10 +46,13 @@ public:
                          int frameRate, int bitRate,
                          std::optional<std::string> encoderName,
                          int audioSampleRate, int audioChannelCount,
-                         int audioBitRate);
+                         int audioBitRate,
+                         alias_ref<VideoEncoderConfig> config = nullptr,
+                         std::optional<std::string> codec = std::nullopt);
   ~VideoEncoderHostObject() override;
   jsi::Value get(jsi::Runtime&, const jsi::PropNameID& name) override;
   std::vector<jsi::PropNameID> getPropertyNames(jsi::Runtime& rt) override;
+  global_ref<VideoEncoder> getEncoder();
 
 private:
   global_ref<VideoEncoder> framesExtractor;
@@ -6,7 +6,14 @@
 namespace RNSkiaVideo {
 #define GR_GL_RGBA8 0x8058
 AHardwareBuffer* VideoFrame::getHardwareBuffer() {
-  return nullptr;
+  static const auto getHardwareBufferMethod =
+      getClass()->getMethod<jobject()>("getHardwareBuffer");
+  auto hardwareBuffer = getHardwareBufferMethod(self());
+  if (!hardwareBuffer) {
+    return nullptr;
+  }
+  return AHardwareBuffer_fromHardwareBuffer(Environment::current(),
+                                            hardwareBuffer.get());
 }
 
 jint VideoFrame::getTexture() {
@@ -33,7 +40,6 @@ jint VideoFrame::getRotation() {
 }
 
 jsi::Value VideoFrame::toJS(jsi::Runtime& runtime) {
-  auto texture = getTexture();
   auto width = getWidth();
   auto height = getHeight();
   auto rotation = getRotation();
@@ -43,6 +49,16 @@ jsi::Value VideoFrame::toJS(jsi::Runtime& runtime) {
   jsObject.setProperty(runtime, "height", height);
   jsObject.setProperty(runtime, "rotation", rotation);
 
+  auto hardwareBuffer = getHardwareBuffer();
+  if (hardwareBuffer) {
+    jsObject.setProperty(
+        runtime, "nativeBuffer",
+        jsi::BigInt::fromUint64(runtime, (uint64_t)(uintptr_t)hardwareBuffer));
+    return jsObject;
+  }
+
+  auto texture = getTexture();
+
   jsi::Object jsiTextureInfo = jsi::Object(runtime);
   jsiTextureInfo.setProperty(runtime, "glTarget", (int)GL_TEXTURE_2D);
   jsiTextureInfo.setProperty(runtime, "glFormat", (int)GR_GL_RGBA8);
@@ -18,6 +18,9 @@ public:
   jint getHeight();
   jint getRotation();
 
+  // Frames backed by a hardware buffer are exposed as a `nativeBuffer` pointer
+  // instead of a texture. The pointer is not acquired, the buffer is kept alive
+  // by the Java frame until the frames extractor releases it.
   jsi::Value toJS(jsi::Runtime& jsRuntime);
 };
 } // namespace RNSkiaVideo
@@ -0,0 +1,35 @@
+#include "VideoSegmentStitcher.h"
+
+namespace RNSkiaVideo {
+using namespace facebook::jni;
+
+void VideoSegmentStitcher::stitch(const std::vector<std::string>& segmentPaths,
+                                  const std::vector<double>& startTimes,
+                                  const std::string& outputPath) {
+  static const auto cls = javaClassStatic();
+  static const auto stitchMethod =
+      cls->getStaticMethod<void(alias_ref<JArrayClass<JString>>,
+                                alias_ref<JArrayDouble>, alias_ref<JString>)>(
+          "stitch");
+  auto jSegmentPaths = JArrayClass<JString>::newArray(segmentPaths.size());
+  for (size_t i = 0; i < segmentPaths.size(); i++) {
+    jSegmentPaths->setElement(i, *make_jstring(segmentPaths[i]));
+  }
+  auto jStartTimes = JArrayDouble::newArray(startTimes.size());
+  jStartTimes->setRegion(0, startTimes.size(), startTimes.data());
+  stitchMethod(cls, jSegmentPaths, jStartTimes, make_jstring(outputPath));
+}
+
+void VideoSegmentStitcher::discard(
+    const std::vector<std::string>& segmentPaths) {
+  static const auto cls = javaClassStatic();
+  static const auto discardMethod =
+      cls->getStaticMethod<void(alias_ref<JArrayClass<JString>>)>("discard");
+  auto jSegmentPaths = JArrayClass<JString>::newArray(segmentPaths.size());
+  for (size_t i = 0; i < segmentPaths.size(); i++) {
+    jSegmentPaths->setElement(i, *make_jstring(segmentPaths[i]));
+  }
+  discardMethod(cls, jSegmentPaths);
+}
+
+} // namespace RNSkiaVideo
@@ -0,0 +1,21 @@
+#pragma once
+
+#include <fbjni/fbjni.h>
+#include <string>
+#include <vector>
+
+namespace RNSkiaVideo {
+using namespace facebook;
+using namespace jni;
+
+struct VideoSegmentStitcher : JavaClass<VideoSegmentStitcher> {
+public:
+  static constexpr auto kJavaDescriptor =
+      "Lcom/azzapp/rnskv/VideoSegmentStitcher;";
+  static void stitch(const std::vector<std::string>& segmentPaths,
+                     const std::vector<double>& startTimes,
+                     const std::string& outputPath);
+  static void discard(const std::vector<std::string>& segmentPaths);
+};
+
+} // namespace RNSkiaVideo
@@ -1,9 +1,12 @@
 #include "NativeEventDispatcher.h"
+#include "SyncSampleIndex.h"
+#include "ThumbnailExtractorHostObject.h"
 #include "VideoCapabilities.h"
 #include "VideoCompositionFramesExtractorHostObject.h"
 #include "VideoCompositionFramesExtractorSyncHostObject.h"
 #include "VideoEncoderHostObject.h"
 #include "VideoPlayerHostObject.h"
+#include "VideoSegmentStitcher.h"
 #include <fbjni/fbjni.h>
 #include <jni.h>
 #include <jsi/jsi.h>
@@ -46,18 +49,49 @@ void install(jsi::Runtime& jsiRuntime) {
           jsiRuntime,
           jsi::PropNameID::forAscii(jsiRuntime,
                                     "createVideoCompositionFramesExtractor"),
-          1,
+          2,
           [](jsi::Runtime& runtime, const jsi::Value& thisValue,
              const jsi::Value* arguments, size_t count) -> jsi::Value {
-            if (count != 1 || !arguments[0].isObject()) {
+            if (count < 1 || !arguments[0].isObject()) {
               throw jsi::JSError(runtime,
                                  "SkiaVideo.createRNSVCompositionPlayer(.."
-                                 ") expects one arguments (object)!");
+                                 ") expects at least one argument (object)!");
+            }
+
+            bool useHardwareBuffers = false;
+            bool useProxies = true;
+            int64_t frameCacheSize = 0;
+            double decoderLookahead = -1;
+            int maxActiveDecoders = 0;
+            if (count >= 2 && arguments[1].isObject()) {
+              auto options = arguments[1].asObject(runtime);
+              auto hardwareBuffers =
+                  options.getProperty(runtime, "hardwareBuffers");
+              useHardwareBuffers =
+                  hardwareBuffers.isBool() && hardwareBuffers.getBool();
+              auto proxies = options.getProperty(runtime, "proxies");
+              useProxies = !proxies.isBool() || proxies.getBool();
+              auto frameCache = options.getProperty(runtime, "frameCacheSize");
+              if (frameCache.isNumber()) {
+                frameCacheSize = (int64_t)frameCache.asNumber();
+              }
+              auto lookahead =
+                  options.getProperty(runtime, "decoderActivationLookahead");
+              if (lookahead.isNumber()) {
+                decoderLookahead = lookahead.asNumber();
+              }
+              auto maxDecoders =
+                  options.getProperty(runtime, "maxActiveDecoders");
+              if (maxDecoders.isNumber()) {
+                maxActiveDecoders = (int)maxDecoders.asNumber();
+              }
             }
 
             auto instance =
                 std::make_shared<VideoCompositionFramesExtractorHostObject>(
-                    runtime, arguments[0].asObject(runtime));
+                    runtime, arguments[0].asObject(runtime),
+                    useHardwareBuffers, useProxies, frameCacheSize,
+                    decoderLookahead, maxActiveDecoders);
 
             return jsi::Object::createFromHostObject(runtime, instance);
           });
@@ -69,7 +103,7 @@ void install(jsi::Runtime& jsiRuntime) {
           jsiRuntime,
           jsi::PropNameID::forAscii(
               jsiRuntime, "createVideoCompositionFramesExtractorSync"),
-          3,
+          8,
           [](jsi::Runtime& runtime, const jsi::Value& thisValue,
              const jsi::Value* arguments, size_t count) -> jsi::Value {
             if (count < 1 || !arguments[0].isObject()) {
@@ -78,19 +112,43 @@ void install(jsi::Runtime& jsiRuntime) {
                                  ") expects at least one argument (object)!");
             }
 
-            // Extract audio settings from arguments 2 and 3 for API consistency
-            // Note: Android preserves original audio format, so these parameters
-            // are accepted but not used in the Android implementation
+            // Extract audio settings, frame rate, decode lookahead, start
+            // time, decoder lookahead and maximum number of active decoders
+            // from arguments 2 to 8, with defaults
+            int audioSampleRate = 44100;
+            int audioChannelCount = 2;
+            int frameRate = 30;
+            int lookahead = 0;
+            double startTime = 0;
+            double decoderLookahead = -1;
+            int maxActiveDecoders = 0;
             if (count >= 2 && arguments[1].isNumber()) {
-              // audioSampleRate = (int)arguments[1].asNumber(); // Not used on Android
+              audioSampleRate = (int)arguments[1].asNumber();
             }
             if (count >= 3 && arguments[2].isNumber()) {
-              // audioChannelCount = (int)arguments[2].asNumber(); // Not used on Android
+              audioChannelCount = (int)arguments[2].asNumber();
+            }
+            if (count >= 4 && arguments[3].isNumber()) {
+              frameRate = (int)arguments[3].asNumber();
+            }
+            if (count >= 5 && arguments[4].isNumber()) {
+              lookahead = (int)arguments[4].asNumber();
+            }
+            if (count >= 6 && arguments[5].isNumber()) {
+              startTime = arguments[5].asNumber();
+            }
+            if (count >= 7 && arguments[6].isNumber()) {
+              decoderLookahead = arguments[6].asNumber();
+            }
+            if (count >= 8 && arguments[7].isNumber()) {
+              maxActiveDecoders = (int)arguments[7].asNumber();
             }
 
             auto instance =
                 std::make_shared<VideoCompositionFramesExtractorSyncHostObject>(
-                    runtime, arguments[0].asObject(runtime));
+                    runtime, arguments[0].asObject(runtime), audioSampleRate,
+                    audioChannelCount, frameRate, lookahead, startTime,
+                    decoderLookahead, maxActiveDecoders);
             return jsi::Object::createFromHostObject(runtime, instance);
           });
 
@@ -135,9 +193,26 @@ void install(jsi::Runtime& jsiRuntime) {
         int audioChannelCount = (int)options.getProperty(runtime, "audioChannelCount").asNumber();
         int audioBitRate = (int)options.getProperty(runtime, "audioBitRate").asNumber();
 
+        std::optional<std::string> codec = std::nullopt;
+        if (options.hasProperty(runtime, "codec")) {
+          auto value = options.getProperty(runtime, "codec");
+          if (value.isString()) {
+            codec = value.asString(runtime).utf8(runtime);
+          }
+        }
+
+        jni::local_ref<VideoEncoderConfig> config = nullptr;
+        if (options.hasProperty(runtime, "encoderConfig")) {
+          auto value = options.getProperty(runtime, "encoderConfig");
+          if (value.isObject()) {
+            auto jsConfig = value.asObject(runtime);
+            config = VideoEncoderConfig::fromJSIObject(runtime, jsConfig);
+          }
+        }
+
         auto instance = std::make_shared<VideoEncoderHostObject>(
             outPath, width, height, frameRate, bitRate, encoderName,
-            audioSampleRate, audioChannelCount, audioBitRate);
+            audioSampleRate, audioChannelCount, audioBitRate, config, codec);
         return jsi::Object::createFromHostObject(runtime, instance);
       });
   RNSVModule.setProperty(jsiRuntime, "createVideoEncoder",
@@ -145,13 +220,23 @@ void install(jsi::Runtime& jsiRuntime) {
 
   auto getDecodingCapabilitiesFor = jsi::Function::createFromHostFunction(
       jsiRuntime,
-      jsi::PropNameID::forAscii(jsiRuntime, "getDecodingCapabilitiesFor"), 1,
+      jsi::PropNameID::forAscii(jsiRuntime, "getDecodingCapabilitiesFor"), 4,
       [](jsi::Runtime& runtime, const jsi::Value& thisValue,
          const jsi::Value* arguments, size_t count) -> jsi::Value {
         auto mimetype = arguments[0].asString(runtime).utf8(runtime);
+        // The probed instances are only looked up when the settings are given
+        int width = count > 1 && arguments[1].isNumber()
+                        ? (int)arguments[1].asNumber()
+                        : 0;
+        int height = count > 2 && arguments[2].isNumber()
+                         ? (int)arguments[2].asNumber()
+                         : 0;
+        int framerate = count > 3 && arguments[3].isNumber()
+                            ? (int)arguments[3].asNumber()
+                            : 0;
 
-        auto decoderInfo =
-            VideoCapabilities::getDecodingCapabilitiesFor(mimetype);
+        auto decoderInfo = VideoCapabilities::getDecodingCapabilitiesFor(
+            mimetype, width, height, framerate);
         if (decoderInfo == nullptr) {
           return jsi::Value::null();
         }
@@ -169,18 +254,59 @@ void install(jsi::Runtime& jsiRuntime) {
   RNSVModule.setProperty(jsiRuntime, "getDecodingCapabilitiesFor",
                          std::move(getDecodingCapabilitiesFor));
 
+  auto probeDecoders = jsi::Function::createFromHostFunction(
+      jsiRuntime, jsi::PropNameID::forAscii(jsiRuntime, "probeDecoders"), 4,
+      [](jsi::Runtime& runtime, const jsi::Value& thisValue,
+         const jsi::Value* arguments, size_t count) -> jsi::Value {
+        if (count != 4 || !arguments[0].isString()) {
+          throw jsi::JSError(runtime, "ReactNativeSkiaVideo."
+                                      "probeDecoders(..) expects four "
+                                      "arguments (string, number, number, "
+                                      "number)!");
+        }
+        auto mimeType = arguments[0].asString(runtime).utf8(runtime);
+        int width = (int)arguments[1].asNumber();
+        int height = (int)arguments[2].asNumber();
+        int framerate = (int)arguments[3].asNumber();
+
+        auto results = VideoCapabilities::probeDecoders(mimeType, width,
+                                                        height, framerate);
+        auto jsResults = jsi::Array(runtime, results->size());
+        size_t i = 0;
+        for (const auto& result : *results) {
+          auto jsObject = jsi::Object(runtime);
+          jsObject.setProperty(
+              runtime, "decoderName",
+              jsi::String::createFromUtf8(runtime, result->getDecoderName()));
+          jsObject.setProperty(runtime, "hardwareAccelerated",
+                               jsi::Value(result->getHardwareAccelerated()));
+          jsObject.setProperty(runtime, "maxInstances",
+                               jsi::Value(result->getMaxInstances()));
+          jsObject.setProperty(runtime, "reportedMaxInstances",
+                               jsi::Value(result->getReportedMaxInstances()));
+          jsResults.setValueAtIndex(runtime, i, jsObject);
+          i++;
+        }
+        return jsResults;
+      });
+  RNSVModule.setProperty(jsiRuntime, "probeDecoders", std::move(probeDecoders));
+
   auto getValidEncoderConfigurations = jsi::Function::createFromHostFunction(
       jsiRuntime,
-      jsi::PropNameID::forAscii(jsiRuntime, "getDecodingCapabilitiesFor"), 4,
+      jsi::PropNameID::forAscii(jsiRuntime, "getDecodingCapabilitiesFor"), 5,
       [](jsi::Runtime& runtime, const jsi::Value& thisValue,
          const jsi::Value* arguments, size_t count) -> jsi::Value {
         int width = (int)arguments[0].asNumber();
         int height = (int)arguments[1].asNumber();
         int framerate = (int)arguments[2].asNumber();
         int bitrate = (int)arguments[3].asNumber();
+        std::string codec = "h264";
+        if (count >= 5 && arguments[4].isString()) {
+          codec = arguments[4].asString(runtime).utf8(runtime);
+        }
 
         auto encoderInfos = VideoCapabilities::getValidEncoderConfigurations(
-            width, height, framerate, bitrate);
+            codec, width, height, framerate, bitrate);
 
         if (encoderInfos == nullptr) {
           return jsi::Value::null();
@@ -192,6 +318,9 @@ void install(jsi::Runtime& jsiRuntime) {
           jsObject.setProperty(runtime, "encoderName",
                                jsi::String::createFromUtf8(
                                    runtime, encoderInfo->getEncoderName()));
+          jsObject.setProperty(runtime, "codec",
+                               jsi::String::createFromUtf8(
+                                   runtime, encoderInfo->getCodec()));
           jsObject.setProperty(
               runtime, "hardwareAccelerated",
               jsi::Value(encoderInfo->getHardwareAccelerated()));
@@ -213,6 +342,122 @@ void install(jsi::Runtime& jsiRuntime) {
   RNSVModule.setProperty(jsiRuntime, "getValidEncoderConfigurations",
                          std::move(getValidEncoderConfigurations));
 
+  auto getMaxEncoderInstances = jsi::Function::createFromHostFunction(
+      jsiRuntime,
+      jsi::PropNameID::forAscii(jsiRuntime, "getMaxEncoderInstances"), 2,
+      [](jsi::Runtime& runtime, const jsi::Value& thisValue,
+         const jsi::Value* arguments, size_t count) -> jsi::Value {
+        std::optional<std::string> encoderName = std::nullopt;
+        if (count >= 1 && arguments[0].isString()) {
+          encoderName = arguments[0].asString(runtime).utf8(runtime);
+        }
+        std::string codec = "h264";
+        if (count >= 2 && arguments[1].isString()) {
+          codec = arguments[1].asString(runtime).utf8(runtime);
+        }
+        return jsi::Value(
+            VideoCapabilities::getMaxEncoderInstances(codec, encoderName));
+      });
+  RNSVModule.setProperty(jsiRuntime, "getMaxEncoderInstances",
+                         std::move(getMaxEncoderInstances));
+
+  auto stitchVideoSegments = jsi::Function::createFromHostFunction(
+      jsiRuntime, jsi::PropNameID::forAscii(jsiRuntime, "stitchVideoSegments"),
+      3,
+      [](jsi::Runtime& runtime, const jsi::Value& thisValue,
+         const jsi::Value* arguments, size_t count) -> jsi::Value {
+        if (count != 3 || !arguments[0].isObject() ||
+            !arguments[1].isObject() || !arguments[2].isString()) {
+          throw jsi::JSError(runtime, "ReactNativeSkiaVideo."
+                                      "stitchVideoSegments(..) expects three "
+                                      "arguments (array, array, string)!");
+        }
+        auto jsPaths = arguments[0].asObject(runtime).asArray(runtime);
+        auto jsStartTimes = arguments[1].asObject(runtime).asArray(runtime);
+        std::vector<std::string> segmentPaths;
+        std::vector<double> startTimes;
+        for (size_t i = 0; i < jsPaths.size(runtime); i++) {
+          segmentPaths.push_back(jsPaths.getValueAtIndex(runtime, i)
+                                     .asString(runtime)
+                                     .utf8(runtime));
+        }
+        for (size_t i = 0; i < jsStartTimes.size(runtime); i++) {
+          startTimes.push_back(
+              jsStartTimes.getValueAtIndex(runtime, i).asNumber());
+        }
+        auto outPath = arguments[2].asString(runtime).utf8(runtime);
+        VideoSegmentStitcher::stitch(segmentPaths, startTimes, outPath);
+        return jsi::Value::undefined();
+      });
+  RNSVModule.setProperty(jsiRuntime, "stitchVideoSegments",
+                         std::move(stitchVideoSegments));
+
+  auto discardVideoSegments = jsi::Function::createFromHostFunction(
+      jsiRuntime, jsi::PropNameID::forAscii(jsiRuntime, "discardVideoSegments"),
+      1,
+      [](jsi::Runtime& runtime, const jsi::Value& thisValue,
+         const jsi::Value* arguments, size_t count) -> jsi::Value {
+        if (count != 1 || !arguments[0].isObject()) {
+          throw jsi::JSError(runtime, "ReactNativeSkiaVideo."
+                                      "discardVideoSegments(..) expects one "
+                                      "argument (array)!");
+        }
+        auto jsPaths = arguments[0].asObject(runtime).asArray(runtime);
+        std::vector<std::string> segmentPaths;
+        for (size_t i = 0; i < jsPaths.size(runtime); i++) {
+          segmentPaths.push_back(jsPaths.getValueAtIndex(runtime, i)
+                                     .asString(runtime)
+                                     .utf8(runtime));
+        }
+        VideoSegmentStitcher::discard(segmentPaths);
+        return jsi::Value::undefined();
+      });
+  RNSVModule.setProperty(jsiRuntime, "discardVideoSegments",
+                         std::move(discardVideoSegments));
+
+  auto getSyncSampleIndex = jsi::Function::createFromHostFunction(
+      jsiRuntime, jsi::PropNameID::forAscii(jsiRuntime, "getSyncSampleIndex"),
+      1,
+      [](jsi::Runtime& runtime, const jsi::Value& thisValue,
+         const jsi::Value* arguments, size_t count) -> jsi::Value {
+        if (count != 1 || !arguments[0].isString()) {
+          throw jsi::JSError(runtime, "ReactNativeSkiaVideo."
+                                      "getSyncSampleIndex(..) "
+                                      "expects one arguments (string)!");
+        }
+        auto path = arguments[0].asString(runtime).utf8(runtime);
+        // Building the index scans the file, it is only done in the background
+        auto index = SyncSampleIndex::getIfLoaded(path);
+        if (index == nullptr) {
+          return jsi::Value::null();
+        }
+        return index->toJSIObject(runtime);
+      });
+  RNSVModule.setProperty(jsiRuntime, "getSyncSampleIndex",
+                         std::move(getSyncSampleIndex));
+
+  auto createThumbnailExtractor = jsi::Function::createFromHostFunction(
+      jsiRuntime,
+      jsi::PropNameID::forAscii(jsiRuntime, "createThumbnailExtractor"), 2,
+      [](jsi::Runtime& runtime, const jsi::Value& thisValue,
+         const jsi::Value* arguments, size_t count) -> jsi::Value {
+        if (count != 2 || !arguments[0].isString() ||
+            !arguments[1].isObject()) {
+          throw jsi::JSError(runtime,
+                             "ReactNativeSkiaVideo.createThumbnailExtractor(..) "
+                             "expects two arguments (string, object)!");
+        }
+        auto size = arguments[1].asObject(runtime);
+        int width = (int)size.getProperty(runtime, "width").asNumber();
+        int height = (int)size.getProperty(runtime, "height").asNumber();
+        auto instance = std::make_shared<ThumbnailExtractorHostObject>(
+            runtime, arguments[0].asString(runtime).utf8(runtime), width,
+            height);
+        return jsi::Object::createFromHostObject(runtime, instance);
+      });
+  RNSVModule.setProperty(jsiRuntime, "createThumbnailExtractor",
+                         std::move(createThumbnailExtractor));
+
   auto runWithJNIClassLoader = jsi::Function::createFromHostFunction(
       jsiRuntime,
       jsi::PropNameID::forAscii(jsiRuntime, "runWithJNIClassLoader"), 1,
@@ -4,6 +4,9 @@ import java.nio.ByteBuffer;
 
 /**
  * Represents an audio sample with metadata.
+ * <p>
+ * When created with a {@link DirectBufferPool}, the buffer is reference counted and given back
+ * to the pool once every holder has called {@link #release()}.
  */
 public class AudioSample {
   private final ByteBuffer buffer; // Must be DirectByteBuffer for zero-copy
@@ -11,6 +14,8 @@ public class AudioSample {
   private final long durationUs;
   private final int sampleRate;
   private final int channels;
+  private final DirectBufferPool pool;
+  private int refCount = 1;
 
   public AudioSample(
     ByteBuffer buffer,
@@ -18,6 +23,17 @@ public class AudioSample {
     long durationUs,
     int sampleRate,
     int channels
+  ) {
+    this(buffer, presentationTimeUs, durationUs, sampleRate, channels, null);
+  }
+
+  public AudioSample(
+    ByteBuffer buffer,
+    long presentationTimeUs,
+    long durationUs,
+    int sampleRate,
+    int channels,
+    DirectBufferPool pool
   ) {
     if (!buffer.isDirect()) {
       throw new IllegalArgumentException("AudioSample buffer must be a DirectByteBuffer");
@@ -27,6 +43,7 @@ public class AudioSample {
     this.durationUs = durationUs;
     this.sampleRate = sampleRate;
     this.channels = channels;
+    this.pool = pool;
   }
 
   public ByteBuffer getBuffer() {
@@ -48,6 +65,24 @@ public class AudioSample {
   public int getChannels() {
     return channels;
   }
-}
 
+  /**
+   * Adds a holder of the sample buffer.
+   */
+  public synchronized void retain() {
+    refCount++;
+  }
 
+  /**
+   * Removes a holder of the sample buffer, the buffer is recycled when no holder remains.
+   */
+  public synchronized void release() {
+    if (refCount <= 0) {
+      return;
+    }
+    refCount--;
+    if (refCount == 0 && pool != null) {
+      pool.recycle(buffer);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.azzapp.rnskv;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class CacheHelpers {
+  /**
+   * Returns a file name for a cache key, the hex SHA-256 digest of the key, so that two keys
+   * never share a cache file in practice.
+   */
+  public static String fileNameFor(String key) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-256 is required on every Android device
+      throw new IllegalStateException(e);
+    }
+    byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+    StringBuilder builder = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+      builder.append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+}
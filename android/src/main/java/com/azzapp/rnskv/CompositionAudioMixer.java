@@ -0,0 +1,155 @@
+package com.azzapp.rnskv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+/**
+ * A class that mixes the decoded audio of the composition items according to their
+ * volume, fades, pan and ducking parameters.
+ * <p>
+ * All the buffers are allocated once and reused, they only grow if a span longer than the
+ * previous ones is mixed.
+ */
+public class CompositionAudioMixer {
+
+  private final int sampleRate;
+
+  private final int channelCount;
+
+  private final float[] duckGains;
+
+  private float[] mixBuffer = new float[0];
+
+  private short[] itemBuffer = new short[0];
+
+  private ShortBuffer itemBufferView = ShortBuffer.wrap(itemBuffer);
+
+  private ByteBuffer outputBuffer = ByteBuffer.allocateDirect(0);
+
+  private int spanFrameCount = 0;
+
+  /**
+   * Creates a new CompositionAudioMixer.
+   *
+   * @param items        the items of the mixed composition
+   * @param sampleRate   the sample rate of the mixed PCM
+   * @param channelCount the number of channels of the mixed PCM
+   */
+  public CompositionAudioMixer(List<VideoComposition.Item> items, int sampleRate, int channelCount) {
+    this.sampleRate = sampleRate;
+    this.channelCount = channelCount;
+    duckGains = new float[items.size()];
+    for (int i = 0; i < items.size(); i++) {
+      duckGains[i] = 1f;
+    }
+  }
+
+  /**
+   * Starts mixing a new span.
+   *
+   * @param frameCount the number of frames of the span
+   */
+  public void begin(int frameCount) {
+    spanFrameCount = frameCount;
+    int sampleCount = frameCount * channelCount;
+    if (mixBuffer.length < sampleCount) {
+      mixBuffer = new float[sampleCount];
+      itemBuffer = new short[sampleCount];
+      itemBufferView = ShortBuffer.wrap(itemBuffer);
+    }
+    for (int i = 0; i < sampleCount; i++) {
+      mixBuffer[i] = 0f;
+    }
+  }
+
+  /**
+   * @return a buffer of the size of the span to write the PCM of an item to, before calling
+   * {@link #add}
+   */
+  public ShortBuffer getItemBuffer() {
+    itemBufferView.clear();
+    itemBufferView.limit(spanFrameCount * channelCount);
+    return itemBufferView;
+  }
+
+  /**
+   * Adds the PCM written to the item buffer to the mix.
+   *
+   * @param itemIndex     the index of the item in the composition
+   * @param item          the item
+   * @param spanStartTime the composition time in seconds of the first frame of the span
+   * @param ducked        whether the item should be ducked during the span
+   */
+  public void add(int itemIndex, VideoComposition.Item item, double spanStartTime, boolean ducked) {
+    double spanDuration = (double) spanFrameCount / sampleRate;
+    double itemTime = spanStartTime - item.getCompositionStartTime();
+    float gainStart = envelope(item, itemTime);
+    float gainEnd = envelope(item, itemTime + spanDuration);
+
+    // Ramp the ducking over the span to avoid clicks
+    float duckStart = duckGains[itemIndex];
+    float duckEnd = ducked ? item.getDuckedVolume() : 1f;
+    duckGains[itemIndex] = duckEnd;
+
+    float pan = item.getPan();
+    float leftGain = pan > 0 ? 1f - pan : 1f;
+    float rightGain = pan < 0 ? 1f + pan : 1f;
+    boolean stereo = channelCount >= 2;
+
+    for (int frame = 0; frame < spanFrameCount; frame++) {
+      float progress = (float) frame / spanFrameCount;
+      float gain = (gainStart + (gainEnd - gainStart) * progress)
+        * (duckStart + (duckEnd - duckStart) * progress);
+      int offset = frame * channelCount;
+      for (int c = 0; c < channelCount; c++) {
+        float channelGain = gain;
+        if (stereo && c == 0) {
+          channelGain *= leftGain;
+        } else if (stereo && c == 1) {
+          channelGain *= rightGain;
+        }
+        mixBuffer[offset + c] += itemBuffer[offset + c] * channelGain;
+      }
+    }
+  }
+
+  /**
+   * Clips the mix to 16 bits PCM.
+   *
+   * @return a direct buffer containing the mixed PCM, valid until the next call to {@link #begin}
+   */
+  public ByteBuffer finish() {
+    int sampleCount = spanFrameCount * channelCount;
+    if (outputBuffer.capacity() < sampleCount * 2) {
+      outputBuffer = ByteBuffer.allocateDirect(sampleCount * 2).order(ByteOrder.nativeOrder());
+    }
+    outputBuffer.clear();
+    for (int i = 0; i < sampleCount; i++) {
+      float sample = mixBuffer[i];
+      if (sample > Short.MAX_VALUE) {
+        sample = Short.MAX_VALUE;
+      } else if (sample < Short.MIN_VALUE) {
+        sample = Short.MIN_VALUE;
+      }
+      outputBuffer.putShort((short) sample);
+    }
+    outputBuffer.flip();
+    return outputBuffer;
+  }
+
+  private static float envelope(VideoComposition.Item item, double itemTime) {
+    float gain = item.getVolume();
+    double fadeInDuration = item.getFadeInDuration();
+    if (fadeInDuration > 0 && itemTime < fadeInDuration) {
+      gain *= (float) Math.max(0, itemTime / fadeInDuration);
+    }
+    double fadeOutDuration = item.getFadeOutDuration();
+    double remainingTime = item.getDuration() - itemTime;
+    if (fadeOutDuration > 0 && remainingTime < fadeOutDuration) {
+      gain *= (float) Math.max(0, remainingTime / fadeOutDuration);
+    }
+    return gain;
+  }
+}
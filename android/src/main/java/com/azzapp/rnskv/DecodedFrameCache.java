@@ -0,0 +1,403 @@
+package com.azzapp.rnskv;
+
+import android.opengl.GLES20;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An LRU cache of the decoded frames of the items of a composition, held in 2D textures.
+ * <p>
+ * The frames are copied to the cache as they are extracted, each one being accounted as
+ * width * height * 4 bytes against the byte budget. For each item, the cache tracks the ranges of
+ * presentation times over which every rendered frame has been cached, a range starting at a seek
+ * and growing while the frames are rendered in order. Within those ranges the frame displayed at a
+ * given time is the cached frame with the greatest presentation time before it, so that the item
+ * can be displayed without decoding. Evicting a frame splits the range that contained it.
+ * <p>
+ * The ranges are updated from the render thread, the textures are created, copied and deleted on
+ * the thread owning the GL context of the decoder.
+ */
+public class DecodedFrameCache {
+
+  private final long budgetBytes;
+
+  private long sizeBytes = 0;
+
+  private final LinkedHashMap<CachedFrame, Boolean> lruFrames = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Map<String, ItemFrames> items = new HashMap<>();
+
+  private int frameBuffer = -1;
+
+  /**
+   * Creates a new DecodedFrameCache.
+   *
+   * @param budgetBytes the maximum size of the cached frames in bytes
+   */
+  public DecodedFrameCache(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+  }
+
+  /**
+   * Starts a new range of rendered frames for the given item, called each time its decoder seeks.
+   *
+   * @param itemId   the id of the item
+   * @param targetUs the presentation time the decoder seeks to in microseconds
+   */
+  public synchronized void startRun(String itemId, long targetUs) {
+    ItemFrames itemFrames = itemFramesFor(itemId);
+    itemFrames.runActive = true;
+    itemFrames.runTargetUs = targetUs;
+    itemFrames.rangeStartUs = -1;
+    itemFrames.firstRenderedUs = -1;
+    itemFrames.lastRenderedUs = -1;
+    itemFrames.lastStoredUs = -1;
+  }
+
+  /**
+   * Stops the range of rendered frames of the given item, the frames rendered afterward are not
+   * cached until the next {@link #startRun(String, long)}.
+   *
+   * @param itemId the id of the item
+   */
+  public synchronized void stopRun(String itemId) {
+    itemFramesFor(itemId).runActive = false;
+  }
+
+  /**
+   * Notifies that the decoder of the given item rendered a frame.
+   *
+   * @param itemId             the id of the item
+   * @param presentationTimeUs the presentation time of the frame in microseconds
+   */
+  public synchronized void onFrameRendered(String itemId, long presentationTimeUs) {
+    ItemFrames itemFrames = itemFramesFor(itemId);
+    if (!itemFrames.runActive) {
+      return;
+    }
+    if (itemFrames.firstRenderedUs == -1) {
+      itemFrames.firstRenderedUs = presentationTimeUs;
+    }
+    itemFrames.lastRenderedUs = Math.max(itemFrames.lastRenderedUs, presentationTimeUs);
+  }
+
+  /**
+   * Notifies that the decoder of the given item reached the end of the item, the last frame of the
+   * range is then displayed up to the end.
+   *
+   * @param itemId the id of the item
+   * @param endUs  the presentation time of the end of the item in microseconds
+   */
+  public synchronized void onEndReached(String itemId, long endUs) {
+    ItemFrames itemFrames = itemFramesFor(itemId);
+    if (itemFrames.runActive && itemFrames.rangeStartUs != -1) {
+      itemFrames.addRange(itemFrames.rangeStartUs, endUs);
+    }
+  }
+
+  /**
+   * Copies the given texture to the cache if it holds the next frame of the current range of the
+   * item. Must be called with the GL context of the decoder current.
+   *
+   * @param itemId             the id of the item
+   * @param presentationTimeUs the presentation time of the frame in microseconds
+   * @param texture            the texture holding the frame
+   * @param width              the width of the frame
+   * @param height             the height of the frame
+   */
+  public synchronized void put(
+    String itemId,
+    long presentationTimeUs,
+    int texture,
+    int width,
+    int height
+  ) {
+    ItemFrames itemFrames = itemFramesFor(itemId);
+    // Frames extracted after a seek might still be the ones decoded before it
+    if (!itemFrames.runActive
+      || itemFrames.firstRenderedUs == -1
+      || presentationTimeUs < itemFrames.firstRenderedUs
+      || presentationTimeUs > itemFrames.lastRenderedUs
+      || presentationTimeUs <= itemFrames.lastStoredUs) {
+      return;
+    }
+    CachedFrame cachedFrame = itemFrames.frames.get(presentationTimeUs);
+    if (cachedFrame != null && (cachedFrame.width != width || cachedFrame.height != height)) {
+      evict(cachedFrame);
+      cachedFrame = null;
+    }
+    if (cachedFrame == null) {
+      long frameBytes = (long) width * height * 4;
+      if (!evictUntilAvailable(frameBytes)) {
+        // The range can not grow without this frame
+        itemFrames.rangeStartUs = -1;
+        return;
+      }
+      cachedFrame = createFrame(itemId, presentationTimeUs, width, height);
+      itemFrames.frames.put(presentationTimeUs, cachedFrame);
+      sizeBytes += frameBytes;
+    }
+    lruFrames.put(cachedFrame, Boolean.TRUE);
+    copyTexture(texture, cachedFrame);
+
+    if (itemFrames.rangeStartUs == -1) {
+      // A range starting at a seek covers the target, even if the first frame is after it
+      itemFrames.rangeStartUs = itemFrames.lastStoredUs == -1
+        ? Math.min(itemFrames.runTargetUs, presentationTimeUs)
+        : presentationTimeUs;
+    }
+    itemFrames.lastStoredUs = presentationTimeUs;
+    itemFrames.addRange(itemFrames.rangeStartUs, presentationTimeUs);
+  }
+
+  /**
+   * @param itemId the id of the item
+   * @param fromUs the start of the interval in microseconds
+   * @param toUs   the end of the interval in microseconds
+   * @return true if the frames of the whole interval are cached
+   */
+  public synchronized boolean covers(String itemId, long fromUs, long toUs) {
+    ItemFrames itemFrames = items.get(itemId);
+    if (itemFrames == null) {
+      return false;
+    }
+    Map.Entry<Long, Long> range = itemFrames.ranges.floorEntry(fromUs);
+    return range != null && range.getValue() >= toUs;
+  }
+
+  /**
+   * Returns the cached frame displayed at the given time.
+   *
+   * @param itemId the id of the item
+   * @param timeUs the presentation time in microseconds
+   * @return the frame, or null if the time is not in a cached range
+   */
+  @Nullable
+  public synchronized CachedFrame get(String itemId, long timeUs) {
+    ItemFrames itemFrames = items.get(itemId);
+    if (itemFrames == null) {
+      return null;
+    }
+    Map.Entry<Long, Long> range = itemFrames.ranges.floorEntry(timeUs);
+    if (range == null || range.getValue() < timeUs) {
+      return null;
+    }
+    Map.Entry<Long, CachedFrame> entry = itemFrames.frames.floorEntry(timeUs);
+    if (entry == null || entry.getKey() < range.getKey()) {
+      entry = itemFrames.frames.ceilingEntry(range.getKey());
+    }
+    if (entry == null || entry.getKey() > range.getValue()) {
+      return null;
+    }
+    lruFrames.get(entry.getValue());
+    return entry.getValue();
+  }
+
+  /**
+   * Sets the cached frame currently displayed for the given item, which is never evicted.
+   *
+   * @param itemId      the id of the item
+   * @param cachedFrame the displayed frame, or null if the item does not display a cached frame
+   */
+  public synchronized void setDisplayedFrame(String itemId, @Nullable CachedFrame cachedFrame) {
+    itemFramesFor(itemId).displayedFrame = cachedFrame;
+  }
+
+  /**
+   * Releases the textures of the cached frames.
+   */
+  public synchronized void release() {
+    int[] textures = new int[lruFrames.size()];
+    int i = 0;
+    for (CachedFrame cachedFrame : lruFrames.keySet()) {
+      textures[i++] = cachedFrame.texture;
+    }
+    if (textures.length > 0) {
+      GLES20.glDeleteTextures(textures.length, textures, 0);
+    }
+    if (frameBuffer != -1) {
+      GLES20.glDeleteFramebuffers(1, new int[]{frameBuffer}, 0);
+      frameBuffer = -1;
+    }
+    lruFrames.clear();
+    items.clear();
+    sizeBytes = 0;
+  }
+
+  private ItemFrames itemFramesFor(String itemId) {
+    ItemFrames itemFrames = items.get(itemId);
+    if (itemFrames == null) {
+      itemFrames = new ItemFrames();
+      items.put(itemId, itemFrames);
+    }
+    return itemFrames;
+  }
+
+  private boolean evictUntilAvailable(long frameBytes) {
+    if (frameBytes > budgetBytes) {
+      return false;
+    }
+    Iterator<CachedFrame> iterator = lruFrames.keySet().iterator();
+    while (sizeBytes + frameBytes > budgetBytes && iterator.hasNext()) {
+      CachedFrame cachedFrame = iterator.next();
+      ItemFrames itemFrames = items.get(cachedFrame.itemId);
+      if (itemFrames != null && itemFrames.displayedFrame == cachedFrame) {
+        continue;
+      }
+      iterator.remove();
+      removeFrame(cachedFrame);
+    }
+    return sizeBytes + frameBytes <= budgetBytes;
+  }
+
+  private void evict(CachedFrame cachedFrame) {
+    lruFrames.remove(cachedFrame);
+    removeFrame(cachedFrame);
+  }
+
+  private void removeFrame(CachedFrame cachedFrame) {
+    ItemFrames itemFrames = items.get(cachedFrame.itemId);
+    if (itemFrames != null) {
+      itemFrames.frames.remove(cachedFrame.presentationTimeUs);
+      itemFrames.removeRangeAt(cachedFrame.presentationTimeUs);
+      if (itemFrames.rangeStartUs != -1 && cachedFrame.presentationTimeUs >= itemFrames.rangeStartUs) {
+        // The current range is split, it restarts at the next stored frame
+        itemFrames.rangeStartUs = -1;
+      }
+    }
+    GLES20.glDeleteTextures(1, new int[]{cachedFrame.texture}, 0);
+    sizeBytes -= (long) cachedFrame.width * cachedFrame.height * 4;
+  }
+
+  private CachedFrame createFrame(String itemId, long presentationTimeUs, int width, int height) {
+    int[] texIds = new int[1];
+    GLES20.glGenTextures(1, texIds, 0);
+    EGLUtils.configureTexture(GLES20.GL_TEXTURE_2D, texIds[0]);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texIds[0]);
+    GLES20.glTexImage2D(
+      GLES20.GL_TEXTURE_2D,
+      0,
+      GLES20.GL_RGBA,
+      width, height,
+      0,
+      GLES20.GL_RGBA,
+      GLES20.GL_UNSIGNED_BYTE,
+      null
+    );
+    return new CachedFrame(itemId, presentationTimeUs, texIds[0], width, height);
+  }
+
+  private void copyTexture(int texture, CachedFrame cachedFrame) {
+    if (frameBuffer == -1) {
+      int[] bufferIds = new int[1];
+      GLES20.glGenFramebuffers(1, bufferIds, 0);
+      frameBuffer = bufferIds[0];
+    }
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
+    GLES20.glFramebufferTexture2D(
+      GLES20.GL_FRAMEBUFFER,
+      GLES20.GL_COLOR_ATTACHMENT0,
+      GLES20.GL_TEXTURE_2D,
+      texture,
+      0
+    );
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, cachedFrame.texture);
+    GLES20.glCopyTexSubImage2D(
+      GLES20.GL_TEXTURE_2D, 0, 0, 0, 0, 0, cachedFrame.width, cachedFrame.height);
+    EGLUtils.checkGlError("DecodedFrameCache.copyTexture()");
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    // The copy must be visible to the context displaying the frames
+    GLES20.glFlush();
+  }
+
+  private static class ItemFrames {
+    private final TreeMap<Long, CachedFrame> frames = new TreeMap<>();
+    // Start to end (inclusive) of the cached ranges
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    private boolean runActive = false;
+    private long runTargetUs = -1;
+    private long rangeStartUs = -1;
+    private long firstRenderedUs = -1;
+    private long lastRenderedUs = -1;
+    private long lastStoredUs = -1;
+    private CachedFrame displayedFrame;
+
+    private void addRange(long startUs, long endUs) {
+      Map.Entry<Long, Long> previous = ranges.floorEntry(startUs);
+      if (previous != null && previous.getValue() >= startUs) {
+        startUs = previous.getKey();
+        endUs = Math.max(endUs, previous.getValue());
+      }
+      Map.Entry<Long, Long> next = ranges.ceilingEntry(startUs);
+      while (next != null && next.getKey() <= endUs) {
+        endUs = Math.max(endUs, next.getValue());
+        ranges.remove(next.getKey());
+        next = ranges.ceilingEntry(startUs);
+      }
+      ranges.put(startUs, endUs);
+    }
+
+    private void removeRangeAt(long timeUs) {
+      Map.Entry<Long, Long> range = ranges.floorEntry(timeUs);
+      if (range == null || range.getValue() < timeUs) {
+        return;
+      }
+      ranges.remove(range.getKey());
+      Long lower = frames.lowerKey(timeUs);
+      if (lower != null && lower >= range.getKey()) {
+        ranges.put(range.getKey(), lower);
+      }
+      Long higher = frames.higherKey(timeUs);
+      if (higher != null && higher <= range.getValue()) {
+        ranges.put(higher, range.getValue());
+      }
+    }
+  }
+
+  /**
+   * A frame held by the cache.
+   */
+  public static class CachedFrame {
+    private final String itemId;
+    private final long presentationTimeUs;
+    private final int texture;
+    private final int width;
+    private final int height;
+
+    private CachedFrame(
+      String itemId,
+      long presentationTimeUs,
+      int texture,
+      int width,
+      int height
+    ) {
+      this.itemId = itemId;
+      this.presentationTimeUs = presentationTimeUs;
+      this.texture = texture;
+      this.width = width;
+      this.height = height;
+    }
+
+    public long getPresentationTimeUs() {
+      return presentationTimeUs;
+    }
+
+    public int getTexture() {
+      return texture;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+  }
+}
@@ -0,0 +1,286 @@
+package com.azzapp.rnskv;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache of the decoder probes made by
+ * {@link VideoCapabilities#probeDecoders(String, int, int, int)}.
+ * <p>
+ * The results are kept in memory and persisted in a small binary file in the application cache
+ * directory, keyed by mime type, size and frame rate. The file is tied to
+ * {@link Build#FINGERPRINT} and discarded after a system update. Unlike the encoder
+ * configurations, the discarded probes are not made again in the background since they start
+ * many decoder instances, which would compete with the playback of the application.
+ * <p>
+ * The decoders created by this library are tracked with {@link #onDecoderCreated()} and
+ * {@link #onDecoderReleased()}. A probe made while some of them are alive measures less
+ * instances than the device supports, its results are returned but not cached.
+ */
+public class DecoderProbeCache {
+
+  private static final String TAG = "DecoderProbeCache";
+
+  private static final int FILE_MAGIC = 0x44504346; // "DPCF"
+
+  private static final int FILE_VERSION = 1;
+
+  private static final String CACHE_FILE = "rnskv-decoder-probes.bin";
+
+  // Bounds the file size, the least recently probed configurations being dropped first
+  private static final int MAX_ENTRIES = 32;
+
+  private static final LinkedHashMap<String, List<VideoCapabilities.DecoderProbeResult>> entries =
+    new LinkedHashMap<>(16, 0.75f, true);
+
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  // Serializes the probes, concurrent probes competing for the same decoder instances
+  private static final Object probeLock = new Object();
+
+  private static boolean loaded = false;
+
+  private static final AtomicInteger liveDecoders = new AtomicInteger();
+
+  private DecoderProbeCache() {
+  }
+
+  /**
+   * Loads the persisted probes in the background.
+   */
+  public static void warmUp() {
+    executor.execute(DecoderProbeCache::ensureLoaded);
+  }
+
+  /**
+   * Returns the decoders of the given settings, probing them if they are not cached.
+   *
+   * @param mimeType  the mime type to decode
+   * @param width     the width of the videos
+   * @param height    the height of the videos
+   * @param frameRate the frame rate of the videos
+   * @return the decoders, hardware decoders first
+   */
+  static List<VideoCapabilities.DecoderProbeResult> get(
+    String mimeType,
+    int width,
+    int height,
+    int frameRate
+  ) {
+    String key = cacheKey(mimeType, width, height, frameRate);
+    ensureLoaded();
+    List<VideoCapabilities.DecoderProbeResult> results = getIfLoaded(key);
+    if (results != null) {
+      return new ArrayList<>(results);
+    }
+    synchronized (probeLock) {
+      results = getIfLoaded(key);
+      if (results == null) {
+        boolean busy = liveDecoders.get() > 0;
+        results = VideoCapabilities.measureDecoders(mimeType, width, height, frameRate);
+        if (busy || liveDecoders.get() > 0) {
+          // Some instances were held by the application, the counts are too low to be kept
+          return new ArrayList<>(results);
+        }
+        synchronized (entries) {
+          entries.put(key, results);
+          while (entries.size() > MAX_ENTRIES) {
+            entries.remove(entries.keySet().iterator().next());
+          }
+        }
+        persist();
+      }
+    }
+    return new ArrayList<>(results);
+  }
+
+  /**
+   * Returns the number of instances measured for a decoder by the cached probe of the given
+   * settings.
+   *
+   * @param mimeType    the mime type
+   * @param width       the width of the videos
+   * @param height      the height of the videos
+   * @param frameRate   the frame rate of the videos
+   * @param decoderName the name of the decoder
+   * @return the number of instances, -1 if the decoder has not been probed with these settings
+   */
+  static int getMeasuredMaxInstances(
+    String mimeType,
+    int width,
+    int height,
+    int frameRate,
+    String decoderName
+  ) {
+    if (width <= 0 || height <= 0 || frameRate <= 0) {
+      return -1;
+    }
+    ensureLoaded();
+    List<VideoCapabilities.DecoderProbeResult> results =
+      getIfLoaded(cacheKey(mimeType, width, height, frameRate));
+    if (results == null) {
+      return -1;
+    }
+    for (VideoCapabilities.DecoderProbeResult result : results) {
+      if (result.getDecoderName().equals(decoderName)) {
+        return result.getMaxInstances();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Must be called when the library creates a decoder, see {@link #onDecoderReleased()}.
+   */
+  static void onDecoderCreated() {
+    liveDecoders.incrementAndGet();
+  }
+
+  /**
+   * Must be called when a decoder created by the library is released.
+   */
+  static void onDecoderReleased() {
+    liveDecoders.decrementAndGet();
+  }
+
+  @Nullable
+  private static List<VideoCapabilities.DecoderProbeResult> getIfLoaded(String key) {
+    synchronized (entries) {
+      return entries.get(key);
+    }
+  }
+
+  private static void ensureLoaded() {
+    synchronized (entries) {
+      if (loaded) {
+        return;
+      }
+      File file = cacheFile();
+      if (file == null) {
+        // Not installed yet, the probes are made until the cache can be loaded
+        return;
+      }
+      loaded = true;
+      if (!file.exists()) {
+        return;
+      }
+      try {
+        readFrom(file);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read the decoder probes cache", e);
+        entries.clear();
+        file.delete();
+      }
+    }
+  }
+
+  private static void readFrom(File file) throws IOException {
+    try (DataInputStream input = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+        throw new IOException("Invalid decoder probes cache " + file);
+      }
+      if (!Build.FINGERPRINT.equals(input.readUTF())) {
+        // Probed on another system build
+        return;
+      }
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        String key = input.readUTF();
+        int size = input.readInt();
+        List<VideoCapabilities.DecoderProbeResult> results = new ArrayList<>(size);
+        for (int j = 0; j < size; j++) {
+          results.add(new VideoCapabilities.DecoderProbeResult(
+            input.readUTF(),
+            input.readBoolean(),
+            input.readInt(),
+            input.readInt()
+          ));
+        }
+        entries.put(key, results);
+      }
+    }
+  }
+
+  private static void persist() {
+    File file = cacheFile();
+    if (file == null) {
+      return;
+    }
+    Map<String, List<VideoCapabilities.DecoderProbeResult>> snapshot;
+    synchronized (entries) {
+      snapshot = new LinkedHashMap<>(entries);
+    }
+    try {
+      writeTo(file, snapshot);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write the decoder probes cache", e);
+    }
+  }
+
+  private static void writeTo(
+    File file,
+    Map<String, List<VideoCapabilities.DecoderProbeResult>> snapshot
+  ) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    // Write to a temporary file first so that a concurrent reader never sees a partial cache
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+      output.writeInt(FILE_MAGIC);
+      output.writeInt(FILE_VERSION);
+      output.writeUTF(Build.FINGERPRINT);
+      output.writeInt(snapshot.size());
+      for (Map.Entry<String, List<VideoCapabilities.DecoderProbeResult>> entry
+        : snapshot.entrySet()) {
+        output.writeUTF(entry.getKey());
+        output.writeInt(entry.getValue().size());
+        for (VideoCapabilities.DecoderProbeResult result : entry.getValue()) {
+          output.writeUTF(result.getDecoderName());
+          output.writeBoolean(result.getHardwareAccelerated());
+          output.writeInt(result.getMaxInstances());
+          output.writeInt(result.getReportedMaxInstances());
+        }
+      }
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+  private static String cacheKey(String mimeType, int width, int height, int frameRate) {
+    return mimeType + "|" + width + "|" + height + "|" + frameRate;
+  }
+
+  @Nullable
+  private static File cacheFile() {
+    Context context = ReactNativeSkiaVideoModule.currentReactApplicationContext();
+    if (context == null) {
+      return null;
+    }
+    return new File(context.getCacheDir(), CACHE_FILE);
+  }
+}
@@ -0,0 +1,131 @@
+package com.azzapp.rnskv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * A size-classed pool of direct byte buffers.
+ * <p>
+ * Buffers are grouped in power of two size classes, a request is served by the smallest class
+ * that fits it. Buffers that are recycled while the pool already retains {@code maxPooledBytes}
+ * bytes, or that are bigger than the largest size class, are dropped and left to the GC.
+ */
+public class DirectBufferPool {
+
+  private static final int MIN_SIZE_CLASS_SHIFT = 12; // 4 KB
+
+  private static final int MAX_SIZE_CLASS_SHIFT = 22; // 4 MB
+
+  private final ArrayDeque<ByteBuffer>[] freeBuffers;
+
+  private final long maxPooledBytes;
+
+  private long pooledBytes = 0;
+
+  private long hitCount = 0;
+
+  private long missCount = 0;
+
+  private boolean released = false;
+
+  /**
+   * Creates a new DirectBufferPool.
+   *
+   * @param maxPooledBytes the maximum number of bytes retained by idle buffers in the pool
+   */
+  @SuppressWarnings("unchecked")
+  public DirectBufferPool(long maxPooledBytes) {
+    this.maxPooledBytes = maxPooledBytes;
+    freeBuffers = new ArrayDeque[MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1];
+    for (int i = 0; i < freeBuffers.length; i++) {
+      freeBuffers[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * Acquires a direct buffer in native byte order, with its limit set to the requested size.
+   * The buffer should be given back with {@link #recycle(ByteBuffer)} once it is not used anymore.
+   *
+   * @param size the size in bytes of the buffer
+   * @return a direct buffer of at least the requested capacity
+   */
+  public synchronized ByteBuffer acquire(int size) {
+    int sizeClass = sizeClassFor(size);
+    ByteBuffer buffer = null;
+    if (sizeClass != -1) {
+      buffer = freeBuffers[sizeClass].pollFirst();
+    }
+    if (buffer != null) {
+      hitCount++;
+      pooledBytes -= buffer.capacity();
+    } else {
+      missCount++;
+      int capacity = sizeClass != -1 ? 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT) : size;
+      buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Gives back a buffer acquired with {@link #acquire(int)} to the pool.
+   *
+   * @param buffer the buffer to recycle
+   */
+  public synchronized void recycle(ByteBuffer buffer) {
+    if (released) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    int sizeClass = sizeClassFor(capacity);
+    if (sizeClass == -1
+      || 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT) != capacity
+      || pooledBytes + capacity > maxPooledBytes) {
+      return;
+    }
+    pooledBytes += capacity;
+    freeBuffers[sizeClass].addFirst(buffer);
+  }
+
+  /**
+   * @return the number of acquisitions served by a pooled buffer
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * @return the number of acquisitions that required a new allocation
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * @return the number of bytes retained by idle buffers in the pool
+   */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * Drops all the pooled buffers, buffers recycled afterward are not retained.
+   */
+  public synchronized void release() {
+    released = true;
+    for (ArrayDeque<ByteBuffer> buffers : freeBuffers) {
+      buffers.clear();
+    }
+    pooledBytes = 0;
+  }
+
+  private static int sizeClassFor(int size) {
+    int shift = Math.max(MIN_SIZE_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 1)));
+    if (shift > MAX_SIZE_CLASS_SHIFT) {
+      return -1;
+    }
+    return shift - MIN_SIZE_CLASS_SHIFT;
+  }
+}
@@ -166,6 +166,18 @@ public class EGLUtils {
     }
   }
 
+  /**
+   * @return true if the current context supports OpenGL ES 3 calls such as fence syncs, the
+   * contexts created with a client version of 2 being often ES 3 contexts
+   */
+  public static boolean isCurrentContextGLES3() {
+    String version = GLES20.glGetString(GLES20.GL_VERSION);
+    return version != null
+      && version.startsWith("OpenGL ES ")
+      && !version.startsWith("OpenGL ES 2.")
+      && !version.startsWith("OpenGL ES 1.");
+  }
+
   /**
    * Binds the texture of the given type with default configuration of GL_LINEAR filtering and
    * GL_CLAMP_TO_EDGE wrapping.
@@ -0,0 +1,268 @@
+package com.azzapp.rnskv;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A cache of the encoder configurations probed by
+ * {@link VideoCapabilities#getValidEncoderConfigurations(String, int, int, int, int)}.
+ * <p>
+ * Probing creates and configures every candidate encoder, which takes hundreds of milliseconds.
+ * The results are kept in memory and persisted in a small binary file in the application cache
+ * directory, keyed by codec, size, frame rate and bit rate. The file is tied to
+ * {@link Build#FINGERPRINT}: after a system update the stored results are discarded and the
+ * configurations they were probed for are probed again in the background. {@link #warmUp()}
+ * loads the file off the calling thread, so that the lookups made afterward are served from
+ * memory.
+ */
+public class EncoderConfigurationCache {
+
+  private static final String TAG = "EncoderConfigCache";
+
+  private static final int FILE_MAGIC = 0x45434346; // "ECCF"
+
+  private static final int FILE_VERSION = 1;
+
+  private static final String CACHE_FILE = "rnskv-encoder-configurations.bin";
+
+  // Bounds the file size, the least recently probed configurations being dropped first
+  private static final int MAX_ENTRIES = 64;
+
+  private static final LinkedHashMap<String, List<VideoCapabilities.EncoderInfo>> entries =
+    new LinkedHashMap<>(16, 0.75f, true);
+
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  // Serializes the probes, concurrent probes competing for the same encoder instances
+  private static final Object probeLock = new Object();
+
+  private static boolean loaded = false;
+
+  private EncoderConfigurationCache() {
+  }
+
+  /**
+   * Loads the persisted configurations in the background, and probes again those discarded by a
+   * system update.
+   */
+  public static void warmUp() {
+    executor.execute(EncoderConfigurationCache::ensureLoaded);
+  }
+
+  /**
+   * Returns the configurations of the given settings, probing them if they are not cached.
+   *
+   * @param codec     the codec, one of the VideoCapabilities CODEC_ constants
+   * @param width     the width of the video
+   * @param height    the height of the video
+   * @param frameRate the frame rate of the video
+   * @param bitRate   the bit rate of the video
+   * @return the configurations, the best first
+   */
+  static List<VideoCapabilities.EncoderInfo> get(
+    String codec,
+    int width,
+    int height,
+    int frameRate,
+    int bitRate
+  ) {
+    String key = cacheKey(codec, width, height, frameRate, bitRate);
+    List<VideoCapabilities.EncoderInfo> encoderInfos = getIfLoaded(key);
+    if (encoderInfos != null) {
+      return new ArrayList<>(encoderInfos);
+    }
+    ensureLoaded();
+    synchronized (probeLock) {
+      encoderInfos = getIfLoaded(key);
+      if (encoderInfos == null) {
+        encoderInfos = probe(key);
+        persist();
+      }
+    }
+    return new ArrayList<>(encoderInfos);
+  }
+
+  @Nullable
+  private static List<VideoCapabilities.EncoderInfo> getIfLoaded(String key) {
+    synchronized (entries) {
+      return entries.get(key);
+    }
+  }
+
+  // Probes a configuration and caches the result, must be called with the probe lock held. An
+  // empty result is not cached, it is cheap to probe again and might only come from encoders
+  // busy at the time of the probe.
+  private static List<VideoCapabilities.EncoderInfo> probe(String key) {
+    String[] parts = key.split("\\|");
+    List<VideoCapabilities.EncoderInfo> encoderInfos =
+      VideoCapabilities.probeEncoderConfigurations(
+        parts[0],
+        Integer.parseInt(parts[1]),
+        Integer.parseInt(parts[2]),
+        Integer.parseInt(parts[3]),
+        Integer.parseInt(parts[4]));
+    if (encoderInfos.isEmpty()) {
+      return encoderInfos;
+    }
+    synchronized (entries) {
+      entries.put(key, encoderInfos);
+      while (entries.size() > MAX_ENTRIES) {
+        entries.remove(entries.keySet().iterator().next());
+      }
+    }
+    return encoderInfos;
+  }
+
+  private static void ensureLoaded() {
+    List<String> staleKeys = new ArrayList<>();
+    synchronized (entries) {
+      if (loaded) {
+        return;
+      }
+      File file = cacheFile();
+      if (file == null) {
+        // Not installed yet, the lookups are probed until the cache can be loaded
+        return;
+      }
+      loaded = true;
+      if (!file.exists()) {
+        return;
+      }
+      try {
+        readFrom(file, staleKeys);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read the encoder configurations cache", e);
+        entries.clear();
+        file.delete();
+      }
+    }
+    if (!staleKeys.isEmpty()) {
+      executor.execute(() -> {
+        synchronized (probeLock) {
+          for (String key : staleKeys) {
+            if (getIfLoaded(key) == null) {
+              probe(key);
+            }
+          }
+          persist();
+        }
+      });
+    }
+  }
+
+  // Reads the entries of the file, or only their keys if it was written by another system build
+  private static void readFrom(File file, List<String> staleKeys) throws IOException {
+    try (DataInputStream input = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+        throw new IOException("Invalid encoder configurations cache " + file);
+      }
+      boolean stale = !Build.FINGERPRINT.equals(input.readUTF());
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        String key = input.readUTF();
+        int size = input.readInt();
+        List<VideoCapabilities.EncoderInfo> encoderInfos = new ArrayList<>(size);
+        for (int j = 0; j < size; j++) {
+          encoderInfos.add(new VideoCapabilities.EncoderInfo(
+            input.readUTF(),
+            input.readUTF(),
+            input.readBoolean(),
+            input.readInt(),
+            input.readInt(),
+            input.readInt(),
+            input.readInt()
+          ));
+        }
+        if (stale) {
+          staleKeys.add(key);
+        } else {
+          entries.put(key, encoderInfos);
+        }
+      }
+    }
+  }
+
+  private static void persist() {
+    File file = cacheFile();
+    if (file == null) {
+      return;
+    }
+    Map<String, List<VideoCapabilities.EncoderInfo>> snapshot;
+    synchronized (entries) {
+      snapshot = new LinkedHashMap<>(entries);
+    }
+    try {
+      writeTo(file, snapshot);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write the encoder configurations cache", e);
+    }
+  }
+
+  private static void writeTo(
+    File file,
+    Map<String, List<VideoCapabilities.EncoderInfo>> snapshot
+  ) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    // Write to a temporary file first so that a concurrent reader never sees a partial cache
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+      output.writeInt(FILE_MAGIC);
+      output.writeInt(FILE_VERSION);
+      output.writeUTF(Build.FINGERPRINT);
+      output.writeInt(snapshot.size());
+      for (Map.Entry<String, List<VideoCapabilities.EncoderInfo>> entry : snapshot.entrySet()) {
+        output.writeUTF(entry.getKey());
+        output.writeInt(entry.getValue().size());
+        for (VideoCapabilities.EncoderInfo encoderInfo : entry.getValue()) {
+          output.writeUTF(encoderInfo.getEncoderName());
+          output.writeUTF(encoderInfo.getCodec());
+          output.writeBoolean(encoderInfo.getHardwareAccelerated());
+          output.writeInt(encoderInfo.getWidth());
+          output.writeInt(encoderInfo.getHeight());
+          output.writeInt(encoderInfo.getFrameRate());
+          output.writeInt(encoderInfo.getBitrate());
+        }
+      }
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+  private static String cacheKey(String codec, int width, int height, int frameRate, int bitRate) {
+    return codec + "|" + width + "|" + height + "|" + frameRate + "|" + bitRate;
+  }
+
+  @Nullable
+  private static File cacheFile() {
+    Context context = ReactNativeSkiaVideoModule.currentReactApplicationContext();
+    if (context == null) {
+      return null;
+    }
+    return new File(context.getCacheDir(), CACHE_FILE);
+  }
+}
@@ -3,12 +3,22 @@ package com.azzapp.rnskv;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.SystemClock;
 import android.view.Surface;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A class that extracts frames from a SurfaceTexture streaming to an external texture and renders
  * them to a 2D texture.
+ * <p>
+ * By default a single output texture is overwritten by each decoded frame, so the frames must be
+ * consumed on the thread that decodes them. With several output buffers, each frame is rendered
+ * to a buffer that is neither the latest one nor acquired by a consumer, and a GL fence is
+ * inserted after the render. A consumer running on another context of the share group acquires
+ * the latest buffer, waits on its fence on the GPU and releases it with a fence of its own once
+ * done, the buffer being only reused once this fence is signaled. Fences need OpenGL ES 3, on an
+ * OpenGL ES 2 context the producer and the consumer finish their commands with glFinish instead.
  */
 public class GLFrameExtractor implements SurfaceTexture.OnFrameAvailableListener {
 
@@ -20,33 +30,47 @@ public class GLFrameExtractor implements SurfaceTexture.OnFrameAvailableListener
 
   private final SurfaceTexture surfaceTexture;
 
-  private int frameWidth = -1;
-
-  private int frameHeight = -1;
-
   private final int inputTexId;
 
-  private final int outputTexId;
+  private final OutputBuffer[] outputBuffers;
+
+  private int currentOutputBuffer = 0;
 
   private final int frameBuffer;
 
   private final TextureRenderer textureRenderer;
 
+  // Whether the output buffers are synchronized with fences rather than glFinish
+  private final boolean useFences;
+
   private OnFrameAvailableListener onFrameAvailableListener;
 
   private long latestTimeStampNs = -1;
 
   public GLFrameExtractor() {
+    this(1);
+  }
+
+  /**
+   * Creates a new GLFrameExtractor.
+   *
+   * @param outputBufferCount the number of output textures, frames are only rendered in place
+   *                          and without fences when 1
+   */
+  public GLFrameExtractor(int outputBufferCount) {
     EGLUtils.purgeOpenGLError();
 
-    int[] texIds = new int[2];
-    GLES20.glGenTextures(2, texIds,0);
+    int[] texIds = new int[1 + outputBufferCount];
+    GLES20.glGenTextures(texIds.length, texIds,0);
 
     inputTexId = texIds[0];
     EGLUtils.configureTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, inputTexId);
 
-    outputTexId = texIds[1];
-    EGLUtils.configureTexture(GLES20.GL_TEXTURE_2D, outputTexId);
+    outputBuffers = new OutputBuffer[outputBufferCount];
+    for (int i = 0; i < outputBufferCount; i++) {
+      outputBuffers[i] = new OutputBuffer(texIds[1 + i]);
+      EGLUtils.configureTexture(GLES20.GL_TEXTURE_2D, texIds[1 + i]);
+    }
 
     int[] bufferIds = new int[1];
     GLES20.glGenFramebuffers(1, bufferIds, 0);
@@ -54,6 +78,8 @@ public class GLFrameExtractor implements SurfaceTexture.OnFrameAvailableListener
 
     EGLUtils.checkGlError("GLFrameExtractor()");
 
+    useFences = outputBufferCount > 1 && EGLUtils.isCurrentContextGLES3();
+
     textureRenderer = new TextureRenderer(true);
 
     surfaceTexture = new SurfaceTexture(inputTexId);
@@ -73,19 +99,35 @@ public class GLFrameExtractor implements SurfaceTexture.OnFrameAvailableListener
    * Decode the next frame and render it to the output texture.
    * @param width the width of the frame
    * @param height the height of the frame
-   * @return true if a new frame was decoded, false otherwise
+   * @return true if a new frame was decoded, false otherwise, also if all the output buffers are
+   * acquired, the frame then stays pending until one of them is released
    */
   public boolean decodeNextFrame(int width, int height) {
-    if(!frameAvailable.compareAndSet(true, false)) {
+    if (!frameAvailable.get()) {
+      return false;
+    }
+    int bufferIndex = nextOutputBuffer();
+    if (bufferIndex == -1 || !frameAvailable.compareAndSet(true, false)) {
       return false;
     }
+    OutputBuffer outputBuffer = outputBuffers[bufferIndex];
 
     EGLUtils.purgeOpenGLError();
 
-    if (width != frameWidth || height != frameHeight) {
-      frameWidth = width;
-      frameHeight = height;
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, outputTexId);
+    long consumerFence;
+    synchronized (this) {
+      consumerFence = outputBuffer.consumerFence;
+      outputBuffer.consumerFence = 0;
+    }
+    if (consumerFence != 0) {
+      GLES30.glWaitSync(consumerFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+      GLES30.glDeleteSync(consumerFence);
+    }
+
+    if (width != outputBuffer.width || height != outputBuffer.height) {
+      outputBuffer.width = width;
+      outputBuffer.height = height;
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, outputBuffer.texId);
       GLES20.glTexImage2D(
         GLES20.GL_TEXTURE_2D,
         0,
@@ -106,7 +148,7 @@ public class GLFrameExtractor implements SurfaceTexture.OnFrameAvailableListener
       GLES20.GL_FRAMEBUFFER,
       GLES20.GL_COLOR_ATTACHMENT0,
       GLES20.GL_TEXTURE_2D,
-      outputTexId,
+      outputBuffer.texId,
       0
     );
     GLES20.glClearColor(0,0,0,0);
@@ -115,15 +157,173 @@ public class GLFrameExtractor implements SurfaceTexture.OnFrameAvailableListener
     textureRenderer.draw(inputTexId, transformMatrix);
     EGLUtils.checkGlError("GLFrameExtractor.draw()");
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+    if (outputBuffers.length > 1) {
+      long producerFence = 0;
+      if (useFences) {
+        if (outputBuffer.producerFence != 0) {
+          GLES30.glDeleteSync(outputBuffer.producerFence);
+        }
+        producerFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // Fences are only visible to other contexts once flushed
+        GLES20.glFlush();
+      } else {
+        // The frame is complete for the other contexts once the commands are finished
+        GLES20.glFinish();
+      }
+      synchronized (this) {
+        outputBuffer.producerFence = producerFence;
+        currentOutputBuffer = bufferIndex;
+      }
+    }
     return true;
   }
 
+  /**
+   * Waits for the next frame and renders it to the output texture. Must be called on a thread
+   * without looper, the frame available notifications of the SurfaceTexture being otherwise
+   * delivered on the calling thread.
+   *
+   * @param width     the width of the frame
+   * @param height    the height of the frame
+   * @param timeoutMs the maximum time to wait in milliseconds
+   * @return true if a new frame was decoded, false if the timeout elapsed
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public boolean awaitNextFrame(int width, int height, long timeoutMs)
+    throws InterruptedException {
+    long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+    while (!decodeNextFrame(width, height)) {
+      long remaining = deadline - SystemClock.elapsedRealtime();
+      if (remaining <= 0) {
+        return false;
+      }
+      synchronized (frameAvailable) {
+        if (!frameAvailable.get()) {
+          frameAvailable.wait(remaining);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the index of the buffer the next frame will be rendered to, or -1 if none is free.
+   */
+  private synchronized int nextOutputBuffer() {
+    if (outputBuffers.length == 1) {
+      return 0;
+    }
+    for (int i = 1; i < outputBuffers.length; i++) {
+      int index = (currentOutputBuffer + i) % outputBuffers.length;
+      if (outputBuffers[index].acquireCount == 0) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+
+  /**
+   * Forget the pending frame notification, used when the extractor is bound to a new producer.
+   */
+  public void reset() {
+    frameAvailable.set(false);
+    latestTimeStampNs = -1;
+  }
 
   /**
    * Get the name of the texture that contains the output frame.
    */
-  public int getOutputTexId() {
-    return outputTexId;
+  public synchronized int getOutputTexId() {
+    return outputBuffers[currentOutputBuffer].texId;
+  }
+
+  /**
+   * @return the number of output textures of the extractor
+   */
+  public int getOutputBufferCount() {
+    return outputBuffers.length;
+  }
+
+  /**
+   * @param texId the name of a texture
+   * @return true if the texture is one of the output textures of this extractor
+   */
+  public boolean ownsOutputTexture(int texId) {
+    return findOutputBuffer(texId) != null;
+  }
+
+  /**
+   * Prevents the given output texture from being overwritten until a matching call to
+   * {@link #releaseOutputTexture}. A texture may be acquired several times.
+   *
+   * @param texId the name of the output texture
+   */
+  public synchronized void acquireOutputTexture(int texId) {
+    OutputBuffer outputBuffer = findOutputBuffer(texId);
+    if (outputBuffer != null) {
+      outputBuffer.acquireCount++;
+    }
+  }
+
+  /**
+   * Makes the current context wait on the GPU for the rendering of the given output texture.
+   * Must be called on the consumer context before sampling the texture.
+   *
+   * @param texId the name of the output texture
+   */
+  public void waitForOutputTexture(int texId) {
+    long producerFence;
+    synchronized (this) {
+      OutputBuffer outputBuffer = findOutputBuffer(texId);
+      producerFence = outputBuffer != null ? outputBuffer.producerFence : 0;
+    }
+    if (producerFence != 0) {
+      GLES30.glWaitSync(producerFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+    }
+  }
+
+  /**
+   * Gives back an output texture previously acquired. Must be called on the consumer context
+   * once all the commands sampling the texture have been issued.
+   *
+   * @param texId the name of the output texture
+   */
+  public void releaseOutputTexture(int texId) {
+    OutputBuffer outputBuffer = findOutputBuffer(texId);
+    if (outputBuffer == null) {
+      return;
+    }
+    if (!useFences) {
+      // The texture can be overwritten once the sampling commands are finished
+      GLES20.glFinish();
+      synchronized (this) {
+        outputBuffer.acquireCount = Math.max(0, outputBuffer.acquireCount - 1);
+      }
+      return;
+    }
+    long consumerFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    GLES20.glFlush();
+    long previousFence;
+    synchronized (this) {
+      previousFence = outputBuffer.consumerFence;
+      outputBuffer.consumerFence = consumerFence;
+      outputBuffer.acquireCount = Math.max(0, outputBuffer.acquireCount - 1);
+    }
+    if (previousFence != 0) {
+      // The new fence comes after the previous one on the same context
+      GLES30.glDeleteSync(previousFence);
+    }
+  }
+
+  private OutputBuffer findOutputBuffer(int texId) {
+    for (OutputBuffer outputBuffer : outputBuffers) {
+      if (outputBuffer.texId == texId) {
+        return outputBuffer;
+      }
+    }
+    return null;
   }
 
   /**
@@ -135,7 +335,10 @@ public class GLFrameExtractor implements SurfaceTexture.OnFrameAvailableListener
 
   @Override
   public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-    frameAvailable.set(true);
+    synchronized (frameAvailable) {
+      frameAvailable.set(true);
+      frameAvailable.notifyAll();
+    }
     if (onFrameAvailableListener != null) {
       onFrameAvailableListener.onFrameAvailable();
     }
@@ -156,7 +359,37 @@ public class GLFrameExtractor implements SurfaceTexture.OnFrameAvailableListener
       GLES20.glDeleteFramebuffers(1, new int[]{frameBuffer}, 0);
     }
     if (inputTexId != -1) {
-      GLES20.glDeleteTextures(2, new int[]{inputTexId, outputTexId}, 0);
+      int[] texIds = new int[1 + outputBuffers.length];
+      texIds[0] = inputTexId;
+      for (int i = 0; i < outputBuffers.length; i++) {
+        texIds[1 + i] = outputBuffers[i].texId;
+      }
+      GLES20.glDeleteTextures(texIds.length, texIds, 0);
+    }
+    synchronized (this) {
+      for (OutputBuffer outputBuffer : outputBuffers) {
+        if (outputBuffer.producerFence != 0) {
+          GLES30.glDeleteSync(outputBuffer.producerFence);
+          outputBuffer.producerFence = 0;
+        }
+        if (outputBuffer.consumerFence != 0) {
+          GLES30.glDeleteSync(outputBuffer.consumerFence);
+          outputBuffer.consumerFence = 0;
+        }
+      }
+    }
+  }
+
+  private static class OutputBuffer {
+    private final int texId;
+    private int width = -1;
+    private int height = -1;
+    private int acquireCount = 0;
+    private long producerFence = 0;
+    private long consumerFence = 0;
+
+    private OutputBuffer(int texId) {
+      this.texId = texId;
     }
   }
 
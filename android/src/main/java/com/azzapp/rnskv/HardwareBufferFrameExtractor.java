@@ -0,0 +1,262 @@
+package com.azzapp.rnskv;
+
+import android.graphics.ImageFormat;
+import android.hardware.HardwareBuffer;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A class that extracts frames from an ImageReader backed by GPU sampleable hardware buffers.
+ * <p>
+ * Unlike {@link GLFrameExtractor}, the decoded frames are not rendered to a 2D texture: the
+ * hardware buffer the decoder wrote to is handed as is to the consumer, which wraps it in an image
+ * without any copy. The buffer of a frame is only given back to the decoder once a newer frame
+ * has been extracted and every consumer that {@link #acquireFrame(HardwareBuffer) acquired} it has
+ * {@link #releaseFrame(HardwareBuffer) released} it, so that it is never written to while sampled.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+public class HardwareBufferFrameExtractor implements ImageReader.OnImageAvailableListener {
+
+  private static final String TAG = "HardwareBufferFrameExtractor";
+
+  private static final int MAX_IMAGES = 4;
+
+  private final AtomicBoolean frameAvailable = new AtomicBoolean(false);
+
+  private final ImageReader imageReader;
+
+  // The images not given back to the reader yet, the latest frame last
+  private final ArrayDeque<HeldImage> heldImages = new ArrayDeque<>();
+
+  private boolean released = false;
+
+  private OnFrameAvailableListener onFrameAvailableListener;
+
+  /**
+   * Creates a new HardwareBufferFrameExtractor.
+   *
+   * @param width  the width of the decoded frames, before rotation
+   * @param height the height of the decoded frames, before rotation
+   */
+  public HardwareBufferFrameExtractor(int width, int height) {
+    imageReader = ImageReader.newInstance(
+      width,
+      height,
+      ImageFormat.PRIVATE,
+      MAX_IMAGES,
+      HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE
+    );
+    Looper looper = Looper.myLooper();
+    imageReader.setOnImageAvailableListener(
+      this,
+      new Handler(looper != null ? looper : Looper.getMainLooper())
+    );
+  }
+
+  /**
+   * Set the listener that will be called when a new frame is available.
+   * @param onFrameAvailableListener the listener to set
+   */
+  public void setOnFrameAvailableListener(OnFrameAvailableListener onFrameAvailableListener) {
+    this.onFrameAvailableListener = onFrameAvailableListener;
+  }
+
+  /**
+   * Acquire the latest frame produced by the decoder.
+   * @return true if a new frame was acquired, false otherwise
+   */
+  public synchronized boolean decodeNextFrame() {
+    if (released || !frameAvailable.compareAndSet(true, false)) {
+      return false;
+    }
+    Image image;
+    try {
+      image = imageReader.acquireLatestImage();
+    } catch (IllegalStateException e) {
+      Log.w(TAG, "No image slot available", e);
+      frameAvailable.set(true);
+      return false;
+    }
+    if (image == null) {
+      return false;
+    }
+    HardwareBuffer hardwareBuffer = image.getHardwareBuffer();
+    if (hardwareBuffer == null) {
+      image.close();
+      return false;
+    }
+    HeldImage previousImage = heldImages.peekLast();
+    heldImages.addLast(new HeldImage(image, hardwareBuffer));
+    if (previousImage != null) {
+      // The extractor only keeps the latest frame, the consumers might still hold the previous one
+      releaseHeldImage(previousImage);
+    }
+    return true;
+  }
+
+  /**
+   * Prevents the image of a frame from being given back to the decoder until
+   * {@link #releaseFrame(HardwareBuffer)} is called with the same buffer.
+   *
+   * @param hardwareBuffer the buffer returned by {@link #getHardwareBuffer()}
+   * @return false if the frame was already given back to the decoder
+   */
+  public synchronized boolean acquireFrame(HardwareBuffer hardwareBuffer) {
+    HeldImage heldImage = findHeldImage(hardwareBuffer);
+    if (heldImage == null) {
+      return false;
+    }
+    heldImage.refCount++;
+    return true;
+  }
+
+  /**
+   * Releases a frame previously acquired with {@link #acquireFrame(HardwareBuffer)}.
+   *
+   * @param hardwareBuffer the acquired buffer
+   */
+  public synchronized void releaseFrame(HardwareBuffer hardwareBuffer) {
+    HeldImage heldImage = findHeldImage(hardwareBuffer);
+    if (heldImage != null) {
+      releaseHeldImage(heldImage);
+    }
+  }
+
+  /**
+   * @param hardwareBuffer a buffer returned by {@link #getHardwareBuffer()}
+   * @return true if the image of the buffer has not been given back to the decoder
+   */
+  public synchronized boolean holdsFrame(HardwareBuffer hardwareBuffer) {
+    return findHeldImage(hardwareBuffer) != null;
+  }
+
+  /**
+   * @return true once released and all the acquired frames have been given back
+   */
+  public synchronized boolean isClosed() {
+    return released && heldImages.isEmpty();
+  }
+
+  @Nullable
+  private HeldImage findHeldImage(HardwareBuffer hardwareBuffer) {
+    for (HeldImage heldImage : heldImages) {
+      if (heldImage.hardwareBuffer == hardwareBuffer) {
+        return heldImage;
+      }
+    }
+    return null;
+  }
+
+  private void releaseHeldImage(HeldImage heldImage) {
+    heldImage.refCount--;
+    if (heldImage.refCount > 0) {
+      return;
+    }
+    heldImages.remove(heldImage);
+    heldImage.close();
+    if (released && heldImages.isEmpty()) {
+      // Closing the reader invalidates its images, it waits for the last acquired one
+      imageReader.close();
+    }
+  }
+
+  /**
+   * Get the hardware buffer of the latest frame, or null if no frame was extracted.
+   */
+  @Nullable
+  public synchronized HardwareBuffer getHardwareBuffer() {
+    if (released) {
+      return null;
+    }
+    HeldImage heldImage = heldImages.peekLast();
+    return heldImage != null ? heldImage.hardwareBuffer : null;
+  }
+
+  public synchronized long getLatestTimeStampNs() {
+    HeldImage heldImage = heldImages.peekLast();
+    return heldImage != null ? heldImage.timestampNs : -1;
+  }
+
+  /**
+   * Get the surface the decoder should render to.
+   */
+  public Surface getSurface() {
+    return imageReader.getSurface();
+  }
+
+  @Override
+  public void onImageAvailable(ImageReader reader) {
+    frameAvailable.set(true);
+    if (onFrameAvailableListener != null) {
+      onFrameAvailableListener.onFrameAvailable();
+    }
+  }
+
+  /**
+   * Releases the extractor. The frames still acquired by consumers stay valid until released,
+   * see {@link #releaseFrame(HardwareBuffer)}.
+   */
+  public synchronized void release() {
+    if (released) {
+      return;
+    }
+    released = true;
+    imageReader.setOnImageAvailableListener(null, null);
+    HeldImage latestImage = heldImages.peekLast();
+    if (latestImage != null) {
+      releaseHeldImage(latestImage);
+    } else {
+      imageReader.close();
+    }
+  }
+
+  /**
+   * Releases the extractor and all its frames, whether acquired or not.
+   */
+  public synchronized void releaseNow() {
+    released = true;
+    imageReader.setOnImageAvailableListener(null, null);
+    HeldImage heldImage;
+    while ((heldImage = heldImages.pollFirst()) != null) {
+      heldImage.close();
+    }
+    imageReader.close();
+  }
+
+  private static class HeldImage {
+    private final Image image;
+    private final HardwareBuffer hardwareBuffer;
+    private final long timestampNs;
+    // The extractor holds a reference to its latest frame, the consumers one per acquisition
+    private int refCount = 1;
+
+    private HeldImage(Image image, HardwareBuffer hardwareBuffer) {
+      this.image = image;
+      this.hardwareBuffer = hardwareBuffer;
+      this.timestampNs = image.getTimestamp();
+    }
+
+    private void close() {
+      hardwareBuffer.close();
+      image.close();
+    }
+  }
+
+  /**
+   * A listener that will be called when a new frame is available.
+   */
+  public interface OnFrameAvailableListener {
+    void onFrameAvailable();
+  }
+}
@@ -0,0 +1,237 @@
+package com.azzapp.rnskv;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Writes the encoded samples of a video track and an optional audio track to a MediaMuxer,
+ * interleaved by presentation time.
+ * <p>
+ * The samples are copied to pooled direct buffers and queued per track, so that the encoders
+ * output buffers are given back right away. The muxer is only started once the format of every
+ * track is known, the samples encoded before being kept in the queues instead of being dropped.
+ * A track that ends without ever reporting its format is left out of the file. Queued samples are
+ * written in presentation time order: a sample is written once the other track has a later sample
+ * queued or has ended, or once its own queue spans more than {@link #MAX_INTERLEAVE_DELTA_US} so
+ * that a stalled track never holds the other one back for long.
+ */
+public class InterleavingMuxer {
+
+  private static final String TAG = "InterleavingMuxer";
+
+  public static final int TRACK_VIDEO = 0;
+
+  public static final int TRACK_AUDIO = 1;
+
+  static final long MAX_INTERLEAVE_DELTA_US = 1000000;
+
+  private static final long BUFFER_POOL_MAX_BYTES = 8 * 1024 * 1024;
+
+  private final MediaMuxer muxer;
+
+  private final Track[] tracks = new Track[]{new Track(), new Track()};
+
+  private final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_POOL_MAX_BYTES);
+
+  private final MediaCodec.BufferInfo writeBufferInfo = new MediaCodec.BufferInfo();
+
+  private boolean started = false;
+
+  private boolean finished = false;
+
+  /**
+   * Creates a new InterleavingMuxer writing an MPEG-4 file.
+   *
+   * @param outputPath the path of the file to write
+   * @param hasAudio   whether an audio track is expected
+   * @throws IOException if the file cannot be created
+   */
+  public InterleavingMuxer(String outputPath, boolean hasAudio) throws IOException {
+    muxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    tracks[TRACK_AUDIO].expected = hasAudio;
+  }
+
+  /**
+   * Sets the format of a track, the muxer is started once the formats of all the expected tracks
+   * are known.
+   *
+   * @param track  {@link #TRACK_VIDEO} or {@link #TRACK_AUDIO}
+   * @param format the output format of the encoder of the track
+   */
+  public synchronized void setTrackFormat(int track, MediaFormat format) {
+    if (tracks[track].format != null) {
+      throw new IllegalStateException("format of track " + track + " changed twice");
+    }
+    tracks[track].format = format;
+    startIfReady();
+    drain(false);
+  }
+
+  /**
+   * Queues an encoded sample, the data is copied so the encoder buffer can be released right
+   * after the call.
+   *
+   * @param track the track of the sample
+   * @param data  the encoded data, read from the offset and size of the buffer info
+   * @param info  the buffer info of the sample
+   */
+  public synchronized void writeSample(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+    if (finished || info.size == 0) {
+      return;
+    }
+    ByteBuffer buffer = bufferPool.acquire(info.size);
+    ByteBuffer source = data.duplicate();
+    source.position(info.offset);
+    source.limit(info.offset + info.size);
+    buffer.put(source);
+    buffer.flip();
+    tracks[track].queue.addLast(new Sample(buffer, info.presentationTimeUs, info.flags));
+    drain(false);
+  }
+
+  /**
+   * Notifies that a track has no more samples. A track ended without format is left out of the
+   * file.
+   *
+   * @param track the track that ended
+   */
+  public synchronized void endTrack(int track) {
+    Track endedTrack = tracks[track];
+    endedTrack.ended = true;
+    if (endedTrack.format == null) {
+      endedTrack.expected = false;
+    }
+    startIfReady();
+    drain(false);
+  }
+
+  /**
+   * Writes all the queued samples and stops the muxer.
+   */
+  public synchronized void finish() {
+    if (finished) {
+      return;
+    }
+    if (!started) {
+      // The tracks whose format is still unknown are given up
+      for (Track track : tracks) {
+        if (track.format == null) {
+          track.expected = false;
+        }
+      }
+      startIfReady();
+    }
+    drain(true);
+    finished = true;
+    if (started) {
+      muxer.stop();
+    }
+  }
+
+  /**
+   * Releases the muxer and the queued samples.
+   */
+  public synchronized void release() {
+    if (started && !finished) {
+      try {
+        muxer.stop();
+      } catch (IllegalStateException e) {
+        Log.w(TAG, "Failed to stop the muxer", e);
+      }
+    }
+    finished = true;
+    muxer.release();
+    for (Track track : tracks) {
+      track.queue.clear();
+    }
+    bufferPool.release();
+  }
+
+  private void startIfReady() {
+    if (started) {
+      return;
+    }
+    boolean hasTrack = false;
+    for (Track track : tracks) {
+      if (track.expected && track.format == null) {
+        return;
+      }
+      hasTrack |= track.expected;
+    }
+    if (!hasTrack) {
+      return;
+    }
+    for (Track track : tracks) {
+      if (track.expected) {
+        track.muxerIndex = muxer.addTrack(track.format);
+      }
+    }
+    muxer.start();
+    started = true;
+  }
+
+  private void drain(boolean flush) {
+    if (!started) {
+      return;
+    }
+    while (true) {
+      int next = -1;
+      for (int i = 0; i < tracks.length; i++) {
+        Sample head = tracks[i].queue.peekFirst();
+        if (head != null && (next == -1
+          || head.presentationTimeUs < tracks[next].queue.peekFirst().presentationTimeUs)) {
+          next = i;
+        }
+      }
+      if (next == -1) {
+        return;
+      }
+      Track track = tracks[next];
+      Track other = tracks[1 - next];
+      boolean otherAhead = !other.expected || other.ended || !other.queue.isEmpty();
+      if (!flush && !otherAhead && track.queuedDurationUs() <= MAX_INTERLEAVE_DELTA_US) {
+        // Waits for a sample of the other track that might come before
+        return;
+      }
+      Sample sample = track.queue.pollFirst();
+      if (track.expected) {
+        writeBufferInfo.set(
+          0, sample.buffer.remaining(), sample.presentationTimeUs, sample.flags);
+        muxer.writeSampleData(track.muxerIndex, sample.buffer, writeBufferInfo);
+      }
+      bufferPool.recycle(sample.buffer);
+    }
+  }
+
+  private static class Track {
+    private final ArrayDeque<Sample> queue = new ArrayDeque<>();
+    private boolean expected = true;
+    private boolean ended = false;
+    private MediaFormat format;
+    private int muxerIndex = -1;
+
+    private long queuedDurationUs() {
+      Sample first = queue.peekFirst();
+      Sample last = queue.peekLast();
+      return first != null ? last.presentationTimeUs - first.presentationTimeUs : 0;
+    }
+  }
+
+  private static class Sample {
+    private final ByteBuffer buffer;
+    private final long presentationTimeUs;
+    private final int flags;
+
+    private Sample(ByteBuffer buffer, long presentationTimeUs, int flags) {
+      this.buffer = buffer;
+      this.presentationTimeUs = presentationTimeUs;
+      this.flags = flags;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.azzapp.rnskv;
+
+import android.view.Choreographer;
+
+/**
+ * A source of display synchronized frame callbacks used to drive the playback of a composition.
+ */
+public interface PlaybackClock {
+
+  /**
+   * Posts a callback to be called once at the next frame.
+   *
+   * @param callback the callback
+   */
+  void postFrameCallback(FrameCallback callback);
+
+  /**
+   * Removes a previously posted callback.
+   *
+   * @param callback the callback
+   */
+  void removeFrameCallback(FrameCallback callback);
+
+  /**
+   * A callback called at each frame.
+   */
+  interface FrameCallback {
+    /**
+     * @param frameTimeNanos the time at which the frame started to be rendered, in the
+     *                       {@link System#nanoTime()} time base
+     */
+    void doFrame(long frameTimeNanos);
+  }
+
+  /**
+   * A clock driven by the display vsync through the {@link Choreographer} of the calling thread.
+   * Must be created on a thread with a looper.
+   */
+  class ChoreographerClock implements PlaybackClock, Choreographer.FrameCallback {
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    private FrameCallback callback;
+
+    @Override
+    public void postFrameCallback(FrameCallback callback) {
+      this.callback = callback;
+      choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void removeFrameCallback(FrameCallback callback) {
+      if (this.callback == callback) {
+        this.callback = null;
+        choreographer.removeFrameCallback(this);
+      }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      FrameCallback callback = this.callback;
+      this.callback = null;
+      if (callback != null) {
+        callback.doFrame(frameTimeNanos);
+      }
+    }
+  }
+}
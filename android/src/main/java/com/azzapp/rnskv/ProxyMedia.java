@@ -0,0 +1,177 @@
+package com.azzapp.rnskv;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Low resolution proxies of the media used in compositions, used to preview compositions without
+ * keeping several full resolution decoders busy.
+ * <p>
+ * A proxy is a short GOP, video only transcode of a media file with the same timestamps, whose
+ * shortest side is one of the {@link #TIERS}. Proxies are built on a background thread the first
+ * time they are requested and stored in the application cache directory, the least recently used
+ * ones being evicted once the cache exceeds its byte budget.
+ */
+public class ProxyMedia {
+
+  private static final String TAG = "ProxyMedia";
+
+  /**
+   * The shortest side in pixels of the proxies that can be built.
+   */
+  public static final int[] TIERS = {360, 540, 720};
+
+  public static final long DEFAULT_CACHE_BUDGET_BYTES = 512L * 1024 * 1024;
+
+  private static final String CACHE_DIRECTORY = "rnskv-proxies";
+
+  private static final Set<String> pendingBuilds = new HashSet<>();
+
+  private static final ExecutorService buildExecutor = Executors.newSingleThreadExecutor();
+
+  private static volatile long cacheBudgetBytes = DEFAULT_CACHE_BUDGET_BYTES;
+
+  /**
+   * Sets the maximum size of the proxies cache, the least recently used proxies are deleted once
+   * it is exceeded.
+   *
+   * @param bytes the budget in bytes
+   */
+  public static void setCacheBudgetBytes(long bytes) {
+    cacheBudgetBytes = bytes;
+    buildExecutor.execute(ProxyMedia::trimCache);
+  }
+
+  /**
+   * Returns the smallest tier able to display a media at the given size without upscaling.
+   *
+   * @param width  the width at which the media is displayed
+   * @param height the height at which the media is displayed
+   * @return the tier, or -1 if the size is unknown or larger than the largest tier
+   */
+  public static int selectTier(int width, int height) {
+    int shortSide = Math.min(width, height);
+    if (shortSide <= 0) {
+      return -1;
+    }
+    for (int tier : TIERS) {
+      if (tier >= shortSide) {
+        return tier;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the proxy of the given media for the given tier if it has been built, otherwise
+   * schedules its build and returns null.
+   *
+   * @param path the path of the media file
+   * @param tier the tier of the proxy, one of {@link #TIERS}
+   * @return the path of the proxy, or null if it is not available
+   */
+  @Nullable
+  public static String getIfReady(String path, int tier) {
+    File directory = cacheDirectory();
+    if (directory == null || tier <= 0) {
+      return null;
+    }
+    String name = proxyName(path, tier);
+    File proxyFile = new File(directory, name + ".mp4");
+    if (proxyFile.exists()) {
+      // The modification time tracks the last use of the proxy for the eviction
+      proxyFile.setLastModified(System.currentTimeMillis());
+      return proxyFile.getPath();
+    }
+    if (new File(directory, name + ".skip").exists()) {
+      return null;
+    }
+    synchronized (pendingBuilds) {
+      if (!pendingBuilds.add(name)) {
+        return null;
+      }
+    }
+    buildExecutor.execute(() -> {
+      try {
+        build(path, tier, directory, name);
+      } finally {
+        synchronized (pendingBuilds) {
+          pendingBuilds.remove(name);
+        }
+      }
+    });
+    return null;
+  }
+
+  private static void build(String path, int tier, File directory, String name) {
+    if (!directory.exists() && !directory.mkdirs()) {
+      Log.w(TAG, "Could not create directory " + directory);
+      return;
+    }
+    File proxyFile = new File(directory, name + ".mp4");
+    // Write to a temporary file first so that a partial proxy is never decoded
+    File tmpFile = new File(directory, name + ".tmp");
+    try {
+      if (!ProxyTranscoder.transcode(path, tmpFile.getPath(), tier)) {
+        // The media is not larger than the tier, it is its own proxy
+        new File(directory, name + ".skip").createNewFile();
+        return;
+      }
+      if (!tmpFile.renameTo(proxyFile)) {
+        throw new Exception("Could not write " + proxyFile);
+      }
+    } catch (Exception e) {
+      Log.w(TAG, "Failed to build proxy of " + path, e);
+      tmpFile.delete();
+      return;
+    }
+    trimCache();
+  }
+
+  private static void trimCache() {
+    File directory = cacheDirectory();
+    File[] files = directory != null ? directory.listFiles() : null;
+    if (files == null) {
+      return;
+    }
+    long size = 0;
+    for (File file : files) {
+      size += file.length();
+    }
+    Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    for (File file : files) {
+      if (size <= cacheBudgetBytes) {
+        break;
+      }
+      if (file.getName().endsWith(".mp4")) {
+        size -= file.length();
+        file.delete();
+      }
+    }
+  }
+
+  private static String proxyName(String path, int tier) {
+    File mediaFile = new File(path);
+    String key = mediaFile.getAbsolutePath() + "|" + mediaFile.length() + "|"
+      + mediaFile.lastModified();
+    return CacheHelpers.fileNameFor(key) + "_" + tier;
+  }
+
+  @Nullable
+  private static File cacheDirectory() {
+    Context context = ReactNativeSkiaVideoModule.currentReactApplicationContext();
+    if (context == null) {
+      return null;
+    }
+    return new File(context.getCacheDir(), CACHE_DIRECTORY);
+  }
+}
@@ -0,0 +1,168 @@
+package com.azzapp.rnskv;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.opengl.GLES20;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.microedition.khronos.egl.EGL10;
+
+/**
+ * Transcodes the video track of a media file to a low resolution proxy, see {@link ProxyMedia}.
+ * The transcoding is synchronous and must run on a thread without looper.
+ */
+class ProxyTranscoder {
+
+  private static final long TIMEOUT_US = 10000;
+
+  private static final long FRAME_TIMEOUT_MS = 1000;
+
+  private static final float PROXY_I_FRAME_INTERVAL_SECONDS = 0.5f;
+
+  private static final float PROXY_BITS_PER_PIXEL = 0.15f;
+
+  private static final int DEFAULT_FRAME_RATE = 30;
+
+  private ProxyTranscoder() {
+  }
+
+  /**
+   * Transcodes the video track of the given media so that its shortest side matches the tier.
+   *
+   * @param path       the path of the media file
+   * @param outputPath the path of the proxy to write
+   * @param tier       the shortest side in pixels of the proxy
+   * @return false if the media is not larger than the tier, in which case nothing is written
+   * @throws Exception if the transcoding fails
+   */
+  static boolean transcode(String path, String outputPath, int tier) throws Exception {
+    return new ProxyTranscoder().run(path, outputPath, tier);
+  }
+
+  private boolean run(String path, String outputPath, int tier) throws Exception {
+    MediaExtractor extractor = new MediaExtractor();
+    MediaCodec decoder = null;
+    EGLResourcesHolder eglResourcesHolder = null;
+    GLFrameExtractor glFrameExtractor = null;
+    VideoEncoder encoder = null;
+    try {
+      extractor.setDataSource(path);
+      MediaFormat format = null;
+      for (int i = 0; i < extractor.getTrackCount(); i++) {
+        MediaFormat trackFormat = extractor.getTrackFormat(i);
+        String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+        if (mime != null && mime.startsWith("video/")) {
+          extractor.selectTrack(i);
+          format = trackFormat;
+          break;
+        }
+      }
+      if (format == null) {
+        throw new IOException("No video track");
+      }
+      int rotation = format.containsKey(MediaFormat.KEY_ROTATION)
+        ? format.getInteger(MediaFormat.KEY_ROTATION)
+        : 0;
+      boolean swap = rotation == 90 || rotation == 270;
+      int sourceWidth = swap ? format.getInteger(MediaFormat.KEY_HEIGHT) : format.getInteger(MediaFormat.KEY_WIDTH);
+      int sourceHeight = swap ? format.getInteger(MediaFormat.KEY_WIDTH) : format.getInteger(MediaFormat.KEY_HEIGHT);
+      int shortSide = Math.min(sourceWidth, sourceHeight);
+      if (shortSide <= tier) {
+        return false;
+      }
+      // The rotation is applied while rendering, the proxy frames are upright
+      double scale = (double) tier / shortSide;
+      int width = evenSize(sourceWidth * scale);
+      int height = evenSize(sourceHeight * scale);
+      int frameRate = format.containsKey(MediaFormat.KEY_FRAME_RATE)
+        ? format.getInteger(MediaFormat.KEY_FRAME_RATE)
+        : DEFAULT_FRAME_RATE;
+
+      eglResourcesHolder = EGLResourcesHolder.createWithPBBufferSurface(EGL10.EGL_NO_CONTEXT);
+      eglResourcesHolder.makeCurrent();
+      glFrameExtractor = new GLFrameExtractor();
+
+      encoder = new VideoEncoder(
+        outputPath,
+        width,
+        height,
+        frameRate,
+        (int) (width * height * frameRate * PROXY_BITS_PER_PIXEL),
+        null,
+        0,
+        0,
+        0
+      );
+      encoder.setIFrameInterval(PROXY_I_FRAME_INTERVAL_SECONDS);
+      encoder.prepare();
+
+      decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+      DecoderProbeCache.onDecoderCreated();
+      decoder.configure(format, glFrameExtractor.getSurface(), null, 0);
+      decoder.start();
+
+      MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+      boolean inputDone = false;
+      while (true) {
+        if (!inputDone) {
+          int inputIndex = decoder.dequeueInputBuffer(TIMEOUT_US);
+          if (inputIndex >= 0) {
+            ByteBuffer inputBuffer = decoder.getInputBuffer(inputIndex);
+            int size = inputBuffer != null ? extractor.readSampleData(inputBuffer, 0) : -1;
+            if (size < 0) {
+              decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+              inputDone = true;
+            } else {
+              decoder.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+              extractor.advance();
+            }
+          }
+        }
+        int outputIndex = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (outputIndex < 0) {
+          continue;
+        }
+        boolean render = info.size > 0;
+        decoder.releaseOutputBuffer(outputIndex, render);
+        if (render) {
+          eglResourcesHolder.makeCurrent();
+          if (!glFrameExtractor.awaitNextFrame(width, height, FRAME_TIMEOUT_MS)) {
+            throw new Exception("Timed out waiting for a decoded frame");
+          }
+          // The frame is rendered on another context of the share group
+          GLES20.glFinish();
+          encoder.makeGLContextCurrent();
+          encoder.encodeFrame(glFrameExtractor.getOutputTexId(), info.presentationTimeUs / 1000000.0);
+        }
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+          break;
+        }
+      }
+      encoder.finishWriting();
+      return true;
+    } finally {
+      if (decoder != null) {
+        decoder.release();
+        DecoderProbeCache.onDecoderReleased();
+      }
+      extractor.release();
+      if (encoder != null) {
+        encoder.release();
+      }
+      if (glFrameExtractor != null && eglResourcesHolder != null) {
+        eglResourcesHolder.makeCurrent();
+        glFrameExtractor.release();
+      }
+      if (eglResourcesHolder != null) {
+        eglResourcesHolder.release();
+      }
+    }
+  }
+
+  private static int evenSize(double size) {
+    return Math.max(2, (int) Math.round(size / 2) * 2);
+  }
+}
@@ -38,6 +38,8 @@ public class ReactNativeSkiaVideoModule extends ReactNativeSkiaVideoSpec {
       return false;
     }
     nativeInstall(jsContext.get());
+    EncoderConfigurationCache.warmUp();
+    DecoderProbeCache.warmUp();
     return true;
   }
 
@@ -0,0 +1,341 @@
+package com.azzapp.rnskv;
+
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An index of the sync samples (key frames) of the video track of a media file.
+ * <p>
+ * The index is built by a single demux pass over the file and persisted in a compact binary file
+ * in the application cache directory, keyed by the path, size and modification time of the media.
+ * It allows to know ahead of a seek which sync sample the decoding will start from and how many
+ * samples will have to be decoded to reach the target.
+ */
+public class SyncSampleIndex {
+
+  private static final String TAG = "SyncSampleIndex";
+
+  private static final int FILE_MAGIC = 0x53534958; // "SSIX"
+
+  private static final int FILE_VERSION = 1;
+
+  private static final String CACHE_DIRECTORY = "rnskv-sync-sample-index";
+
+  private static final LruCache<String, SyncSampleIndex> memoryCache = new LruCache<>(32);
+
+  private static final Set<String> pendingBuilds = new HashSet<>();
+
+  // The cache key of the last failed build of each media path, guarded by pendingBuilds
+  private static final Map<String, String> failedBuilds = new HashMap<>();
+
+  private static final ExecutorService buildExecutor = Executors.newSingleThreadExecutor();
+
+  private final long[] syncTimesUs;
+
+  private final long[] byteOffsets;
+
+  private final int[] gopSizes;
+
+  private final long durationUs;
+
+  private SyncSampleIndex(long[] syncTimesUs, long[] byteOffsets, int[] gopSizes, long durationUs) {
+    this.syncTimesUs = syncTimesUs;
+    this.byteOffsets = byteOffsets;
+    this.gopSizes = gopSizes;
+    this.durationUs = durationUs;
+  }
+
+  /**
+   * Returns the index of the given file, loading it from the disk cache or building it if needed.
+   * Building the index reads the whole video track and should not be done on the UI thread.
+   *
+   * @param path the path of the media file
+   * @return the index
+   * @throws IOException if the file cannot be read
+   */
+  public static SyncSampleIndex get(String path) throws IOException {
+    File mediaFile = new File(path);
+    String key = cacheKey(mediaFile);
+    SyncSampleIndex index = memoryCache.get(key);
+    if (index != null) {
+      return index;
+    }
+    File cacheFile = cacheFileFor(key);
+    if (cacheFile != null && cacheFile.exists()) {
+      try {
+        index = readFrom(cacheFile, key);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read sync sample index cache of " + path, e);
+      }
+    }
+    if (index == null) {
+      index = build(path);
+      if (cacheFile != null) {
+        try {
+          index.writeTo(cacheFile, key);
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to write sync sample index cache of " + path, e);
+        }
+      }
+    }
+    memoryCache.put(key, index);
+    return index;
+  }
+
+  /**
+   * Returns the index of the given file if it is already in memory, otherwise schedules its
+   * loading on a background thread and returns null. A file whose index could not be built is not
+   * retried until its size or modification time changes.
+   *
+   * @param path the path of the media file
+   * @return the index or null if it is not loaded yet
+   */
+  @Nullable
+  public static SyncSampleIndex getIfLoaded(String path) {
+    File mediaFile = new File(path);
+    String key = cacheKey(mediaFile);
+    SyncSampleIndex index = memoryCache.get(key);
+    if (index != null) {
+      return index;
+    }
+    String absolutePath = mediaFile.getAbsolutePath();
+    synchronized (pendingBuilds) {
+      if (key.equals(failedBuilds.get(absolutePath)) || !pendingBuilds.add(key)) {
+        return null;
+      }
+    }
+    buildExecutor.execute(() -> {
+      try {
+        get(path);
+        synchronized (pendingBuilds) {
+          failedBuilds.remove(absolutePath);
+        }
+      } catch (Exception e) {
+        Log.w(TAG, "Failed to build sync sample index of " + path, e);
+        synchronized (pendingBuilds) {
+          failedBuilds.put(absolutePath, key);
+        }
+      } finally {
+        synchronized (pendingBuilds) {
+          pendingBuilds.remove(key);
+        }
+      }
+    });
+    return null;
+  }
+
+  /**
+   * @return the number of sync samples
+   */
+  public int getSyncSampleCount() {
+    return syncTimesUs.length;
+  }
+
+  /**
+   * @return the presentation times in microseconds of the sync samples, in ascending order
+   */
+  public long[] getSyncTimesUs() {
+    return syncTimesUs;
+  }
+
+  /**
+   * @return the offsets in bytes of the sync samples in the video track sample data
+   */
+  public long[] getByteOffsets() {
+    return byteOffsets;
+  }
+
+  /**
+   * @return the number of samples of the group of pictures starting at each sync sample
+   */
+  public int[] getGopSizes() {
+    return gopSizes;
+  }
+
+  /**
+   * @return the duration of the video track in microseconds
+   */
+  public long getDurationUs() {
+    return durationUs;
+  }
+
+  /**
+   * Returns the position of the sync sample a seek to the given time would start decoding from.
+   *
+   * @param timeUs the time in microseconds
+   * @return the position of the sync sample in the index, or -1 if the index is empty
+   */
+  public int findSyncSample(long timeUs) {
+    if (syncTimesUs.length == 0) {
+      return -1;
+    }
+    int position = Arrays.binarySearch(syncTimesUs, timeUs);
+    if (position < 0) {
+      position = -position - 2;
+    }
+    return Math.max(0, position);
+  }
+
+  /**
+   * @param timeUs the time in microseconds
+   * @return the time of the sync sample at or before the given time, or -1 if the index is empty
+   */
+  public long getPreviousSyncTimeUs(long timeUs) {
+    int position = findSyncSample(timeUs);
+    return position == -1 ? -1 : syncTimesUs[position];
+  }
+
+  /**
+   * @param timeUs the time in microseconds
+   * @return the time of the sync sample nearest to the given time, or -1 if the index is empty
+   */
+  public long getClosestSyncTimeUs(long timeUs) {
+    int position = findSyncSample(timeUs);
+    if (position == -1) {
+      return -1;
+    }
+    if (position + 1 < syncTimesUs.length
+      && syncTimesUs[position + 1] - timeUs < timeUs - syncTimesUs[position]) {
+      return syncTimesUs[position + 1];
+    }
+    return syncTimesUs[position];
+  }
+
+  private static SyncSampleIndex build(String path) throws IOException {
+    MediaExtractor extractor = new MediaExtractor();
+    try {
+      extractor.setDataSource(path);
+      int trackIndex = -1;
+      MediaFormat format = null;
+      for (int i = 0; i < extractor.getTrackCount(); i++) {
+        format = extractor.getTrackFormat(i);
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (mime != null && mime.startsWith("video/")) {
+          trackIndex = i;
+          break;
+        }
+      }
+      if (trackIndex == -1) {
+        throw new IOException("No video track");
+      }
+      extractor.selectTrack(trackIndex);
+
+      long[] syncTimesUs = new long[64];
+      long[] byteOffsets = new long[64];
+      int[] gopSizes = new int[64];
+      int count = 0;
+      long byteOffset = 0;
+      long lastTimeUs = 0;
+      long sampleTimeUs;
+      while ((sampleTimeUs = extractor.getSampleTime()) != -1) {
+        if ((extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0 || count == 0) {
+          if (count == syncTimesUs.length) {
+            syncTimesUs = Arrays.copyOf(syncTimesUs, count * 2);
+            byteOffsets = Arrays.copyOf(byteOffsets, count * 2);
+            gopSizes = Arrays.copyOf(gopSizes, count * 2);
+          }
+          syncTimesUs[count] = sampleTimeUs;
+          byteOffsets[count] = byteOffset;
+          count++;
+        }
+        gopSizes[count - 1]++;
+        byteOffset += Math.max(0, extractor.getSampleSize());
+        lastTimeUs = Math.max(lastTimeUs, sampleTimeUs);
+        extractor.advance();
+      }
+      long durationUs = format.containsKey(MediaFormat.KEY_DURATION)
+        ? format.getLong(MediaFormat.KEY_DURATION)
+        : lastTimeUs;
+      return new SyncSampleIndex(
+        Arrays.copyOf(syncTimesUs, count),
+        Arrays.copyOf(byteOffsets, count),
+        Arrays.copyOf(gopSizes, count),
+        durationUs
+      );
+    } finally {
+      extractor.release();
+    }
+  }
+
+  private static SyncSampleIndex readFrom(File file, String key) throws IOException {
+    try (DataInputStream input = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION
+        || !key.equals(input.readUTF())) {
+        return null;
+      }
+      long durationUs = input.readLong();
+      int count = input.readInt();
+      long[] syncTimesUs = new long[count];
+      long[] byteOffsets = new long[count];
+      int[] gopSizes = new int[count];
+      for (int i = 0; i < count; i++) {
+        syncTimesUs[i] = input.readLong();
+        byteOffsets[i] = input.readLong();
+        gopSizes[i] = input.readInt();
+      }
+      return new SyncSampleIndex(syncTimesUs, byteOffsets, gopSizes, durationUs);
+    }
+  }
+
+  private void writeTo(File file, String key) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    // Write to a temporary file first so that a concurrent reader never sees a partial index
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+      output.writeInt(FILE_MAGIC);
+      output.writeInt(FILE_VERSION);
+      output.writeUTF(key);
+      output.writeLong(durationUs);
+      output.writeInt(syncTimesUs.length);
+      for (int i = 0; i < syncTimesUs.length; i++) {
+        output.writeLong(syncTimesUs[i]);
+        output.writeLong(byteOffsets[i]);
+        output.writeInt(gopSizes[i]);
+      }
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+  private static String cacheKey(File mediaFile) {
+    return mediaFile.getAbsolutePath() + "|" + mediaFile.length() + "|" + mediaFile.lastModified();
+  }
+
+  @Nullable
+  private static File cacheFileFor(String key) {
+    Context context = ReactNativeSkiaVideoModule.currentReactApplicationContext();
+    if (context == null) {
+      return null;
+    }
+    File directory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+    return new File(directory, CacheHelpers.fileNameFor(key) + ".idx");
+  }
+}
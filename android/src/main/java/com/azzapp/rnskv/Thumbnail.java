@@ -0,0 +1,40 @@
+package com.azzapp.rnskv;
+
+/**
+ * A JPEG encoded thumbnail of a video, see {@link ThumbnailExtractor}.
+ */
+public class Thumbnail {
+  private final double time;
+  private final int width;
+  private final int height;
+  private final byte[] data;
+
+  public Thumbnail(double time, int width, int height, byte[] data) {
+    this.time = time;
+    this.width = width;
+    this.height = height;
+    this.data = data;
+  }
+
+  /**
+   * @return the requested time of the thumbnail in seconds
+   */
+  public double getTime() {
+    return time;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return the JPEG encoded image
+   */
+  public byte[] getData() {
+    return data;
+  }
+}
@@ -0,0 +1,447 @@
+package com.azzapp.rnskv;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.opengl.GLES20;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.microedition.khronos.egl.EGL10;
+
+/**
+ * Extracts batches of thumbnails of a video, typically to display a filmstrip.
+ * <p>
+ * Each requested time is mapped to its closest sync sample, so that a thumbnail only requires
+ * decoding a single key frame. The key frames are decoded in file order with a single decoder
+ * instance, downscaled while being rendered to a texture and encoded as JPEG. The thumbnails are
+ * kept in a memory cache and in the application cache directory, keyed by the media file, the sync
+ * sample time and the requested size, so that they are available without decoding once extracted.
+ * <p>
+ * The thumbnails are dispatched with the "thumbnail" event as they are extracted, followed by a
+ * "complete" event once all the times of a batch have been handled.
+ */
+public class ThumbnailExtractor {
+
+  private static final String TAG = "ThumbnailExtractor";
+
+  private static final String CACHE_DIRECTORY = "rnskv-thumbnails";
+
+  private static final long DISK_CACHE_BUDGET_BYTES = 64L * 1024 * 1024;
+
+  private static final int MEMORY_CACHE_BYTES = 8 * 1024 * 1024;
+
+  private static final int JPEG_QUALITY = 80;
+
+  private static final long TIMEOUT_US = 10000;
+
+  private static final long FRAME_TIMEOUT_MS = 1000;
+
+  private static final LruCache<String, Thumbnail> memoryCache =
+    new LruCache<String, Thumbnail>(MEMORY_CACHE_BYTES) {
+      @Override
+      protected int sizeOf(String key, Thumbnail thumbnail) {
+        return thumbnail.getData().length;
+      }
+    };
+
+  private final String path;
+
+  private final int width;
+
+  private final int height;
+
+  private final NativeEventDispatcher eventDispatcher;
+
+  // The decoding runs on a thread without looper, see GLFrameExtractor#awaitNextFrame
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  private volatile boolean released = false;
+
+  private MediaExtractor extractor;
+
+  private MediaCodec decoder;
+
+  private EGLResourcesHolder eglResourcesHolder;
+
+  private GLFrameExtractor glFrameExtractor;
+
+  private int thumbnailWidth;
+
+  private int thumbnailHeight;
+
+  private ByteBuffer pixelsBuffer;
+
+  /**
+   * Creates a new ThumbnailExtractor.
+   *
+   * @param path            the path of the video file
+   * @param width           the maximum width of the thumbnails
+   * @param height          the maximum height of the thumbnails
+   * @param eventDispatcher the event dispatcher
+   */
+  public ThumbnailExtractor(
+    String path,
+    int width,
+    int height,
+    NativeEventDispatcher eventDispatcher
+  ) {
+    this.path = path;
+    this.width = width;
+    this.height = height;
+    this.eventDispatcher = eventDispatcher;
+  }
+
+  /**
+   * Schedules the extraction of the thumbnails at the given times. The batches are handled in the
+   * order they are requested.
+   *
+   * @param times the times of the thumbnails in seconds
+   */
+  public void extract(double[] times) {
+    if (released) {
+      return;
+    }
+    executor.execute(() -> {
+      if (released) {
+        return;
+      }
+      try {
+        extractBatch(times);
+      } catch (Exception e) {
+        Log.e(TAG, "Failed to extract thumbnails of " + path, e);
+        releaseDecoder();
+        eventDispatcher.dispatchEvent("error", e.getMessage());
+        return;
+      }
+      if (!released) {
+        eventDispatcher.dispatchEvent("complete", null);
+      }
+    });
+  }
+
+  private void extractBatch(double[] times) throws Exception {
+    SyncSampleIndex index = SyncSampleIndex.get(path);
+    String mediaKey = mediaKey();
+    // Thumbnails to decode, grouped by sync sample and sorted in file order
+    TreeMap<Long, List<Double>> pendingTimes = new TreeMap<>();
+    for (double time : times) {
+      long syncTimeUs = index.getClosestSyncTimeUs(TimeHelpers.secToUs(time));
+      Thumbnail cached = readCache(cacheKey(mediaKey, syncTimeUs));
+      if (cached != null) {
+        dispatchThumbnail(time, cached);
+        continue;
+      }
+      List<Double> syncSampleTimes = pendingTimes.get(syncTimeUs);
+      if (syncSampleTimes == null) {
+        syncSampleTimes = new ArrayList<>();
+        pendingTimes.put(syncTimeUs, syncSampleTimes);
+      }
+      syncSampleTimes.add(time);
+    }
+    if (pendingTimes.isEmpty()) {
+      return;
+    }
+    prepareDecoder();
+    for (Map.Entry<Long, List<Double>> entry : pendingTimes.entrySet()) {
+      if (released) {
+        return;
+      }
+      Thumbnail thumbnail = decodeThumbnail(entry.getKey());
+      if (thumbnail == null) {
+        continue;
+      }
+      writeCache(cacheKey(mediaKey, entry.getKey()), thumbnail);
+      for (double time : entry.getValue()) {
+        dispatchThumbnail(time, thumbnail);
+      }
+    }
+    trimDiskCache();
+  }
+
+  private void prepareDecoder() throws Exception {
+    if (decoder != null) {
+      return;
+    }
+    extractor = new MediaExtractor();
+    extractor.setDataSource(path);
+    MediaFormat format = null;
+    for (int i = 0; i < extractor.getTrackCount(); i++) {
+      MediaFormat trackFormat = extractor.getTrackFormat(i);
+      String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+      if (mime != null && mime.startsWith("video/")) {
+        extractor.selectTrack(i);
+        format = trackFormat;
+        break;
+      }
+    }
+    if (format == null) {
+      throw new IOException("No video track in " + path);
+    }
+    int rotation = format.containsKey(MediaFormat.KEY_ROTATION)
+      ? format.getInteger(MediaFormat.KEY_ROTATION)
+      : 0;
+    boolean swap = rotation == 90 || rotation == 270;
+    int sourceWidth = swap ? format.getInteger(MediaFormat.KEY_HEIGHT) : format.getInteger(MediaFormat.KEY_WIDTH);
+    int sourceHeight = swap ? format.getInteger(MediaFormat.KEY_WIDTH) : format.getInteger(MediaFormat.KEY_HEIGHT);
+    // The thumbnails fit in the requested size, and are never upscaled
+    double scale = Math.min(1, Math.min(
+      (double) width / sourceWidth,
+      (double) height / sourceHeight
+    ));
+    thumbnailWidth = Math.max(1, (int) Math.round(sourceWidth * scale));
+    thumbnailHeight = Math.max(1, (int) Math.round(sourceHeight * scale));
+    pixelsBuffer = ByteBuffer.allocateDirect(thumbnailWidth * thumbnailHeight * 4);
+
+    eglResourcesHolder = EGLResourcesHolder.createWithPBBufferSurface(EGL10.EGL_NO_CONTEXT);
+    eglResourcesHolder.makeCurrent();
+    glFrameExtractor = new GLFrameExtractor();
+
+    decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+    DecoderProbeCache.onDecoderCreated();
+    decoder.configure(format, glFrameExtractor.getSurface(), null, 0);
+    decoder.start();
+  }
+
+  @Nullable
+  private Thumbnail decodeThumbnail(long syncTimeUs) throws Exception {
+    extractor.seekTo(syncTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    boolean sampleQueued = false;
+    boolean inputDone = false;
+    Thumbnail thumbnail = null;
+    long deadline = SystemClock.elapsedRealtime() + FRAME_TIMEOUT_MS;
+    try {
+      // Only the sync sample is queued, followed by the end of stream to get it out of the decoder
+      while (true) {
+        if (!inputDone) {
+          int inputIndex = decoder.dequeueInputBuffer(TIMEOUT_US);
+          if (inputIndex >= 0) {
+            ByteBuffer inputBuffer = decoder.getInputBuffer(inputIndex);
+            int size = !sampleQueued && inputBuffer != null
+              ? extractor.readSampleData(inputBuffer, 0)
+              : -1;
+            if (size < 0) {
+              decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+              inputDone = true;
+            } else {
+              decoder.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+              sampleQueued = true;
+            }
+          }
+        }
+        int outputIndex = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (outputIndex < 0) {
+          if (SystemClock.elapsedRealtime() > deadline) {
+            throw new Exception("Timed out decoding the sync sample at " + syncTimeUs + "us");
+          }
+          continue;
+        }
+        boolean render = thumbnail == null && info.size > 0;
+        decoder.releaseOutputBuffer(outputIndex, render);
+        if (render) {
+          thumbnail = readThumbnail();
+        }
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+          break;
+        }
+      }
+    } finally {
+      // Leaves the end of stream state so that the decoder can be reused for the next sync sample
+      decoder.flush();
+    }
+    return thumbnail;
+  }
+
+  private Thumbnail readThumbnail() throws Exception {
+    eglResourcesHolder.makeCurrent();
+    if (!glFrameExtractor.awaitNextFrame(thumbnailWidth, thumbnailHeight, FRAME_TIMEOUT_MS)) {
+      throw new Exception("Timed out waiting for a decoded frame");
+    }
+    int[] frameBuffer = new int[1];
+    GLES20.glGenFramebuffers(1, frameBuffer, 0);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[0]);
+    GLES20.glFramebufferTexture2D(
+      GLES20.GL_FRAMEBUFFER,
+      GLES20.GL_COLOR_ATTACHMENT0,
+      GLES20.GL_TEXTURE_2D,
+      glFrameExtractor.getOutputTexId(),
+      0
+    );
+    pixelsBuffer.rewind();
+    GLES20.glReadPixels(
+      0, 0, thumbnailWidth, thumbnailHeight, GLES20.GL_RGBA,
+      GLES20.GL_UNSIGNED_BYTE, pixelsBuffer
+    );
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    GLES20.glDeleteFramebuffers(1, frameBuffer, 0);
+
+    pixelsBuffer.rewind();
+    Bitmap bitmap = Bitmap.createBitmap(thumbnailWidth, thumbnailHeight, Bitmap.Config.ARGB_8888);
+    bitmap.copyPixelsFromBuffer(pixelsBuffer);
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream);
+    bitmap.recycle();
+    return new Thumbnail(0, thumbnailWidth, thumbnailHeight, outputStream.toByteArray());
+  }
+
+  private void dispatchThumbnail(double time, Thumbnail thumbnail) {
+    if (released) {
+      return;
+    }
+    eventDispatcher.dispatchEvent(
+      "thumbnail",
+      new Thumbnail(time, thumbnail.getWidth(), thumbnail.getHeight(), thumbnail.getData())
+    );
+  }
+
+  private String mediaKey() {
+    File mediaFile = new File(path);
+    return mediaFile.getAbsolutePath() + "|" + mediaFile.length() + "|" + mediaFile.lastModified();
+  }
+
+  private String cacheKey(String mediaKey, long syncTimeUs) {
+    return mediaKey + "|" + syncTimeUs + "|" + width + "x" + height;
+  }
+
+  @Nullable
+  private static Thumbnail readCache(String key) {
+    Thumbnail thumbnail = memoryCache.get(key);
+    if (thumbnail != null) {
+      return thumbnail;
+    }
+    File file = cacheFileFor(key);
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    byte[] data = new byte[(int) file.length()];
+    try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+      inputStream.readFully(data);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read thumbnail cache " + file, e);
+      return null;
+    }
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      file.delete();
+      return null;
+    }
+    // The modification time tracks the last use of the thumbnail for the eviction
+    file.setLastModified(System.currentTimeMillis());
+    thumbnail = new Thumbnail(0, options.outWidth, options.outHeight, data);
+    memoryCache.put(key, thumbnail);
+    return thumbnail;
+  }
+
+  private static void writeCache(String key, Thumbnail thumbnail) {
+    memoryCache.put(key, thumbnail);
+    File file = cacheFileFor(key);
+    if (file == null) {
+      return;
+    }
+    File directory = file.getParentFile();
+    if (directory != null && !directory.exists() && !directory.mkdirs()) {
+      Log.w(TAG, "Could not create directory " + directory);
+      return;
+    }
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream outputStream = new FileOutputStream(tmpFile)) {
+      outputStream.write(thumbnail.getData());
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write thumbnail cache " + file, e);
+      tmpFile.delete();
+      return;
+    }
+    if (!tmpFile.renameTo(file)) {
+      tmpFile.delete();
+    }
+  }
+
+  private static void trimDiskCache() {
+    File file = cacheFileFor("");
+    File directory = file != null ? file.getParentFile() : null;
+    File[] files = directory != null ? directory.listFiles() : null;
+    if (files == null) {
+      return;
+    }
+    long size = 0;
+    for (File cacheFile : files) {
+      size += cacheFile.length();
+    }
+    Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    for (File cacheFile : files) {
+      if (size <= DISK_CACHE_BUDGET_BYTES) {
+        break;
+      }
+      size -= cacheFile.length();
+      cacheFile.delete();
+    }
+  }
+
+  @Nullable
+  private static File cacheFileFor(String key) {
+    Context context = ReactNativeSkiaVideoModule.currentReactApplicationContext();
+    if (context == null) {
+      return null;
+    }
+    File directory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+    return new File(directory, CacheHelpers.fileNameFor(key) + ".jpg");
+  }
+
+  private void releaseDecoder() {
+    if (decoder != null) {
+      decoder.release();
+      decoder = null;
+      DecoderProbeCache.onDecoderReleased();
+    }
+    if (extractor != null) {
+      extractor.release();
+      extractor = null;
+    }
+    if (glFrameExtractor != null) {
+      eglResourcesHolder.makeCurrent();
+      glFrameExtractor.release();
+      glFrameExtractor = null;
+    }
+    if (eglResourcesHolder != null) {
+      eglResourcesHolder.release();
+      eglResourcesHolder = null;
+    }
+    pixelsBuffer = null;
+  }
+
+  /**
+   * Releases the extractor, the pending batches are discarded.
+   */
+  public void release() {
+    if (released) {
+      return;
+    }
+    released = true;
+    executor.execute(this::releaseDecoder);
+    executor.shutdown();
+  }
+}
@@ -14,6 +14,52 @@ import java.util.List;
 
 public class VideoCapabilities {
 
+  private static final String TAG = "VideoCapabilities";
+
+  // Bounds the number of decoder instances started by a probe
+  private static final int MAX_PROBED_DECODER_INSTANCES = 16;
+
+  public static final String CODEC_H264 = "h264";
+  public static final String CODEC_HEVC = "hevc";
+  public static final String CODEC_AV1 = "av1";
+  // Selects the most efficient codec supported by the device
+  public static final String CODEC_AUTO = "auto";
+
+  // The codecs considered in auto mode, from the most to the least efficient
+  private static final String[] AUTO_CODECS = new String[]{CODEC_AV1, CODEC_HEVC, CODEC_H264};
+
+  /**
+   * @param codec one of the CODEC_ constants but {@link #CODEC_AUTO}
+   * @return the mime type of the codec
+   */
+  public static String getMimeType(String codec) {
+    switch (codec) {
+      case CODEC_H264:
+        return MediaFormat.MIMETYPE_VIDEO_AVC;
+      case CODEC_HEVC:
+        return MediaFormat.MIMETYPE_VIDEO_HEVC;
+      case CODEC_AV1:
+        return MediaFormat.MIMETYPE_VIDEO_AV1;
+      default:
+        throw new IllegalArgumentException("Unknown codec " + codec);
+    }
+  }
+
+  /**
+   * The codecs the exported files can be encoded with, AV1 being only supported by the MPEG-4
+   * muxer since Android 14.
+   */
+  private static List<String> getExportCodecs() {
+    List<String> codecs = new ArrayList<>();
+    for (String codec : AUTO_CODECS) {
+      // 34 is Android 14, UPSIDE_DOWN_CAKE is not defined with the default compile SDK
+      if (!CODEC_AV1.equals(codec) || Build.VERSION.SDK_INT >= 34) {
+        codecs.add(codec);
+      }
+    }
+    return codecs;
+  }
+
   public static class DecoderInfo {
     private int maxInstances;
     private int maxWidth;
@@ -39,12 +85,41 @@ public class VideoCapabilities {
   }
 
 
+  /**
+   * Returns the capabilities of the decoder of a mime type, the first hardware decoder if there is
+   * one, with the maximum number of instances reported by the decoder.
+   *
+   * @param mimeType the mime type to decode
+   * @return the capabilities, or null if no decoder supports the mime type
+   */
   public static DecoderInfo getDecodingCapabilitiesFor(String mimeType) {
+    return getDecodingCapabilitiesFor(mimeType, 0, 0, 0);
+  }
+
+  /**
+   * Returns the capabilities of the decoder of a mime type, the first hardware decoder if there is
+   * one. The maximum number of instances is the one reported by the decoder, lowered to the
+   * number of instances measured by {@link #probeDecoders(String, int, int, int)} if the decoder
+   * has been probed with the same size and frame rate.
+   *
+   * @param mimeType  the mime type to decode
+   * @param width     the width of the videos, 0 if unknown
+   * @param height    the height of the videos, 0 if unknown
+   * @param frameRate the frame rate of the videos, 0 if unknown
+   * @return the capabilities, or null if no decoder supports the mime type
+   */
+  public static DecoderInfo getDecodingCapabilitiesFor(
+    String mimeType,
+    int width,
+    int height,
+    int frameRate
+  ) {
     MediaCodecList codecList = new MediaCodecList(MediaCodecList.ALL_CODECS);
     MediaCodecInfo[] codecInfos = codecList.getCodecInfos();
 
+    DecoderInfo softwareDecoderInfo = null;
     for (MediaCodecInfo codecInfo : codecInfos) {
-      if (!codecInfo.isEncoder()) {
+      if (codecInfo.isEncoder()) {
         continue;
       }
       MediaCodecInfo.CodecCapabilities capabilities;
@@ -57,19 +132,235 @@ public class VideoCapabilities {
         MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
         if (videoCapabilities != null) {
           int maxInstances = capabilities.getMaxSupportedInstances();
+          int measuredMaxInstances =
+            DecoderProbeCache.getMeasuredMaxInstances(
+              mimeType, width, height, frameRate, codecInfo.getName());
+          if (measuredMaxInstances >= 0) {
+            maxInstances = Math.min(maxInstances, measuredMaxInstances);
+          }
           int maxWidth = videoCapabilities.getSupportedWidths().getUpper();
           int maxHeight = videoCapabilities.getSupportedHeights().getUpper();
-          return new DecoderInfo(maxInstances, maxWidth, maxHeight);
+          DecoderInfo decoderInfo = new DecoderInfo(maxInstances, maxWidth, maxHeight);
+          if (isHardwareAccelerated(codecInfo)) {
+            return decoderInfo;
+          } else if (softwareDecoderInfo == null) {
+            softwareDecoderInfo = decoderInfo;
+          }
         }
       }
     }
-    return null;
+    return softwareDecoderInfo;
+  }
+
+  public static class DecoderProbeResult {
+    private final String decoderName;
+
+    private final boolean hardwareAccelerated;
+
+    private final int maxInstances;
+
+    private final int reportedMaxInstances;
+
+    public DecoderProbeResult(
+      String decoderName,
+      boolean hardwareAccelerated,
+      int maxInstances,
+      int reportedMaxInstances
+    ) {
+      this.decoderName = decoderName;
+      this.hardwareAccelerated = hardwareAccelerated;
+      this.maxInstances = maxInstances;
+      this.reportedMaxInstances = reportedMaxInstances;
+    }
+
+    public String getDecoderName() {
+      return decoderName;
+    }
+
+    public boolean getHardwareAccelerated() {
+      return hardwareAccelerated;
+    }
+
+    /**
+     * @return the number of instances that could run at the same time at the probed resolution
+     * and frame rate
+     */
+    public int getMaxInstances() {
+      return maxInstances;
+    }
+
+    /**
+     * @return the maximum number of instances reported by the decoder, regardless of resolution
+     */
+    public int getReportedMaxInstances() {
+      return reportedMaxInstances;
+    }
+  }
+
+  /**
+   * Returns the decoders of a mime type supporting the given resolution and frame rate, with the
+   * number of instances of each that can run at the same time, hardware decoders first.
+   * <p>
+   * The number of instances is measured by starting real time instances of the decoder until one
+   * fails, bounded by the limit reported by the decoder and, from Android 10, by its performance
+   * points. The results are cached, see {@link DecoderProbeCache}. Probing takes up to a few
+   * seconds and should neither be done on the UI thread nor while videos are being decoded.
+   *
+   * @param mimeType  the mime type to decode
+   * @param width     the width of the videos
+   * @param height    the height of the videos
+   * @param frameRate the frame rate of the videos
+   * @return the decoders
+   */
+  public static List<DecoderProbeResult> probeDecoders(
+    String mimeType,
+    int width,
+    int height,
+    int frameRate
+  ) {
+    return DecoderProbeCache.get(mimeType, width, height, frameRate);
+  }
+
+  /**
+   * Measures the decoders returned by {@link #probeDecoders(String, int, int, int)}, bypassing
+   * the {@link DecoderProbeCache}.
+   */
+  static List<DecoderProbeResult> measureDecoders(
+    String mimeType,
+    int width,
+    int height,
+    int frameRate
+  ) {
+    List<DecoderProbeResult> results = new ArrayList<>();
+    MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+    for (MediaCodecInfo codecInfo : codecList.getCodecInfos()) {
+      if (codecInfo.isEncoder()
+        || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && codecInfo.isAlias())) {
+        continue;
+      }
+      MediaCodecInfo.CodecCapabilities capabilities;
+      try {
+        capabilities = codecInfo.getCapabilitiesForType(mimeType);
+      } catch (IllegalArgumentException e) {
+        continue;
+      }
+      MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
+      if (videoCapabilities == null
+        || !videoCapabilities.areSizeAndRateSupported(width, height, frameRate)) {
+        continue;
+      }
+      int reportedMaxInstances = capabilities.getMaxSupportedInstances();
+      int limit = Math.min(reportedMaxInstances, MAX_PROBED_DECODER_INSTANCES);
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+        limit = Math.min(limit,
+          getPerformancePointsInstances(videoCapabilities, width, height, frameRate, limit));
+      }
+      MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
+      format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+      // Real time instances are only accepted if the decoder can sustain their frame rate
+      format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+      int maxInstances = countStartableInstances(codecInfo.getName(), format, limit);
+      results.add(new DecoderProbeResult(
+        codecInfo.getName(),
+        isHardwareAccelerated(codecInfo),
+        maxInstances,
+        reportedMaxInstances
+      ));
+    }
+    results.sort(Comparator
+      .comparing(DecoderProbeResult::getHardwareAccelerated).reversed());
+    return results;
+  }
+
+  // Returns the number of streams of the given size and rate the decoder performance points
+  // cover, the limit if the decoder does not report any
+  private static int getPerformancePointsInstances(
+    MediaCodecInfo.VideoCapabilities videoCapabilities,
+    int width,
+    int height,
+    int frameRate,
+    int limit
+  ) {
+    List<MediaCodecInfo.VideoCapabilities.PerformancePoint> performancePoints =
+      videoCapabilities.getSupportedPerformancePoints();
+    if (performancePoints == null || performancePoints.isEmpty()) {
+      return limit;
+    }
+    // n streams cost as many macroblocks per second as one stream at n times the frame rate
+    int instances = 0;
+    while (instances < limit) {
+      MediaCodecInfo.VideoCapabilities.PerformancePoint target =
+        new MediaCodecInfo.VideoCapabilities.PerformancePoint(
+          width, height, frameRate * (instances + 1));
+      boolean covered = false;
+      for (MediaCodecInfo.VideoCapabilities.PerformancePoint performancePoint : performancePoints) {
+        if (performancePoint.covers(target)) {
+          covered = true;
+          break;
+        }
+      }
+      if (!covered) {
+        break;
+      }
+      instances++;
+    }
+    return instances;
+  }
+
+  // Configures and starts instances of a decoder until one fails or the limit is reached
+  private static int countStartableInstances(String decoderName, MediaFormat format, int limit) {
+    List<MediaCodec> decoders = new ArrayList<>();
+    int started = 0;
+    try {
+      while (started < limit) {
+        MediaCodec decoder = MediaCodec.createByCodecName(decoderName);
+        decoders.add(decoder);
+        decoder.configure(format, null, null, 0);
+        decoder.start();
+        started++;
+      }
+    } catch (Exception e) {
+      Log.d(TAG, "Decoder " + decoderName + " failed to start instance " + (started + 1), e);
+    } finally {
+      for (MediaCodec decoder : decoders) {
+        decoder.release();
+      }
+    }
+    return started;
+  }
+
+
+  /**
+   * Returns the maximum number of instances of an encoder that can run at the same time.
+   *
+   * @param codec       the codec, one of the CODEC_ constants, H.264 being used for
+   *                    {@link #CODEC_AUTO}
+   * @param encoderName the name of the encoder, or null for the first encoder of the codec
+   * @return the number of instances, 0 if no encoder matches
+   */
+  public static int getMaxEncoderInstances(String codec, String encoderName) {
+    String mimeType = getMimeType(CODEC_AUTO.equals(codec) ? CODEC_H264 : codec);
+    MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+    for (MediaCodecInfo codecInfo : codecList.getCodecInfos()) {
+      if (!codecInfo.isEncoder()
+        || (encoderName != null && !encoderName.equals(codecInfo.getName()))) {
+        continue;
+      }
+      try {
+        return codecInfo.getCapabilitiesForType(mimeType).getMaxSupportedInstances();
+      } catch (IllegalArgumentException e) {
+        // The encoder does not support the mime type
+      }
+    }
+    return 0;
   }
 
 
   public static class EncoderInfo {
     private final String encoderName;
 
+    private final String codec;
+
     private final boolean hardwareAccelerated;
 
     private final int width;
@@ -82,6 +373,7 @@ public class VideoCapabilities {
 
     public EncoderInfo(
       String encoderName,
+      String codec,
       boolean hardWareAccelerated,
       int width,
       int height,
@@ -89,6 +381,7 @@ public class VideoCapabilities {
       int bitrate
     ) {
       this.encoderName = encoderName;
+      this.codec = codec;
       this.hardwareAccelerated = hardWareAccelerated;
       this.width = width;
       this.height = height;
@@ -100,6 +393,13 @@ public class VideoCapabilities {
       return encoderName;
     }
 
+    /**
+     * @return the codec of the encoder, one of the CODEC_ constants
+     */
+    public String getCodec() {
+      return codec;
+    }
+
     public boolean getHardwareAccelerated() {
       return hardwareAccelerated;
     }
@@ -126,23 +426,64 @@ public class VideoCapabilities {
     int height,
     int frameRate,
     int bitRate
+  ) {
+    return getValidEncoderConfigurations(CODEC_H264, width, height, frameRate, bitRate);
+  }
+
+  /**
+   * Returns the configurations closest to the given one supported by the encoders of a codec, the
+   * best first. The configurations keeping the aspect ratio come first, then those of hardware
+   * encoders, then the encoders supporting the size and frame rate, then the most efficient codecs
+   * in auto mode, and finally the encoders supporting the bitrate.
+   *
+   * @param codec     the codec, one of the CODEC_ constants, {@link #CODEC_AUTO} ranking the
+   *                  encoders of all the codecs
+   * @param width     the width of the video
+   * @param height    the height of the video
+   * @param frameRate the frame rate of the video
+   * @param bitRate   the bit rate of the video
+   * @return the supported configurations
+   */
+  public static List<EncoderInfo> getValidEncoderConfigurations(
+    String codec,
+    int width,
+    int height,
+    int frameRate,
+    int bitRate
+  ) {
+    return EncoderConfigurationCache.get(codec, width, height, frameRate, bitRate);
+  }
+
+  /**
+   * Probes the configurations returned by
+   * {@link #getValidEncoderConfigurations(String, int, int, int, int)} by creating and
+   * configuring the candidate encoders, bypassing the {@link EncoderConfigurationCache}.
+   */
+  static List<EncoderInfo> probeEncoderConfigurations(
+    String codec,
+    int width,
+    int height,
+    int frameRate,
+    int bitRate
   ) {
     List<EncoderInfo> encoderInfos = new ArrayList<>();
 
     boolean rotated = height > width;
 
+    List<String> codecs = CODEC_AUTO.equals(codec) ? getExportCodecs() : List.of(codec);
     List<MediaCodecInfoWithOverrides> mediaCodecInfoWithOverrides =
-      getPotentialEncoders(VideoEncoder.MIME_TYPE,
+      getPotentialEncoders(codecs,
         rotated ? height : width, rotated ? width : height,
         frameRate, bitRate);
 
     for (MediaCodecInfoWithOverrides codecInfoWithOverrides : mediaCodecInfoWithOverrides) {
+      String mimeType = getMimeType(codecInfoWithOverrides.codec);
       MediaFormat format;
       if (rotated) {
-        format = MediaFormat.createVideoFormat(VideoEncoder.MIME_TYPE,
+        format = MediaFormat.createVideoFormat(mimeType,
           codecInfoWithOverrides.height, codecInfoWithOverrides.width);
       } else {
-        format = MediaFormat.createVideoFormat(VideoEncoder.MIME_TYPE,
+        format = MediaFormat.createVideoFormat(mimeType,
           codecInfoWithOverrides.width, codecInfoWithOverrides.height);
       }
       format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
@@ -161,6 +502,7 @@ public class VideoCapabilities {
           encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         } catch (Exception e) {
           if (encoder != null) {
+            encoder.release();
             encoder = null;
           }
         }
@@ -168,6 +510,7 @@ public class VideoCapabilities {
           encoder.release();
           encoderInfos.add(new EncoderInfo(
             codecInfoWithOverrides.codecInfo.getName(),
+            codecInfoWithOverrides.codec,
             codecInfoWithOverrides.hardwareAccelerated == 1,
             rotated ? codecInfoWithOverrides.height : codecInfoWithOverrides.width,
             rotated ? codecInfoWithOverrides.width : codecInfoWithOverrides.height,
@@ -189,6 +532,9 @@ public class VideoCapabilities {
 
   private record MediaCodecInfoWithOverrides(
     MediaCodecInfo codecInfo,
+    String codec,
+    // Rank of the codec efficiency, the higher the smaller the files at equal quality
+    int codecEfficiency,
     int width,
     int height,
     int bitrate,
@@ -204,7 +550,7 @@ public class VideoCapabilities {
 
 
   private static List<MediaCodecInfoWithOverrides> getPotentialEncoders(
-    String mimeType,
+    List<String> codecs,
     int width,
     int height,
     int frameRate,
@@ -216,106 +562,115 @@ public class VideoCapabilities {
 
     List<MediaCodecInfoWithOverrides> codecInfoWithOverrides = new ArrayList<>();
 
-    for (MediaCodecInfo codecInfo : codecInfos) {
-      if (!codecInfo.isEncoder()) {
-        continue;
-      }
+    for (int codecIndex = 0; codecIndex < codecs.size(); codecIndex++) {
+      String codec = codecs.get(codecIndex);
+      String mimeType = getMimeType(codec);
+      for (MediaCodecInfo codecInfo : codecInfos) {
+        if (!codecInfo.isEncoder()) {
+          continue;
+        }
 
-      MediaCodecInfo.CodecCapabilities capabilities;
-      try {
-        capabilities = codecInfo.getCapabilitiesForType(mimeType);
-      } catch (IllegalArgumentException e) {
-        continue;
-      }
+        MediaCodecInfo.CodecCapabilities capabilities;
+        try {
+          capabilities = codecInfo.getCapabilitiesForType(mimeType);
+        } catch (IllegalArgumentException e) {
+          continue;
+        }
 
-      MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
+        MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
 
-      // Initialize with the original parameters
-      int currentWidth = width;
-      int currentHeight = height;
-      int currentBitrate = bitrate;
-      int currentFrameRate = frameRate;
-      int resolutionOverride = 0;
-      int aspectRatioOverride = 0;
-      int frameRateOverride = 0;
-      int bitrateOverride = 0;
-      int hardwareAccelerated = isHardwareAccelerated(codecInfo) ? 1 : 0;
-
-      float aspectRatio = (float) width / height;
-
-      if (!videoCapabilities.isSizeSupported(width, height)) {
-        Range<Integer> supportedWidths = videoCapabilities.getSupportedWidths();
-        int resizedWidth = supportedWidths.clamp(currentWidth);
-        int resizedWidthHeight = Math.round(resizedWidth / aspectRatio);
-        resizedWidthHeight = resizedWidthHeight - resizedWidthHeight % 2;
-        int potentialInvalidHeight = videoCapabilities.getSupportedHeightsFor(resizedWidth)
-          .clamp(resizedWidthHeight);
-        float potentialWidthBasedAspectRatioOverrides =
-          Math.abs(aspectRatio - (float) resizedWidth / potentialInvalidHeight);
-
-        Range<Integer> supportedHeights = videoCapabilities.getSupportedHeights();
-        int resizedHeight = supportedHeights.clamp(currentHeight);
-        int resizedHeightWidth = Math.round(resizedHeight * aspectRatio);
-        resizedHeightWidth = resizedHeightWidth - resizedHeightWidth % 2;
-        int potentialInvalidWidth = videoCapabilities.getSupportedWidthsFor(resizedHeight)
-          .clamp(resizedHeightWidth);
-        float potentialHeightBasedAspectRatioOverrides =
-          Math.abs(aspectRatio - (float) potentialInvalidWidth / resizedHeight);
-
-        if (videoCapabilities.isSizeSupported(resizedWidth, resizedWidthHeight)) {
-          currentWidth = resizedWidth;
-          currentHeight = resizedWidthHeight;
-        } else if (videoCapabilities.isSizeSupported(resizedHeightWidth, resizedHeight)) {
-          currentWidth = resizedHeightWidth;
-          currentHeight = resizedHeight;
-        } else if (potentialWidthBasedAspectRatioOverrides < 0.001 || potentialHeightBasedAspectRatioOverrides < 0.001) {
-          // Slight aspect ratio overrides might be acceptable in some cases
-          if (potentialWidthBasedAspectRatioOverrides < potentialHeightBasedAspectRatioOverrides) {
+        // Initialize with the original parameters
+        int currentWidth = width;
+        int currentHeight = height;
+        int currentBitrate = bitrate;
+        int currentFrameRate = frameRate;
+        int resolutionOverride = 0;
+        int aspectRatioOverride = 0;
+        int frameRateOverride = 0;
+        int bitrateOverride = 0;
+        int hardwareAccelerated = isHardwareAccelerated(codecInfo) ? 1 : 0;
+
+        float aspectRatio = (float) width / height;
+
+        if (!videoCapabilities.isSizeSupported(width, height)) {
+          Range<Integer> supportedWidths = videoCapabilities.getSupportedWidths();
+          int resizedWidth = supportedWidths.clamp(currentWidth);
+          int resizedWidthHeight = Math.round(resizedWidth / aspectRatio);
+          resizedWidthHeight = resizedWidthHeight - resizedWidthHeight % 2;
+          int potentialInvalidHeight = videoCapabilities.getSupportedHeightsFor(resizedWidth)
+            .clamp(resizedWidthHeight);
+          float potentialWidthBasedAspectRatioOverrides =
+            Math.abs(aspectRatio - (float) resizedWidth / potentialInvalidHeight);
+
+          Range<Integer> supportedHeights = videoCapabilities.getSupportedHeights();
+          int resizedHeight = supportedHeights.clamp(currentHeight);
+          int resizedHeightWidth = Math.round(resizedHeight * aspectRatio);
+          resizedHeightWidth = resizedHeightWidth - resizedHeightWidth % 2;
+          int potentialInvalidWidth = videoCapabilities.getSupportedWidthsFor(resizedHeight)
+            .clamp(resizedHeightWidth);
+          float potentialHeightBasedAspectRatioOverrides =
+            Math.abs(aspectRatio - (float) potentialInvalidWidth / resizedHeight);
+
+          if (videoCapabilities.isSizeSupported(resizedWidth, resizedWidthHeight)) {
             currentWidth = resizedWidth;
-            currentHeight = potentialInvalidHeight;
-          } else {
-            currentWidth = potentialInvalidWidth;
+            currentHeight = resizedWidthHeight;
+          } else if (videoCapabilities.isSizeSupported(resizedHeightWidth, resizedHeight)) {
+            currentWidth = resizedHeightWidth;
             currentHeight = resizedHeight;
+          } else if (potentialWidthBasedAspectRatioOverrides < 0.001 || potentialHeightBasedAspectRatioOverrides < 0.001) {
+            // Slight aspect ratio overrides might be acceptable in some cases
+            if (potentialWidthBasedAspectRatioOverrides < potentialHeightBasedAspectRatioOverrides) {
+              currentWidth = resizedWidth;
+              currentHeight = potentialInvalidHeight;
+            } else {
+              currentWidth = potentialInvalidWidth;
+              currentHeight = resizedHeight;
+            }
+            aspectRatioOverride = 1;
+          } else {
+            continue;
           }
-          aspectRatioOverride = 1;
-        } else {
-          continue;
+          resolutionOverride = 1;
         }
-        resolutionOverride = 1;
-      }
 
-      if (!videoCapabilities.areSizeAndRateSupported(currentWidth, currentHeight, currentFrameRate)) {
-        Range<Double> frameRateRange = videoCapabilities.getSupportedFrameRatesFor(currentWidth, currentHeight);
-        currentFrameRate = (int) Math.floor(frameRateRange.clamp((double) currentFrameRate));
-        frameRateOverride = 1;
-      }
+        if (!videoCapabilities.areSizeAndRateSupported(currentWidth, currentHeight, currentFrameRate)) {
+          Range<Double> frameRateRange = videoCapabilities.getSupportedFrameRatesFor(currentWidth, currentHeight);
+          currentFrameRate = (int) Math.floor(frameRateRange.clamp((double) currentFrameRate));
+          frameRateOverride = 1;
+        }
 
-      if (!videoCapabilities.getBitrateRange().contains(currentBitrate)) {
-        Range<Integer> bitrateRange = videoCapabilities.getBitrateRange();
-        currentBitrate = bitrateRange.clamp(currentBitrate);
-        bitrateOverride = 1;
-      }
+        if (!videoCapabilities.getBitrateRange().contains(currentBitrate)) {
+          Range<Integer> bitrateRange = videoCapabilities.getBitrateRange();
+          currentBitrate = bitrateRange.clamp(currentBitrate);
+          bitrateOverride = 1;
+        }
 
-      codecInfoWithOverrides.add(new MediaCodecInfoWithOverrides(
-        codecInfo,
-        currentWidth,
-        currentHeight,
-        currentBitrate,
-        currentFrameRate,
-        hardwareAccelerated,
-        aspectRatioOverride,
-        resolutionOverride,
-        frameRateOverride,
-        bitrateOverride
-      ));
+        codecInfoWithOverrides.add(new MediaCodecInfoWithOverrides(
+          codecInfo,
+          codec,
+          codecs.size() - codecIndex,
+          currentWidth,
+          currentHeight,
+          currentBitrate,
+          currentFrameRate,
+          hardwareAccelerated,
+          aspectRatioOverride,
+          resolutionOverride,
+          frameRateOverride,
+          bitrateOverride
+        ));
+      }
     }
 
-    // Sort the list based on resolution, frame rate, and bitrate overrides
+    // Sort the list based on resolution, frame rate, codec efficiency and bitrate overrides
     codecInfoWithOverrides.sort(Comparator
       .comparingInt(MediaCodecInfoWithOverrides::aspectRatioOverride)
-      .thenComparingInt(MediaCodecInfoWithOverrides::hardwareAccelerated).reversed()
+      .thenComparing(Comparator
+        .comparingInt(MediaCodecInfoWithOverrides::hardwareAccelerated).reversed())
       .thenComparingInt(MediaCodecInfoWithOverrides::resolutionOverride)
       .thenComparingInt(MediaCodecInfoWithOverrides::frameRateOverride)
+      .thenComparing(Comparator
+        .comparingInt(MediaCodecInfoWithOverrides::codecEfficiency).reversed())
       .thenComparingInt(MediaCodecInfoWithOverrides::bitrateOverride));
 
     return codecInfoWithOverrides;
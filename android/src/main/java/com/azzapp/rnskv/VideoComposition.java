@@ -36,6 +36,12 @@ public class VideoComposition {
     private int width = -1;
     private int height = -1;
     private boolean muted = false;
+    private float volume = 1f;
+    private double fadeInDuration = 0;
+    private double fadeOutDuration = 0;
+    private float pan = 0f;
+    private boolean ducksOthers = false;
+    private float duckedVolume = 1f;
 
     public Item() {
     }
@@ -89,5 +95,47 @@ public class VideoComposition {
     public void setMuted(boolean muted) {
       this.muted = muted;
     }
+
+    /**
+     * @return the gain applied to the item audio when mixed natively
+     */
+    public float getVolume() {
+      return volume;
+    }
+
+    /**
+     * @return the duration in seconds of the fade in applied at the start of the item audio
+     */
+    public double getFadeInDuration() {
+      return fadeInDuration;
+    }
+
+    /**
+     * @return the duration in seconds of the fade out applied at the end of the item audio
+     */
+    public double getFadeOutDuration() {
+      return fadeOutDuration;
+    }
+
+    /**
+     * @return the stereo balance of the item audio, from -1 (left) to 1 (right)
+     */
+    public float getPan() {
+      return pan;
+    }
+
+    /**
+     * @return whether the other items are ducked while this item is playing
+     */
+    public boolean getDucksOthers() {
+      return ducksOthers;
+    }
+
+    /**
+     * @return the gain applied to the item audio while it is ducked by another item
+     */
+    public float getDuckedVolume() {
+      return duckedVolume;
+    }
   }
 }
@@ -1,24 +1,108 @@
 package com.azzapp.rnskv;
 
+import android.hardware.HardwareBuffer;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.microedition.khronos.egl.EGLContext;
 
 /**
  * A class to decode a video composition and extract frames from the video items.
+ * <p>
+ * Item decoders are only kept alive for the items overlapping a sliding window around the
+ * playhead: an item decoder is activated {@link #getLookaheadUs() lookahead} before the item
+ * composition start time, and released once the playhead is past the item end. The number of
+ * live decoders never exceeds {@link #getMaxActiveDecoders()}, by default the decoder instances
+ * limit for the media of the items.
+ * <p>
+ * When a {@link #setFrameCacheBudgetBytes(long) frame cache budget} is set, the extracted frames
+ * are also copied to a {@link DecodedFrameCache}. Items whose frames around the playhead are all
+ * cached are then displayed from the cache without activating their decoder, so that looping or
+ * seeking back within a cached part of the composition does not involve any codec.
  */
 public class VideoCompositionDecoder {
 
+  private static final String TAG = "VideoCompositionDecoder";
+
+  public static final long DEFAULT_LOOKAHEAD_US = 1000000;
+
+  private static final int DEFAULT_MAX_ACTIVE_DECODERS = 4;
+
+  // Number of frame extractors created when the maximum number of active decoders is not set,
+  // the limit measured when the decoder starts is lowered to it
+  private static final int MAX_GL_FRAME_EXTRACTORS = 8;
+
+  private static final int DEFAULT_FRAME_RATE = 30;
+
   private final VideoComposition composition;
 
-  private final HashMap<VideoComposition.Item, VideoCompositionItemDecoder> decoders;
+  private final Map<VideoComposition.Item, VideoCompositionItemDecoder> decoders =
+    new ConcurrentHashMap<>();
 
   private EGLResourcesHolder eglResourcesHolder;
 
-  private final HashMap<VideoComposition.Item, GLFrameExtractor> glFrameExtractors;
+  private final Map<VideoComposition.Item, GLFrameExtractor> glFrameExtractors =
+    new ConcurrentHashMap<>();
+
+  private final ArrayDeque<GLFrameExtractor> freeGLFrameExtractors = new ArrayDeque<>();
+
+  private final List<GLFrameExtractor> allGLFrameExtractors = new ArrayList<>();
+
+  private final Map<VideoComposition.Item, HardwareBufferFrameExtractor> hardwareBufferFrameExtractors =
+    new ConcurrentHashMap<>();
+
+  // Includes the released extractors whose frames are still acquired by a consumer
+  private final List<HardwareBufferFrameExtractor> allHardwareBufferFrameExtractors =
+    new ArrayList<>();
+
+  private boolean useHardwareBuffers = false;
+
+  private boolean useProxies = false;
+
+  private final Map<String, VideoFrame> videoFrames = new ConcurrentHashMap<>();
+
+  private long lookaheadUs = DEFAULT_LOOKAHEAD_US;
+
+  private int maxActiveDecoders = 0;
+
+  private final int frameRate;
+
+  private int outputBufferCount = 1;
+
+  private long frameCacheBudgetBytes = 0;
+
+  private DecodedFrameCache frameCache;
+
+  private final Map<VideoComposition.Item, DecodedFrameCache.CachedFrame> displayedCachedFrames =
+    new HashMap<>();
 
-  private final HashMap<String, VideoFrame> videoFrames = new HashMap<>();
+  private boolean started = false;
+
+  private boolean released = false;
+
+  private long currentPositionUs = 0;
+
+  private final List<VideoComposition.Item> wantedItems = new ArrayList<>();
+
+  private final Map<String, Long> renderedTimes = new HashMap<>();
+
+  private long releasedDecodersDroppedFrameCount = 0;
 
   private OnItemImageAvailableListener onItemImageAvailableListener;
 
@@ -34,63 +118,273 @@ public class VideoCompositionDecoder {
    * @param composition The video composition to decode.
    */
   public VideoCompositionDecoder(VideoComposition composition) {
-    this.composition = composition;
-    decoders = new HashMap<>();
-    glFrameExtractors = new HashMap<>();
-    composition.getItems().forEach(item -> {
-      VideoCompositionItemDecoder decoder = new VideoCompositionItemDecoder(item);
-      decoder.setOnErrorListener(error -> {
-        if (onErrorListener != null) {
-          onErrorListener.onError(error);
-        }
-      });
-
-      decoder.setOnFrameAvailableListener(presentationTimeUs -> {
-        if (onFrameAvailableListener != null) {
-          onFrameAvailableListener.onFrameAvailable(item, presentationTimeUs);
-        }
-      });
+    this(composition, DEFAULT_FRAME_RATE);
+  }
 
-      decoder.setOnEndReachedListener(() -> {
-        if (onItemEndReachedListener != null) {
-          onItemEndReachedListener.onItemEndReached(item);
-        }
-      });
-      decoders.put(item, decoder);
-    });
+  /**
+   * Creates a new video composition decoder.
+   *
+   * @param composition The video composition to decode.
+   * @param frameRate   The frame rate at which the composition is decoded, used for the media
+   *                    not reporting their frame rate.
+   */
+  public VideoCompositionDecoder(VideoComposition composition, int frameRate) {
+    this.composition = composition;
+    this.frameRate = frameRate;
   }
 
   /**
-   * Prepares the items decoders and the image readers.
+   * Prepares the GL resources used to extract the frames of the items.
+   * Must be called with the shared GL context current. The media of the items are not read, so
+   * that the calling thread is not blocked by IOs.
    */
   public void prepare(EGLContext sharedContext) {
+    if (useProxies) {
+      // Requesting the proxies upfront starts building the missing ones
+      for (VideoComposition.Item item : composition.getItems()) {
+        proxyPathFor(item);
+      }
+    }
+    if (useHardwareBuffers) {
+      // The frames are handed as hardware buffers, no GL resources are needed
+      return;
+    }
     eglResourcesHolder = EGLResourcesHolder.createWithPBBufferSurface(sharedContext);
     eglResourcesHolder.makeCurrent();
-    decoders.values().forEach(decoder -> {
-      try {
-        decoder.prepare();
+    if (frameCacheBudgetBytes > 0) {
+      frameCache = new DecodedFrameCache(frameCacheBudgetBytes);
+    }
+    // Frame extractors are created upfront since the decoders are activated on threads
+    // that do not own the GL context, they are then lent to the active items.
+    int count = Math.min(
+      composition.getItems().size(),
+      maxActiveDecoders > 0 ? maxActiveDecoders : MAX_GL_FRAME_EXTRACTORS
+    );
+    for (int i = 0; i < count; i++) {
+      GLFrameExtractor glFrameExtractor = new GLFrameExtractor(outputBufferCount);
+      allGLFrameExtractors.add(glFrameExtractor);
+      freeGLFrameExtractors.add(glFrameExtractor);
+    }
+  }
 
-        VideoComposition.Item item = decoder.getItem();
-        GLFrameExtractor glFrameExtractor = new GLFrameExtractor();
+  /**
+   * Starts the decoders of the items in the window around the current position. When the maximum
+   * number of active decoders is not set, it is first measured from the media of the items, which
+   * opens each of them: this method should not be called on the JS or UI thread.
+   */
+  synchronized public void start() {
+    if (maxActiveDecoders == 0) {
+      maxActiveDecoders = measureMaxActiveDecoders();
+      if (!useHardwareBuffers) {
+        maxActiveDecoders = Math.max(1, Math.min(maxActiveDecoders, allGLFrameExtractors.size()));
+      }
+    }
+    started = true;
+    schedule(currentPositionUs, true);
+    decoders.values().forEach(VideoCompositionItemDecoder::start);
+  }
 
-        glFrameExtractor.setOnFrameAvailableListener(() -> {
-          if (onItemImageAvailableListener != null) {
-            onItemImageAvailableListener.onItemImageAvailable(item);
-          }
-        });
-        glFrameExtractors.put(item, glFrameExtractor);
-        decoder.setSurface(glFrameExtractor.getSurface());
-      } catch (Exception e) {
-        throw new RuntimeException(e);
+  /**
+   * @return the duration in microseconds before an item composition start time at which its
+   * decoder is activated
+   */
+  public long getLookaheadUs() {
+    return lookaheadUs;
+  }
+
+  /**
+   * Sets the duration before an item composition start time at which its decoder is activated.
+   *
+   * @param lookaheadUs the duration in microseconds
+   */
+  public void setLookaheadUs(long lookaheadUs) {
+    this.lookaheadUs = Math.max(0, lookaheadUs);
+  }
+
+  /**
+   * @return the maximum number of item decoders alive at the same time, 0 until the decoder is
+   * started if it was not set
+   */
+  public int getMaxActiveDecoders() {
+    return maxActiveDecoders;
+  }
+
+  /**
+   * Sets the maximum number of item decoders alive at the same time, replacing the limit measured
+   * for the media of the items. Must be called before {@link #prepare(EGLContext)}.
+   *
+   * @param maxActiveDecoders the maximum number of decoders
+   */
+  public void setMaxActiveDecoders(int maxActiveDecoders) {
+    this.maxActiveDecoders = Math.max(1, maxActiveDecoders);
+  }
+
+  /**
+   * @return the maximum number of items overlapping at any time of the composition, which is the
+   * number of decoders needed to decode all the items visible at any time
+   */
+  public int getMaxOverlappingItems() {
+    List<long[]> bounds = new ArrayList<>();
+    for (VideoComposition.Item item : composition.getItems()) {
+      long startUs = TimeHelpers.secToUs(item.getCompositionStartTime());
+      bounds.add(new long[]{startUs, 1});
+      bounds.add(new long[]{startUs + TimeHelpers.secToUs(item.getDuration()), -1});
+    }
+    // The item ends are exclusive, they come before the starts at the same time
+    bounds.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+    int count = 0;
+    int maxCount = 0;
+    for (long[] bound : bounds) {
+      count += (int) bound[1];
+      maxCount = Math.max(maxCount, count);
+    }
+    return maxCount;
+  }
+
+  /**
+   * Sets the number of output textures of each item, more than one allowing the frames returned
+   * by {@link #updateVideosFrames()} to be acquired and consumed on another thread while the next
+   * ones are decoded. Must be called before {@link #prepare(EGLContext)}.
+   *
+   * @param outputBufferCount the number of output textures per item
+   */
+  public void setOutputBufferCount(int outputBufferCount) {
+    this.outputBufferCount = Math.max(1, outputBufferCount);
+  }
+
+  /**
+   * Sets the maximum size in bytes of the cache of decoded frames, each frame being accounted as
+   * width * height * 4 bytes. The cache is disabled when 0, which is the default, and is not
+   * used with hardware buffers. Must be called before {@link #prepare(EGLContext)}.
+   *
+   * @param frameCacheBudgetBytes the budget of the cache in bytes
+   */
+  public void setFrameCacheBudgetBytes(long frameCacheBudgetBytes) {
+    this.frameCacheBudgetBytes = Math.max(0, frameCacheBudgetBytes);
+  }
+
+  /**
+   * Sets whether the items are decoded from low resolution proxies of their media when
+   * available, the proxy tier being selected from the item width and height.
+   * See {@link ProxyMedia}.
+   *
+   * @param useProxies whether to use proxies
+   */
+  public void setUseProxies(boolean useProxies) {
+    this.useProxies = useProxies;
+  }
+
+  /**
+   * Sets whether the frames of the items are delivered as hardware buffers instead of 2D
+   * textures, avoiding the copy of each frame to a texture. Only supported from Android 10, and
+   * not combinable with several output buffers. Must be called before
+   * {@link #prepare(EGLContext)}.
+   *
+   * @param useHardwareBuffers whether to use hardware buffers
+   */
+  public void setUseHardwareBuffers(boolean useHardwareBuffers) {
+    this.useHardwareBuffers =
+      useHardwareBuffers && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+  }
+
+  /**
+   * @return whether the frames of the items are delivered as hardware buffers
+   */
+  public boolean getUseHardwareBuffers() {
+    return useHardwareBuffers;
+  }
+
+  /**
+   * Prevents the textures or hardware buffers of the given frames from being overwritten by the
+   * next decoded frames until they are released with {@link #releaseFrames(Map)}. The frames
+   * whose hardware buffer was already given back to its decoder are removed from the map.
+   *
+   * @param frames the frames returned by {@link #updateVideosFrames()}
+   */
+  public void acquireFrames(Map<String, VideoFrame> frames) {
+    Iterator<VideoFrame> iterator = frames.values().iterator();
+    while (iterator.hasNext()) {
+      VideoFrame frame = iterator.next();
+      if (frame.getHardwareBuffer() != null) {
+        HardwareBufferFrameExtractor frameExtractor =
+          findHardwareBufferFrameExtractor(frame.getHardwareBuffer());
+        if (frameExtractor == null || !frameExtractor.acquireFrame(frame.getHardwareBuffer())) {
+          iterator.remove();
+        }
+        continue;
       }
-    });
+      GLFrameExtractor glFrameExtractor = findGLFrameExtractor(frame.getTexture());
+      if (glFrameExtractor != null) {
+        glFrameExtractor.acquireOutputTexture(frame.getTexture());
+      }
+    }
   }
 
   /**
-   * Starts the decoders.
+   * Makes the current context wait on the GPU for the rendering of the given frames. Must be
+   * called on the consumer context before sampling the frames.
+   *
+   * @param frames the acquired frames
    */
-  public void start() {
-    decoders.values().forEach(VideoCompositionItemDecoder::start);
+  public void waitForFrames(Map<String, VideoFrame> frames) {
+    for (VideoFrame frame : frames.values()) {
+      GLFrameExtractor glFrameExtractor = findGLFrameExtractor(frame.getTexture());
+      if (glFrameExtractor != null) {
+        glFrameExtractor.waitForOutputTexture(frame.getTexture());
+      }
+    }
+  }
+
+  /**
+   * Gives back the textures of frames previously acquired. Must be called on the consumer
+   * context once the frames have been drawn.
+   *
+   * @param frames the acquired frames
+   */
+  public void releaseFrames(Map<String, VideoFrame> frames) {
+    for (VideoFrame frame : frames.values()) {
+      if (frame.getHardwareBuffer() != null) {
+        HardwareBufferFrameExtractor frameExtractor =
+          findHardwareBufferFrameExtractor(frame.getHardwareBuffer());
+        if (frameExtractor != null) {
+          frameExtractor.releaseFrame(frame.getHardwareBuffer());
+          if (frameExtractor.isClosed()) {
+            synchronized (allHardwareBufferFrameExtractors) {
+              allHardwareBufferFrameExtractors.remove(frameExtractor);
+            }
+          }
+        }
+        continue;
+      }
+      GLFrameExtractor glFrameExtractor = findGLFrameExtractor(frame.getTexture());
+      if (glFrameExtractor != null) {
+        glFrameExtractor.releaseOutputTexture(frame.getTexture());
+      }
+    }
+  }
+
+  private HardwareBufferFrameExtractor findHardwareBufferFrameExtractor(
+    HardwareBuffer hardwareBuffer
+  ) {
+    synchronized (allHardwareBufferFrameExtractors) {
+      for (HardwareBufferFrameExtractor frameExtractor : allHardwareBufferFrameExtractors) {
+        if (frameExtractor.holdsFrame(hardwareBuffer)) {
+          return frameExtractor;
+        }
+      }
+    }
+    return null;
+  }
+
+  private GLFrameExtractor findGLFrameExtractor(int texId) {
+    synchronized (allGLFrameExtractors) {
+      for (GLFrameExtractor glFrameExtractor : allGLFrameExtractors) {
+        if (glFrameExtractor.ownsOutputTexture(texId)) {
+          return glFrameExtractor;
+        }
+      }
+    }
+    return null;
   }
 
   /**
@@ -129,26 +423,94 @@ public class VideoCompositionDecoder {
     this.onItemEndReachedListener = onItemEndReachedListener;
   }
 
+  /**
+   * @param item the composition item
+   * @return true if the decoder of the item is currently alive
+   */
+  public boolean isItemActive(VideoComposition.Item item) {
+    return decoders.containsKey(item);
+  }
+
   /**
    * Renders the video composition at the given position.
    *
    * @param currentPositionUs The current position in microseconds.
-   * @return A map with the rendered times for each item.
+   * @return A map with the rendered times of the items that rendered a frame, reused across calls.
    */
   public synchronized Map<String, Long> render(long currentPositionUs) {
-    Map<String, Long> renderedTimes = new HashMap<>();
-    decoders.forEach((item, decoder) -> {
-      renderedTimes.put(item.getId(), decoder.render(currentPositionUs));
-    });
+    schedule(currentPositionUs, false);
+    renderedTimes.clear();
+    for (VideoComposition.Item item : composition.getItems()) {
+      VideoCompositionItemDecoder decoder = decoders.get(item);
+      if (decoder == null) {
+        DecodedFrameCache.CachedFrame cachedFrame = cachedFrameDue(item, currentPositionUs);
+        if (cachedFrame != null) {
+          displayCachedFrame(item, cachedFrame);
+          renderedTimes.put(item.getId(), cachedFrame.getPresentationTimeUs());
+        }
+        continue;
+      }
+      long renderedTimeUs = decoder.render(currentPositionUs);
+      if (renderedTimeUs != -1) {
+        renderedTimes.put(item.getId(), renderedTimeUs);
+        displayedCachedFrames.remove(item);
+        if (frameCache != null) {
+          frameCache.onFrameRendered(item.getId(), renderedTimeUs);
+        }
+      }
+    }
     return renderedTimes;
   }
 
   /**
-   * Updates the video frames of the composition and return them
+   * Activates and releases the item decoders for the given position without rendering. Must be
+   * called on each frame of the playback, so that the items following a gap in the timeline get
+   * activated even though no active decoder has a frame due.
+   *
+   * @param currentPositionUs The current position in microseconds.
+   */
+  public synchronized void updateSchedule(long currentPositionUs) {
+    schedule(currentPositionUs, false);
+  }
+
+  /**
+   * @param currentPositionUs The position in microseconds.
+   * @return true if a call to {@link #render(long)} at the given position would render a frame.
+   */
+  public synchronized boolean hasFrameDue(long currentPositionUs) {
+    for (VideoComposition.Item item : composition.getItems()) {
+      VideoCompositionItemDecoder decoder = decoders.get(item);
+      if (decoder != null
+        ? decoder.hasFrameDue(currentPositionUs)
+        : cachedFrameDue(item, currentPositionUs) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of decoded frames skipped because a more recent frame was due
+   */
+  public synchronized long getDroppedFrameCount() {
+    long count = releasedDecodersDroppedFrameCount;
+    for (VideoCompositionItemDecoder decoder : decoders.values()) {
+      count += decoder.getDroppedFrameCount();
+    }
+    return count;
+  }
+
+  /**
+   * Updates the video frames of the composition and return them. Synchronized with the scheduling
+   * so that the frame extractor of an item is not reset or lent to another item while its frame
+   * is read.
    *
    * @return A map with the updated video frames.
    */
-  public Map<String, VideoFrame> updateVideosFrames() {
+  public synchronized Map<String, VideoFrame> updateVideosFrames() {
+    if (useHardwareBuffers) {
+      return updateVideosHardwareBuffers();
+    }
     for (VideoComposition.Item item : composition.getItems()) {
       GLFrameExtractor glFrameExtractor = glFrameExtractors.get(item);
       VideoCompositionItemDecoder decoder = decoders.get(item);
@@ -165,7 +527,7 @@ public class VideoCompositionDecoder {
         int temp = frameWidth;
         frameWidth = frameHeight;
         frameHeight = temp;
-      } 
+      }
       if (!glFrameExtractor.decodeNextFrame(frameWidth, frameHeight)) {
         continue;
       }
@@ -176,6 +538,37 @@ public class VideoCompositionDecoder {
       );
       String id = item.getId();
       videoFrames.put(id, nextFrame);
+      if (frameCache != null) {
+        frameCache.setDisplayedFrame(id, null);
+        frameCache.put(
+          id,
+          TimeHelpers.nsecToUs(nextFrame.getTimestampNs()),
+          nextFrame.getTexture(),
+          frameWidth,
+          frameHeight
+        );
+      }
+    }
+    return videoFrames;
+  }
+
+  private Map<String, VideoFrame> updateVideosHardwareBuffers() {
+    for (VideoComposition.Item item : composition.getItems()) {
+      HardwareBufferFrameExtractor frameExtractor = hardwareBufferFrameExtractors.get(item);
+      VideoCompositionItemDecoder decoder = decoders.get(item);
+      if (frameExtractor == null || decoder == null || !frameExtractor.decodeNextFrame()) {
+        continue;
+      }
+      // The buffer holds the frame as decoded, the rotation is applied when drawing
+      int rotation = decoder.getRotation();
+      boolean swap = rotation == 90 || rotation == 270;
+      videoFrames.put(item.getId(), new VideoFrame(
+        frameExtractor.getHardwareBuffer(),
+        swap ? decoder.getVideoHeight() : decoder.getVideoWidth(),
+        swap ? decoder.getVideoWidth() : decoder.getVideoHeight(),
+        rotation,
+        frameExtractor.getLatestTimeStampNs()
+      ));
     }
     return videoFrames;
   }
@@ -186,23 +579,385 @@ public class VideoCompositionDecoder {
    * @param position The position to seek to in microseconds.
    */
   synchronized public void seekTo(long position) {
-    decoders.values().forEach(itemDecoder -> itemDecoder.seekTo(position));
+    schedule(position, true);
+    decoders.forEach((item, itemDecoder) -> {
+      itemDecoder.seekTo(itemTimeAt(item, position));
+      if (frameCache != null) {
+        frameCache.startRun(item.getId(), mediaTimeAt(item, position));
+      }
+    });
+  }
+
+  /**
+   * Seeks each item to the sync frame closest to the given position and only decodes this frame.
+   *
+   * @param position The position to seek to in microseconds.
+   * @return true if at least one item has a new frame to decode
+   */
+  synchronized public boolean seekToClosestSyncFrames(long position) {
+    schedule(position, true);
+    boolean decoding = false;
+    for (VideoComposition.Item item : composition.getItems()) {
+      VideoCompositionItemDecoder itemDecoder = decoders.get(item);
+      if (itemDecoder == null) {
+        if (cachedFrameDue(item, position) != null) {
+          decoding = true;
+        }
+        continue;
+      }
+      if (frameCache != null) {
+        // Sync frames are not contiguous, they do not extend the cached ranges
+        frameCache.stopRun(item.getId());
+      }
+      if (itemDecoder.seekToClosestSyncFrame(itemTimeAt(item, position))) {
+        decoding = true;
+      }
+    }
+    return decoding;
   }
 
   /**
    * Releases the resources.
    */
   synchronized public void release() {
+    released = true;
     decoders.values().forEach(VideoCompositionItemDecoder::release);
     decoders.clear();
     videoFrames.clear();
-    glFrameExtractors.values().forEach(GLFrameExtractor::release);
+    hardwareBufferFrameExtractors.clear();
+    synchronized (allHardwareBufferFrameExtractors) {
+      allHardwareBufferFrameExtractors.forEach(HardwareBufferFrameExtractor::releaseNow);
+      allHardwareBufferFrameExtractors.clear();
+    }
+    synchronized (allGLFrameExtractors) {
+      allGLFrameExtractors.forEach(GLFrameExtractor::release);
+      allGLFrameExtractors.clear();
+    }
+    freeGLFrameExtractors.clear();
     glFrameExtractors.clear();
+    displayedCachedFrames.clear();
+    if (frameCache != null) {
+      frameCache.release();
+    }
     if (eglResourcesHolder != null) {
       eglResourcesHolder.release();
     }
   }
 
+  /**
+   * Activates the decoders of the items in the window around the given position and releases
+   * the decoders of the items behind it. Items whose frames are cached over the lookahead
+   * duration do not need a decoder, on seeks their decoder is released.
+   */
+  private void schedule(long positionUs, boolean seeking) {
+    currentPositionUs = positionUs;
+    if (!started || released) {
+      return;
+    }
+
+    wantedItems.clear();
+    for (VideoComposition.Item item : composition.getItems()) {
+      if (!isInWindow(item, positionUs)) {
+        if (displayedCachedFrames.remove(item) != null) {
+          videoFrames.remove(item.getId());
+          frameCache.setDisplayedFrame(item.getId(), null);
+        }
+        continue;
+      }
+      // A decoder playing through a cached part keeps running until the next seek
+      if ((!seeking && decoders.containsKey(item)) || !isCachedAhead(item, positionUs)) {
+        wantedItems.add(item);
+      }
+    }
+    if (wantedItems.size() > maxActiveDecoders) {
+      // Items playing now take precedence over the prewarmed ones, then the soonest first
+      wantedItems.sort((a, b) -> Double.compare(
+        Math.max(a.getCompositionStartTime(), positionUs / 1000000.0),
+        Math.max(b.getCompositionStartTime(), positionUs / 1000000.0)
+      ));
+      wantedItems.subList(maxActiveDecoders, wantedItems.size()).clear();
+    }
+
+    for (VideoComposition.Item item : composition.getItems()) {
+      if (decoders.containsKey(item) && !wantedItems.contains(item)) {
+        deactivate(item);
+        DecodedFrameCache.CachedFrame cachedFrame =
+          isInWindow(item, positionUs) ? cachedFrameAt(item, positionUs) : null;
+        if (cachedFrame != null) {
+          // Keeps the item displayed until the next render reports the cached frame
+          displayCachedFrame(item, cachedFrame);
+          displayedCachedFrames.remove(item);
+        }
+      }
+    }
+    for (VideoComposition.Item item : wantedItems) {
+      if (!decoders.containsKey(item)) {
+        activate(item, positionUs);
+      }
+    }
+  }
+
+  private void activate(VideoComposition.Item item, long positionUs) {
+    if (useHardwareBuffers && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      activateWithHardwareBuffers(item, positionUs);
+      return;
+    }
+    GLFrameExtractor glFrameExtractor = freeGLFrameExtractors.pollFirst();
+    if (glFrameExtractor == null) {
+      Log.w(TAG, "No frame extractor available for item " + item.getId());
+      return;
+    }
+    VideoCompositionItemDecoder decoder = createItemDecoder(item);
+    glFrameExtractor.setOnFrameAvailableListener(() -> {
+      if (onItemImageAvailableListener != null) {
+        onItemImageAvailableListener.onItemImageAvailable(item);
+      }
+    });
+    try {
+      decoder.prepare();
+      decoder.setSurface(glFrameExtractor.getSurface());
+      decoder.seekTo(itemTimeAt(item, positionUs));
+      decoder.start();
+    } catch (Exception e) {
+      decoder.release();
+      freeGLFrameExtractors.addFirst(glFrameExtractor);
+      if (onErrorListener != null) {
+        onErrorListener.onError(e);
+      }
+      return;
+    }
+    glFrameExtractors.put(item, glFrameExtractor);
+    decoders.put(item, decoder);
+    if (frameCache != null) {
+      frameCache.startRun(item.getId(), mediaTimeAt(item, positionUs));
+    }
+  }
+
+  private VideoCompositionItemDecoder createItemDecoder(VideoComposition.Item item) {
+    VideoCompositionItemDecoder decoder = new VideoCompositionItemDecoder(item);
+    String proxyPath = proxyPathFor(item);
+    if (proxyPath != null) {
+      decoder.setSourcePath(proxyPath);
+    }
+    decoder.setOnErrorListener(error -> {
+      if (onErrorListener != null) {
+        onErrorListener.onError(error);
+      }
+    });
+    decoder.setOnFrameAvailableListener(presentationTimeUs -> {
+      if (onFrameAvailableListener != null) {
+        onFrameAvailableListener.onFrameAvailable(item, presentationTimeUs);
+      }
+    });
+    decoder.setOnEndReachedListener(() -> {
+      if (frameCache != null) {
+        frameCache.onEndReached(
+          item.getId(),
+          TimeHelpers.secToUs(item.getStartTime() + item.getDuration())
+        );
+      }
+      if (onItemEndReachedListener != null) {
+        onItemEndReachedListener.onItemEndReached(item);
+      }
+    });
+    return decoder;
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.Q)
+  private void activateWithHardwareBuffers(VideoComposition.Item item, long positionUs) {
+    VideoCompositionItemDecoder decoder = createItemDecoder(item);
+    HardwareBufferFrameExtractor frameExtractor = null;
+    try {
+      decoder.prepare();
+      int rotation = decoder.getRotation();
+      boolean swap = rotation == 90 || rotation == 270;
+      frameExtractor = new HardwareBufferFrameExtractor(
+        swap ? decoder.getVideoHeight() : decoder.getVideoWidth(),
+        swap ? decoder.getVideoWidth() : decoder.getVideoHeight()
+      );
+      frameExtractor.setOnFrameAvailableListener(() -> {
+        if (onItemImageAvailableListener != null) {
+          onItemImageAvailableListener.onItemImageAvailable(item);
+        }
+      });
+      decoder.setSurface(frameExtractor.getSurface());
+      decoder.seekTo(itemTimeAt(item, positionUs));
+      decoder.start();
+    } catch (Exception e) {
+      decoder.release();
+      if (frameExtractor != null) {
+        frameExtractor.release();
+      }
+      if (onErrorListener != null) {
+        onErrorListener.onError(e);
+      }
+      return;
+    }
+    hardwareBufferFrameExtractors.put(item, frameExtractor);
+    synchronized (allHardwareBufferFrameExtractors) {
+      allHardwareBufferFrameExtractors.add(frameExtractor);
+    }
+    decoders.put(item, decoder);
+  }
+
+  private void deactivate(VideoComposition.Item item) {
+    VideoCompositionItemDecoder decoder = decoders.remove(item);
+    if (frameCache != null) {
+      frameCache.stopRun(item.getId());
+    }
+    if (decoder != null) {
+      releasedDecodersDroppedFrameCount += decoder.getDroppedFrameCount();
+      decoder.release();
+    }
+    videoFrames.remove(item.getId());
+    HardwareBufferFrameExtractor hardwareBufferFrameExtractor =
+      hardwareBufferFrameExtractors.remove(item);
+    if (hardwareBufferFrameExtractor != null) {
+      hardwareBufferFrameExtractor.release();
+      if (hardwareBufferFrameExtractor.isClosed()) {
+        synchronized (allHardwareBufferFrameExtractors) {
+          allHardwareBufferFrameExtractors.remove(hardwareBufferFrameExtractor);
+        }
+      }
+    }
+    GLFrameExtractor glFrameExtractor = glFrameExtractors.remove(item);
+    if (glFrameExtractor != null) {
+      glFrameExtractor.setOnFrameAvailableListener(null);
+      glFrameExtractor.reset();
+      freeGLFrameExtractors.addFirst(glFrameExtractor);
+    }
+  }
+
+  /**
+   * Returns the number of decoders that can run at the same time for the media of the items, the
+   * smallest one among their mime types, sizes and frame rates, lowered to the number of instances
+   * measured by {@link VideoCapabilities#probeDecoders(String, int, int, int)} when the media
+   * settings have been probed.
+   */
+  private int measureMaxActiveDecoders() {
+    int maxInstances = -1;
+    Set<String> paths = new HashSet<>();
+    for (VideoComposition.Item item : composition.getItems()) {
+      String proxyPath = proxyPathFor(item);
+      String path = proxyPath != null ? proxyPath : item.getPath();
+      if (!paths.add(path)) {
+        continue;
+      }
+      MediaFormat format = readVideoFormat(path);
+      VideoCapabilities.DecoderInfo decoderInfo;
+      if (format != null) {
+        int mediaFrameRate = format.containsKey(MediaFormat.KEY_FRAME_RATE)
+          ? format.getInteger(MediaFormat.KEY_FRAME_RATE)
+          : frameRate;
+        decoderInfo = VideoCapabilities.getDecodingCapabilitiesFor(
+          format.getString(MediaFormat.KEY_MIME),
+          format.getInteger(MediaFormat.KEY_WIDTH),
+          format.getInteger(MediaFormat.KEY_HEIGHT),
+          mediaFrameRate
+        );
+      } else {
+        decoderInfo = VideoCapabilities.getDecodingCapabilitiesFor(VideoEncoder.MIME_TYPE);
+      }
+      if (decoderInfo != null && decoderInfo.getMaxInstances() > 0
+        && (maxInstances == -1 || decoderInfo.getMaxInstances() < maxInstances)) {
+        maxInstances = decoderInfo.getMaxInstances();
+      }
+    }
+    return maxInstances > 0 ? maxInstances : DEFAULT_MAX_ACTIVE_DECODERS;
+  }
+
+  @Nullable
+  private static MediaFormat readVideoFormat(String path) {
+    MediaExtractor extractor = new MediaExtractor();
+    try {
+      extractor.setDataSource(path);
+      for (int i = 0; i < extractor.getTrackCount(); i++) {
+        MediaFormat format = extractor.getTrackFormat(i);
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (mime != null && mime.startsWith("video/")) {
+          return format;
+        }
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Could not read the video format of " + path, e);
+    } finally {
+      extractor.release();
+    }
+    return null;
+  }
+
+  private String proxyPathFor(VideoComposition.Item item) {
+    if (!useProxies) {
+      return null;
+    }
+    return ProxyMedia.getIfReady(
+      item.getPath(),
+      ProxyMedia.selectTier(item.getWidth(), item.getHeight())
+    );
+  }
+
+  private boolean isInWindow(VideoComposition.Item item, long positionUs) {
+    long startUs = TimeHelpers.secToUs(item.getCompositionStartTime());
+    long endUs = startUs + TimeHelpers.secToUs(item.getDuration());
+    return positionUs >= startUs - lookaheadUs && positionUs < endUs;
+  }
+
+  private boolean isCachedAhead(VideoComposition.Item item, long positionUs) {
+    if (frameCache == null) {
+      return false;
+    }
+    long fromUs = mediaTimeAt(item, positionUs);
+    long toUs = Math.min(
+      fromUs + lookaheadUs,
+      TimeHelpers.secToUs(item.getStartTime() + item.getDuration())
+    );
+    return frameCache.covers(item.getId(), fromUs, toUs);
+  }
+
+  private DecodedFrameCache.CachedFrame cachedFrameAt(VideoComposition.Item item, long positionUs) {
+    if (frameCache == null) {
+      return null;
+    }
+    return frameCache.get(item.getId(), mediaTimeAt(item, positionUs));
+  }
+
+  /**
+   * @return the cached frame to display at the given position if it is not already displayed
+   */
+  private DecodedFrameCache.CachedFrame cachedFrameDue(
+    VideoComposition.Item item,
+    long positionUs
+  ) {
+    if (frameCache == null || !isInWindow(item, positionUs)) {
+      return null;
+    }
+    DecodedFrameCache.CachedFrame cachedFrame = cachedFrameAt(item, positionUs);
+    return cachedFrame != displayedCachedFrames.get(item) ? cachedFrame : null;
+  }
+
+  private void displayCachedFrame(
+    VideoComposition.Item item,
+    DecodedFrameCache.CachedFrame cachedFrame
+  ) {
+    displayedCachedFrames.put(item, cachedFrame);
+    frameCache.setDisplayedFrame(item.getId(), cachedFrame);
+    videoFrames.put(item.getId(), new VideoFrame(
+      cachedFrame.getTexture(),
+      cachedFrame.getWidth(),
+      cachedFrame.getHeight(),
+      0,
+      cachedFrame.getPresentationTimeUs() * 1000
+    ));
+  }
+
+  private static long mediaTimeAt(VideoComposition.Item item, long positionUs) {
+    return TimeHelpers.secToUs(item.getStartTime()) + itemTimeAt(item, positionUs);
+  }
+
+  private static long itemTimeAt(VideoComposition.Item item, long positionUs) {
+    return Math.max(0, positionUs - TimeHelpers.secToUs(item.getCompositionStartTime()));
+  }
+
   /**
    * Listener to be called when an image is available.
    */
@@ -231,5 +986,3 @@ public class VideoCompositionDecoder {
     void onError(Exception e);
   }
 }
-
-
@@ -4,10 +4,12 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
 import android.os.Process;
-import android.os.SystemClock;
 import android.util.Log;
 
-import java.io.IOException;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import javax.microedition.khronos.egl.EGLContext;
 
@@ -23,6 +25,16 @@ public class VideoCompositionFramesExtractor {
   private static final int PLAYBACK_LOOP = 4;
   private static final int PLAYBACK_SEEK = 5;
   private static final int PLAYBACK_RELEASE = 6;
+  private static final int PLAYBACK_SCRUB_START = 7;
+  private static final int PLAYBACK_SCRUB_END = 8;
+
+  // Maximum time waited for the frames of a scrub step before applying the next one
+  private static final long SCRUB_STEP_TIMEOUT_NS = 200000000;
+
+  private static final long DEFAULT_FRAME_INTERVAL_NS = 16666667;
+
+  // Longer intervals between frames are pauses, not the display refresh rate
+  private static final long MAX_FRAME_INTERVAL_NS = 100000000;
 
   private final VideoComposition composition;
 
@@ -42,24 +54,66 @@ public class VideoCompositionFramesExtractor {
 
 
   private long pendingSeek = 0;
-  private boolean isPlaying = false;
+  private volatile boolean isPlaying = false;
 
   private long startTime = 0;
   private long pausePosition = 0;
   private boolean isEOS = false;
 
+  private long seekStartTimeNs = -1;
+
+  private PlaybackClock clock;
+  private final PlaybackClock.FrameCallback frameCallback = this::doFrame;
+  private boolean frameScheduled = false;
+  private long frameIntervalNs = DEFAULT_FRAME_INTERVAL_NS;
+  private long lastFrameTimeNs = -1;
+  private long lastRenderPosition = -1;
+  private long lateFrameCount = 0;
+
+  private boolean scrubbing = false;
+  private long scrubPosition = 0;
+  private long pendingScrubPosition = -1;
+  private long scrubStepStartTimeNs = -1;
+
+  // The hardware buffer frames returned by the last decodeCompositionFrames call
+  private Map<String, VideoFrame> heldFrames = Collections.emptyMap();
+
   /**
    * Create a new VideoCompositionFramesExtractor.
    *
    * @param composition the video composition to preview
    */
   public VideoCompositionFramesExtractor(VideoComposition composition, NativeEventDispatcher eventDispatcher) {
+    this(composition, eventDispatcher, null);
+  }
+
+  /**
+   * Create a new VideoCompositionFramesExtractor.
+   *
+   * @param composition the video composition to preview
+   * @param clock       the clock driving the playback, if null the playback is synchronized with
+   *                    the display vsync
+   */
+  public VideoCompositionFramesExtractor(
+    VideoComposition composition,
+    NativeEventDispatcher eventDispatcher,
+    @Nullable PlaybackClock clock
+  ) {
     this.eventDispatcher = eventDispatcher;
     this.composition = composition;
+    this.clock = clock;
     decoder = new VideoCompositionDecoder(composition);
+    // The preview is decoded from low resolution proxies when available
+    decoder.setUseProxies(true);
     playbackThread = new PlaybackThread();
     playbackThread.start();
     handler = new Handler(playbackThread.getLooper(), playbackThread);
+    decoder.setOnFrameAvailableListener((item, presentationTimeUs) -> {
+      if (!isPlaying) {
+        // Wakes the paused playback up to display the new frame
+        handler.sendEmptyMessage(PLAYBACK_LOOP);
+      }
+    });
   }
 
   public void prepare() {
@@ -71,6 +125,48 @@ public class VideoCompositionFramesExtractor {
     handler.sendEmptyMessage(PLAYBACK_PREPARE);
   }
 
+  /**
+   * Set whether the items are decoded from low resolution proxies of their media when available,
+   * true by default. Must be called before {@link #prepare()}.
+   */
+  public void setUseProxies(boolean useProxies) {
+    decoder.setUseProxies(useProxies);
+  }
+
+  /**
+   * Set whether the frames are delivered as hardware buffers instead of 2D textures, sparing a
+   * copy of each frame. Only supported from Android 10, ignored otherwise.
+   * Must be called before {@link #prepare()}.
+   */
+  public void setUseHardwareBuffers(boolean useHardwareBuffers) {
+    decoder.setUseHardwareBuffers(useHardwareBuffers);
+  }
+
+  /**
+   * Set the maximum size in bytes of the cache of decoded frames, disabled when 0 which is the
+   * default. Once a part of the composition is cached, playing, looping or seeking within it does
+   * not decode anything. Ignored with hardware buffers. Must be called before {@link #prepare()}.
+   */
+  public void setFrameCacheBudgetBytes(long frameCacheBudgetBytes) {
+    decoder.setFrameCacheBudgetBytes(frameCacheBudgetBytes);
+  }
+
+  /**
+   * Set the duration before an item composition start time at which its decoder is activated,
+   * one second by default.
+   */
+  public void setDecoderLookaheadUs(long lookaheadUs) {
+    decoder.setLookaheadUs(lookaheadUs);
+  }
+
+  /**
+   * Set the maximum number of item decoders alive at the same time, by default the decoder
+   * instances limit for the media of the items. Must be called before {@link #prepare()}.
+   */
+  public void setMaxActiveDecoders(int maxActiveDecoders) {
+    decoder.setMaxActiveDecoders(maxActiveDecoders);
+  }
+
   /**
    * Start playing the composition.
    */
@@ -93,13 +189,41 @@ public class VideoCompositionFramesExtractor {
     handler.obtainMessage(PLAYBACK_SEEK, position).sendToTarget();
   }
 
+  /**
+   * Start scrubbing, while scrubbing the playback is paused and seeks only decode the sync frames
+   * closest to the requested position. A new seek is only applied once the frames of the previous
+   * one are displayed, so that the latency of each step stays bounded.
+   */
+  public void startScrubbing() {
+    handler.sendEmptyMessage(PLAYBACK_SCRUB_START);
+  }
+
+  /**
+   * Stop scrubbing, the exact frame at the last requested position is decoded.
+   */
+  public void stopScrubbing() {
+    handler.sendEmptyMessage(PLAYBACK_SCRUB_END);
+  }
+
   /**
    * Decode the next frame of each composition item according to the current position of the player.
+   * <p>
+   * With hardware buffers, the buffers of the returned frames are not given back to the decoders
+   * until the next call, so that they can be sampled while the next frames are decoded.
    *
    * @return a map of item id to video frame
    */
-  public Map<String, VideoFrame> decodeCompositionFrames() {
-    return decoder.updateVideosFrames();
+  public synchronized Map<String, VideoFrame> decodeCompositionFrames() {
+    Map<String, VideoFrame> frames = decoder.updateVideosFrames();
+    if (!decoder.getUseHardwareBuffers()) {
+      return frames;
+    }
+    // The frames map of the decoder is updated in place, the acquired frames are a snapshot
+    Map<String, VideoFrame> acquiredFrames = new HashMap<>(frames);
+    decoder.acquireFrames(acquiredFrames);
+    decoder.releaseFrames(heldFrames);
+    heldFrames = acquiredFrames;
+    return acquiredFrames;
   }
 
   /**
@@ -126,6 +250,20 @@ public class VideoCompositionFramesExtractor {
     }
   }
 
+  /**
+   * @return the number of decoded frames skipped because a more recent frame was due
+   */
+  public long getDroppedFrameCount() {
+    return decoder.getDroppedFrameCount();
+  }
+
+  /**
+   * @return the number of frames displayed after the vsync at which they were due
+   */
+  public long getLateFrameCount() {
+    return lateFrameCount;
+  }
+
   /**
    * @return whether the player is currently playing
    */
@@ -134,6 +272,10 @@ public class VideoCompositionFramesExtractor {
   }
 
   public void release() {
+    synchronized (this) {
+      decoder.releaseFrames(heldFrames);
+      heldFrames = Collections.emptyMap();
+    }
     if (!playbackThread.isAlive()) {
       decoder.release();
       return;
@@ -147,7 +289,10 @@ public class VideoCompositionFramesExtractor {
     decoder.start();
     prepared = true;
     eventDispatcher.dispatchEvent("ready", null);
-    handler.sendEmptyMessage(PLAYBACK_LOOP);
+    if (clock == null) {
+      clock = new PlaybackClock.ChoreographerClock();
+    }
+    scheduleFrame();
     if (pendingSeek != 0) {
       seekInternal(pendingSeek);
     }
@@ -169,6 +314,7 @@ public class VideoCompositionFramesExtractor {
     startTime = microTime() - pausePosition;
     isPlaying = true;
     pausePosition = 0;
+    scheduleFrame();
   }
 
   private void pauseInternal() {
@@ -180,29 +326,109 @@ public class VideoCompositionFramesExtractor {
     isPlaying = false;
   }
 
-  private void loopInternal() throws IOException, InterruptedException {
-    long loopStartTime = SystemClock.elapsedRealtime();
+  private void scheduleFrame() {
+    if (frameScheduled || !prepared || releasing) {
+      return;
+    }
+    frameScheduled = true;
+    clock.postFrameCallback(frameCallback);
+  }
+
+  private boolean needsFrames() {
+    return isPlaying || seekStartTimeNs != -1 || scrubStepStartTimeNs != -1;
+  }
+
+  private void doFrame(long frameTimeNanos) {
+    frameScheduled = false;
+    if (releasing) {
+      return;
+    }
+    try {
+      renderFrame(frameTimeNanos);
+    } catch (Exception error) {
+      eventDispatcher.dispatchEvent("error", error.getMessage());
+      releaseInternal();
+    }
+  }
+
+  private void renderFrame(long frameTimeNanos) {
+    if (lastFrameTimeNs != -1) {
+      long interval = frameTimeNanos - lastFrameTimeNs;
+      if (interval > 0 && interval < MAX_FRAME_INTERVAL_NS) {
+        frameIntervalNs = (frameIntervalNs * 7 + interval) / 8;
+      }
+    }
 
-    long currentPosition = getCurrentPosition();
+    // What is rendered now is displayed at the next vsync
+    long currentPosition = isPlaying
+      ? (frameTimeNanos + frameIntervalNs) / 1000 - startTime
+      : pausePosition;
 
     isEOS = currentPosition >= TimeHelpers.secToUs(composition.getDuration());
-    if (isEOS) {
+    if (isEOS && isPlaying) {
       eventDispatcher.dispatchEvent("complete", null);
       isPlaying = false;
       pausePosition = TimeHelpers.secToUs(composition.getDuration());
       currentPosition = pausePosition;
     }
-    decoder.render(currentPosition);
+
+    // Activates the upcoming items even when no decoder is alive, e.g. in a timeline gap
+    decoder.updateSchedule(currentPosition);
+    Map<String, Long> renderedTimes = Collections.emptyMap();
+    if (decoder.hasFrameDue(currentPosition)) {
+      renderedTimes = decoder.render(currentPosition);
+      if (isPlaying && lastRenderPosition != -1) {
+        countLateFrames(renderedTimes);
+      }
+    }
+    lastRenderPosition = isPlaying ? currentPosition : -1;
+
+    if (seekStartTimeNs != -1 && !renderedTimes.isEmpty()) {
+      dispatchSeekComplete(seekStartTimeNs, false);
+      seekStartTimeNs = -1;
+    }
+    if (scrubStepStartTimeNs != -1) {
+      boolean timedOut = System.nanoTime() - scrubStepStartTimeNs > SCRUB_STEP_TIMEOUT_NS;
+      if (!renderedTimes.isEmpty() || timedOut) {
+        if (!timedOut) {
+          dispatchSeekComplete(scrubStepStartTimeNs, true);
+        }
+        scrubStepStartTimeNs = -1;
+        if (pendingScrubPosition != -1) {
+          long position = pendingScrubPosition;
+          pendingScrubPosition = -1;
+          scrubInternal(position);
+        }
+      }
+    }
     if (isEOS && looping) {
       playInternal();
     }
-    long delay = 10;
-    long duration = (SystemClock.elapsedRealtime() - loopStartTime);
-    delay = delay - duration;
-    if (delay > 0) {
-      handler.sendEmptyMessageDelayed(PLAYBACK_LOOP, delay);
+
+    if (needsFrames()) {
+      lastFrameTimeNs = frameTimeNanos;
+      scheduleFrame();
     } else {
-      handler.sendEmptyMessage(PLAYBACK_LOOP);
+      // Sleep until the playback resumes or a new frame is decoded
+      lastFrameTimeNs = -1;
+    }
+  }
+
+  /**
+   * A frame is late if it was already due at the previous vsync.
+   */
+  private void countLateFrames(Map<String, Long> renderedTimes) {
+    for (VideoComposition.Item item : composition.getItems()) {
+      Long presentationTimeUs = renderedTimes.get(item.getId());
+      if (presentationTimeUs == null) {
+        continue;
+      }
+      long compositionTimeUs = presentationTimeUs
+        - TimeHelpers.secToUs(item.getStartTime())
+        + TimeHelpers.secToUs(item.getCompositionStartTime());
+      if (compositionTimeUs <= lastRenderPosition) {
+        lateFrameCount++;
+      }
     }
   }
 
@@ -211,15 +437,61 @@ public class VideoCompositionFramesExtractor {
       pendingSeek = position;
       return;
     }
+    if (scrubbing) {
+      scrubInternal(position);
+      return;
+    }
+    seekStartTimeNs = System.nanoTime();
     decoder.seekTo(position);
     if (isPlaying) {
       startTime = microTime() - position;
     } else {
       pausePosition = position;
     }
+    scheduleFrame();
+  }
+
+  private void startScrubbingInternal() {
+    pauseInternal();
+    scrubbing = true;
+    scrubPosition = getCurrentPosition();
+  }
+
+  private void scrubInternal(long position) {
+    scrubPosition = position;
+    pausePosition = position;
+    if (scrubStepStartTimeNs != -1) {
+      pendingScrubPosition = position;
+      return;
+    }
+    if (decoder.seekToClosestSyncFrames(position)) {
+      scrubStepStartTimeNs = System.nanoTime();
+      scheduleFrame();
+    }
+  }
+
+  private void stopScrubbingInternal() {
+    if (!scrubbing) {
+      return;
+    }
+    scrubbing = false;
+    pendingScrubPosition = -1;
+    scrubStepStartTimeNs = -1;
+    if (prepared) {
+      seekInternal(scrubPosition);
+    }
+  }
+
+  private void dispatchSeekComplete(long seekStartTimeNs, boolean scrubbing) {
+    // Time to first frame in milliseconds
+    double timeToFirstFrame = (System.nanoTime() - seekStartTimeNs) / 1000000.0;
+    eventDispatcher.dispatchEvent("seekComplete", new double[]{timeToFirstFrame, scrubbing ? 1 : 0});
   }
 
   private void releaseInternal() {
+    if (clock != null) {
+      clock.removeFrameCallback(frameCallback);
+    }
     playbackThread.interrupt();
     playbackThread.quit();
     decoder.release();
@@ -253,7 +525,7 @@ public class VideoCompositionFramesExtractor {
             return true;
           }
           case PLAYBACK_LOOP -> {
-            loopInternal();
+            scheduleFrame();
             return true;
           }
           case PLAYBACK_SEEK -> {
@@ -264,6 +536,14 @@ public class VideoCompositionFramesExtractor {
             releaseInternal();
             return true;
           }
+          case PLAYBACK_SCRUB_START -> {
+            startScrubbingInternal();
+            return true;
+          }
+          case PLAYBACK_SCRUB_END -> {
+            stopScrubbingInternal();
+            return true;
+          }
           default -> {
             return false;
           }
@@ -1,15 +1,14 @@
 package com.azzapp.rnskv;
 
-import android.media.MediaCodec;
-import android.media.MediaExtractor;
-import android.media.MediaFormat;
 import android.os.Handler;
 import android.os.HandlerThread;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -17,6 +16,8 @@ import java.util.concurrent.CompletableFuture;
 import javax.microedition.khronos.egl.EGLContext;
 
 public class VideoCompositionFramesExtractorSync {
+  private static final long AUDIO_BUFFER_POOL_MAX_BYTES = 4 * 1024 * 1024;
+
   private final VideoComposition composition;
 
   private final VideoCompositionDecoder decoder;
@@ -36,14 +37,117 @@ public class VideoCompositionFramesExtractorSync {
 
   private CompletableFuture<Map<String, VideoFrame>> future;
 
-  private final Map<String, MediaExtractor> audioExtractors = new HashMap<>();
-  private final Map<String, MediaCodec> audioDecoders = new HashMap<>();
-  private final Map<String, MediaFormat> audioFormats = new HashMap<>();
-  private final Map<String, Long> lastAudioTimes = new HashMap<>();
+  private final Map<String, VideoCompositionItemAudioDecoder> audioDecoders = new HashMap<>();
+
+  private final int audioSampleRate;
+
+  private final int audioChannelCount;
+
+  private final int frameRate;
+
+  private final CompositionAudioMixer audioMixer;
+
+  private final DirectBufferPool audioBufferPool = new DirectBufferPool(AUDIO_BUFFER_POOL_MAX_BYTES);
+
+  private final VideoFrameRing frameRing;
+
+  private long nextDecodedFrameIndex;
+
+  private boolean decodingAhead = false;
+
+  /**
+   * Creates a new VideoCompositionFramesExtractorSync.
+   *
+   * @param composition       the video composition to extract frames and audio from
+   * @param audioSampleRate   the sample rate of the decoded audio
+   * @param audioChannelCount the number of channels of the decoded audio
+   * @param frameRate         the frame rate at which the composition is extracted, each call to
+   *                          {@link #decodeCompositionAudio} returns the audio of one frame
+   */
+  public VideoCompositionFramesExtractorSync(
+    VideoComposition composition,
+    int audioSampleRate,
+    int audioChannelCount,
+    int frameRate
+  ) {
+    this(composition, audioSampleRate, audioChannelCount, frameRate, 0);
+  }
+
+  /**
+   * Creates a new VideoCompositionFramesExtractorSync.
+   *
+   * @param composition       the video composition to extract frames and audio from
+   * @param audioSampleRate   the sample rate of the decoded audio
+   * @param audioChannelCount the number of channels of the decoded audio
+   * @param frameRate         the frame rate at which the composition is extracted, each call to
+   *                          {@link #decodeCompositionAudio} returns the audio of one frame
+   * @param lookahead         the number of frames decoded ahead of the requested one, if greater
+   *                          than 0 the frames must be requested in order at the frame rate
+   */
+  public VideoCompositionFramesExtractorSync(
+    VideoComposition composition,
+    int audioSampleRate,
+    int audioChannelCount,
+    int frameRate,
+    int lookahead
+  ) {
+    this(composition, audioSampleRate, audioChannelCount, frameRate, lookahead, 0);
+  }
 
-  public VideoCompositionFramesExtractorSync(VideoComposition composition) {
+  /**
+   * Creates a new VideoCompositionFramesExtractorSync extracting the composition from the given
+   * time, used to export a range of the composition.
+   *
+   * @param composition       the video composition to extract frames and audio from
+   * @param audioSampleRate   the sample rate of the decoded audio
+   * @param audioChannelCount the number of channels of the decoded audio
+   * @param frameRate         the frame rate at which the composition is extracted, each call to
+   *                          {@link #decodeCompositionAudio} returns the audio of one frame
+   * @param lookahead         the number of frames decoded ahead of the requested one, if greater
+   *                          than 0 the frames must be requested in order at the frame rate
+   * @param startTime         the time in seconds of the first frame requested
+   */
+  public VideoCompositionFramesExtractorSync(
+    VideoComposition composition,
+    int audioSampleRate,
+    int audioChannelCount,
+    int frameRate,
+    int lookahead,
+    double startTime
+  ) {
     this.composition = composition;
-    this.decoder = new VideoCompositionDecoder(composition);
+    this.decoder = new VideoCompositionDecoder(composition, frameRate);
+    this.audioSampleRate = audioSampleRate;
+    this.audioChannelCount = audioChannelCount;
+    this.frameRate = frameRate;
+    this.audioMixer = new CompositionAudioMixer(composition.getItems(), audioSampleRate, audioChannelCount);
+    this.frameRing = lookahead > 0 ? new VideoFrameRing(lookahead) : null;
+    this.nextDecodedFrameIndex = Math.round(startTime * frameRate);
+    if (lookahead > 0) {
+      // Each slot of the ring may hold an output texture, one more is needed to decode into
+      decoder.setOutputBufferCount(lookahead + 1);
+      frameRing.setFirstIndex(nextDecodedFrameIndex);
+    }
+  }
+
+  /**
+   * Sets the duration before an item composition start time at which its decoder is activated,
+   * one second by default. Must be called before {@link #start()}.
+   *
+   * @param lookaheadUs the duration in microseconds
+   */
+  public void setDecoderLookaheadUs(long lookaheadUs) {
+    decoder.setLookaheadUs(lookaheadUs);
+  }
+
+  /**
+   * Sets the maximum number of item decoders alive at the same time, by default the decoder
+   * instances limit for the media of the items. Must be called before {@link #start()}.
+   *
+   * @param maxActiveDecoders the maximum number of decoders
+   */
+  public void setMaxActiveDecoders(int maxActiveDecoders) {
+    decoder.setMaxActiveDecoders(maxActiveDecoders);
   }
 
   public void start() throws Exception {
@@ -60,13 +164,33 @@ public class VideoCompositionFramesExtractorSync {
         decoder.setOnItemEndReachedListener(this::onItemEndReached);
         decoder.setOnItemImageAvailableListener(this::onItemImageAvailable);
         decoder.start();
-        // Initialize audio extractors
-        initAudioExtractors();
+        // Items without decoder would be missing from the export
+        int overlappingItems = decoder.getMaxOverlappingItems();
+        if (overlappingItems > decoder.getMaxActiveDecoders()) {
+          throw new RuntimeException(
+            "The composition overlaps " + overlappingItems + " video items while only "
+              + decoder.getMaxActiveDecoders() + " decoders can run at the same time");
+        }
+        initAudioDecoders();
       } catch (Exception e) {
         future.completeExceptionally(e);
         return;
       }
       future.complete(null);
+      if (frameRing != null) {
+        frameRing.setOnFramesReleasedListener(new VideoFrameRing.OnFramesReleasedListener() {
+          @Override
+          public void onFramesReleased(Map<String, VideoFrame> frames) {
+            decoder.releaseFrames(frames);
+          }
+
+          @Override
+          public void onSlotFreed() {
+            handler.post(VideoCompositionFramesExtractorSync.this::onFrameRingSlotFreed);
+          }
+        });
+        decodeAhead();
+      }
     });
 
     future.get();
@@ -78,6 +202,11 @@ public class VideoCompositionFramesExtractorSync {
    * @return a map of item id to video frame
    */
   public Map<String, VideoFrame> decodeCompositionFrames(double time) throws Exception {
+    if (frameRing != null) {
+      Map<String, VideoFrame> frames = frameRing.acquire(Math.round(time * frameRate));
+      decoder.waitForFrames(frames);
+      return frames;
+    }
     decodingTimeUs = TimeHelpers.secToUs(time);
     future = new CompletableFuture<>();
     handler.post(() -> {
@@ -90,77 +219,98 @@ public class VideoCompositionFramesExtractorSync {
 
   /**
    * Decode audio samples for each composition item at the current time.
+   * The returned samples are 16 bits interleaved PCM covering exactly the span
+   * {@code [time, time + 1 / frameRate)}, parts of the span not covered by an item are silent.
+   * Items that do not overlap the span are not included.
    *
    * @param time The current time in seconds
    * @return a map of item id to audio sample
    */
   public Map<String, AudioSample> decodeCompositionAudio(double time) {
     Map<String, AudioSample> audioSamples = new HashMap<>();
-    long timeUs = TimeHelpers.secToUs(time);
+    // Computing both bounds from the frame time keeps consecutive spans contiguous
+    long spanStartFrame = Math.round(time * audioSampleRate);
+    long spanEndFrame = Math.round((time + 1.0 / frameRate) * audioSampleRate);
+    int spanFrameCount = (int) (spanEndFrame - spanStartFrame);
+    if (spanFrameCount <= 0) {
+      return audioSamples;
+    }
 
     for (VideoComposition.Item item : composition.getItems()) {
-      if (item.isMuted()) {
-        continue;
-      }
-
-      String itemId = item.getId();
-      MediaExtractor extractor = audioExtractors.get(itemId);
-      MediaFormat format = audioFormats.get(itemId);
-
-      if (extractor == null || format == null) {
+      VideoCompositionItemAudioDecoder audioDecoder = audioDecoders.get(item.getId());
+      if (audioDecoder == null || !overlapsSpan(item, spanStartFrame, spanEndFrame)) {
         continue;
       }
+      ByteBuffer buffer = audioBufferPool.acquire(spanFrameCount * audioChannelCount * 2);
+      readItemAudio(item, audioDecoder, spanStartFrame, spanEndFrame, buffer.asShortBuffer());
+      audioSamples.put(item.getId(), new AudioSample(
+        buffer,
+        TimeHelpers.secToUs(time),
+        spanFrameCount * 1000000L / audioSampleRate,
+        audioSampleRate,
+        audioChannelCount,
+        audioBufferPool
+      ));
+    }
 
-      // Calculate target time for this item
-      long itemStartTimeUs = TimeHelpers.secToUs(item.getStartTime());
-      long compositionStartTimeUs = TimeHelpers.secToUs(item.getCompositionStartTime());
-      long targetTimeUs = itemStartTimeUs + (timeUs - compositionStartTimeUs);
+    return audioSamples;
+  }
 
-      // Seek if needed
-      Long lastTimeUs = lastAudioTimes.get(itemId);
-      if (lastTimeUs == null || Math.abs(targetTimeUs - lastTimeUs) > 100000) { // 100ms threshold
-        extractor.seekTo(targetTimeUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+  /**
+   * Decode the audio of each composition item at the current time, mix it according to the
+   * items volume, fades, pan and ducking parameters, and encode it with the given encoder.
+   * Unlike {@link #decodeCompositionAudio}, the decoded audio never leaves the native side.
+   *
+   * @param time    The current time in seconds
+   * @param encoder The encoder to feed the mixed audio to
+   */
+  public void mixCompositionAudio(double time, VideoEncoder encoder) {
+    long spanStartFrame = Math.round(time * audioSampleRate);
+    long spanEndFrame = Math.round((time + 1.0 / frameRate) * audioSampleRate);
+    int spanFrameCount = (int) (spanEndFrame - spanStartFrame);
+    if (spanFrameCount <= 0) {
+      return;
+    }
+    List<VideoComposition.Item> items = composition.getItems();
+    boolean ducking = false;
+    for (int i = 0; i < items.size(); i++) {
+      VideoComposition.Item item = items.get(i);
+      if (item.getDucksOthers()
+        && audioDecoders.containsKey(item.getId())
+        && overlapsSpan(item, spanStartFrame, spanEndFrame)) {
+        ducking = true;
+        break;
       }
+    }
 
-      // Read audio sample
-      int bufferSize = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
-      ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
-      int sampleSize = extractor.readSampleData(buffer, 0);
-
-      if (sampleSize > 0) {
-        long sampleTimeUs = extractor.getSampleTime();
-        buffer.limit(sampleSize);
-
-        int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-        int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-        long durationUs = (long)((sampleSize / (2.0 * channels)) / sampleRate * 1000000);
-
-        AudioSample audioSample = new AudioSample(
-          buffer,
-          sampleTimeUs,
-          durationUs,
-          sampleRate,
-          channels
-        );
-        audioSamples.put(itemId, audioSample);
-        lastAudioTimes.put(itemId, sampleTimeUs);
-
-        extractor.advance();
+    audioMixer.begin(spanFrameCount);
+    for (int i = 0; i < items.size(); i++) {
+      VideoComposition.Item item = items.get(i);
+      VideoCompositionItemAudioDecoder audioDecoder = audioDecoders.get(item.getId());
+      if (audioDecoder == null || !overlapsSpan(item, spanStartFrame, spanEndFrame)) {
+        continue;
       }
+      readItemAudio(item, audioDecoder, spanStartFrame, spanEndFrame, audioMixer.getItemBuffer());
+      audioMixer.add(i, item, time, ducking && !item.getDucksOthers());
     }
+    encoder.encodeAudio(audioMixer.finish(), time);
+  }
 
-    return audioSamples;
+  /**
+   * @return the pool of buffers used for the decoded audio samples
+   */
+  public DirectBufferPool getAudioBufferPool() {
+    return audioBufferPool;
   }
 
   public void release() {
-    decoder.release();
-    // Release audio extractors
-    for (MediaExtractor extractor : audioExtractors.values()) {
-      extractor.release();
+    if (frameRing != null) {
+      frameRing.release();
     }
-    audioExtractors.clear();
-    audioFormats.clear();
-    lastAudioTimes.clear();
+    decoder.release();
+    audioDecoders.values().forEach(VideoCompositionItemAudioDecoder::release);
+    audioDecoders.clear();
+    audioBufferPool.release();
 
     if (exportThread != null) {
       exportThread.quit();
@@ -170,42 +320,101 @@ public class VideoCompositionFramesExtractorSync {
     }
   }
 
-  private void initAudioExtractors() throws IOException {
+  /**
+   * Decodes the next frame in the lookahead window, if its slot in the frame ring is free.
+   * Runs on the export thread.
+   */
+  private void decodeAhead() {
+    if (decodingAhead || !frameRing.canPublish(nextDecodedFrameIndex)) {
+      return;
+    }
+    double time = (double) nextDecodedFrameIndex / frameRate;
+    if (time >= composition.getDuration()) {
+      return;
+    }
+    long index = nextDecodedFrameIndex;
+    decodingAhead = true;
+    decodingTimeUs = TimeHelpers.secToUs(time);
+    future = new CompletableFuture<>();
+    // The future is completed on the export thread, so is the callback
+    future.whenComplete((frames, error) -> {
+      decodingAhead = false;
+      if (error != null) {
+        frameRing.setError(error instanceof Exception ? (Exception) error : new Exception(error));
+        return;
+      }
+      // The decoder keeps updating its own map, the ring gets a snapshot
+      Map<String, VideoFrame> publishedFrames = new HashMap<>(frames);
+      decoder.acquireFrames(publishedFrames);
+      frameRing.publish(index, publishedFrames);
+      nextDecodedFrameIndex = index + 1;
+      handler.post(this::decodeAhead);
+    });
+    decoding = true;
+    renderedTimes.clear();
+    checkIfFrameDecoded();
+  }
+
+  /**
+   * Resumes the decoding ahead once the consumer gave back a slot of the frame ring, and with it
+   * the output textures the pending frames might be waiting for. Runs on the export thread.
+   */
+  private void onFrameRingSlotFreed() {
+    if (!decodingAhead) {
+      decodeAhead();
+    } else if (!decoding) {
+      resolveIfReady();
+    } else {
+      checkIfFrameDecoded();
+    }
+  }
+
+  private void initAudioDecoders() throws IOException {
     for (VideoComposition.Item item : composition.getItems()) {
       if (item.isMuted()) {
         continue;
       }
-
-      MediaExtractor extractor = new MediaExtractor();
-      extractor.setDataSource(item.getPath());
-
-      // Find audio track
-      int audioTrackIndex = -1;
-      for (int i = 0; i < extractor.getTrackCount(); i++) {
-        MediaFormat format = extractor.getTrackFormat(i);
-        String mime = format.getString(MediaFormat.KEY_MIME);
-        if (mime != null && mime.startsWith("audio/")) {
-          audioTrackIndex = i;
-          break;
-        }
+      VideoCompositionItemAudioDecoder audioDecoder =
+        new VideoCompositionItemAudioDecoder(item, audioSampleRate, audioChannelCount);
+      if (audioDecoder.prepare()) {
+        audioDecoders.put(item.getId(), audioDecoder);
       }
+    }
+  }
 
-      if (audioTrackIndex != -1) {
-        MediaFormat format = extractor.getTrackFormat(audioTrackIndex);
-        extractor.selectTrack(audioTrackIndex);
-        audioExtractors.put(item.getId(), extractor);
-        audioFormats.put(item.getId(), format);
-
-        // Seek to start time
-        if (item.getStartTime() != 0) {
-          extractor.seekTo(
-            TimeHelpers.secToUs(item.getStartTime()),
-            MediaExtractor.SEEK_TO_PREVIOUS_SYNC
-          );
-        }
-      } else {
-        extractor.release();
-      }
+  private boolean overlapsSpan(VideoComposition.Item item, long spanStartFrame, long spanEndFrame) {
+    long itemStartFrame = Math.round(item.getCompositionStartTime() * audioSampleRate);
+    long itemEndFrame = itemStartFrame + Math.round(item.getDuration() * audioSampleRate);
+    return Math.max(spanStartFrame, itemStartFrame) < Math.min(spanEndFrame, itemEndFrame);
+  }
+
+  /**
+   * Writes the audio of an item for the given span to the given buffer, the parts of the span
+   * not covered by the item are written as silence.
+   */
+  private void readItemAudio(
+    VideoComposition.Item item,
+    VideoCompositionItemAudioDecoder audioDecoder,
+    long spanStartFrame,
+    long spanEndFrame,
+    ShortBuffer pcm
+  ) {
+    long itemStartFrame = Math.round(item.getCompositionStartTime() * audioSampleRate);
+    long itemEndFrame = itemStartFrame + Math.round(item.getDuration() * audioSampleRate);
+    long overlapStartFrame = Math.max(spanStartFrame, itemStartFrame);
+    long overlapEndFrame = Math.min(spanEndFrame, itemEndFrame);
+    writeSilence(pcm, (int) (overlapStartFrame - spanStartFrame));
+    audioDecoder.read(
+      overlapStartFrame - itemStartFrame,
+      (int) (overlapEndFrame - overlapStartFrame),
+      pcm
+    );
+    writeSilence(pcm, (int) (spanEndFrame - overlapEndFrame));
+  }
+
+  private void writeSilence(ShortBuffer pcm, int frames) {
+    for (int i = 0; i < frames * audioChannelCount; i++) {
+      pcm.put((short) 0);
     }
   }
 
@@ -224,8 +433,18 @@ public class VideoCompositionFramesExtractorSync {
   }
 
   private void checkIfFrameDecoded() {
+    // Rendering first lets the decoder activate the items that become visible at this time
+    Map<String, Long> renderedTimes = decoder.render(decodingTimeUs);
+    renderedTimes.forEach((itemId, time) -> {
+      if (time != null) {
+        this.renderedTimes.put(itemId, time);
+      }
+    });
     boolean allItemsReady = true;
     for (VideoComposition.Item item : composition.getItems()) {
+      if (!isItemVisible(item)) {
+        continue;
+      }
       if (!itemsTimes.containsKey(item)) {
         allItemsReady = false;
         continue;
@@ -245,12 +464,6 @@ public class VideoCompositionFramesExtractorSync {
         allItemsReady = false;
       }
     }
-    Map<String, Long> renderedTimes = decoder.render(decodingTimeUs);
-    renderedTimes.forEach((itemId, time) -> {
-      if (time != null) {
-        this.renderedTimes.put(itemId, time);
-      }
-    });
     if (allItemsReady) {
       decoding = false;
       resolveIfReady();
@@ -264,12 +477,18 @@ public class VideoCompositionFramesExtractorSync {
   }
 
   private void handleError(Exception e) {
+    if (frameRing != null) {
+      frameRing.setError(e);
+    }
     future.completeExceptionally(e);
   }
 
   private void resolveIfReady() {
     Map<String, VideoFrame> videoFrames = decoder.updateVideosFrames();
     for (VideoComposition.Item item : composition.getItems()) {
+      if (!isItemVisible(item)) {
+        continue;
+      }
       VideoFrame videoFrame = videoFrames.getOrDefault(item.getId(), null);
       if (videoFrame == null) {
         return;
@@ -285,4 +504,13 @@ public class VideoCompositionFramesExtractorSync {
     }
     future.complete(videoFrames);
   }
+
+  /**
+   * Items that are not started yet at the decoding time or whose decoder has been released
+   * are not waited for.
+   */
+  private boolean isItemVisible(VideoComposition.Item item) {
+    return decoder.isItemActive(item)
+      && decodingTimeUs >= TimeHelpers.secToUs(item.getCompositionStartTime());
+  }
 }
@@ -0,0 +1,404 @@
+package com.azzapp.rnskv;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * A class that decodes the audio track of a video composition item to PCM.
+ * <p>
+ * Decoded samples are converted to 16 bits interleaved PCM at the requested sample rate and
+ * channel count, and are addressed by frame index relative to the item start time, so that
+ * consecutive calls to {@link #read} produce a gapless stream.
+ */
+public class VideoCompositionItemAudioDecoder {
+
+  private static final String TAG = "VideoCompositionItemAudioDecoder";
+
+  private static final long TIMEOUT_US = 10000;
+
+  /**
+   * Maximum duration in seconds we accept to decode and discard before seeking instead.
+   */
+  private static final int MAX_FORWARD_DECODE_SECONDS = 1;
+
+  private static final int MAX_EMPTY_DRAIN_ATTEMPTS = 100;
+
+  private final VideoComposition.Item item;
+
+  private final int sampleRate;
+
+  private final int channelCount;
+
+  private MediaExtractor extractor;
+
+  private MediaCodec codec;
+
+  private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+  private int sourceSampleRate;
+
+  private int sourceChannelCount;
+
+  private int sourcePcmEncoding = AudioFormat.ENCODING_PCM_16BIT;
+
+  private boolean started = false;
+
+  private boolean inputEOS = false;
+
+  private boolean outputEOS = false;
+
+  // Decoded PCM waiting to be read, in target format. pcm[0] is the frame at index pcmStartFrame.
+  private short[] pcm = new short[0];
+
+  private int pcmFrameCount = 0;
+
+  private long pcmStartFrame = 0;
+
+  private boolean pcmStartFrameKnown = false;
+
+  // First frame the decoder output is still available from, frames before it need a seek.
+  // The frames between it and pcmStartFrame precede the first decoded sample, they are silent.
+  private long availableFromFrame = Long.MIN_VALUE;
+
+  // Scratch buffers reused between output buffers
+  private short[] sourceFrames = new short[0];
+
+  private final short[] previousFrame;
+
+  private boolean hasPreviousFrame = false;
+
+  private double resamplePosition = 0;
+
+  /**
+   * Create a new VideoCompositionItemAudioDecoder.
+   *
+   * @param item         the video composition item to decode
+   * @param sampleRate   the sample rate of the produced PCM
+   * @param channelCount the number of channels of the produced PCM
+   */
+  public VideoCompositionItemAudioDecoder(
+    VideoComposition.Item item,
+    int sampleRate,
+    int channelCount
+  ) {
+    this.item = item;
+    this.sampleRate = sampleRate;
+    this.channelCount = channelCount;
+    this.previousFrame = new short[channelCount];
+  }
+
+  /**
+   * Prepare the decoder.
+   *
+   * @return false if the item has no audio track
+   * @throws IOException if the decoder cannot be prepared
+   */
+  public boolean prepare() throws IOException {
+    extractor = new MediaExtractor();
+    extractor.setDataSource(item.getPath());
+    int trackIndex = selectTrack(extractor);
+    if (trackIndex == -1) {
+      release();
+      return false;
+    }
+    MediaFormat format = extractor.getTrackFormat(trackIndex);
+    String mime = format.getString(MediaFormat.KEY_MIME);
+    if (mime == null) {
+      release();
+      throw new IOException("Could not determine audio mime type");
+    }
+    extractor.selectTrack(trackIndex);
+    sourceSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+    sourceChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+    codec = MediaCodec.createDecoderByType(mime);
+    codec.configure(format, null, null, 0);
+    codec.start();
+    started = true;
+    return true;
+  }
+
+  /**
+   * @return the video composition item
+   */
+  public VideoComposition.Item getItem() {
+    return item;
+  }
+
+  /**
+   * Reads frames of decoded PCM and writes them to the given buffer.
+   * Frames that cannot be decoded (before the start or after the end of the audio track)
+   * are written as silence, so exactly {@code frameCount} frames are always written.
+   *
+   * @param startFrame the index of the first frame to read, relative to the item start time
+   * @param frameCount the number of frames to read
+   * @param out        the buffer to write the interleaved PCM to
+   */
+  public void read(long startFrame, int frameCount, ShortBuffer out) {
+    if (!started) {
+      writeSilence(out, frameCount);
+      return;
+    }
+    long endFrame = startFrame + frameCount;
+    long decodedEndFrame = pcmStartFrameKnown ? pcmStartFrame + pcmFrameCount : availableFromFrame;
+    if (availableFromFrame == Long.MIN_VALUE
+      || startFrame < availableFromFrame
+      || (!outputEOS
+        && startFrame > decodedEndFrame + (long) MAX_FORWARD_DECODE_SECONDS * sampleRate)) {
+      seekTo(startFrame);
+    }
+
+    decodeUntil(endFrame);
+
+    long frame = startFrame;
+    if (!pcmStartFrameKnown || frame < pcmStartFrame) {
+      int silentFrames = pcmStartFrameKnown
+        ? (int) Math.min(frameCount, pcmStartFrame - frame)
+        : frameCount;
+      writeSilence(out, silentFrames);
+      frame += silentFrames;
+    }
+    if (frame < endFrame && pcmStartFrameKnown) {
+      int offset = (int) (frame - pcmStartFrame);
+      int available = Math.max(0, Math.min(pcmFrameCount - offset, (int) (endFrame - frame)));
+      if (available > 0) {
+        out.put(pcm, offset * channelCount, available * channelCount);
+        frame += available;
+      }
+    }
+    if (frame < endFrame) {
+      writeSilence(out, (int) (endFrame - frame));
+    }
+    discardBefore(endFrame);
+    availableFromFrame = Math.max(availableFromFrame, endFrame);
+  }
+
+  /**
+   * Release the decoder.
+   */
+  public void release() {
+    if (codec != null) {
+      try {
+        if (started) {
+          codec.stop();
+        }
+      } catch (Throwable e) {
+        Log.w(TAG, "Failed to stop audio decoder", e);
+      }
+      codec.release();
+      codec = null;
+    }
+    if (extractor != null) {
+      extractor.release();
+      extractor = null;
+    }
+    started = false;
+  }
+
+  private void seekTo(long frame) {
+    long seekTimeUs = TimeHelpers.secToUs(item.getStartTime()) + frame * 1000000L / sampleRate;
+    extractor.seekTo(Math.max(0, seekTimeUs), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    codec.flush();
+    inputEOS = false;
+    outputEOS = false;
+    pcmFrameCount = 0;
+    pcmStartFrameKnown = false;
+    hasPreviousFrame = false;
+    resamplePosition = 0;
+    availableFromFrame = frame;
+  }
+
+  private void decodeUntil(long endFrame) {
+    int emptyDrainAttempts = 0;
+    while (!outputEOS && (!pcmStartFrameKnown || pcmStartFrame + pcmFrameCount < endFrame)) {
+      if (!inputEOS) {
+        queueInput();
+      }
+      if (drainOutput()) {
+        emptyDrainAttempts = 0;
+      } else if (inputEOS && ++emptyDrainAttempts > MAX_EMPTY_DRAIN_ATTEMPTS) {
+        Log.w(TAG, "Audio decoder did not signal end of stream for item " + item.getId());
+        outputEOS = true;
+      }
+    }
+  }
+
+  private void queueInput() {
+    int index = codec.dequeueInputBuffer(TIMEOUT_US);
+    if (index < 0) {
+      return;
+    }
+    ByteBuffer inputBuffer = codec.getInputBuffer(index);
+    int sampleSize = inputBuffer != null ? extractor.readSampleData(inputBuffer, 0) : -1;
+    long sampleTimeUs = extractor.getSampleTime();
+    long itemEndTimeUs = TimeHelpers.secToUs(item.getStartTime() + item.getDuration());
+    if (sampleSize <= 0 || sampleTimeUs > itemEndTimeUs) {
+      codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+      inputEOS = true;
+      return;
+    }
+    codec.queueInputBuffer(index, 0, sampleSize, sampleTimeUs, 0);
+    extractor.advance();
+  }
+
+  /**
+   * @return true if the codec produced something
+   */
+  private boolean drainOutput() {
+    int index = codec.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+    if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+      MediaFormat format = codec.getOutputFormat();
+      sourceSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+      sourceChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+      sourcePcmEncoding = format.containsKey(MediaFormat.KEY_PCM_ENCODING)
+        ? format.getInteger(MediaFormat.KEY_PCM_ENCODING)
+        : AudioFormat.ENCODING_PCM_16BIT;
+      return true;
+    }
+    if (index < 0) {
+      return false;
+    }
+    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+      outputEOS = true;
+    }
+    if (bufferInfo.size > 0) {
+      ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+      if (outputBuffer != null) {
+        outputBuffer.position(bufferInfo.offset);
+        outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
+        appendDecodedBuffer(outputBuffer.order(ByteOrder.nativeOrder()), bufferInfo.presentationTimeUs);
+      }
+    }
+    codec.releaseOutputBuffer(index, false);
+    return true;
+  }
+
+  private void appendDecodedBuffer(ByteBuffer buffer, long presentationTimeUs) {
+    if (!pcmStartFrameKnown) {
+      long itemTimeUs = presentationTimeUs - TimeHelpers.secToUs(item.getStartTime());
+      pcmStartFrame = Math.round(itemTimeUs * (double) sampleRate / 1000000.0);
+      pcmStartFrameKnown = true;
+    }
+
+    // Convert the source buffer to 16 bits PCM with the target channel count
+    int bytesPerSample = sourcePcmEncoding == AudioFormat.ENCODING_PCM_FLOAT ? 4 : 2;
+    int frames = buffer.remaining() / (bytesPerSample * sourceChannelCount);
+    if (frames == 0) {
+      return;
+    }
+    if (sourceFrames.length < frames * channelCount) {
+      sourceFrames = new short[frames * channelCount];
+    }
+    for (int i = 0; i < frames; i++) {
+      for (int c = 0; c < channelCount; c++) {
+        sourceFrames[i * channelCount + c] = readSourceSample(buffer, i, c, bytesPerSample);
+      }
+    }
+
+    if (sourceSampleRate == sampleRate) {
+      ensurePcmCapacity(pcmFrameCount + frames);
+      System.arraycopy(sourceFrames, 0, pcm, pcmFrameCount * channelCount, frames * channelCount);
+      pcmFrameCount += frames;
+      return;
+    }
+    resample(frames);
+  }
+
+  private short readSourceSample(ByteBuffer buffer, int frame, int channel, int bytesPerSample) {
+    int base = buffer.position() + frame * sourceChannelCount * bytesPerSample;
+    if (channelCount == 1 && sourceChannelCount > 1) {
+      // Down mix to mono
+      int sum = 0;
+      for (int c = 0; c < sourceChannelCount; c++) {
+        sum += readSample(buffer, base + c * bytesPerSample, bytesPerSample);
+      }
+      return (short) (sum / sourceChannelCount);
+    }
+    int sourceChannel = sourceChannelCount == 1 ? 0 : channel % sourceChannelCount;
+    return readSample(buffer, base + sourceChannel * bytesPerSample, bytesPerSample);
+  }
+
+  private static short readSample(ByteBuffer buffer, int index, int bytesPerSample) {
+    if (bytesPerSample == 4) {
+      float value = buffer.getFloat(index);
+      return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value * Short.MAX_VALUE));
+    }
+    return buffer.getShort(index);
+  }
+
+  /**
+   * Linear interpolation resampling of the first {@code frames} frames of sourceFrames, the state
+   * (previous frame and fractional position) is kept between calls to avoid discontinuities.
+   */
+  private void resample(int frames) {
+    double step = (double) sourceSampleRate / sampleRate;
+    if (!hasPreviousFrame) {
+      System.arraycopy(sourceFrames, 0, previousFrame, 0, channelCount);
+      hasPreviousFrame = true;
+    }
+    int maxOutputFrames = (int) Math.ceil((frames + 1) / step) + 1;
+    ensurePcmCapacity(pcmFrameCount + maxOutputFrames);
+
+    // position -1 refers to the last frame of the previous buffer
+    double position = resamplePosition;
+    while (position < frames - 1) {
+      int index = (int) Math.floor(position);
+      double fraction = position - index;
+      int out = pcmFrameCount * channelCount;
+      for (int c = 0; c < channelCount; c++) {
+        int from = index < 0 ? previousFrame[c] : sourceFrames[index * channelCount + c];
+        int to = sourceFrames[(index + 1) * channelCount + c];
+        pcm[out + c] = (short) Math.round(from + (to - from) * fraction);
+      }
+      pcmFrameCount++;
+      position += step;
+    }
+    resamplePosition = position - frames;
+    System.arraycopy(sourceFrames, (frames - 1) * channelCount, previousFrame, 0, channelCount);
+  }
+
+  private void discardBefore(long frame) {
+    int discarded = (int) Math.min(pcmFrameCount, Math.max(0, frame - pcmStartFrame));
+    if (discarded == 0) {
+      return;
+    }
+    System.arraycopy(
+      pcm, discarded * channelCount, pcm, 0, (pcmFrameCount - discarded) * channelCount);
+    pcmFrameCount -= discarded;
+    pcmStartFrame += discarded;
+  }
+
+  private void ensurePcmCapacity(int frames) {
+    if (pcm.length < frames * channelCount) {
+      short[] newPcm = new short[Math.max(frames, pcm.length / channelCount * 2) * channelCount];
+      System.arraycopy(pcm, 0, newPcm, 0, pcmFrameCount * channelCount);
+      pcm = newPcm;
+    }
+  }
+
+  private void writeSilence(ShortBuffer out, int frames) {
+    for (int i = 0; i < frames * channelCount; i++) {
+      out.put((short) 0);
+    }
+  }
+
+  private static int selectTrack(MediaExtractor extractor) {
+    int numTracks = extractor.getTrackCount();
+    for (int i = 0; i < numTracks; i++) {
+      MediaFormat format = extractor.getTrackFormat(i);
+      String mime = format.getString(MediaFormat.KEY_MIME);
+      if (mime != null && mime.startsWith("audio/")) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
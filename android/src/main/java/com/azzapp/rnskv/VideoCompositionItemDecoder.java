@@ -3,23 +3,35 @@ package com.azzapp.rnskv;
 import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
+import android.util.Log;
 import android.view.Surface;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Stack;
 
 /**
  * A class that decodes a video item from a video composition asynchronously.
+ * <p>
+ * Decoded output buffers are handed from the codec callback thread to the render thread
+ * through a single-producer/single-consumer ring, so rendering never blocks on the codec
+ * callbacks and does not allocate.
  */
 public class VideoCompositionItemDecoder extends MediaCodec.Callback {
 
+  private static final String TAG = "VideoCompositionItemDecoder";
+
+  // Must be a power of two, larger than the number of output buffers of any decoder
+  private static final int FRAME_QUEUE_CAPACITY = 64;
+
+  private static final int FRAME_QUEUE_MASK = FRAME_QUEUE_CAPACITY - 1;
+
   private final VideoComposition.Item item;
 
+  private String sourcePath;
+
   private MediaExtractor extractor;
 
   private MediaCodec codec;
@@ -28,7 +40,7 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
 
   private boolean inputEOS = false;
 
-  private boolean hasRenderedFrame = false;
+  private volatile boolean hasRenderedFrame = false;
 
   private boolean itemEndReached = false;
 
@@ -44,13 +56,37 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
 
   private boolean started = false;
 
-  private boolean released = false;
+  private volatile boolean released = false;
 
   private Surface surface;
 
-  private final Stack<Frame> freeFrames = new Stack<>();
+  private final int[] queuedBufferIndexes = new int[FRAME_QUEUE_CAPACITY];
+
+  private final long[] queuedPresentationTimesUs = new long[FRAME_QUEUE_CAPACITY];
+
+  // Only written by the codec callback thread
+  private volatile long queueWriteIndex = 0;
+
+  // Only written by the render thread
+  private volatile long queueReadIndex = 0;
+
+  // Presentation time of the frame targeted by an accurate seek, -1 if not seeking
+  private long seekTargetTimeUs = -1;
+
+  private int heldBufferIndex = -1;
+
+  private long heldPresentationTimeUs;
+
+  private long lastOutputTimeUs = -1;
+
+  private volatile long droppedFrameCount = 0;
+
+  // Whether only the sync sample following the last seek should be decoded
+  private boolean syncFrameOnly = false;
 
-  private final List<Frame> pendingFrames = new ArrayList<>();
+  private long syncFrameTimeUs = -1;
+
+  private SyncSampleIndex syncSampleIndex;
 
   private OnErrorListener onErrorListener;
 
@@ -65,6 +101,24 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
    */
   public VideoCompositionItemDecoder(VideoComposition.Item item) {
     this.item = item;
+    this.sourcePath = item.getPath();
+  }
+
+  /**
+   * Sets the file decoded in place of the item path, such as a proxy of the item media with the
+   * same timestamps. Must be called before {@link #prepare()}.
+   *
+   * @param sourcePath the path of the file to decode
+   */
+  public void setSourcePath(String sourcePath) {
+    this.sourcePath = sourcePath;
+  }
+
+  /**
+   * @return the path of the decoded file
+   */
+  public String getSourcePath() {
+    return sourcePath;
   }
 
   /**
@@ -77,7 +131,7 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
       return;
     }
     extractor = new MediaExtractor();
-    extractor.setDataSource(item.getPath());
+    extractor.setDataSource(sourcePath);
     int trackIndex = selectTrack(extractor);
     if (trackIndex == -1) {
       throw new RuntimeException("No video track");
@@ -88,6 +142,7 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
       throw new IOException("Could not determine file mime type");
     }
     codec = MediaCodec.createDecoderByType(mime);
+    DecoderProbeCache.onDecoderCreated();
     extractor.selectTrack(trackIndex);
     if (item.getStartTime() != 0) {
       extractor.seekTo(
@@ -96,6 +151,7 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
     videoWidth = format.getInteger(MediaFormat.KEY_WIDTH);
     videoHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
     rotation = format.containsKey(MediaFormat.KEY_ROTATION) ? format.getInteger(MediaFormat.KEY_ROTATION) : 0;
+    syncSampleIndex = SyncSampleIndex.getIfLoaded(sourcePath);
     prepared = true;
     configure();
   }
@@ -204,7 +260,9 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
       return;
     }
     extractor.advance();
-    inputEOS = extractor.getSampleTime() == -1;
+    // In sync frame mode only the sync sample is decoded, the end of stream makes the codec
+    // output it right away
+    inputEOS = syncFrameOnly || extractor.getSampleTime() == -1;
   }
 
   @Override
@@ -220,35 +278,35 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
       info.presentationTimeUs < TimeHelpers.secToUs(item.getStartTime());
 
     if (!itemEndReached && info.size != 0 && !sampleOutOfBounds && !sampleBeforeStartTime) {
-      ByteBuffer buffer;
-      try {
-        buffer = this.codec.getOutputBuffer(index);
-      } catch (Throwable e) {
-        return;
-      }
-      if (buffer == null) {
-        return;
-      }
-      buffer.position(info.offset);
-      buffer.limit(info.offset + info.size);
-
-      Frame frame = getFreeFrame();
-      frame.outputBufferIndex = index;
-      frame.presentationTimeUs = info.presentationTimeUs;
-      pendingFrames.add(frame);
-      if (onFrameAvailableListener != null) {
-        onFrameAvailableListener.onFrameAvailable(frame.presentationTimeUs);
+      lastOutputTimeUs = info.presentationTimeUs;
+      if (seekTargetTimeUs == -1) {
+        queueFrame(codec, index, info.presentationTimeUs);
+      } else if (info.presentationTimeUs < seekTargetTimeUs) {
+        // Pre-roll frame, only the latest one before the target might be displayed
+        if (heldBufferIndex != -1) {
+          releaseOutputBuffer(codec, heldBufferIndex, false);
+        }
+        heldBufferIndex = index;
+        heldPresentationTimeUs = info.presentationTimeUs;
+      } else {
+        if (heldBufferIndex != -1 && info.presentationTimeUs == seekTargetTimeUs) {
+          releaseOutputBuffer(codec, heldBufferIndex, false);
+          heldBufferIndex = -1;
+        }
+        queueHeldFrame(codec);
+        seekTargetTimeUs = -1;
+        queueFrame(codec, index, info.presentationTimeUs);
       }
     } else {
-      try {
-        codec.releaseOutputBuffer(index, false);
-      } catch (Throwable e) {
-        return;
+      if (!sampleBeforeStartTime) {
+        queueHeldFrame(codec);
+        seekTargetTimeUs = -1;
       }
+      releaseOutputBuffer(codec, index, false);
     }
 
     itemEndReached = outputEOS || sampleOutOfBounds;
-    if (itemEndReached) {
+    if (itemEndReached && !syncFrameOnly) {
       if (onEndReachedListener != null) {
         onEndReachedListener.onEndReached();
       }
@@ -267,46 +325,126 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
     // Do nothing
   }
 
-  synchronized public Long render(long compositionTimeUs) {
-    if (pendingFrames.isEmpty()) {
-      return null;
+  /**
+   * Render the latest decoded frame that should be displayed at the given composition time.
+   * Older frames are released without being rendered.
+   * Must always be called from the same thread.
+   *
+   * @param compositionTimeUs the composition time in microseconds
+   * @return the presentation time of the rendered frame, or -1 if no frame was rendered
+   */
+  public long render(long compositionTimeUs) {
+    MediaCodec codec = this.codec;
+    if (released || codec == null) {
+      return -1;
     }
-    long compositionStartTimeUs = TimeHelpers.secToUs(item.getCompositionStartTime());
-    long startTimeUs = TimeHelpers.secToUs(item.getStartTime());
-
-    List<Frame> framesToRenders = new ArrayList<>();
-    for (Frame frame : pendingFrames) {
-      if (frame.presentationTimeUs - startTimeUs <= compositionTimeUs - compositionStartTimeUs || !hasRenderedFrame) {
-        framesToRenders.add(frame);
-        hasRenderedFrame = true;
+    long readIndex = queueReadIndex;
+    long writeIndex = queueWriteIndex;
+    if (readIndex == writeIndex) {
+      return -1;
+    }
+    long targetTimeUs = compositionTimeUs
+      - TimeHelpers.secToUs(item.getCompositionStartTime())
+      + TimeHelpers.secToUs(item.getStartTime());
+
+    // The first frame is always rendered so that something is displayed as soon as possible
+    long renderIndex = hasRenderedFrame ? -1 : readIndex;
+    for (long i = readIndex; i < writeIndex; i++) {
+      if (queuedPresentationTimesUs[(int) (i & FRAME_QUEUE_MASK)] > targetTimeUs) {
+        break;
       }
+      renderIndex = i;
     }
-    if (framesToRenders.isEmpty()) {
-      return null;
+    if (renderIndex == -1) {
+      return -1;
     }
-    framesToRenders.forEach(frame -> {
-      try {
-        codec.releaseOutputBuffer(frame.outputBufferIndex, true);
-      } catch (Throwable e) {
-        return;
-      }
-    });
-    freeFrames.addAll(framesToRenders);
-    pendingFrames.removeAll(framesToRenders);
+    for (long i = readIndex; i < renderIndex; i++) {
+      releaseOutputBuffer(codec, queuedBufferIndexes[(int) (i & FRAME_QUEUE_MASK)], false);
+    }
+    droppedFrameCount += renderIndex - readIndex;
+    int slot = (int) (renderIndex & FRAME_QUEUE_MASK);
+    long presentationTimeUs = queuedPresentationTimesUs[slot];
+    releaseOutputBuffer(codec, queuedBufferIndexes[slot], true);
+    queueReadIndex = renderIndex + 1;
+    hasRenderedFrame = true;
+    return presentationTimeUs;
+  }
 
-    return framesToRenders.get(framesToRenders.size() - 1).presentationTimeUs;
+  /**
+   * Must be called from the render thread.
+   *
+   * @param compositionTimeUs the composition time in microseconds
+   * @return true if a call to {@link #render(long)} with the given time would render a frame
+   */
+  public boolean hasFrameDue(long compositionTimeUs) {
+    long readIndex = queueReadIndex;
+    if (readIndex == queueWriteIndex) {
+      return false;
+    }
+    if (!hasRenderedFrame) {
+      return true;
+    }
+    long targetTimeUs = compositionTimeUs
+      - TimeHelpers.secToUs(item.getCompositionStartTime())
+      + TimeHelpers.secToUs(item.getStartTime());
+    return queuedPresentationTimesUs[(int) (readIndex & FRAME_QUEUE_MASK)] <= targetTimeUs;
   }
 
   /**
-   * Seek to a specific time in the video.
+   * @return the number of decoded frames released without being rendered because a more recent
+   * frame was due
+   */
+  public long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
+  /**
+   * Seek to a specific time in the video, the frames decoded before the target time are
+   * discarded without being rendered, except the one displayed at the target time.
    *
    * @param time the time in microseconds to seek to
    */
-  synchronized public void seekTo(long time) {
-    pendingFrames.clear();
-    codec.flush();
+  public void seekTo(long time) {
+    seekTo(time, true);
+  }
+
+  /**
+   * Seek to a specific time in the video.
+   *
+   * @param time     the time in microseconds to seek to
+   * @param accurate if true, the frames decoded before the target time are discarded without
+   *                 being rendered, otherwise they are rendered from the previous sync sample
+   */
+  synchronized public void seekTo(long time, boolean accurate) {
     long seekTime = time + TimeHelpers.secToUs(item.getStartTime());
+    if (accurate && canDecodeForwardTo(seekTime)) {
+      // The target is in the group of pictures being decoded, keep decoding up to it
+      // instead of flushing the codec and decoding again from the sync sample
+      long writeIndex = queueWriteIndex;
+      for (long i = queueReadIndex; i < writeIndex; i++) {
+        int slot = (int) (i & FRAME_QUEUE_MASK);
+        if (heldBufferIndex != -1) {
+          releaseOutputBuffer(codec, heldBufferIndex, false);
+        }
+        heldBufferIndex = queuedBufferIndexes[slot];
+        heldPresentationTimeUs = queuedPresentationTimesUs[slot];
+      }
+      queueReadIndex = writeIndex;
+      seekTargetTimeUs = seekTime;
+      hasRenderedFrame = false;
+      return;
+    }
+    // Flushing the codec invalidates all the queued output buffers
+    queueReadIndex = queueWriteIndex;
+    heldBufferIndex = -1;
+    lastOutputTimeUs = -1;
+    if (started) {
+      codec.flush();
+    }
     extractor.seekTo(seekTime, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    seekTargetTimeUs = accurate ? seekTime : -1;
+    syncFrameOnly = false;
+    syncFrameTimeUs = -1;
     itemEndReached = false;
     hasRenderedFrame = false;
     inputEOS = false;
@@ -315,6 +453,63 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
     }
   }
 
+  /**
+   * Seek to the sync sample closest to the given time and only decode this sample, used to
+   * display frames with a bounded latency while scrubbing.
+   * The decoding can be resumed with {@link #seekTo(long)}.
+   *
+   * @param time the time in microseconds to seek to
+   * @return false if the sync sample is the one already displayed and nothing was decoded
+   */
+  synchronized public boolean seekToClosestSyncFrame(long time) {
+    long startTimeUs = TimeHelpers.secToUs(item.getStartTime());
+    long seekTime = time + startTimeUs;
+    int seekMode = MediaExtractor.SEEK_TO_CLOSEST_SYNC;
+    SyncSampleIndex index = getSyncSampleIndex();
+    if (index != null) {
+      long syncTimeUs = index.getClosestSyncTimeUs(seekTime);
+      if (syncTimeUs < startTimeUs) {
+        // The frames before the item start time are never displayed
+        seekMode = MediaExtractor.SEEK_TO_NEXT_SYNC;
+        syncTimeUs = index.getSyncTimesUs()[Math.min(
+          index.findSyncSample(seekTime) + 1, index.getSyncSampleCount() - 1)];
+      }
+      if (syncFrameOnly && syncTimeUs == syncFrameTimeUs) {
+        return false;
+      }
+      syncFrameTimeUs = syncTimeUs;
+    } else {
+      syncFrameTimeUs = -1;
+    }
+    queueReadIndex = queueWriteIndex;
+    heldBufferIndex = -1;
+    lastOutputTimeUs = -1;
+    if (started) {
+      codec.flush();
+    }
+    extractor.seekTo(seekTime, seekMode);
+    seekTargetTimeUs = -1;
+    syncFrameOnly = true;
+    itemEndReached = false;
+    hasRenderedFrame = false;
+    inputEOS = false;
+    if (started) {
+      codec.start();
+    }
+    return true;
+  }
+
+  /**
+   * @return the sync sample index of the item media, or null if it is not loaded yet
+   */
+  @Nullable
+  public SyncSampleIndex getSyncSampleIndex() {
+    if (syncSampleIndex == null) {
+      syncSampleIndex = SyncSampleIndex.getIfLoaded(sourcePath);
+    }
+    return syncSampleIndex;
+  }
+
   /**
    * Release the decoder.
    */
@@ -327,6 +522,7 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
       if (codec != null) {
         codec.release();
         codec = null;
+        DecoderProbeCache.onDecoderReleased();
       }
     }
   }
@@ -351,8 +547,43 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
     return -1;
   }
 
-  private Frame getFreeFrame() {
-    return freeFrames.empty() ? new Frame() : freeFrames.pop();
+  private boolean canDecodeForwardTo(long seekTime) {
+    SyncSampleIndex index = getSyncSampleIndex();
+    return index != null && started && !inputEOS && !itemEndReached
+      && lastOutputTimeUs != -1 && seekTime > lastOutputTimeUs
+      && index.findSyncSample(seekTime) == index.findSyncSample(lastOutputTimeUs);
+  }
+
+  private void queueFrame(MediaCodec codec, int index, long presentationTimeUs) {
+    long writeIndex = queueWriteIndex;
+    if (writeIndex - queueReadIndex >= FRAME_QUEUE_CAPACITY) {
+      Log.w(TAG, "Frame queue full, dropping frame " + presentationTimeUs);
+      releaseOutputBuffer(codec, index, false);
+      return;
+    }
+    int slot = (int) (writeIndex & FRAME_QUEUE_MASK);
+    queuedBufferIndexes[slot] = index;
+    queuedPresentationTimesUs[slot] = presentationTimeUs;
+    // Publishing the write index makes the slot visible to the render thread
+    queueWriteIndex = writeIndex + 1;
+    if (onFrameAvailableListener != null) {
+      onFrameAvailableListener.onFrameAvailable(presentationTimeUs);
+    }
+  }
+
+  private void queueHeldFrame(MediaCodec codec) {
+    if (heldBufferIndex != -1) {
+      queueFrame(codec, heldBufferIndex, heldPresentationTimeUs);
+      heldBufferIndex = -1;
+    }
+  }
+
+  private static void releaseOutputBuffer(MediaCodec codec, int index, boolean render) {
+    try {
+      codec.releaseOutputBuffer(index, render);
+    } catch (Throwable e) {
+      // The codec has been flushed or released
+    }
   }
 
   public interface OnErrorListener {
@@ -366,12 +597,4 @@ public class VideoCompositionItemDecoder extends MediaCodec.Callback {
   public interface OnEndReachedListener {
     void onEndReached();
   }
-
-  /**
-   * A frame representing a decoded output buffer sample.
-   */
-  private static class Frame {
-    private int outputBufferIndex;
-    private long presentationTimeUs;
-  }
 }
@@ -4,13 +4,20 @@ import android.graphics.Bitmap;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 
+import androidx.annotation.NonNull;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
 
 import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLContext;
@@ -18,7 +25,23 @@ import javax.microedition.khronos.egl.EGLContext;
 
 /**
  * Helper class for encoding video and audio.
- * Uses MediaCodec pipeline for both video (H.264) and audio (AAC) encoding.
+ * Uses MediaCodec pipeline for both video (H.264 by default, HEVC or AV1) and audio (AAC)
+ * encoding.
+ * <p>
+ * Both encoders run in callback mode on a dedicated drain thread which writes the encoded samples
+ * to the muxer, so that the thread rendering the frames never waits for the encoder output. The
+ * number of frames submitted and not yet encoded is bounded by
+ * {@link #setMaxFramesInFlight(int)}, {@link #encodeFrame(int, double)} blocking once it is
+ * reached. The samples are written through an {@link InterleavingMuxer}, which keeps those
+ * encoded before the formats of all the tracks are known.
+ * <p>
+ * When the audio lags more than {@link InterleavingMuxer#MAX_INTERLEAVE_DELTA_US} behind the
+ * video, because no audio or not enough was fed, the gap is filled with silence as the frames
+ * are encoded. The muxer otherwise keeps all the video samples in memory until the audio catches
+ * up, or until the end of the export if the audio format is never known.
+ * <p>
+ * With an audio channel count of 0 the encoder runs in video only mode: no audio encoder is
+ * created and the muxer starts as soon as the video format is known.
  */
 public class VideoEncoder {
 
@@ -29,6 +52,19 @@ public class VideoEncoder {
 
   public static final int DEFAULT_I_FRAME_INTERVAL_SECONDS = 1;
 
+  public static final int DEFAULT_MAX_FRAMES_IN_FLIGHT = 4;
+
+  // Maximum time waited for the encoders to make progress before giving up
+  private static final long DRAIN_TIMEOUT_MS = 5000;
+
+  // Number of samples per channel in an AAC frame
+  private static final int AAC_FRAME_SAMPLES = 1024;
+
+  private static final int BYTES_PER_SAMPLE = 2;
+
+  // Attachments of the default framebuffer invalidated before blitting a frame
+  private static final int[] COLOR_ATTACHMENTS = new int[]{GLES30.GL_COLOR};
+
   private final String outputPath;
 
   private final int width;
@@ -47,6 +83,13 @@ public class VideoEncoder {
 
   private final int audioBitRate;
 
+  private VideoEncoderConfig config = new VideoEncoderConfig();
+
+  private String codec = VideoCapabilities.CODEC_H264;
+
+  // Mime type of the video encoder, resolved from the codec when the encoder is prepared
+  private String mimeType = MIME_TYPE;
+
   private MediaCodec videoEncoder;
 
   private MediaCodec audioEncoder;
@@ -57,19 +100,39 @@ public class VideoEncoder {
 
   private TextureRenderer textureRenderer;
 
-  private MediaMuxer muxer;
+  // Framebuffer the frames are blitted from to the encoder surface, 0 if blitting is not supported
+  private int blitFramebuffer = 0;
+
+  private InterleavingMuxer muxer;
+
+  private HandlerThread drainThread;
+
+  // Guards the state shared with the drain thread, waited on for backpressure and completion
+  private final Object drainLock = new Object();
 
-  private int videoTrackIndex = -1;
-  private int audioTrackIndex = -1;
+  private int maxFramesInFlight = DEFAULT_MAX_FRAMES_IN_FLIGHT;
 
-  private boolean muxerStarted;
+  private int framesInFlight = 0;
 
-  private final MediaCodec.BufferInfo videoBufferInfo;
-  private final MediaCodec.BufferInfo audioBufferInfo;
+  private boolean videoEnded = false;
+
+  private boolean audioEnded = false;
+
+  private Exception encoderError;
+
+  private final ArrayDeque<Integer> audioInputBuffers = new ArrayDeque<>();
 
   // Audio encoding state
   private boolean audioEncoderInitialized = false;
-  private boolean audioFormatChangeHandled = false;
+
+  // Accumulates the PCM data until a whole AAC frame is available
+  private ByteBuffer audioFrameBuffer;
+
+  // Presentation time of the first audio sample, -1 until audio is fed
+  private long audioStartTimeUs = -1;
+
+  // Number of samples per channel queued to the audio encoder
+  private long audioSamplesQueued = 0;
 
 
   /**
@@ -82,7 +145,7 @@ public class VideoEncoder {
    * @param bitRate    the bit rate of the video
    * @param encoderName the name of the encoder to use, or null to use the default encoder
    * @param audioSampleRate the audio sample rate in Hz
-   * @param audioChannelCount the number of audio channels
+   * @param audioChannelCount the number of audio channels, 0 to write a file without audio track
    * @param audioBitRate the audio bit rate in bits per second
    */
   public VideoEncoder(
@@ -105,8 +168,49 @@ public class VideoEncoder {
     this.audioSampleRate = audioSampleRate;
     this.audioChannelCount = audioChannelCount;
     this.audioBitRate = audioBitRate;
-    videoBufferInfo = new MediaCodec.BufferInfo();
-    audioBufferInfo = new MediaCodec.BufferInfo();
+  }
+
+  /**
+   * Sets the interval between two key frames, 0 makes every frame a key frame.
+   * Must be called before {@link #prepare()}.
+   *
+   * @param iFrameIntervalSeconds the interval in seconds
+   */
+  public void setIFrameInterval(float iFrameIntervalSeconds) {
+    config.setKeyFrameInterval(iFrameIntervalSeconds);
+  }
+
+  /**
+   * Sets the optional settings of the video encoder, see {@link VideoEncoderConfig}.
+   * Must be called before {@link #prepare()}.
+   *
+   * @param config the settings
+   */
+  public void setConfig(VideoEncoderConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Sets the codec of the video, one of the VideoCapabilities CODEC_ constants.
+   * {@link VideoCapabilities#CODEC_AUTO} selects the most efficient codec whose encoders support
+   * the size of the video, H.264 being used if none does. When an encoder name is given, the auto
+   * mode only considers the codecs of that encoder.
+   * Must be called before {@link #prepare()}.
+   *
+   * @param codec the codec
+   */
+  public void setCodec(String codec) {
+    this.codec = codec;
+  }
+
+  /**
+   * Sets the maximum number of frames submitted to the encoder and not yet encoded.
+   * Must be called before {@link #prepare()}.
+   *
+   * @param maxFramesInFlight the number of frames
+   */
+  public void setMaxFramesInFlight(int maxFramesInFlight) {
+    this.maxFramesInFlight = Math.max(1, maxFramesInFlight);
   }
 
   /**
@@ -114,46 +218,115 @@ public class VideoEncoder {
    */
   public void prepare() throws IOException {
     EGLContext sharedContext = EGLUtils.getCurrentContextOrThrows();
-    videoEncoder = encoderName != null
-      ? MediaCodec.createByCodecName(encoderName)
-      : MediaCodec.createEncoderByType(MIME_TYPE);
-
-    MediaFormat videoFormat = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
-    videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
-      MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-    videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
-    videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
-    videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, DEFAULT_I_FRAME_INTERVAL_SECONDS);
-
-    videoEncoder.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    drainThread = new HandlerThread(TAG + "Drain");
+    drainThread.start();
+    Handler drainHandler = new Handler(drainThread.getLooper());
+
+    String videoEncoderName = encoderName;
+    if (VideoCapabilities.CODEC_AUTO.equals(codec)) {
+      VideoCapabilities.EncoderInfo encoderInfo = selectAutoEncoder();
+      if (encoderInfo != null) {
+        mimeType = VideoCapabilities.getMimeType(encoderInfo.getCodec());
+        videoEncoderName = encoderInfo.getEncoderName();
+      } else {
+        Log.w(TAG, "No encoder supports the video size, falling back to H.264");
+        mimeType = MIME_TYPE;
+      }
+    } else {
+      mimeType = VideoCapabilities.getMimeType(codec);
+    }
+    videoEncoder = videoEncoderName != null
+      ? MediaCodec.createByCodecName(videoEncoderName)
+      : MediaCodec.createEncoderByType(mimeType);
+    videoEncoder.setCallback(new VideoEncoderCallback(), drainHandler);
+
+    MediaFormat videoFormat = createVideoFormat();
+    config.applyTo(
+      videoFormat, videoEncoder.getCodecInfo().getCapabilitiesForType(mimeType));
+    try {
+      videoEncoder.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    } catch (IllegalArgumentException | MediaCodec.CodecException e) {
+      // Some encoders reject combinations of settings they report as supported
+      Log.w(TAG, "Encoder configuration rejected, falling back to the encoder defaults", e);
+      videoEncoder.reset();
+      videoEncoder.setCallback(new VideoEncoderCallback(), drainHandler);
+      videoFormat = createVideoFormat();
+      videoFormat.setFloat(MediaFormat.KEY_I_FRAME_INTERVAL, config.getKeyFrameInterval());
+      videoEncoder.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+    if (videoFormat.containsKey(MediaFormat.KEY_MAX_B_FRAMES)) {
+      // The reordered frames are held by the encoder until the next reference frame is submitted
+      maxFramesInFlight = Math.max(
+        maxFramesInFlight, videoFormat.getInteger(MediaFormat.KEY_MAX_B_FRAMES) + 2);
+    }
 
     videoInputSurface = videoEncoder.createInputSurface();
     eglResourcesHolder = EGLResourcesHolder.createWithWindowedSurface(sharedContext, videoInputSurface);
     eglResourcesHolder.makeCurrent();
     textureRenderer = new TextureRenderer();
-    videoEncoder.start();
-
+    if (EGLUtils.isCurrentContextGLES3()) {
+      int[] framebuffers = new int[1];
+      GLES20.glGenFramebuffers(1, framebuffers, 0);
+      blitFramebuffer = framebuffers[0];
+    }
+    // The muxer must exist before the encoders are started, the output format being reported
+    // on the drain thread
     try {
-      muxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+      muxer = new InterleavingMuxer(outputPath, hasAudio());
     } catch (IOException ioe) {
       throw new RuntimeException("MediaMuxer creation failed", ioe);
     }
 
-    videoTrackIndex = -1;
-    audioTrackIndex = -1;
-    muxerStarted = false;
+    videoEncoder.start();
 
-    
+    if (!hasAudio()) {
+      return;
+    }
     audioEncoder = MediaCodec.createEncoderByType(AUDIO_MIME_TYPE);
-    
+    audioEncoder.setCallback(new AudioEncoderCallback(), drainHandler);
+
     MediaFormat audioFormat = MediaFormat.createAudioFormat(AUDIO_MIME_TYPE, audioSampleRate, audioChannelCount);
     audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
     audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, audioBitRate);
     
     audioEncoder.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
     audioEncoder.start();
+    audioFrameBuffer = ByteBuffer.allocateDirect(AAC_FRAME_SAMPLES * getAudioFrameSize());
+    audioStartTimeUs = -1;
+    audioSamplesQueued = 0;
     audioEncoderInitialized = true;
-    audioFormatChangeHandled = false;
+  }
+
+  // Returns the best ranked encoder supporting the size of the video, null if there is none
+  private VideoCapabilities.EncoderInfo selectAutoEncoder() {
+    List<VideoCapabilities.EncoderInfo> encoderInfos =
+      VideoCapabilities.getValidEncoderConfigurations(
+        VideoCapabilities.CODEC_AUTO, width, height, frameRate, bitRate);
+    for (VideoCapabilities.EncoderInfo encoderInfo : encoderInfos) {
+      if ((encoderName == null || encoderName.equals(encoderInfo.getEncoderName()))
+        && encoderInfo.getWidth() == width && encoderInfo.getHeight() == height) {
+        return encoderInfo;
+      }
+    }
+    return null;
+  }
+
+  private MediaFormat createVideoFormat() {
+    MediaFormat videoFormat = MediaFormat.createVideoFormat(mimeType, width, height);
+    videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+      MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+    videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+    videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+    return videoFormat;
+  }
+
+  private boolean hasAudio() {
+    return audioChannelCount > 0;
+  }
+
+  // Size in bytes of one sample of all the channels
+  private int getAudioFrameSize() {
+    return audioChannelCount * BYTES_PER_SAMPLE;
   }
 
   public void makeGLContextCurrent() {
@@ -162,230 +335,346 @@ public class VideoEncoder {
 
   /**
    * Encodes audio data from a ByteBuffer.
-   * The audio data should be raw PCM data with sample rate 44100 and 2 channels.
+   * The audio data should be raw 16 bits PCM data with the sample rate and channel count of the
+   * encoder.
+   * <p>
+   * The data is accumulated until a whole AAC frame of {@value #AAC_FRAME_SAMPLES} samples is
+   * available, and the frames are stamped from the number of samples queued so that the audio
+   * does not drift from the video. Audio fed after a gap is preceded by silence. Blocks while
+   * the encoder has no free input buffer.
    *
    * @param audioBuffer the audio buffer (DirectByteBuffer containing PCM data)
-   * @param time        the presentation time in seconds
+   * @param time        the presentation time in seconds of the first sample of the buffer
    */
   public void encodeAudio(ByteBuffer audioBuffer, double time) {
     if (!audioEncoderInitialized) {
       return;
     }
+    throwIfFailed();
 
     long timeUs = TimeHelpers.secToUs(time);
-    
-    int inputBufferIndex = audioEncoder.dequeueInputBuffer(0);
-    if (inputBufferIndex < 0) {
-      return; // No input buffers available, try again later
+    if (audioStartTimeUs < 0) {
+      audioStartTimeUs = timeUs;
     }
-
-    ByteBuffer inputBuffer = audioEncoder.getInputBuffer(inputBufferIndex);
-    if (inputBuffer == null) {
-      return;
+    fillAudioGap(timeUs);
+
+    while (audioBuffer.hasRemaining()) {
+      int size = Math.min(audioBuffer.remaining(), audioFrameBuffer.remaining());
+      int audioBufferLimit = audioBuffer.limit();
+      audioBuffer.limit(audioBuffer.position() + size);
+      audioFrameBuffer.put(audioBuffer);
+      audioBuffer.limit(audioBufferLimit);
+      if (!audioFrameBuffer.hasRemaining()) {
+        queueAudioFrame(0);
+      }
     }
-
-    inputBuffer.clear();
-    inputBuffer.put(audioBuffer);
-    inputBuffer.flip();
-
-    audioEncoder.queueInputBuffer(
-      inputBufferIndex,
-      0,
-      audioBuffer.remaining(),
-      timeUs,
-      0
-    );
-    
-    // Drain the audio encoder output
-    drainAudioEncoder(false);
   }
 
   /**
-   * Drains the audio encoder output and writes to muxer.
-   *
-   * @param endOfStream true if this is the end of the stream
+   * Appends silence up to the given time if the audio fed so far does not reach it.
    */
-  private void drainAudioEncoder(boolean endOfStream) {
-    if (!audioEncoderInitialized) {
-      return;
+  private void fillAudioGap(long timeUs) {
+    long gapSamples = (timeUs - audioStartTimeUs) * audioSampleRate / 1000000
+      - audioSamplesQueued - audioFrameBuffer.position() / getAudioFrameSize();
+    // Small gaps are rounding errors between the video and audio clocks
+    if (gapSamples >= AAC_FRAME_SAMPLES) {
+      appendSilence(gapSamples);
     }
+  }
 
-    final int TIMEOUT_USEC = 10000;
-
-    if (endOfStream) {
-      audioEncoder.signalEndOfInputStream();
+  private void appendSilence(long sampleCount) {
+    long remainingBytes = sampleCount * getAudioFrameSize();
+    while (remainingBytes > 0) {
+      int size = (int) Math.min(remainingBytes, audioFrameBuffer.remaining());
+      for (int i = 0; i < size; i++) {
+        audioFrameBuffer.put((byte) 0);
+      }
+      remainingBytes -= size;
+      if (!audioFrameBuffer.hasRemaining()) {
+        queueAudioFrame(0);
+      }
     }
+  }
 
-    while (true) {
-      int encoderStatus = audioEncoder.dequeueOutputBuffer(audioBufferInfo, TIMEOUT_USEC);
-      
-      if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-        // no output available yet
-        if (!endOfStream) {
-          break; // out of while
-        }
-      } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-        // Audio format changed - add audio track to muxer
-        if (audioFormatChangeHandled) {
-          throw new RuntimeException("audio format changed twice");
-        }
-        
-        MediaFormat newFormat = audioEncoder.getOutputFormat();
-        audioTrackIndex = muxer.addTrack(newFormat);
-        audioFormatChangeHandled = true;
-        
-        // If both video and audio tracks are ready, start the muxer
-        if (videoTrackIndex >= 0 && audioTrackIndex >= 0 && !muxerStarted) {
-          synchronized (this) {
-            if (!muxerStarted) {
-              muxer.start();
-              muxerStarted = true;
-            }
-          }
-        }
-      } else if (encoderStatus < 0) {
-        Log.w(TAG, "unexpected result from audio encoder.dequeueOutputBuffer: " + encoderStatus);
-        // let's ignore it
-      } else {
-        ByteBuffer encodedData = audioEncoder.getOutputBuffer(encoderStatus);
-        if (encodedData == null) {
-          throw new RuntimeException("audioEncoderOutputBuffer " + encoderStatus + " was null");
-        }
-
-        if ((audioBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-          // The codec config data was pulled out and fed to the muxer when we got
-          // the INFO_OUTPUT_FORMAT_CHANGED status. Ignore it.
-          audioBufferInfo.size = 0;
-        }
-
-        if (audioBufferInfo.size != 0) {
-          if (!muxerStarted) {
-            // Don't write yet, wait for both tracks to be ready
-            audioEncoder.releaseOutputBuffer(encoderStatus, false);
-            break;
-          }
-
-          // adjust the ByteBuffer values to match BufferInfo
-          encodedData.position(audioBufferInfo.offset);
-          encodedData.limit(audioBufferInfo.offset + audioBufferInfo.size);
-
-          synchronized (this) {
-            if (muxerStarted) {
-              muxer.writeSampleData(audioTrackIndex, encodedData, audioBufferInfo);
-            }
-          }
-        }
-
-        audioEncoder.releaseOutputBuffer(encoderStatus, false);
+  /**
+   * Queues the accumulated audio data to the encoder, possibly over several input buffers.
+   */
+  private void queueAudioFrame(int flags) {
+    audioFrameBuffer.flip();
+    do {
+      int inputBufferIndex = dequeueAudioInputBuffer();
+      ByteBuffer inputBuffer = audioEncoder.getInputBuffer(inputBufferIndex);
+      if (inputBuffer == null) {
+        throw new RuntimeException("audioEncoderInputBuffer " + inputBufferIndex + " was null");
+      }
+      inputBuffer.clear();
+      int size = Math.min(audioFrameBuffer.remaining(), inputBuffer.remaining());
+      int frameBufferLimit = audioFrameBuffer.limit();
+      audioFrameBuffer.limit(audioFrameBuffer.position() + size);
+      inputBuffer.put(audioFrameBuffer);
+      audioFrameBuffer.limit(frameBufferLimit);
+
+      long presentationTimeUs =
+        audioStartTimeUs + audioSamplesQueued * 1000000 / audioSampleRate;
+      audioSamplesQueued += size / getAudioFrameSize();
+      boolean last = !audioFrameBuffer.hasRemaining();
+      audioEncoder.queueInputBuffer(
+        inputBufferIndex, 0, size, presentationTimeUs, last ? flags : 0);
+    } while (audioFrameBuffer.hasRemaining());
+    audioFrameBuffer.clear();
+  }
 
-        if ((audioBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-          if (!endOfStream) {
-            Log.w(TAG, "reached end of audio stream unexpectedly");
-          }
-          break; // out of while
+  /**
+   * Waits for a free input buffer of the audio encoder.
+   */
+  private int dequeueAudioInputBuffer() {
+    Integer inputBufferIndex;
+    synchronized (drainLock) {
+      long deadline = SystemClock.elapsedRealtime() + DRAIN_TIMEOUT_MS;
+      while ((inputBufferIndex = audioInputBuffers.pollFirst()) == null && encoderError == null) {
+        long remaining = deadline - SystemClock.elapsedRealtime();
+        if (remaining <= 0) {
+          throw new RuntimeException("Timed out waiting for an audio input buffer");
         }
+        waitForDrain(remaining);
       }
     }
+    throwIfFailed();
+    return inputBufferIndex;
   }
 
+  /**
+   * Renders the given texture to the encoder input surface. Blocks while the maximum number of
+   * frames in flight is reached.
+   * <p>
+   * The texture must have the size of the video. With OpenGL ES 3 it is copied with a framebuffer
+   * blit, which skips the clear and the shader pass of the texture renderer. OpenGL ES 2 contexts
+   * fall back to the texture renderer.
+   *
+   * @param texture the texture to encode
+   * @param time    the presentation time in seconds
+   */
   public void encodeFrame(int texture, double time) {
     long timeUS = TimeHelpers.secToUs(time);
-    GLES20.glClearColor(0, 0, 0, 0);
-    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-    GLES20.glViewport(0, 0, width, height);
-    textureRenderer.draw(texture, EGLUtils.IDENTITY_MATRIX);
+    synchronized (drainLock) {
+      long deadline = SystemClock.elapsedRealtime() + DRAIN_TIMEOUT_MS;
+      while (framesInFlight >= maxFramesInFlight && encoderError == null) {
+        long remaining = deadline - SystemClock.elapsedRealtime();
+        if (remaining <= 0) {
+          throw new RuntimeException("Timed out waiting for the video encoder output");
+        }
+        waitForDrain(remaining);
+      }
+      framesInFlight++;
+    }
+    throwIfFailed();
+    if (audioEncoderInitialized) {
+      if (audioStartTimeUs < 0) {
+        audioStartTimeUs = timeUS;
+      }
+      // Audio fed later for this frame fills the gap up to its own time
+      fillAudioGap(timeUS - InterleavingMuxer.MAX_INTERLEAVE_DELTA_US);
+    }
+    if (blitFramebuffer != 0) {
+      blitFrame(texture);
+    } else {
+      GLES20.glClearColor(0, 0, 0, 0);
+      GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+      GLES20.glViewport(0, 0, width, height);
+      textureRenderer.draw(texture, EGLUtils.IDENTITY_MATRIX);
+    }
     eglResourcesHolder.setPresentationTime(timeUS * 1000);
     if (!eglResourcesHolder.swapBuffers()) {
       throw new RuntimeException("eglSwapBuffer failed");
     }
-    drainVideoEncoder(false);
   }
 
+  private void blitFrame(int texture) {
+    GLES20.glBindFramebuffer(GLES30.GL_READ_FRAMEBUFFER, blitFramebuffer);
+    GLES20.glFramebufferTexture2D(
+      GLES30.GL_READ_FRAMEBUFFER,
+      GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, texture,
+      0
+    );
+    GLES20.glBindFramebuffer(GLES30.GL_DRAW_FRAMEBUFFER, 0);
+    // The previous content of the surface is overwritten, it does not need to be loaded
+    GLES30.glInvalidateFramebuffer(GLES30.GL_DRAW_FRAMEBUFFER, 1, COLOR_ATTACHMENTS, 0);
+    // The rows are flipped like the texture renderer does with the identity matrix
+    GLES30.glBlitFramebuffer(
+      0, 0, width, height,
+      0, height, width, 0,
+      GLES20.GL_COLOR_BUFFER_BIT, GLES20.GL_NEAREST
+    );
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+  }
+
+  /**
+   * Signals the end of the streams and waits for the encoders to write their last samples.
+   */
   public void finishWriting() {
-    drainAudioEncoder(true);
-    drainVideoEncoder(true);
+    throwIfFailed();
+    if (audioEncoderInitialized) {
+      signalAudioEndOfStream();
+    }
+    videoEncoder.signalEndOfInputStream();
+    synchronized (drainLock) {
+      long deadline = SystemClock.elapsedRealtime() + DRAIN_TIMEOUT_MS;
+      while ((!videoEnded || (audioEncoderInitialized && !audioEnded)) && encoderError == null) {
+        long remaining = deadline - SystemClock.elapsedRealtime();
+        if (remaining <= 0) {
+          throw new RuntimeException("Timed out waiting for the end of the encoded streams");
+        }
+        waitForDrain(remaining);
+      }
+    }
+    throwIfFailed();
+    muxer.finish();
+  }
+
+  private void signalAudioEndOfStream() {
+    // The audio input is not a surface, the end of stream is queued with the last samples
+    if (audioStartTimeUs < 0) {
+      audioStartTimeUs = 0;
+    }
+    queueAudioFrame(MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+  }
+
+  // Must be called with the drain lock held
+  private void waitForDrain(long timeoutMs) {
+    try {
+      drainLock.wait(timeoutMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the encoder", e);
+    }
+  }
+
+  private void throwIfFailed() {
+    synchronized (drainLock) {
+      if (encoderError != null) {
+        throw new RuntimeException("Encoding failed", encoderError);
+      }
+    }
   }
 
   /**
-   * Extracts all pending data from the video encoder.
-   *
-   * @param endOfStream true if this is the end of the stream
+   * Called on the drain thread to queue an encoded sample to the muxer.
    */
-  private void drainVideoEncoder(boolean endOfStream) {
-    final int TIMEOUT_USEC = 10000;
+  private void writeSample(
+    MediaCodec codec,
+    int index,
+    MediaCodec.BufferInfo info,
+    boolean video
+  ) {
+    ByteBuffer encodedData = codec.getOutputBuffer(index);
+    if (encodedData == null) {
+      throw new RuntimeException(
+        (video ? "video" : "audio") + "EncoderOutputBuffer " + index + " was null");
+    }
+    // The codec config data was pulled out and fed to the muxer with the output format
+    boolean codecConfig = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+    int track = video ? InterleavingMuxer.TRACK_VIDEO : InterleavingMuxer.TRACK_AUDIO;
+    if (info.size != 0 && !codecConfig) {
+      muxer.writeSample(track, encodedData, info);
+    }
+    codec.releaseOutputBuffer(index, false);
 
+    boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
     if (endOfStream) {
-      videoEncoder.signalEndOfInputStream();
+      muxer.endTrack(track);
     }
-
-    while (true) {
-      int encoderStatus = videoEncoder.dequeueOutputBuffer(videoBufferInfo, TIMEOUT_USEC);
-      if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-        // no output available yet
-        if (!endOfStream) {
-          break; // out of while
-        }
+    synchronized (drainLock) {
+      if (video && !codecConfig && info.size != 0 && framesInFlight > 0) {
+        framesInFlight--;
       }
-      if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-        // should happen before receiving buffers, and should only happen once
-        if (videoTrackIndex >= 0) {
-          throw new RuntimeException("video format changed twice");
-        }
-        MediaFormat newFormat = videoEncoder.getOutputFormat();
-
-        // now that we have the Magic Goodies, add video track to muxer
-        videoTrackIndex = muxer.addTrack(newFormat);
-        
-        // If both video and audio tracks are ready, start the muxer
-        if (videoTrackIndex >= 0 && audioTrackIndex >= 0 && !muxerStarted) {
-          synchronized (this) {
-            if (!muxerStarted) {
-              muxer.start();
-              muxerStarted = true;
-            }
-          }
-        }
-      } else if (encoderStatus < 0) {
-        Log.w(TAG, "unexpected result from video encoder.dequeueOutputBuffer: " + encoderStatus);
-        // let's ignore it
-      } else {
-        ByteBuffer encodedData = videoEncoder.getOutputBuffer(encoderStatus);
-        if (encodedData == null) {
-          throw new RuntimeException("videoEncoderOutputBuffer " + encoderStatus + " was null");
+      if (endOfStream) {
+        if (video) {
+          videoEnded = true;
+        } else {
+          audioEnded = true;
         }
+      }
+      drainLock.notifyAll();
+    }
+  }
 
-        if ((videoBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-          // The codec config data was pulled out and fed to the muxer when we got
-          // the INFO_OUTPUT_FORMAT_CHANGED status.  Ignore it.
-          videoBufferInfo.size = 0;
-        }
+  private void onEncoderError(Exception e) {
+    Log.e(TAG, "Encoder error", e);
+    synchronized (drainLock) {
+      if (encoderError == null) {
+        encoderError = e;
+      }
+      drainLock.notifyAll();
+    }
+  }
 
-        if (videoBufferInfo.size != 0) {
-          if (!muxerStarted) {
-            // Don't write yet, wait for both tracks to be ready
-            videoEncoder.releaseOutputBuffer(encoderStatus, false);
-            break;
-          }
-
-          // adjust the ByteBuffer values to match BufferInfo (not needed?)
-          encodedData.position(videoBufferInfo.offset);
-          encodedData.limit(videoBufferInfo.offset + videoBufferInfo.size);
-
-          synchronized (this) {
-            if (muxerStarted) {
-              muxer.writeSampleData(videoTrackIndex, encodedData, videoBufferInfo);
-            }
-          }
-        }
+  private class VideoEncoderCallback extends MediaCodec.Callback {
+    @Override
+    public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+      // The input is the surface
+    }
 
-        videoEncoder.releaseOutputBuffer(encoderStatus, false);
+    @Override
+    public void onOutputBufferAvailable(
+      @NonNull MediaCodec codec,
+      int index,
+      @NonNull MediaCodec.BufferInfo info
+    ) {
+      try {
+        writeSample(codec, index, info, true);
+      } catch (Exception e) {
+        onEncoderError(e);
+      }
+    }
 
-        if ((videoBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-          if (!endOfStream) {
-            Log.w(TAG, "reached end of video stream unexpectedly");
-          }
-          break; // out of while
-        }
+    @Override
+    public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+      onEncoderError(e);
+    }
+
+    @Override
+    public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+      try {
+        muxer.setTrackFormat(InterleavingMuxer.TRACK_VIDEO, format);
+      } catch (Exception e) {
+        onEncoderError(e);
+      }
+    }
+  }
+
+  private class AudioEncoderCallback extends MediaCodec.Callback {
+    @Override
+    public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+      synchronized (drainLock) {
+        audioInputBuffers.addLast(index);
+        drainLock.notifyAll();
+      }
+    }
+
+    @Override
+    public void onOutputBufferAvailable(
+      @NonNull MediaCodec codec,
+      int index,
+      @NonNull MediaCodec.BufferInfo info
+    ) {
+      try {
+        writeSample(codec, index, info, false);
+      } catch (Exception e) {
+        onEncoderError(e);
+      }
+    }
+
+    @Override
+    public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+      onEncoderError(e);
+    }
+
+    @Override
+    public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+      try {
+        muxer.setTrackFormat(InterleavingMuxer.TRACK_AUDIO, format);
+      } catch (Exception e) {
+        onEncoderError(e);
       }
     }
   }
@@ -411,8 +700,11 @@ public class VideoEncoder {
       videoInputSurface.release();
       videoInputSurface = null;
     }
+    if (drainThread != null) {
+      drainThread.quitSafely();
+      drainThread = null;
+    }
     if (muxer != null) {
-      muxer.stop();
       muxer.release();
       muxer = null;
     }
@@ -0,0 +1,312 @@
+package com.azzapp.rnskv;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+
+/**
+ * The optional settings of a {@link VideoEncoder}: profile and level, B-frames, bitrate mode,
+ * key frame interval, operating rate and priority.
+ * <p>
+ * The settings left to their default value are not passed to the encoder, which then uses its own
+ * defaults. Before the encoder is configured, each setting is validated against the capabilities
+ * of the encoder, those it does not support being dropped or clamped to the closest supported
+ * value.
+ * <p>
+ * The profiles and levels are those of H.264. With HEVC the main and high profiles map to the
+ * HEVC main profile, and with AV1 to the main 8-bit profile, the level then always being the
+ * highest supported with the profile.
+ */
+public class VideoEncoderConfig {
+
+  private static final String TAG = "VideoEncoderConfig";
+
+  public static final String PROFILE_BASELINE = "baseline";
+  public static final String PROFILE_MAIN = "main";
+  public static final String PROFILE_HIGH = "high";
+
+  public static final String BITRATE_MODE_VBR = "vbr";
+  public static final String BITRATE_MODE_CBR = "cbr";
+  public static final String BITRATE_MODE_CQ = "cq";
+
+  public static final int PRIORITY_REALTIME = 0;
+  public static final int PRIORITY_BEST_EFFORT = 1;
+
+  // H.264 levels and their MediaCodecInfo.CodecProfileLevel constants
+  private static final double[] AVC_LEVELS = new double[]{
+    1, 1.1, 1.2, 1.3, 2, 2.1, 2.2, 3, 3.1, 3.2, 4, 4.1, 4.2, 5, 5.1, 5.2
+  };
+  private static final int[] AVC_LEVEL_CONSTANTS = new int[]{
+    MediaCodecInfo.CodecProfileLevel.AVCLevel1,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel11,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel12,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel13,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel2,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel21,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel22,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel3,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel31,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel32,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel4,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel41,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel42,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel5,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel51,
+    MediaCodecInfo.CodecProfileLevel.AVCLevel52,
+  };
+
+  private String profile;
+  private double level = 0;
+  private int maxBFrames = -1;
+  private String bitrateMode;
+  private int quality = -1;
+  private float keyFrameInterval = VideoEncoder.DEFAULT_I_FRAME_INTERVAL_SECONDS;
+  private int operatingRate = -1;
+  private int priority = -1;
+
+  public VideoEncoderConfig() {
+  }
+
+  /**
+   * @return the profile, one of the PROFILE_ constants, or null for the encoder default
+   */
+  public String getProfile() {
+    return profile;
+  }
+
+  public void setProfile(String profile) {
+    this.profile = profile;
+  }
+
+  /**
+   * @return the H.264 level (for example 4.1), or 0 for the highest level supported with the
+   * profile
+   */
+  public double getLevel() {
+    return level;
+  }
+
+  public void setLevel(double level) {
+    this.level = level;
+  }
+
+  /**
+   * @return the maximum number of B-frames between two reference frames, or -1 for the encoder
+   * default
+   */
+  public int getMaxBFrames() {
+    return maxBFrames;
+  }
+
+  public void setMaxBFrames(int maxBFrames) {
+    this.maxBFrames = maxBFrames;
+  }
+
+  /**
+   * @return the bitrate mode, one of the BITRATE_MODE_ constants, or null for the encoder default
+   */
+  public String getBitrateMode() {
+    return bitrateMode;
+  }
+
+  public void setBitrateMode(String bitrateMode) {
+    this.bitrateMode = bitrateMode;
+  }
+
+  /**
+   * @return the quality used with the constant quality bitrate mode, or -1 for the encoder default
+   */
+  public int getQuality() {
+    return quality;
+  }
+
+  public void setQuality(int quality) {
+    this.quality = quality;
+  }
+
+  /**
+   * @return the interval between two key frames in seconds, 0 makes every frame a key frame
+   */
+  public float getKeyFrameInterval() {
+    return keyFrameInterval;
+  }
+
+  public void setKeyFrameInterval(float keyFrameInterval) {
+    this.keyFrameInterval = keyFrameInterval;
+  }
+
+  /**
+   * @return the rate in frames per second at which the encoder is asked to run, or -1 for the
+   * encoder default
+   */
+  public int getOperatingRate() {
+    return operatingRate;
+  }
+
+  public void setOperatingRate(int operatingRate) {
+    this.operatingRate = operatingRate;
+  }
+
+  /**
+   * @return the priority, one of the PRIORITY_ constants, or -1 for the encoder default
+   */
+  public int getPriority() {
+    return priority;
+  }
+
+  public void setPriority(int priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Sets the settings supported by an encoder on the given format.
+   *
+   * @param format       the format to configure the encoder with, holding its mime type and size
+   * @param capabilities the capabilities of the encoder for the format mime type
+   */
+  void applyTo(MediaFormat format, MediaCodecInfo.CodecCapabilities capabilities) {
+    format.setFloat(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameInterval);
+    applyProfileLevel(format, capabilities);
+    applyBitrateMode(format, capabilities);
+    applyOperatingRate(format, capabilities);
+    if (priority >= 0) {
+      format.setInteger(MediaFormat.KEY_PRIORITY, priority);
+    }
+  }
+
+  private void applyProfileLevel(MediaFormat format, MediaCodecInfo.CodecCapabilities capabilities) {
+    if (profile == null) {
+      if (maxBFrames > 0) {
+        Log.w(TAG, "B-frames require the main or high profile, ignored");
+      }
+      return;
+    }
+    String mimeType = format.getString(MediaFormat.KEY_MIME);
+    boolean avc = MediaFormat.MIMETYPE_VIDEO_AVC.equals(mimeType);
+    int profileConstant = getProfileConstant(mimeType, profile);
+    if (profileConstant == -1) {
+      Log.w(TAG, "Profile " + profile + " not supported with " + mimeType + ", ignored");
+      return;
+    }
+    int maxLevel = -1;
+    for (MediaCodecInfo.CodecProfileLevel profileLevel : capabilities.profileLevels) {
+      if (profileLevel.profile == profileConstant) {
+        maxLevel = Math.max(maxLevel, profileLevel.level);
+      }
+    }
+    if (maxLevel == -1) {
+      Log.w(TAG, "Profile " + profile + " not supported by the encoder, ignored");
+      return;
+    }
+    format.setInteger(MediaFormat.KEY_PROFILE, profileConstant);
+    if (level > 0 && !avc) {
+      Log.w(TAG, "Levels are only supported with H.264, highest level used");
+    }
+    int levelConstant = level > 0 && avc ? getAVCLevelConstant(level) : maxLevel;
+    if (levelConstant > maxLevel) {
+      Log.w(TAG, "Level " + level + " not supported with profile " + profile + ", clamped");
+      levelConstant = maxLevel;
+    }
+    format.setInteger(MediaFormat.KEY_LEVEL, levelConstant);
+
+    if (maxBFrames >= 0) {
+      if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+        Log.w(TAG, "B-frames cannot be configured before Android 10, ignored");
+      } else if (PROFILE_BASELINE.equals(profile)) {
+        Log.w(TAG, "B-frames are not supported by the baseline profile, ignored");
+      } else {
+        format.setInteger(MediaFormat.KEY_MAX_B_FRAMES, maxBFrames);
+      }
+    }
+  }
+
+  private void applyBitrateMode(MediaFormat format, MediaCodecInfo.CodecCapabilities capabilities) {
+    if (bitrateMode == null) {
+      return;
+    }
+    int mode = getBitrateModeConstant(bitrateMode);
+    MediaCodecInfo.EncoderCapabilities encoderCapabilities = capabilities.getEncoderCapabilities();
+    if (encoderCapabilities == null || !encoderCapabilities.isBitrateModeSupported(mode)) {
+      Log.w(TAG, "Bitrate mode " + bitrateMode + " not supported by the encoder, ignored");
+      return;
+    }
+    format.setInteger(MediaFormat.KEY_BITRATE_MODE, mode);
+    if (mode == MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ && quality >= 0) {
+      Range<Integer> qualityRange = encoderCapabilities.getQualityRange();
+      format.setInteger(MediaFormat.KEY_QUALITY, qualityRange.clamp(quality));
+    }
+  }
+
+  private void applyOperatingRate(MediaFormat format, MediaCodecInfo.CodecCapabilities capabilities) {
+    if (operatingRate <= 0) {
+      return;
+    }
+    MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
+    int width = format.getInteger(MediaFormat.KEY_WIDTH);
+    int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+    int rate = operatingRate;
+    try {
+      double maxRate = videoCapabilities.getSupportedFrameRatesFor(width, height).getUpper();
+      if (rate > maxRate) {
+        Log.w(TAG, "Operating rate " + rate + " not supported by the encoder, clamped");
+        rate = (int) maxRate;
+      }
+    } catch (IllegalArgumentException e) {
+      // The size is not supported, configuring the encoder will fail anyway
+    }
+    format.setInteger(MediaFormat.KEY_OPERATING_RATE, rate);
+  }
+
+  // Returns the profile constant of a mime type, -1 if the profile does not exist with it
+  private static int getProfileConstant(String mimeType, String profile) {
+    int avcProfile = getAVCProfileConstant(profile);
+    boolean baseline = avcProfile == MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
+    switch (mimeType) {
+      case MediaFormat.MIMETYPE_VIDEO_AVC:
+        return avcProfile;
+      case MediaFormat.MIMETYPE_VIDEO_HEVC:
+        return baseline ? -1 : MediaCodecInfo.CodecProfileLevel.HEVCProfileMain;
+      case MediaFormat.MIMETYPE_VIDEO_AV1:
+        return baseline ? -1 : MediaCodecInfo.CodecProfileLevel.AV1ProfileMain8;
+      default:
+        return -1;
+    }
+  }
+
+  private static int getAVCProfileConstant(String profile) {
+    switch (profile) {
+      case PROFILE_BASELINE:
+        return MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
+      case PROFILE_MAIN:
+        return MediaCodecInfo.CodecProfileLevel.AVCProfileMain;
+      case PROFILE_HIGH:
+        return MediaCodecInfo.CodecProfileLevel.AVCProfileHigh;
+      default:
+        throw new IllegalArgumentException("Unknown profile " + profile);
+    }
+  }
+
+  private static int getAVCLevelConstant(double level) {
+    for (int i = 0; i < AVC_LEVELS.length; i++) {
+      if (Math.abs(AVC_LEVELS[i] - level) < 0.01) {
+        return AVC_LEVEL_CONSTANTS[i];
+      }
+    }
+    throw new IllegalArgumentException("Unknown level " + level);
+  }
+
+  private static int getBitrateModeConstant(String bitrateMode) {
+    switch (bitrateMode) {
+      case BITRATE_MODE_VBR:
+        return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+      case BITRATE_MODE_CBR:
+        return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+      case BITRATE_MODE_CQ:
+        return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
+      default:
+        throw new IllegalArgumentException("Unknown bitrate mode " + bitrateMode);
+    }
+  }
+}
@@ -1,10 +1,16 @@
 package com.azzapp.rnskv;
 
+import android.hardware.HardwareBuffer;
+
+import androidx.annotation.Nullable;
+
 /**
- * A class to represent a video frame.
+ * A class to represent a video frame, either backed by a 2D texture or by a hardware buffer.
  */
 public class VideoFrame {
   private int texture;
+  @Nullable
+  private final HardwareBuffer hardwareBuffer;
   private final int width;
   private final int height;
   private final int rotation;
@@ -18,6 +24,22 @@ public class VideoFrame {
     long timestampNs
   ) {
     this.texture = texture;
+    this.hardwareBuffer = null;
+    this.width = width;
+    this.height = height;
+    this.rotation = rotation;
+    this.timestampNs = timestampNs;
+  }
+
+  public VideoFrame(
+    HardwareBuffer hardwareBuffer,
+    int width,
+    int height,
+    int rotation,
+    long timestampNs
+  ) {
+    this.texture = 0;
+    this.hardwareBuffer = hardwareBuffer;
     this.width = width;
     this.height = height;
     this.rotation = rotation;
@@ -28,6 +50,11 @@ public class VideoFrame {
     return texture;
   }
 
+  @Nullable
+  public HardwareBuffer getHardwareBuffer() {
+    return hardwareBuffer;
+  }
+
   public int getWidth() {
     return width;
   }
@@ -0,0 +1,182 @@
+package com.azzapp.rnskv;
+
+import java.util.Map;
+
+/**
+ * A ring of slots holding the decoded frames of a composition, used to decode frames ahead of
+ * their consumption.
+ * <p>
+ * The producer publishes the frames of a composition time into a free slot, the consumer acquires
+ * them in order. Acquiring a frame gives the slot of the previously acquired one back to the
+ * producer through the {@link OnFramesReleasedListener}, which is called on the consumer thread so
+ * that the textures of the frames can be released with a fence of the consumer context.
+ */
+public class VideoFrameRing {
+
+  private final Slot[] slots;
+
+  private long consumedIndex = -1;
+
+  private boolean released = false;
+
+  private Exception error;
+
+  private OnFramesReleasedListener onFramesReleasedListener;
+
+  /**
+   * Creates a new VideoFrameRing.
+   *
+   * @param capacity the number of slots of the ring
+   */
+  public VideoFrameRing(int capacity) {
+    slots = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Slot();
+    }
+  }
+
+  /**
+   * Sets the listener called on the consumer thread each time the frames of a slot are given back
+   * to the producer.
+   *
+   * @param onFramesReleasedListener the listener
+   */
+  public void setOnFramesReleasedListener(OnFramesReleasedListener onFramesReleasedListener) {
+    this.onFramesReleasedListener = onFramesReleasedListener;
+  }
+
+  /**
+   * Sets the index of the first frame acquired by the consumer, must be called before any frame is
+   * published.
+   *
+   * @param index the index of the first frame
+   */
+  public synchronized void setFirstIndex(long index) {
+    consumedIndex = index - 1;
+  }
+
+  /**
+   * @return the number of slots of the ring
+   */
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  /**
+   * @param index the index of the frame to produce
+   * @return true if the slot of the given frame index can be written
+   */
+  public synchronized boolean canPublish(long index) {
+    return !released && index < consumedIndex + slots.length && slotFor(index).index < index;
+  }
+
+  /**
+   * Makes the given frames available to the consumer in the slot of the given frame index.
+   *
+   * @param index  the index of the frame
+   * @param frames the decoded frames, owned by the ring until they are released
+   */
+  public synchronized void publish(long index, Map<String, VideoFrame> frames) {
+    if (released) {
+      return;
+    }
+    Slot slot = slotFor(index);
+    slot.frames = frames;
+    slot.index = index;
+    notifyAll();
+  }
+
+  /**
+   * Waits for the frames of the given index to be published. The frames previously acquired are
+   * given back to the producer, they must not be used anymore.
+   *
+   * @param index the index of the frame
+   * @return the frames
+   * @throws Exception if the producer failed or the ring was released
+   */
+  public Map<String, VideoFrame> acquire(long index) throws Exception {
+    Slot slot = slotFor(index);
+    Map<String, VideoFrame> releasedFrames = null;
+    synchronized (this) {
+      if (index != consumedIndex + 1) {
+        throw new IllegalStateException(
+          "Frames must be acquired in order, expected " + (consumedIndex + 1) + " got " + index);
+      }
+      if (consumedIndex != -1) {
+        Slot consumedSlot = slotFor(consumedIndex);
+        releasedFrames = consumedSlot.frames;
+        consumedSlot.frames = null;
+      }
+    }
+    // The frames must be released before their slot is given back to the producer
+    if (releasedFrames != null && onFramesReleasedListener != null) {
+      onFramesReleasedListener.onFramesReleased(releasedFrames);
+    }
+    synchronized (this) {
+      consumedIndex = index;
+      notifyAll();
+    }
+    if (onFramesReleasedListener != null) {
+      onFramesReleasedListener.onSlotFreed();
+    }
+    synchronized (this) {
+      while (slot.index != index) {
+        if (error != null) {
+          throw error;
+        }
+        if (released) {
+          throw new IllegalStateException("The frame ring has been released");
+        }
+        wait();
+      }
+      return slot.frames;
+    }
+  }
+
+  /**
+   * Reports an error of the producer to the consumer.
+   *
+   * @param error the error
+   */
+  public synchronized void setError(Exception error) {
+    this.error = error;
+    notifyAll();
+  }
+
+  /**
+   * Releases the ring, waking up a consumer waiting for frames.
+   */
+  public synchronized void release() {
+    released = true;
+    for (Slot slot : slots) {
+      slot.frames = null;
+    }
+    notifyAll();
+  }
+
+  private Slot slotFor(long index) {
+    return slots[(int) (index % slots.length)];
+  }
+
+  private static class Slot {
+    private long index = -1;
+    private Map<String, VideoFrame> frames;
+  }
+
+  /**
+   * A listener called on the consumer thread when frames are given back to the producer.
+   */
+  public interface OnFramesReleasedListener {
+    /**
+     * Called with the frames given back, before their slot can be written again.
+     *
+     * @param frames the frames
+     */
+    void onFramesReleased(Map<String, VideoFrame> frames);
+
+    /**
+     * Called once a slot can be written again by the producer.
+     */
+    void onSlotFreed();
+  }
+}
@@ -0,0 +1,200 @@
+package com.azzapp.rnskv;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Concatenates MPEG-4 segments encoded with the same settings into a single file without
+ * re-encoding them.
+ * <p>
+ * Each segment must start with a key frame and not reference the frames of the other segments,
+ * which is the case of segments written by distinct {@link VideoEncoder}s. The samples are copied
+ * as is, their timestamps being shifted so that each segment starts at its start time in the
+ * output.
+ * <p>
+ * The decoded audio of each segment lags its timestamps by the AAC encoder delay, the segment
+ * starting with priming silence and ending with the flush of its last samples. The audio of the
+ * segments after the first one is therefore trimmed of its priming, while the audio of a segment
+ * is kept up to the end of the next segment priming, so that the decoded audio stays continuous.
+ */
+public class VideoSegmentStitcher {
+
+  private static final int DEFAULT_MAX_SAMPLE_SIZE = 1024 * 1024;
+
+  // Number of samples per channel in an AAC frame
+  private static final int AAC_FRAME_SAMPLES = 1024;
+
+  // Priming samples of the AAC-LC encoders, used when the format does not report it
+  private static final int DEFAULT_AAC_ENCODER_DELAY = 2048;
+
+  private VideoSegmentStitcher() {
+  }
+
+  /**
+   * Concatenates the given segments, the segments are deleted once stitched.
+   *
+   * @param segmentPaths the paths of the segments in order
+   * @param startTimes   the time in seconds at which each segment starts in the output
+   * @param outputPath   the path of the file to write
+   * @throws IOException if a segment cannot be read or the output cannot be written
+   */
+  public static void stitch(
+    String[] segmentPaths,
+    double[] startTimes,
+    String outputPath
+  ) throws IOException {
+    if (segmentPaths.length == 0 || segmentPaths.length != startTimes.length) {
+      throw new IllegalArgumentException("One start time is expected per segment");
+    }
+    MediaMuxer muxer = null;
+    boolean muxerStarted = false;
+    try {
+      muxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+      MediaExtractor extractor = new MediaExtractor();
+      int videoTrack = -1;
+      int audioTrack = -1;
+      int maxSampleSize = DEFAULT_MAX_SAMPLE_SIZE;
+      long primingUs = 0;
+      long audioFrameUs = 0;
+      try {
+        extractor.setDataSource(segmentPaths[0]);
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+          MediaFormat format = extractor.getTrackFormat(i);
+          String mime = format.getString(MediaFormat.KEY_MIME);
+          if (mime == null) {
+            continue;
+          }
+          if (videoTrack == -1 && mime.startsWith("video/")) {
+            videoTrack = muxer.addTrack(format);
+            maxSampleSize = Math.max(maxSampleSize, getMaxSampleSize(format));
+          } else if (audioTrack == -1 && mime.startsWith("audio/")) {
+            audioTrack = muxer.addTrack(format);
+            maxSampleSize = Math.max(maxSampleSize, getMaxSampleSize(format));
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            primingUs = (long) getEncoderDelay(format) * 1000000 / sampleRate;
+            audioFrameUs = (long) AAC_FRAME_SAMPLES * 1000000 / sampleRate;
+          }
+        }
+      } finally {
+        extractor.release();
+      }
+      if (videoTrack == -1) {
+        throw new IOException("No video track in " + segmentPaths[0]);
+      }
+      muxer.start();
+      muxerStarted = true;
+
+      ByteBuffer buffer = ByteBuffer.allocateDirect(maxSampleSize);
+      MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+      long lastAudioTimeUs = -1;
+      for (int segment = 0; segment < segmentPaths.length; segment++) {
+        extractor = new MediaExtractor();
+        try {
+          extractor.setDataSource(segmentPaths[segment]);
+          int segmentVideoTrack = -1;
+          int segmentAudioTrack = -1;
+          for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime == null) {
+              continue;
+            }
+            if (segmentVideoTrack == -1 && mime.startsWith("video/")) {
+              segmentVideoTrack = i;
+            } else if (segmentAudioTrack == -1 && mime.startsWith("audio/") && audioTrack != -1) {
+              segmentAudioTrack = i;
+            }
+          }
+          if (segmentVideoTrack == -1) {
+            throw new IOException("No video track in " + segmentPaths[segment]);
+          }
+          // The first video sample, a key frame, is the start of the segment for both tracks
+          extractor.selectTrack(segmentVideoTrack);
+          long offsetUs = TimeHelpers.secToUs(startTimes[segment]) - extractor.getSampleTime();
+          // Half a frame of tolerance absorbs the rounding of the audio timestamps
+          long audioStartUs = segment == 0
+            ? Long.MIN_VALUE
+            : TimeHelpers.secToUs(startTimes[segment]) + primingUs - audioFrameUs / 2;
+          long audioEndUs = segment == segmentPaths.length - 1
+            ? Long.MAX_VALUE
+            : TimeHelpers.secToUs(startTimes[segment + 1]) + primingUs - audioFrameUs / 2;
+          if (segmentAudioTrack != -1) {
+            extractor.selectTrack(segmentAudioTrack);
+          }
+          extractor.seekTo(0, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+          while (true) {
+            int size = extractor.readSampleData(buffer, 0);
+            if (size < 0) {
+              break;
+            }
+            int trackIndex = extractor.getSampleTrackIndex();
+            long timeUs = extractor.getSampleTime() + offsetUs;
+            boolean video = trackIndex == segmentVideoTrack;
+            // The video samples might be reordered, the segments do not overlap anyway
+            if (video
+              || (timeUs > lastAudioTimeUs && timeUs >= audioStartUs && timeUs < audioEndUs)) {
+              int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                ? MediaCodec.BUFFER_FLAG_KEY_FRAME
+                : 0;
+              info.set(0, size, timeUs, flags);
+              muxer.writeSampleData(video ? videoTrack : audioTrack, buffer, info);
+              if (!video) {
+                lastAudioTimeUs = timeUs;
+              }
+            }
+            extractor.advance();
+          }
+        } finally {
+          extractor.release();
+        }
+      }
+    } finally {
+      if (muxer != null) {
+        if (muxerStarted) {
+          muxer.stop();
+        }
+        muxer.release();
+      }
+      discard(segmentPaths);
+    }
+  }
+
+  /**
+   * Deletes the given segments, used when the export fails before they are stitched.
+   *
+   * @param segmentPaths the paths of the segments
+   */
+  public static void discard(String[] segmentPaths) {
+    for (String segmentPath : segmentPaths) {
+      //noinspection ResultOfMethodCallIgnored
+      new File(segmentPath).delete();
+    }
+  }
+
+  private static int getEncoderDelay(MediaFormat format) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+      && format.containsKey(MediaFormat.KEY_ENCODER_DELAY)) {
+      return format.getInteger(MediaFormat.KEY_ENCODER_DELAY);
+    }
+    return DEFAULT_AAC_ENCODER_DELAY;
+  }
+
+  private static int getMaxSampleSize(MediaFormat format) {
+    if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+      return format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
+    }
+    if (format.containsKey(MediaFormat.KEY_WIDTH) && format.containsKey(MediaFormat.KEY_HEIGHT)) {
+      // An encoded frame is not larger than the raw YUV 4:2:0 frame
+      return format.getInteger(MediaFormat.KEY_WIDTH) * format.getInteger(MediaFormat.KEY_HEIGHT)
+        * 3 / 2;
+    }
+    return 0;
+  }
+}
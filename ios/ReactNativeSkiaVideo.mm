@@ -78,11 +78,13 @@ RCT_EXPORT_BLOCKING_SYNCHRONOUS_METHOD(install) {
           1,
           [bridge](jsi::Runtime& runtime, const jsi::Value& thisValue,
                    const jsi::Value* arguments, size_t count) -> jsi::Value {
-            if (count != 1 || !arguments[0].isObject()) {
+            // The second argument (options) only holds android specific
+            // options
+            if (count < 1 || !arguments[0].isObject()) {
               throw jsi::JSError(runtime,
                                  "ReactNativeSkiaVideo."
                                  "createVideoCompositionFramesExtractor(.."
-                                 ") expects one arguments (object)!");
+                                 ") expects at least one argument (object)!");
             }
 
             jsi::Object jsObject = arguments[0].asObject(runtime);
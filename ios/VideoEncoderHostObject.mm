@@ -142,31 +142,34 @@ void VideoEncoderHostObject::prepare() {
     return;
   }
 
-  // Add audio writer input - AAC with configurable settings
-  NSDictionary* audioSettings = @{
-    AVFormatIDKey : @(kAudioFormatMPEG4AAC),
-    AVSampleRateKey : @(audioSampleRate),
-    AVNumberOfChannelsKey : @(audioChannelCount),
-    AVEncoderBitRateKey : @(audioBitRate)
-  };
-  
-  audioWriterInput =
-      [AVAssetWriterInput assetWriterInputWithMediaType:AVMediaTypeAudio
-                                         outputSettings:audioSettings];
-  audioWriterInput.expectsMediaDataInRealTime = NO;
-  audioWriterInput.performsMultiPassEncodingIfSupported = YES;
-
-  if (@available(iOS 17.0, macOS 14.0, *)) {
-    NSLog(@"✅ mediaDataLocation API is available");
-    audioWriterInput.mediaDataLocation = AVAssetWriterInputMediaDataLocationBeforeMainMediaDataNotInterleaved;
-  } else {
-    NSLog(@"⚠️  Running on iOS/macOS < 17/14, mediaDataLocation not available");
-  }
-  
-  if ([assetWriter canAddInput:audioWriterInput]) {
-    [assetWriter addInput:audioWriterInput];
-  } else {
-    NSLog(@"Could not add audio input to asset writer: %@", assetWriter.error.localizedDescription);
+  // Add audio writer input - AAC with configurable settings, a video without
+  // audio track is written when there is no audio channel
+  if (audioChannelCount > 0) {
+    NSDictionary* audioSettings = @{
+      AVFormatIDKey : @(kAudioFormatMPEG4AAC),
+      AVSampleRateKey : @(audioSampleRate),
+      AVNumberOfChannelsKey : @(audioChannelCount),
+      AVEncoderBitRateKey : @(audioBitRate)
+    };
+
+    audioWriterInput =
+        [AVAssetWriterInput assetWriterInputWithMediaType:AVMediaTypeAudio
+                                           outputSettings:audioSettings];
+    audioWriterInput.expectsMediaDataInRealTime = NO;
+    audioWriterInput.performsMultiPassEncodingIfSupported = YES;
+
+    if (@available(iOS 17.0, macOS 14.0, *)) {
+      NSLog(@"✅ mediaDataLocation API is available");
+      audioWriterInput.mediaDataLocation = AVAssetWriterInputMediaDataLocationBeforeMainMediaDataNotInterleaved;
+    } else {
+      NSLog(@"⚠️  Running on iOS/macOS < 17/14, mediaDataLocation not available");
+    }
+
+    if ([assetWriter canAddInput:audioWriterInput]) {
+      [assetWriter addInput:audioWriterInput];
+    } else {
+      NSLog(@"Could not add audio input to asset writer: %@", assetWriter.error.localizedDescription);
+    }
   }
 
   [assetWriter startWriting];
@@ -1,4 +1,5 @@
-import { runOnJS } from 'react-native-reanimated';
+import { makeMutable, runOnJS } from 'react-native-reanimated';
+import type { SharedValue } from 'react-native-reanimated';
 import { Platform } from 'react-native';
 import { Skia, BlendMode } from '@shopify/react-native-skia';
 import type { SkSurface } from '@shopify/react-native-skia';
@@ -27,6 +28,11 @@ const DEFAULT_AUDIO_SAMPLE_RATE = 44100;
 const DEFAULT_AUDIO_BIT_RATE = 128000;
 const DEFAULT_AUDIO_CHANNEL_COUNT = 2;
 
+// Default key frame interval of the encoder, the segments are aligned on it
+const DEFAULT_KEY_FRAME_INTERVAL = 1;
+// Maximum number of segments exported in parallel with `segments: 'auto'`
+const MAX_AUTO_SEGMENTS = 4;
+
 export const exportVideoComposition = async <T = undefined>({
   videoComposition,
   drawFrame,
@@ -58,8 +64,11 @@ export const exportVideoComposition = async <T = undefined>({
   afterDrawFrame?: (context: T) => void;
   /**
    * The function used to mixed the audios.
+   * If `'native'`, the audios are mixed natively according to the `volume`,
+   * fades, `pan` and ducking parameters of the composition items.
+   * Native mixing is only supported on android.
    */
-  mixAudio?: AudioMixer;
+  mixAudio?: AudioMixer | 'native';
   /**
    * A callback that is called when a frame is drawn.
    * @returns
@@ -68,7 +77,161 @@ export const exportVideoComposition = async <T = undefined>({
     framesCompleted: number;
     nbFrames: number;
   }) => void;
-} & ExportOptions): Promise<void> =>
+} & ExportOptions): Promise<void> => {
+  const { frameRate, outPath } = options;
+  const nbFrames = videoComposition.duration * frameRate;
+  const keyFrameInterval =
+    options.encoderConfig?.keyFrameInterval ?? DEFAULT_KEY_FRAME_INTERVAL;
+  const boundaries = getSegmentBoundaries(
+    nbFrames,
+    Math.max(1, Math.round(frameRate * keyFrameInterval)),
+    options.segments,
+    options.encoderName,
+    options.codec
+  );
+  const params = {
+    videoComposition,
+    drawFrame,
+    beforeDrawFrame,
+    afterDrawFrame,
+    mixAudio,
+    options,
+  };
+  if (boundaries.length === 2) {
+    return exportFrames({
+      ...params,
+      outPath,
+      startFrame: 0,
+      endFrame: nbFrames,
+      onFramesCompleted: onProgress
+        ? (framesCompleted) => onProgress({ framesCompleted, nbFrames })
+        : undefined,
+    });
+  }
+
+  const segmentsFramesCompleted = boundaries.slice(1).map(() => 0);
+  const segmentPaths = segmentsFramesCompleted.map(
+    (_, i) => `${outPath}.segment${i}.mp4`
+  );
+  // The first failure cancels the other segments, which are all awaited
+  // before their files are deleted
+  const cancelled = makeMutable(false);
+  let failed = false;
+  let failure: unknown;
+  await Promise.all(
+    segmentPaths.map((segmentPath, i) =>
+      exportFrames({
+        ...params,
+        outPath: segmentPath,
+        startFrame: boundaries[i]!,
+        endFrame: boundaries[i + 1]!,
+        cancelled,
+        onFramesCompleted: onProgress
+          ? (framesCompleted) => {
+              segmentsFramesCompleted[i] = framesCompleted;
+              onProgress({
+                framesCompleted: segmentsFramesCompleted.reduce(
+                  (sum, value) => sum + value,
+                  0
+                ),
+                nbFrames,
+              });
+            }
+          : undefined,
+      }).catch((e) => {
+        if (!failed) {
+          failed = true;
+          failure = e;
+          cancelled.value = true;
+        }
+      })
+    )
+  );
+  if (failed) {
+    RNSkiaVideoModule.discardVideoSegments?.(segmentPaths);
+    throw failure;
+  }
+  const startTimes = boundaries
+    .slice(0, -1)
+    .map((boundary) => boundary / frameRate);
+  await new Promise<void>((resolve, reject) => {
+    runOnNewThread(() => {
+      'worklet';
+      try {
+        RNSkiaVideoModule.stitchVideoSegments!(
+          segmentPaths,
+          startTimes,
+          outPath
+        );
+      } catch (e) {
+        runOnJS(reject)(e);
+        return;
+      }
+      runOnJS(resolve)();
+    });
+  });
+};
+
+/**
+ * Returns the frame indexes at which the segments exported in parallel start,
+ * followed by the number of frames. The segments start on key frames.
+ */
+const getSegmentBoundaries = (
+  nbFrames: number,
+  gopFrames: number,
+  segments: ExportOptions['segments'],
+  encoderName: string | null | undefined,
+  codec: ExportOptions['codec']
+): number[] => {
+  let count = 1;
+  if (OS === 'android' && RNSkiaVideoModule.stitchVideoSegments) {
+    count =
+      segments === 'auto'
+        ? Math.min(
+            MAX_AUTO_SEGMENTS,
+            RNSkiaVideoModule.getMaxEncoderInstances?.(encoderName, codec) ?? 1
+          )
+        : Math.floor(segments ?? 1);
+  }
+  // Each segment holds at least one group of pictures
+  count = Math.max(1, Math.min(count, Math.floor(nbFrames / gopFrames)));
+  const boundaries = [0];
+  for (let i = 1; i < count; i++) {
+    const gops = Math.round((i * nbFrames) / count / gopFrames);
+    boundaries.push(gops * gopFrames);
+  }
+  boundaries.push(nbFrames);
+  return boundaries;
+};
+
+/**
+ * Exports the frames of the given range of a video composition to a video file.
+ */
+const exportFrames = <T>({
+  videoComposition,
+  drawFrame,
+  beforeDrawFrame,
+  afterDrawFrame,
+  mixAudio,
+  options,
+  outPath,
+  startFrame,
+  endFrame,
+  cancelled,
+  onFramesCompleted,
+}: {
+  videoComposition: VideoComposition;
+  drawFrame: FrameDrawer<T>;
+  beforeDrawFrame?: () => T;
+  afterDrawFrame?: (context: T) => void;
+  mixAudio?: AudioMixer | 'native';
+  options: ExportOptions;
+  outPath: string;
+  startFrame: number;
+  endFrame: number;
+  cancelled?: SharedValue<boolean>;
+  onFramesCompleted?: (framesCompleted: number) => void;
+}): Promise<void> =>
   new Promise<void>((resolve, reject) => {
     runOnNewThread(() => {
       'worklet';
@@ -79,12 +242,22 @@ export const exportVideoComposition = async <T = undefined>({
       const { width, height } = options;
 
       // Apply audio defaults
+      const audioSampleRate =
+        options.audioSampleRate ?? DEFAULT_AUDIO_SAMPLE_RATE;
+      const audioChannelCount =
+        options.audioChannelCount ?? DEFAULT_AUDIO_CHANNEL_COUNT;
+      // Without mixer or audible item, the video is exported without audio
+      // track and no audio encoder is created
+      const hasAudio =
+        mixAudio != null &&
+        audioChannelCount > 0 &&
+        videoComposition.items.some((item) => !item.muted);
       const encoderOptions: ExportOptions = {
         ...options,
-        audioSampleRate: options.audioSampleRate ?? DEFAULT_AUDIO_SAMPLE_RATE,
+        outPath,
+        audioSampleRate,
         audioBitRate: options.audioBitRate ?? DEFAULT_AUDIO_BIT_RATE,
-        audioChannelCount:
-          options.audioChannelCount ?? DEFAULT_AUDIO_CHANNEL_COUNT,
+        audioChannelCount: hasAudio ? audioChannelCount : 0,
       };
 
       try {
@@ -98,19 +271,29 @@ export const exportVideoComposition = async <T = undefined>({
 
         frameExtractor = RNSkiaVideoModule.createVideoCompositionExtractorSync(
           videoComposition,
-          encoderOptions.audioSampleRate,
-          encoderOptions.audioChannelCount
+          audioSampleRate,
+          audioChannelCount,
+          options.frameRate,
+          options.decodeLookahead,
+          startFrame / options.frameRate,
+          options.decoderActivationLookahead,
+          options.maxActiveDecoders
         );
         frameExtractor.start();
 
-        const nbFrames = videoComposition.duration * options.frameRate;
+        const nativeAudioMix = mixAudio === 'native';
+        if (nativeAudioMix && !frameExtractor.mixCompositionAudio) {
+          throw new Error('Native audio mixing is not supported on ' + OS);
+        }
+
         const canvas = surface.getCanvas();
         const clearColor = Skia.Color('#00000000');
-        for (let i = 0; i < nbFrames; i++) {
+        for (let i = startFrame; i < endFrame; i++) {
+          if (cancelled?.value) {
+            throw new Error('Export cancelled');
+          }
           const currentTime = i / options.frameRate;
           const frames = frameExtractor.decodeCompositionFrames(currentTime);
-          const audioSamples =
-            frameExtractor.decodeCompositionAudio(currentTime);
 
           canvas.drawColor(clearColor, BlendMode.Clear);
           const context = beforeDrawFrame?.() as any;
@@ -127,32 +310,36 @@ export const exportVideoComposition = async <T = undefined>({
 
           // On iOS and macOS, the first flush is not synchronous,
           // so we need to wait for the next frame
-          if (i === 0 && (OS === 'ios' || OS === 'macos')) {
+          if (i === startFrame && (OS === 'ios' || OS === 'macos')) {
             RNSkiaVideoModule.usleep?.(1000);
           }
           const texture = surface.getNativeTextureUnstable();
           encoder.encodeFrame(texture, currentTime);
 
           // Mix and encode audio
-          const mixedAudioBuffer = mixAudio?.({
-            audioSamples,
-            context,
-            currentTime,
-            videoComposition,
-          });
-          if (mixedAudioBuffer) {
-            encoder.encodeAudio(mixedAudioBuffer, currentTime);
+          if (hasAudio && nativeAudioMix) {
+            frameExtractor.mixCompositionAudio!(currentTime, encoder);
+          } else if (hasAudio && typeof mixAudio === 'function') {
+            const audioSamples =
+              frameExtractor.decodeCompositionAudio(currentTime);
+            const mixedAudioBuffer = mixAudio({
+              audioSamples,
+              context,
+              currentTime,
+              videoComposition,
+            });
+            if (mixedAudioBuffer) {
+              encoder.encodeAudio(mixedAudioBuffer, currentTime);
+            }
           }
 
           afterDrawFrame?.(context);
-          if (onProgress) {
-            runOnJS(onProgress)({
-              framesCompleted: i + 1,
-              nbFrames,
-            });
+          if (onFramesCompleted) {
+            runOnJS(onFramesCompleted)(i + 1 - startFrame);
           }
         }
       } catch (e) {
+        encoder?.dispose();
         runOnJS(reject)(e);
         return;
       } finally {
@@ -1,5 +1,8 @@
 import RNSkiaVideoModule from './RNSkiaVideoModule';
 import { Platform } from 'react-native';
+import { runOnJS } from 'react-native-reanimated';
+import type { DecoderProbeResult } from './types';
+import { runOnNewThread } from './utils/thread';
 
 export { RNSkiaVideoModule as __RNSkiaVideoPrivateAPI };
 
@@ -29,3 +32,61 @@ export const getDecodingCapabilitiesFor: typeof RNSkiaVideoModule.getDecodingCap
       );
     }
   };
+
+/**
+ * Probes the decoders of the specified mimetype, see
+ * `RNSkiaVideoModule.probeDecoders`. The probe takes up to a few seconds and
+ * runs on a worklet thread, so that the JS thread is not blocked.
+ */
+export const probeDecoders = (
+  mimetype: string,
+  width: number,
+  height: number,
+  frameRate: number
+): Promise<DecoderProbeResult[]> => {
+  if (Platform.OS !== 'android' || !RNSkiaVideoModule.probeDecoders) {
+    return Promise.reject(
+      new Error('probeDecoders is only available on Android')
+    );
+  }
+  return new Promise((resolve, reject) => {
+    runOnNewThread(() => {
+      'worklet';
+      let results: DecoderProbeResult[];
+      try {
+        results = RNSkiaVideoModule.probeDecoders!(
+          mimetype,
+          width,
+          height,
+          frameRate
+        );
+      } catch (e) {
+        runOnJS(reject)(e);
+        return;
+      }
+      runOnJS(resolve)(results);
+    });
+  });
+};
+
+export const getSyncSampleIndex = (path: string) => {
+  if (Platform.OS === 'android' && RNSkiaVideoModule.getSyncSampleIndex) {
+    return RNSkiaVideoModule.getSyncSampleIndex(path);
+  } else {
+    throw new Error('getSyncSampleIndex is only available on Android');
+  }
+};
+
+export const createThumbnailExtractor = (
+  path: string,
+  size: { width: number; height: number }
+) => {
+  if (
+    Platform.OS === 'android' &&
+    RNSkiaVideoModule.createThumbnailExtractor
+  ) {
+    return RNSkiaVideoModule.createThumbnailExtractor(path, size);
+  } else {
+    throw new Error('createThumbnailExtractor is only available on Android');
+  }
+};
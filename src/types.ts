@@ -8,8 +8,18 @@ import type { SkCanvas, SkSurface, Skia } from '@shopify/react-native-skia';
 export type VideoFrame = {
   /**
    * The native texture of the frame.
+   * Not set when the frame is backed by a hardware buffer.
    */
   texture: unknown;
+  /**
+   * The native hardware buffer of the frame, to be wrapped with
+   * `Skia.Image.MakeImageFromNativeBuffer`. Only set for the frames of a
+   * composition player created with `hardwareBuffers: true`. The buffer is
+   * only valid until the next call to `decodeCompositionFrames`, the image
+   * wrapping it must not be used afterward.
+   * @platform android
+   */
+  nativeBuffer?: unknown;
   /**
    * The width in pixels of the frame.
    */
@@ -193,6 +203,46 @@ export type VideoCompositionItem = {
    * Defaults to false.
    */
   muted?: boolean;
+  /**
+   * The gain applied to the audio of this item when using native audio mixing.
+   * Defaults to 1.
+   * @platform android
+   */
+  volume?: number;
+  /**
+   * The duration in seconds of the fade in applied at the start of the item audio
+   * when using native audio mixing.
+   * Defaults to 0.
+   * @platform android
+   */
+  fadeInDuration?: number;
+  /**
+   * The duration in seconds of the fade out applied at the end of the item audio
+   * when using native audio mixing.
+   * Defaults to 0.
+   * @platform android
+   */
+  fadeOutDuration?: number;
+  /**
+   * The stereo balance of the item audio when using native audio mixing,
+   * from -1 (left) to 1 (right).
+   * Defaults to 0.
+   * @platform android
+   */
+  pan?: number;
+  /**
+   * If true, the other items are ducked to their `duckedVolume` while this item
+   * is playing, when using native audio mixing.
+   * Defaults to false.
+   * @platform android
+   */
+  ducksOthers?: boolean;
+  /**
+   * The gain applied to the audio of this item while it is ducked by another item.
+   * Defaults to 1.
+   * @platform android
+   */
+  duckedVolume?: number;
 };
 
 /**
@@ -274,6 +324,18 @@ export type VideoCompositionFramesExtractor = {
    * @param time The position in seconds to seek to.
    */
   seekTo(time: number): void;
+  /**
+   * Starts scrubbing, the playback is paused and until `stopScrubbing` is called,
+   * seeks only decode the key frames closest to the requested position.
+   * A seek is only applied once the frames of the previous one are displayed.
+   * @platform android
+   */
+  startScrubbing?(): void;
+  /**
+   * Stops scrubbing and decodes the exact frame at the last requested position.
+   * @platform android
+   */
+  stopScrubbing?(): void;
   /**
    * Decodes the frames of the video composition items.
    * This method should only be called from the ui thread.
@@ -297,6 +359,16 @@ export type VideoCompositionFramesExtractor = {
    * Whether the video composition frames extractor is set to loop.
    */
   isLooping: boolean;
+  /**
+   * The number of decoded frames skipped because a more recent frame was already due.
+   * @platform android
+   */
+  readonly droppedFrames?: number;
+  /**
+   * The number of frames displayed after the display refresh at which they were due.
+   * @platform android
+   */
+  readonly lateFrames?: number;
   /**
    * Events dispatched by the video composition frames extractor when the extraction is ready.
    */
@@ -305,18 +377,78 @@ export type VideoCompositionFramesExtractor = {
    * Events dispatched by the video composition frames extractor process completes.
    */
   on(name: 'complete', listener: () => void): () => void;
+  /**
+   * Events dispatched by the video composition frames extractor when the first frame following
+   * a seek has been rendered, `timeToFirstFrame` is the time elapsed since the seek in milliseconds.
+   * `scrubbing` is true for the seeks performed while scrubbing.
+   */
+  on(
+    name: 'seekComplete',
+    listener: (event: { timeToFirstFrame: number; scrubbing: boolean }) => void
+  ): () => void;
   /**
    * Events dispatched by the video composition frames extractor when an error occurs.
    */
   on(name: 'error', listener: (error: any) => void): () => void;
 };
 
+/**
+ * A JPEG encoded thumbnail of a video.
+ */
+export type Thumbnail = {
+  /**
+   * The requested time of the thumbnail in seconds.
+   */
+  time: number;
+  /**
+   * The width of the thumbnail.
+   */
+  width: number;
+  /**
+   * The height of the thumbnail.
+   */
+  height: number;
+  /**
+   * The JPEG encoded image.
+   */
+  data: Uint8Array;
+};
+
+/**
+ * Extracts batches of thumbnails of a video.
+ * @platform android
+ */
+export type ThumbnailExtractor = {
+  /**
+   * Requests the thumbnails at the specified times, in seconds. Each thumbnail is taken from
+   * the closest key frame, and dispatched with the `thumbnail` event.
+   */
+  extract(times: number[]): void;
+  /**
+   * Disposes the thumbnail extractor, the pending requests are discarded.
+   */
+  dispose(): void;
+  /**
+   * Events dispatched each time a thumbnail has been extracted or read from the cache.
+   */
+  on(name: 'thumbnail', listener: (thumbnail: Thumbnail) => void): () => void;
+  /**
+   * Events dispatched once all the thumbnails of an `extract` call have been dispatched.
+   */
+  on(name: 'complete', listener: () => void): () => void;
+  /**
+   * Events dispatched when an error occurs.
+   */
+  on(name: 'error', listener: (error: any) => void): () => void;
+};
+
 /**
  * Represents an audio sample.
  */
 export type AudioSample = {
   /**
    * The audio data as an ArrayBuffer (zero-copy reference to native memory).
+   * Contains interleaved signed 16 bits PCM.
    */
   buffer: ArrayBuffer;
   /**
@@ -359,12 +491,45 @@ export type VideoCompositionExtractorSync = {
    * @returns The decoded audio samples of the composition items.
    */
   decodeCompositionAudio(currentTime: number): Record<string, AudioSample>;
+  /**
+   * Decodes the audio of the composition items at the specified time, mixes it
+   * according to the items audio parameters and encodes it with the given encoder,
+   * without exposing the audio data to JS.
+   *
+   * @platform android
+   */
+  mixCompositionAudio?(currentTime: number, encoder: VideoEncoder): void;
+  /**
+   * Returns the statistics of the pool of buffers backing the decoded audio
+   * samples, or null once the extractor is disposed.
+   *
+   * @platform android
+   */
+  getAudioBufferPoolStats?(): BufferPoolStats | null;
   /**
    * Disposes of the video composition extractor.
    */
   dispose(): void;
 };
 
+/**
+ * The statistics of a buffer pool.
+ */
+export type BufferPoolStats = {
+  /**
+   * The number of acquisitions served by a pooled buffer.
+   */
+  hitCount: number;
+  /**
+   * The number of acquisitions that required a new allocation.
+   */
+  missCount: number;
+  /**
+   * The number of bytes retained by idle buffers in the pool.
+   */
+  pooledBytes: number;
+};
+
 /**
  * @deprecated Use VideoCompositionExtractorSync instead.
  * The video composition sync extractor interface.
@@ -399,6 +564,64 @@ export type VideoEncoder = {
   dispose(): void;
 };
 
+/**
+ * The optional settings of the video encoder. Each setting is validated
+ * against the capabilities of the encoder, the unsupported ones being dropped
+ * or clamped to the closest supported value.
+ */
+export type EncoderConfig = {
+  /**
+   * The H.264 profile, `'high'` gives smaller files at equal quality. With
+   * HEVC and AV1, `'main'` and `'high'` select the main (8-bit) profile.
+   * @default the encoder default
+   */
+  profile?: 'baseline' | 'main' | 'high';
+  /**
+   * The H.264 level, for example 4.1. Requires `profile`, ignored with HEVC
+   * and AV1.
+   * @default the highest level supported with the profile
+   */
+  level?: number;
+  /**
+   * The maximum number of B-frames between two reference frames.
+   * Requires the `'main'` or `'high'` profile and Android 10.
+   * @default the encoder default
+   */
+  maxBFrames?: number;
+  /**
+   * The bitrate mode: variable, constant, or constant quality.
+   * @default the encoder default
+   */
+  bitrateMode?: 'vbr' | 'cbr' | 'cq';
+  /**
+   * The quality used with the `'cq'` bitrate mode, in the range of the encoder.
+   * @default the encoder default
+   */
+  quality?: number;
+  /**
+   * The interval between two key frames in seconds, 0 makes every frame a key
+   * frame.
+   * @default 1
+   */
+  keyFrameInterval?: number;
+  /**
+   * The rate in frames per second at which the encoder is asked to run,
+   * higher than the frame rate to encode faster than real time.
+   * @default the encoder default
+   */
+  operatingRate?: number;
+  /**
+   * The priority of the encoder.
+   * @default the encoder default
+   */
+  priority?: 'realtime' | 'bestEffort';
+};
+
+/**
+ * The codec of an exported video.
+ */
+export type VideoCodec = 'h264' | 'hevc' | 'av1';
+
 /**
  * The export options for a video composition.
  */
@@ -428,6 +651,19 @@ export type ExportOptions = {
    * @platform android
    */
   encoderName?: string | null;
+  /**
+   * The codec of the exported video. `'auto'` selects the most efficient
+   * codec whose hardware encoder supports the size of the video, see
+   * `getValidEncoderConfigurations`. AV1 requires Android 14.
+   * @default 'h264'
+   * @platform android
+   */
+  codec?: VideoCodec | 'auto';
+  /**
+   * The optional settings of the video encoder.
+   * @platform android
+   */
+  encoderConfig?: EncoderConfig;
   /**
    * The audio sample rate in Hz.
    * @default 44100
@@ -439,10 +675,67 @@ export type ExportOptions = {
    */
   audioBitRate?: number;
   /**
-   * The number of audio channels.
+   * The number of audio channels, 0 exports the video without audio track.
+   * The audio track is also left out when no `mixAudio` is given or when
+   * every item of the composition is muted.
    * @default 2 (stereo)
    */
   audioChannelCount?: number;
+  /**
+   * The number of frames decoded ahead of the frame being drawn, allowing
+   * the decoding of the next frames to overlap with the drawing and
+   * encoding of the current one. 0 disables the lookahead.
+   * @default 0
+   * @platform android
+   */
+  decodeLookahead?: number;
+  /**
+   * The duration in seconds before an item starts at which its decoder is
+   * created and started, so that its first frame is ready in time.
+   * @default 1
+   * @platform android
+   */
+  decoderActivationLookahead?: number;
+  /**
+   * The maximum number of item decoders alive at the same time. The export
+   * fails if more video items overlap at some time of the composition.
+   * @default the decoder instances limit for the media of the items, up to 8
+   * @platform android
+   */
+  maxActiveDecoders?: number;
+  /**
+   * The number of segments exported in parallel, each with its own decoders
+   * and encoder, and then stitched together without re-encoding. The segments
+   * are aligned on the key frame interval. `'auto'` uses as many segments as
+   * the encoder supports simultaneous instances, up to 4.
+   * @default 1
+   * @platform android
+   */
+  segments?: number | 'auto';
+};
+
+/**
+ * A decoder measured by `probeDecoders`.
+ */
+export type DecoderProbeResult = {
+  /**
+   * The name of the decoder.
+   */
+  decoderName: string;
+  /**
+   * Wether the decoder is hardware accelerated.
+   */
+  hardwareAccelerated: boolean;
+  /**
+   * The number of instances that could decode simultaneously at the given
+   * resolution and frame rate.
+   */
+  maxInstances: number;
+  /**
+   * The maximum number of instances reported by the decoder, regardless of
+   * resolution.
+   */
+  reportedMaxInstances: number;
 };
 
 export type RNSkiaVideoModule = {
@@ -468,13 +761,61 @@ export type RNSkiaVideoModule = {
     /**
      * The video composition to extract frames from.
      */
-    composition: VideoComposition
+    composition: VideoComposition,
+    /**
+     * The options of the frames extractor.
+     */
+    options?: {
+      /**
+       * If true, the frames are delivered as hardware buffers (see
+       * `VideoFrame.nativeBuffer`) instead of textures, sparing a copy of
+       * each frame. Requires Android 10, ignored otherwise.
+       * @platform android
+       */
+      hardwareBuffers?: boolean;
+      /**
+       * If true, the items with a `width` and `height` are decoded from low
+       * resolution proxies of their media, built in the background the
+       * first time they are needed. Until a proxy is ready, the original
+       * media is decoded.
+       * @default true
+       * @platform android
+       */
+      proxies?: boolean;
+      /**
+       * The maximum size in bytes of the cache of decoded frames, each frame
+       * taking width * height * 4 bytes. Once a part of the composition is
+       * cached, playing, looping or seeking back within it does not decode
+       * anything. Ignored with `hardwareBuffers`.
+       * @default 0 (disabled)
+       * @platform android
+       */
+      frameCacheSize?: number;
+      /**
+       * The duration in seconds before an item starts at which its decoder
+       * is created and started, so that its first frame is ready in time.
+       * @default 1
+       * @platform android
+       */
+      decoderActivationLookahead?: number;
+      /**
+       * The maximum number of item decoders alive at the same time.
+       * @default the decoder instances limit for the media of the items, up to 8
+       * @platform android
+       */
+      maxActiveDecoders?: number;
+    }
   ) => VideoCompositionFramesExtractor;
   /**
    * Creates a synchronous video composition extractor for the specified video composition.
    * @param composition The video composition.
    * @param audioSampleRate The audio sample rate for decoding (default: 44100).
    * @param audioChannelCount The number of audio channels for decoding (default: 2).
+   * @param frameRate The frame rate at which the composition will be extracted (default: 30).
+   * @param lookahead The number of frames decoded ahead of the requested one (default: 0).
+   * @param startTime The time in seconds of the first frame requested (default: 0).
+   * @param decoderActivationLookahead The duration in seconds before an item starts at which its decoder is created (default: 1).
+   * @param maxActiveDecoders The maximum number of item decoders alive at the same time.
    * @returns The video composition extractor.
    */
   createVideoCompositionExtractorSync: (
@@ -489,7 +830,37 @@ export type RNSkiaVideoModule = {
     /**
      * The number of audio channels for decoding (default: 2).
      */
-    audioChannelCount?: number
+    audioChannelCount?: number,
+    /**
+     * The frame rate at which the composition will be extracted (default: 30).
+     * Each call to `decodeCompositionAudio` returns the audio of one frame.
+     * @platform android
+     */
+    frameRate?: number,
+    /**
+     * The number of frames decoded ahead of the requested one (default: 0).
+     * When greater than 0, the frames must be requested in order, at each
+     * step of the frame rate.
+     * @platform android
+     */
+    lookahead?: number,
+    /**
+     * The time in seconds of the first frame requested (default: 0).
+     * @platform android
+     */
+    startTime?: number,
+    /**
+     * The duration in seconds before an item starts at which its decoder is
+     * created and started (default: 1).
+     * @platform android
+     */
+    decoderActivationLookahead?: number,
+    /**
+     * The maximum number of item decoders alive at the same time (default:
+     * the decoder instances limit for the media of the items).
+     * @platform android
+     */
+    maxActiveDecoders?: number
   ) => VideoCompositionExtractorSync;
 
   /**
@@ -498,6 +869,11 @@ export type RNSkiaVideoModule = {
    * @param composition The video composition.
    * @param audioSampleRate The audio sample rate for decoding (default: 44100).
    * @param audioChannelCount The number of audio channels for decoding (default: 2).
+   * @param frameRate The frame rate at which the composition will be extracted (default: 30).
+   * @param lookahead The number of frames decoded ahead of the requested one (default: 0).
+   * @param startTime The time in seconds of the first frame requested (default: 0).
+   * @param decoderActivationLookahead The duration in seconds before an item starts at which its decoder is created (default: 1).
+   * @param maxActiveDecoders The maximum number of item decoders alive at the same time.
    * @returns The video composition frames extractor.
    */
   createVideoCompositionFramesExtractorSync: (
@@ -512,7 +888,37 @@ export type RNSkiaVideoModule = {
     /**
      * The number of audio channels for decoding (default: 2).
      */
-    audioChannelCount?: number
+    audioChannelCount?: number,
+    /**
+     * The frame rate at which the composition will be extracted (default: 30).
+     * Each call to `decodeCompositionAudio` returns the audio of one frame.
+     * @platform android
+     */
+    frameRate?: number,
+    /**
+     * The number of frames decoded ahead of the requested one (default: 0).
+     * When greater than 0, the frames must be requested in order, at each
+     * step of the frame rate.
+     * @platform android
+     */
+    lookahead?: number,
+    /**
+     * The time in seconds of the first frame requested (default: 0).
+     * @platform android
+     */
+    startTime?: number,
+    /**
+     * The duration in seconds before an item starts at which its decoder is
+     * created and started (default: 1).
+     * @platform android
+     */
+    decoderActivationLookahead?: number,
+    /**
+     * The maximum number of item decoders alive at the same time (default:
+     * the decoder instances limit for the media of the items).
+     * @platform android
+     */
+    maxActiveDecoders?: number
   ) => VideoCompositionFramesExtractorSync;
 
   /**
@@ -528,11 +934,22 @@ export type RNSkiaVideoModule = {
   ) => VideoEncoder;
   /**
    * Returns the decoding capabilities of the current platform for the specified mimetype.
+   * The capabilities are those of the first hardware decoder, the maximum
+   * number of instances being lowered to the one measured by `probeDecoders`
+   * once the decoder has been probed with the given size and frame rate.
    *
    * @platform android
    * @param mimetype The mimetype of the video.
-   */
-  getDecodingCapabilitiesFor(mimetype: string): {
+   * @param width The width of the videos.
+   * @param height The height of the videos.
+   * @param frameRate The frame rate of the videos in frames per second.
+   */
+  getDecodingCapabilitiesFor(
+    mimetype: string,
+    width?: number,
+    height?: number,
+    frameRate?: number
+  ): {
     /**
      * The maximum number of instances that can be decoded simultaneously.
      */
@@ -547,20 +964,52 @@ export type RNSkiaVideoModule = {
     maxHeight: number;
   } | null;
 
+  /**
+   * Returns the decoders of the specified mimetype supporting the given
+   * resolution and frame rate, hardware decoders first, with the number of
+   * instances of each that can run simultaneously. The number of instances
+   * is measured by starting decoders, and cached until the next system
+   * update. A probe takes up to a few seconds, and should not be made while
+   * videos are being decoded: the results of a probe made while this library
+   * holds decoders are not cached.
+   *
+   * This function blocks the calling thread until the probe is complete, the
+   * exported `probeDecoders` runs it on a worklet thread and returns a
+   * promise.
+   *
+   * @platform android
+   * @param mimetype The mimetype of the videos.
+   * @param width The width of the videos.
+   * @param height The height of the videos.
+   * @param frameRate The frame rate of the videos in frames per second.
+   */
+  probeDecoders?(
+    mimetype: string,
+    width: number,
+    height: number,
+    frameRate: number
+  ): DecoderProbeResult[];
+
   /**
    * Given a set of encoder configurations,
    * returns the closest supported configurations by the platform encoders.
+   * With the `'auto'` codec the encoders of all the codecs are ranked:
+   * the configurations keeping the aspect ratio first, then hardware
+   * encoders, then those supporting the size and frame rate, then the most
+   * efficient codecs (AV1, HEVC, H.264).
    *
    * @param width The width of the video.
    * @param height The height of the video.
    * @param frameRate The frame rate of the video in frames per second.
    * @param bitRate The bit rate of the video in bits per second.
+   * @param codec The codec of the encoders, `'h264'` by default.
    */
   getValidEncoderConfigurations(
     width: number,
     height: number,
     frameRate: number,
-    bitRate: number
+    bitRate: number,
+    codec?: VideoCodec | 'auto'
   ):
     | {
         /**
@@ -568,6 +1017,11 @@ export type RNSkiaVideoModule = {
          * can be reused in the `exportVideoComposition` method.
          */
         encoderName: string;
+        /**
+         * The codec of the encoder.
+         * can be reused in the `exportVideoComposition` method.
+         */
+        codec: VideoCodec;
         /**
          * Wether the encoder supports hardware acceleration.
          */
@@ -591,6 +1045,86 @@ export type RNSkiaVideoModule = {
       }[]
     | null;
 
+  /**
+   * Returns the maximum number of instances of an encoder that can run
+   * simultaneously, 0 if the encoder is not found.
+   *
+   * @platform android
+   * @param encoderName The name of the encoder, the default encoder if not specified.
+   * @param codec The codec of the encoder, H.264 if not specified or `'auto'`.
+   */
+  getMaxEncoderInstances?(
+    encoderName?: string | null,
+    codec?: VideoCodec | 'auto'
+  ): number;
+
+  /**
+   * Concatenates video segments encoded with the same settings into a single
+   * file without re-encoding them. Each segment must start with a key frame.
+   * The segments are deleted once stitched.
+   *
+   * @platform android
+   * @param segmentPaths The paths of the segments in order.
+   * @param startTimes The time in seconds at which each segment starts in the output.
+   * @param outPath The path of the file to write.
+   */
+  stitchVideoSegments?(
+    segmentPaths: string[],
+    startTimes: number[],
+    outPath: string
+  ): void;
+
+  /**
+   * Deletes video segments that will not be stitched, when the export of
+   * one of them failed.
+   *
+   * @platform android
+   * @param segmentPaths The paths of the segments.
+   */
+  discardVideoSegments?(segmentPaths: string[]): void;
+
+  /**
+   * Returns the index of the sync samples (key frames) of the video track of the specified file,
+   * or null if it is not loaded yet. The index is then loaded from the disk cache, or built by
+   * scanning the file, in the background, and returned by a later call. It is cached on disk,
+   * keyed by the path, size and modification date of the file.
+   *
+   * @platform android
+   * @param path The path of the video file.
+   */
+  getSyncSampleIndex?(path: string): {
+    /**
+     * The presentation times of the sync samples in seconds, in ascending order.
+     */
+    syncTimes: number[];
+    /**
+     * The offsets in bytes of the sync samples in the video track sample data.
+     */
+    byteOffsets: number[];
+    /**
+     * The number of samples of the group of pictures starting at each sync sample.
+     */
+    gopSizes: number[];
+    /**
+     * The duration of the video track in seconds.
+     */
+    duration: number;
+  } | null;
+
+  /**
+   * Creates a thumbnail extractor for the specified video file.
+   * The thumbnails are scaled to fit in the specified size, and are cached in memory
+   * and on disk, keyed by the file, the key frame time and the size.
+   *
+   * @platform android
+   * @param path The path of the video file.
+   * @param size The maximum size of the thumbnails.
+   */
+  createThumbnailExtractor?(
+    path: string,
+    size: { width: number; height: number }
+  ): ThumbnailExtractor;
+
   /**
    * Runs the specified function with the JNI class loader.
    * @platform android
@@ -61,6 +61,40 @@ type UseVideoCompositionPlayerOptions<T = undefined> = {
    * Callback that is called when the composition playback completes.
    */
   onComplete?: () => void;
+  /**
+   * If true, the frames passed to `drawFrame` are backed by hardware buffers
+   * instead of textures and must be drawn from their `nativeBuffer`.
+   * Requires Android 10, ignored otherwise.
+   * @platform android
+   */
+  hardwareBuffers?: boolean;
+  /**
+   * If true, the items with a `width` and `height` are decoded from low
+   * resolution proxies of their media when available.
+   * @default true
+   * @platform android
+   */
+  proxies?: boolean;
+  /**
+   * The maximum size in bytes of the cache of decoded frames, allowing short
+   * looping compositions to be played without decoding once cached.
+   * @default 0 (disabled)
+   * @platform android
+   */
+  frameCacheSize?: number;
+  /**
+   * The duration in seconds before an item starts at which its decoder is
+   * created and started, so that its first frame is ready in time.
+   * @default 1
+   * @platform android
+   */
+  decoderActivationLookahead?: number;
+  /**
+   * The maximum number of item decoders alive at the same time.
+   * @default the decoder instances limit for the media of the items, up to 8
+   * @platform android
+   */
+  maxActiveDecoders?: number;
   /**
    * Callback that is called when an error occurs.
    * @param error the error that occurred.
@@ -71,7 +105,13 @@ type UseVideoCompositionPlayerOptions<T = undefined> = {
 
 type VideoCompositionPlayerController = Pick<
   VideoCompositionFramesExtractor,
-  'currentTime' | 'play' | 'pause' | 'seekTo' | 'isPlaying'
+  | 'currentTime'
+  | 'play'
+  | 'pause'
+  | 'seekTo'
+  | 'startScrubbing'
+  | 'stopScrubbing'
+  | 'isPlaying'
 >;
 
 type UseVideoCompositionPlayerReturnType = {
@@ -100,16 +140,36 @@ export const useVideoCompositionPlayer = ({
   onReadyToPlay,
   onComplete,
   onError,
+  hardwareBuffers = false,
+  proxies = true,
+  frameCacheSize = 0,
+  decoderActivationLookahead,
+  maxActiveDecoders,
 }: UseVideoCompositionPlayerOptions): UseVideoCompositionPlayerReturnType => {
   const [isErrored, setIsErrored] = useState(false);
   const framesExtractor = useMemo(() => {
     if (composition && !isErrored) {
       return RNSkiaVideoModule.createVideoCompositionFramesExtractor(
-        composition
+        composition,
+        {
+          hardwareBuffers,
+          proxies,
+          frameCacheSize,
+          decoderActivationLookahead,
+          maxActiveDecoders,
+        }
       );
     }
     return null;
-  }, [isErrored, composition]);
+  }, [
+    isErrored,
+    composition,
+    hardwareBuffers,
+    proxies,
+    frameCacheSize,
+    decoderActivationLookahead,
+    maxActiveDecoders,
+  ]);
 
   useEffect(() => {
     runOnUI(() => {